@@ -0,0 +1,54 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.smotana.clearflask.store.jira.AdfQuillConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion between Jira's Atlassian Document Format and Quill Delta on every synced issue and comment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdfQuillConverterBenchmark {
+
+    @Param({"3", "40"})
+    public int blocks;
+
+    private AdfQuillConverter adfQuillConverter;
+    private String quillDelta;
+    private String adf;
+
+    @Setup
+    public void setup() {
+        adfQuillConverter = BenchmarkInjector.create().getInstance(AdfQuillConverter.class);
+        quillDelta = BenchmarkFixtures.quillDelta(blocks, blocks);
+        adf = adfQuillConverter.quillToAdf(quillDelta);
+    }
+
+    @Benchmark
+    public String quillToAdf() {
+        return adfQuillConverter.quillToAdf(quillDelta);
+    }
+
+    @Benchmark
+    public String adfToQuill() {
+        return adfQuillConverter.adfToQuill(adf);
+    }
+}
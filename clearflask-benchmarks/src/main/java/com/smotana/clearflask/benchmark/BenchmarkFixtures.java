@@ -0,0 +1,370 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.smotana.clearflask.api.model.AccountFields;
+import com.smotana.clearflask.api.model.AnonymousSignup;
+import com.smotana.clearflask.api.model.Category;
+import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.api.model.Content;
+import com.smotana.clearflask.api.model.CookieConsent;
+import com.smotana.clearflask.api.model.EmailSignup;
+import com.smotana.clearflask.api.model.Expressing;
+import com.smotana.clearflask.api.model.Expression;
+import com.smotana.clearflask.api.model.Flow;
+import com.smotana.clearflask.api.model.Hits;
+import com.smotana.clearflask.api.model.IdeaStatus;
+import com.smotana.clearflask.api.model.IdeaVote;
+import com.smotana.clearflask.api.model.IdeaWithVote;
+import com.smotana.clearflask.api.model.IdeaWithVoteSearchResponse;
+import com.smotana.clearflask.api.model.Integrations;
+import com.smotana.clearflask.api.model.Layout;
+import com.smotana.clearflask.api.model.NotificationMethods;
+import com.smotana.clearflask.api.model.Onboarding;
+import com.smotana.clearflask.api.model.Palette;
+import com.smotana.clearflask.api.model.Style;
+import com.smotana.clearflask.api.model.Support;
+import com.smotana.clearflask.api.model.Tag;
+import com.smotana.clearflask.api.model.TagGroup;
+import com.smotana.clearflask.api.model.Tagging;
+import com.smotana.clearflask.api.model.Typography;
+import com.smotana.clearflask.api.model.Users;
+import com.smotana.clearflask.api.model.VoteOption;
+import com.smotana.clearflask.api.model.Voting;
+import com.smotana.clearflask.api.model.Whitelabel;
+import com.smotana.clearflask.api.model.Workflow;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generates realistic, deterministic inputs for benchmarks. Every generator takes a seed so that baseline and
+ * comparison runs measure identical data.
+ */
+public class BenchmarkFixtures {
+
+    public static final String PROJECT_ID = "benchmark-project";
+
+    private static final String[] WORDS = {
+            "dark", "mode", "export", "csv", "roadmap", "integration", "slack", "notification", "email", "digest",
+            "search", "filter", "status", "feedback", "board", "vote", "comment", "reply", "merge", "duplicate",
+            "mobile", "app", "keyboard", "shortcut", "language", "translation", "billing", "invoice", "team", "sso",
+            "please", "would", "love", "to", "see", "the", "a", "when", "it", "is", "not", "working", "after",
+            "update", "bug", "crash", "slow", "loading", "page", "🚀", "👍", "naïve", "café"};
+
+    private BenchmarkFixtures() {
+        // disable ctor
+    }
+
+    public static String words(Random random, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> WORDS[random.nextInt(WORDS.length)])
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Rich text HTML as produced by the Quill editor in the frontend, including formatting, lists, links, code blocks
+     * and a few elements that the sanitizer has to strip.
+     */
+    public static String quillHtml(long seed, int blocks) {
+        Random random = new Random(seed);
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < blocks; i++) {
+            switch (random.nextInt(9)) {
+                case 0:
+                    html.append("<h2>").append(words(random, 4)).append("</h2>");
+                    break;
+                case 1:
+                    html.append("<ul>");
+                    for (int j = 0; j < 3; j++) {
+                        html.append(j == 0 ? "<li>" : "<li class=\"ql-indent-1\">").append(words(random, 6)).append("</li>");
+                    }
+                    html.append("</ul>");
+                    break;
+                case 2:
+                    html.append("<ol><li>").append(words(random, 5)).append("</li><li>").append(words(random, 5)).append("</li></ol>");
+                    break;
+                case 3:
+                    html.append("<ul data-checked=\"true\"><li>").append(words(random, 5)).append("</li></ul>");
+                    break;
+                case 4:
+                    html.append("<blockquote>").append(words(random, 12)).append("</blockquote>");
+                    break;
+                case 5:
+                    html.append("<pre class=\"ql-syntax\" spellcheck=\"false\">if (a &lt; b) {\n  return ")
+                            .append(words(random, 2)).append(";\n}\n</pre>");
+                    break;
+                case 6:
+                    // Should be stripped by sanitizer
+                    html.append("<div onclick=\"alert(1)\">").append(words(random, 8))
+                            .append("<script>alert('").append(words(random, 1)).append("')</script></div>");
+                    break;
+                default:
+                    html.append("<div>").append(words(random, 10))
+                            .append(" <strong>").append(words(random, 2)).append("</strong>")
+                            .append(" <em><u>").append(words(random, 2)).append("</u></em> ")
+                            .append("<a href=\"https://example.com/").append(random.nextInt(1000))
+                            .append("\" rel=\"noreferrer noopener ugc\" target=\"_blank\">").append(words(random, 3)).append("</a>")
+                            .append(" <s>").append(words(random, 2)).append("</s></div>");
+            }
+        }
+        return html.toString();
+    }
+
+    /**
+     * Quill Delta JSON, the format exchanged with Jira via {@link com.smotana.clearflask.store.jira.AdfQuillConverter}.
+     */
+    public static String quillDelta(long seed, int blocks) {
+        Random random = new Random(seed);
+        JsonArray ops = new JsonArray();
+        for (int i = 0; i < blocks; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    ops.add(insert(words(random, 4), null));
+                    ops.add(insert("\n", ImmutableMap.of("header", 2)));
+                    break;
+                case 1:
+                    for (int j = 0; j < 3; j++) {
+                        ops.add(insert(words(random, 6), null));
+                        ops.add(insert("\n", ImmutableMap.of("list", random.nextBoolean() ? "bullet" : "ordered")));
+                    }
+                    break;
+                case 2:
+                    ops.add(insert(words(random, 10), null));
+                    ops.add(insert("\n", ImmutableMap.of("blockquote", true)));
+                    break;
+                case 3:
+                    ops.add(insert("return " + words(random, 2) + ";", null));
+                    ops.add(insert("\n", ImmutableMap.of("code-block", true)));
+                    break;
+                default:
+                    ops.add(insert(words(random, 8) + " ", null));
+                    ops.add(insert(words(random, 2), ImmutableMap.of("bold", true)));
+                    ops.add(insert(" " + words(random, 3) + " ", null));
+                    ops.add(insert(words(random, 2), ImmutableMap.of("italic", true, "underline", true)));
+                    ops.add(insert(" ", null));
+                    ops.add(insert(words(random, 2), ImmutableMap.of("link", "https://example.com/" + random.nextInt(1000))));
+                    ops.add(insert("\n", null));
+            }
+        }
+        JsonObject delta = new JsonObject();
+        delta.add("ops", ops);
+        return delta.toString();
+    }
+
+    public static String markdown(long seed, int blocks) {
+        Random random = new Random(seed);
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < blocks; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    markdown.append("## ").append(words(random, 4)).append("\n\n");
+                    break;
+                case 1:
+                    for (int j = 0; j < 3; j++) {
+                        markdown.append(j == 0 ? "* " : "    * ").append(words(random, 6)).append('\n');
+                    }
+                    markdown.append('\n');
+                    break;
+                case 2:
+                    markdown.append("> ").append(words(random, 12)).append("\n\n");
+                    break;
+                case 3:
+                    markdown.append("```\nif (a < b) {\n  return ").append(words(random, 2)).append(";\n}\n```\n\n");
+                    break;
+                default:
+                    markdown.append(words(random, 10))
+                            .append(" **").append(words(random, 2)).append("**")
+                            .append(" _").append(words(random, 2)).append("_ ")
+                            .append("[").append(words(random, 3)).append("](https://example.com/").append(random.nextInt(1000)).append(")")
+                            .append(" `").append(words(random, 1)).append("`\n\n");
+            }
+        }
+        return markdown.toString();
+    }
+
+    /**
+     * A typical page of the public feedback board.
+     */
+    public static IdeaWithVoteSearchResponse ideaSearchResponse(long seed, int ideaCount) {
+        Random random = new Random(seed);
+        Instant now = Instant.parse("2022-06-01T12:00:00Z");
+        List<IdeaWithVote> ideas = IntStream.range(0, ideaCount)
+                .mapToObj(i -> idea(random, now))
+                .collect(ImmutableList.toImmutableList());
+        return new IdeaWithVoteSearchResponse(
+                "CgwIxa6KpQYQgN7b3QMSEHNlYXJjaC1jdXJzb3ItMTIz",
+                ideas,
+                new Hits((long) ideaCount * 4, false));
+    }
+
+    private static IdeaWithVote idea(Random random, Instant now) {
+        boolean hasResponse = random.nextInt(4) == 0;
+        return IdeaWithVote.builder()
+                .ideaId(words(random, 3).replaceAll("[^a-z]+", "-") + "-" + randomId(random).substring(0, 5))
+                .authorUserId(randomId(random))
+                .authorName(words(random, 2))
+                .authorIsMod(random.nextInt(10) == 0)
+                .created(now.minus(random.nextInt(365 * 24), ChronoUnit.HOURS))
+                .title(words(random, 3 + random.nextInt(8)))
+                .description(quillHtml(random.nextLong(), 1 + random.nextInt(4)))
+                .response(hasResponse ? quillHtml(random.nextLong(), 1) : null)
+                .responseAuthorUserId(hasResponse ? randomId(random) : null)
+                .responseAuthorName(hasResponse ? words(random, 2) : null)
+                .responseEdited(hasResponse ? now.minus(random.nextInt(100), ChronoUnit.HOURS) : null)
+                .categoryId(randomId(random))
+                .statusId(randomId(random))
+                .tagIds(IntStream.range(0, random.nextInt(4))
+                        .mapToObj(i -> randomId(random))
+                        .collect(ImmutableList.toImmutableList()))
+                .commentCount((long) random.nextInt(40))
+                .childCommentCount((long) random.nextInt(10))
+                .voteValue((long) random.nextInt(500))
+                .expressionsValue((double) random.nextInt(50))
+                .expressions(ImmutableMap.of(
+                        "👍", (long) random.nextInt(30),
+                        "❤️", (long) random.nextInt(10)))
+                .linkedToPostIds(ImmutableList.of())
+                .linkedFromPostIds(ImmutableList.of())
+                .mergedPostIds(ImmutableList.of())
+                .vote(new IdeaVote(
+                        random.nextBoolean() ? VoteOption.UPVOTE : null,
+                        random.nextInt(5) == 0 ? ImmutableList.of("👍") : null,
+                        null))
+                .build();
+    }
+
+    /**
+     * Project config with every category having its own workflow, tags and expressions.
+     */
+    public static ConfigAdmin projectConfig(long seed, int categoryCount, int statusCount, int tagCount) {
+        Random random = new Random(seed);
+        List<Category> categories = IntStream.range(0, categoryCount)
+                .mapToObj(i -> category(random, statusCount, tagCount))
+                .collect(ImmutableList.toImmutableList());
+        return new ConfigAdmin(
+                5L,
+                PROJECT_ID,
+                null,
+                PROJECT_ID,
+                null,
+                PROJECT_ID,
+                null,
+                null,
+                null,
+                null,
+                new CookieConsent(null, null),
+                new Layout(null, ImmutableList.of(), ImmutableList.of()),
+                new Content(categories),
+                new Style(
+                        new Flow(true),
+                        new Palette(false, null, null, null, null, null, null),
+                        new Typography(null, null),
+                        null,
+                        new Whitelabel(Whitelabel.PoweredByEnum.SHOW)),
+                new Users(
+                        null,
+                        new Onboarding(
+                                Onboarding.VisibilityEnum.PUBLIC,
+                                new AccountFields(AccountFields.DisplayNameEnum.NONE),
+                                new NotificationMethods(
+                                        new AnonymousSignup(false),
+                                        true,
+                                        new EmailSignup(
+                                                EmailSignup.ModeEnum.SIGNUPANDLOGIN,
+                                                EmailSignup.PasswordEnum.NONE,
+                                                EmailSignup.VerificationEnum.NONE,
+                                                null),
+                                        null,
+                                        ImmutableList.of()),
+                                null)),
+                new Integrations(null, null, null),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null);
+    }
+
+    private static Category category(Random random, int statusCount, int tagCount) {
+        String categoryId = randomId(random);
+        List<Tag> tags = IntStream.range(0, tagCount)
+                .mapToObj(i -> new Tag(randomId(random), words(random, 1), "#aabbdd"))
+                .collect(ImmutableList.toImmutableList());
+        return Category.builder()
+                .categoryId(categoryId)
+                .name(words(random, 2))
+                .color("#aabbdd")
+                .userCreatable(true)
+                .userMergeableCategoryIds(ImmutableList.of(categoryId))
+                .workflow(new Workflow(null, IntStream.range(0, statusCount)
+                        .mapToObj(i -> new IdeaStatus(randomId(random), words(random, 1), null, "#bbddaa",
+                                false, false, false, false, false, false))
+                        .collect(ImmutableList.toImmutableList())))
+                .support(new Support(true, new Voting(true, null), new Expressing(true, ImmutableList.of(
+                        new Expression("👍", null, 1d),
+                        new Expression("❤️", null, 1d),
+                        new Expression("👎", null, -1d))), true))
+                .tagging(new Tagging(tags, ImmutableList.of(new TagGroup(
+                        randomId(random),
+                        words(random, 1),
+                        null,
+                        null,
+                        true,
+                        tags.stream()
+                                .map(Tag::getTagId)
+                                .collect(ImmutableList.toImmutableList())))))
+                .build();
+    }
+
+    /**
+     * Bloom filter of the kind stored per user to remember votes and expressions.
+     */
+    public static BloomFilter<CharSequence> bloomFilter(long seed, int entries, double fpp) {
+        Random random = new Random(seed);
+        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), entries, fpp);
+        for (int i = 0; i < entries; i++) {
+            bloomFilter.put(randomId(random));
+        }
+        return bloomFilter;
+    }
+
+    public static String randomId(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+    }
+
+    private static JsonObject insert(String text, ImmutableMap<String, Object> attributes) {
+        JsonObject op = new JsonObject();
+        op.addProperty("insert", text);
+        if (attributes != null) {
+            JsonObject attrs = new JsonObject();
+            attributes.forEach((key, value) -> {
+                if (value instanceof Boolean) {
+                    attrs.addProperty(key, (Boolean) value);
+                } else if (value instanceof Number) {
+                    attrs.addProperty(key, (Number) value);
+                } else {
+                    attrs.addProperty(key, value.toString());
+                }
+            });
+            op.add("attributes", attrs);
+        }
+        return op;
+    }
+}
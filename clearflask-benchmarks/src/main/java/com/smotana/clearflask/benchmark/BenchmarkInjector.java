@@ -0,0 +1,95 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigConfigurator;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.convert.MoreConfigValueConverters;
+import com.smotana.clearflask.core.ServiceInjector;
+import com.smotana.clearflask.core.ServiceManagerProvider;
+import com.smotana.clearflask.core.image.ImageNormalizationImpl;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoProjectStore;
+import com.smotana.clearflask.store.jira.AdfQuillConverter;
+import com.smotana.clearflask.util.ConfigSchemaUpgrader;
+import com.smotana.clearflask.util.DefaultServerSecret;
+import com.smotana.clearflask.util.GsonProvider;
+import com.smotana.clearflask.util.IntercomUtil;
+import com.smotana.clearflask.util.MarkdownAndQuillUtil;
+import com.smotana.clearflask.util.ProjectUpgrader;
+import com.smotana.clearflask.web.Application;
+import com.smotana.clearflask.web.security.Sanitizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+
+/**
+ * Minimal injector for benchmarks, wired the same way as server tests but only with the classes under benchmark.
+ * Network-backed dependencies are mocked out, stores backed by DynamoDB are served from a mocked client.
+ */
+public class BenchmarkInjector {
+
+    public static final Named CURSOR_SECRET_NAME = Names.named("cursor");
+    /** Random key only used for benchmarking */
+    private static final String CURSOR_SHARED_KEY = "Xv1fbrMfHO9xTC3FhZ2ALDdTnTKFAvBCMPYsTyMCjc8=";
+
+    private BenchmarkInjector() {
+        // disable ctor
+    }
+
+    public static Injector create() {
+        return Guice.createInjector(Stage.PRODUCTION, new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ServiceInjector.Environment.class).toInstance(ServiceInjector.Environment.TEST);
+                install(GsonProvider.module());
+                install(ConfigConfigurator.testModules());
+                install(MoreConfigValueConverters.module());
+
+                ContentStore contentStore = Mockito.mock(ContentStore.class);
+                Mockito.when(contentStore.getScheme()).thenReturn("https");
+                bind(ContentStore.class).toInstance(contentStore);
+
+                install(ImageNormalizationImpl.module());
+                install(ServiceManagerProvider.module());
+                bind(MeterRegistry.class).toInstance(new SimpleMeterRegistry());
+                install(Application.module());
+
+                bind(AmazonDynamoDB.class).toInstance(Mockito.mock(AmazonDynamoDB.class));
+                bind(DynamoDB.class).toInstance(Mockito.mock(DynamoDB.class));
+                bind(ConfigSchemaUpgrader.class).toInstance(Mockito.mock(ConfigSchemaUpgrader.class));
+                bind(ProjectUpgrader.class).toInstance(Mockito.mock(ProjectUpgrader.class));
+                install(SingleTableProvider.module());
+                install(IntercomUtil.module());
+                install(DynamoProjectStore.module());
+
+                install(MarkdownAndQuillUtil.module());
+                install(AdfQuillConverter.module());
+                install(Modules.override(
+                        Sanitizer.module(),
+                        DefaultServerSecret.module(CURSOR_SECRET_NAME)
+                ).with(new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        install(ConfigSystem.overrideModule(Sanitizer.Config.class, om -> {
+                            om.override(om.id().htmlSanitizerEnabled()).withValue(true);
+                        }));
+                        install(ConfigSystem.overrideModule(DefaultServerSecret.Config.class, CURSOR_SECRET_NAME, om -> {
+                            om.override(om.id().sharedKey()).withValue(CURSOR_SHARED_KEY);
+                        }));
+                    }
+                }));
+            }
+        });
+    }
+}
@@ -0,0 +1,178 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lombok.Value;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Runs the JMH suites, writes the JSON result and compares it against a previously published baseline.
+ * <p>
+ * Arguments:
+ * <ul>
+ *     <li>--result=file: Where to write the JMH JSON result</li>
+ *     <li>--baseline=file: Baseline JMH JSON result to compare against</li>
+ *     <li>--tolerance=0.10: Relative slowdown allowed before a benchmark is reported as regressed</li>
+ *     <li>--update-baseline: Copy the result over the baseline after the run</li>
+ *     <li>--compare-only: Skip running and only compare an existing result against the baseline</li>
+ *     <li>--prof=gc: JMH profiler to attach, e.g. "gc" for allocation rates, may be repeated</li>
+ *     <li>Any other argument is a regex of benchmarks to include, e.g. "Sanitizer"</li>
+ * </ul>
+ * Benchmarks requiring external services, see {@link #EXTERNAL_BENCHMARKS}, only run when explicitly included.
+ * Exits with status 1 if any benchmark regressed.
+ */
+public class BenchmarkRunner {
+
+    static final ImmutableList<Class<?>> EXTERNAL_BENCHMARKS = ImmutableList.of(
+            MysqlIndexWriteBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        Path result = Paths.get("target", "jmh-result.json");
+        Optional<Path> baselineOpt = Optional.empty();
+        double tolerance = 0.10;
+        boolean updateBaseline = false;
+        boolean compareOnly = false;
+        ImmutableList.Builder<String> includesBuilder = ImmutableList.builder();
+        ImmutableList.Builder<String> profilersBuilder = ImmutableList.builder();
+        for (String arg : args) {
+            if (Strings.isNullOrEmpty(arg)) {
+                continue;
+            } else if (arg.startsWith("--result=")) {
+                result = Paths.get(arg.substring("--result=".length()));
+            } else if (arg.startsWith("--baseline=")) {
+                baselineOpt = Optional.ofNullable(Strings.emptyToNull(arg.substring("--baseline=".length())))
+                        .map(Paths::get);
+            } else if (arg.startsWith("--tolerance=")) {
+                tolerance = Double.parseDouble(arg.substring("--tolerance=".length()));
+            } else if (arg.equals("--update-baseline")) {
+                updateBaseline = true;
+            } else if (arg.equals("--compare-only")) {
+                compareOnly = true;
+            } else if (arg.startsWith("--prof=")) {
+                profilersBuilder.add(arg.substring("--prof=".length()));
+            } else {
+                includesBuilder.add(arg);
+            }
+        }
+
+        if (!compareOnly) {
+            Optional.ofNullable(result.toAbsolutePath().getParent()).ifPresent(BenchmarkRunner::createDirectories);
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.toString());
+            ImmutableList<String> includes = includesBuilder.build();
+            if (includes.isEmpty()) {
+                options.include(BenchmarkRunner.class.getPackageName() + ".*Benchmark");
+                EXTERNAL_BENCHMARKS.forEach(c -> options.exclude(c.getName()));
+            } else {
+                includes.forEach(options::include);
+            }
+            profilersBuilder.build().forEach(options::addProfiler);
+            new Runner(options.build()).run();
+        }
+
+        if (baselineOpt.isEmpty()) {
+            return;
+        }
+        Path baseline = baselineOpt.get();
+        if (updateBaseline) {
+            Optional.ofNullable(baseline.toAbsolutePath().getParent()).ifPresent(BenchmarkRunner::createDirectories);
+            Files.copy(result, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Baseline updated at " + baseline);
+            return;
+        }
+        if (!Files.exists(baseline)) {
+            System.out.println("No baseline found at " + baseline + ", skipping comparison");
+            return;
+        }
+        if (compare(read(baseline), read(result), tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return true if any benchmark regressed beyond the tolerance
+     */
+    static boolean compare(ImmutableMap<String, Score> baseline, ImmutableMap<String, Score> current, double tolerance) {
+        boolean regressed = false;
+        System.out.printf("%n%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score currentScore = entry.getValue();
+            Score baselineScore = baseline.get(entry.getKey());
+            if (baselineScore == null || !baselineScore.getUnit().equals(currentScore.getUnit())) {
+                System.out.printf("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", currentScore.getScore(), "new");
+                continue;
+            }
+            // Positive change is always an improvement regardless of whether lower or higher is better
+            double change = (currentScore.isHigherBetter()
+                    ? currentScore.getScore() - baselineScore.getScore()
+                    : baselineScore.getScore() - currentScore.getScore())
+                    / baselineScore.getScore();
+            boolean isRegression = change < -tolerance;
+            regressed |= isRegression;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), baselineScore.getScore(),
+                    currentScore.getScore(), change * 100, isRegression ? " REGRESSED" : "");
+        }
+        baseline.keySet().stream()
+                .filter(key -> !current.containsKey(key))
+                .forEach(key -> System.out.printf("%-90s %14.3f %14s %9s%n", key, baseline.get(key).getScore(), "-", "missing"));
+        return regressed;
+    }
+
+    static ImmutableMap<String, Score> read(Path jmhResultJson) throws IOException {
+        TreeMap<String, Score> scores = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(jmhResultJson, Charsets.UTF_8)) {
+            for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder keyBuilder = new StringBuilder(run.get("benchmark").getAsString());
+                if (run.has("params")) {
+                    new TreeMap<>(run.getAsJsonObject("params").asMap()).forEach((name, value) ->
+                            keyBuilder.append(' ').append(name).append('=').append(value.getAsString()));
+                }
+                String mode = run.get("mode").getAsString();
+                keyBuilder.append(" (").append(mode).append(')');
+                JsonObject primaryMetric = run.getAsJsonObject("primaryMetric");
+                scores.put(keyBuilder.toString(), new Score(
+                        primaryMetric.get("score").getAsDouble(),
+                        primaryMetric.get("scoreUnit").getAsString(),
+                        "thrpt".equals(mode)));
+            }
+        }
+        return ImmutableMap.copyOf(scores);
+    }
+
+    private static void createDirectories(Path dir) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Value
+    static class Score {
+        double score;
+        String unit;
+        boolean higherBetter;
+    }
+}
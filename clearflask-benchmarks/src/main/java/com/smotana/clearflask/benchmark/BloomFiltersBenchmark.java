@@ -0,0 +1,80 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.smotana.clearflask.util.BloomFilters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User vote and expression bloom filters are deserialized on most idea and comment reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BloomFiltersBenchmark {
+
+    private static final int LOOKUP_COUNT = 50;
+
+    /** Default expected insertions for a user vs a very active user */
+    @Param({"200", "100000"})
+    public int entries;
+
+    private BloomFilter<CharSequence> bloomFilter;
+    private byte[] bloomFilterBytes;
+    private String[] lookupIds;
+
+    @Setup
+    public void setup() {
+        bloomFilter = BenchmarkFixtures.bloomFilter(entries, entries, 0.001);
+        bloomFilterBytes = BloomFilters.toByteArray(bloomFilter);
+        Random random = new Random(entries);
+        lookupIds = new String[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            lookupIds[i] = BenchmarkFixtures.randomId(random);
+        }
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return BloomFilters.toByteArray(bloomFilter);
+    }
+
+    @Benchmark
+    public BloomFilter<CharSequence> fromByteArray() {
+        return BloomFilters.fromByteArray(bloomFilterBytes, Funnels.stringFunnel(Charsets.UTF_8));
+    }
+
+    /**
+     * Deserialize and check a search page worth of ideas, as done when returning vote status.
+     */
+    @Benchmark
+    public int fromByteArrayAndCheckPage() {
+        BloomFilter<CharSequence> deserialized = BloomFilters.fromByteArray(bloomFilterBytes, Funnels.stringFunnel(Charsets.UTF_8));
+        int matches = 0;
+        for (String lookupId : lookupIds) {
+            if (deserialized.mightContain(lookupId)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
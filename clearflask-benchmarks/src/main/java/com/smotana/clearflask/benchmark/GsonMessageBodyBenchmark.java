@@ -0,0 +1,102 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.smotana.clearflask.api.model.IdeaWithVoteSearchResponse;
+import com.smotana.clearflask.web.GsonMessageBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialization of the idea search response, the largest and most frequent response of the public board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonMessageBodyBenchmark {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    /** Page size of the public board vs the maximum page size */
+    @Param({"10", "50"})
+    public int ideaCount;
+
+    private Gson gson;
+    private GsonMessageBody gsonMessageBody;
+    private IdeaWithVoteSearchResponse response;
+    private byte[] responseBytes;
+    private ByteArrayOutputStream outputStream;
+
+    @Setup
+    public void setup() throws IOException {
+        gson = BenchmarkInjector.create().getInstance(Gson.class);
+        gsonMessageBody = new GsonMessageBody(gson);
+        response = BenchmarkFixtures.ideaSearchResponse(ideaCount, ideaCount);
+        outputStream = new ByteArrayOutputStream(64 * 1024);
+        write();
+        responseBytes = outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        outputStream.reset();
+        gsonMessageBody.writeTo(response, IdeaWithVoteSearchResponse.class, IdeaWithVoteSearchResponse.class,
+                NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), outputStream);
+        return outputStream.size();
+    }
+
+    /**
+     * Previous implementation writing through an unbuffered OutputStreamWriter, kept for comparison.
+     */
+    @Benchmark
+    public int writeUnbuffered() throws IOException {
+        outputStream.reset();
+        try (OutputStreamWriter writer = new OutputStreamWriter(outputStream, Charsets.UTF_8)) {
+            gson.toJson(response, IdeaWithVoteSearchResponse.class, writer);
+        }
+        return outputStream.size();
+    }
+
+    /**
+     * Response as sent to clients accepting gzip, see GzipWriterInterceptor.
+     */
+    @Benchmark
+    public int writeGzip() throws IOException {
+        outputStream.reset();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192);
+        gsonMessageBody.writeTo(response, IdeaWithVoteSearchResponse.class, IdeaWithVoteSearchResponse.class,
+                NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), gzipOutputStream);
+        return outputStream.size();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Object read() throws IOException {
+        return gsonMessageBody.readFrom((Class<Object>) (Class<?>) IdeaWithVoteSearchResponse.class, IdeaWithVoteSearchResponse.class,
+                NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), new ByteArrayInputStream(responseBytes));
+    }
+}
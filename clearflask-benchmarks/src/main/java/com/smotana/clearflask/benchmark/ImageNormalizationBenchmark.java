@@ -0,0 +1,91 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.core.image.ImageNormalization;
+import com.smotana.clearflask.core.image.SpooledImageUpload;
+import com.smotana.clearflask.store.ContentStore.ImageVariant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image upload compared against decoding the photo at full resolution, as done prior to subsampling. Allocation is
+ * the main concern for large photos, run with "--prof=gc" to compare it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ImageNormalizationBenchmark {
+
+    private static final int SPOOL_MEMORY_THRESHOLD_BYTES = 1024 * 1024;
+
+    /** Photo width, a typical phone screenshot vs a 40MP camera photo, height is 5/8 of the width */
+    @Param({"2000", "8000"})
+    public int width;
+
+    private ImageNormalization normalization;
+    private byte[] imgBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        normalization = BenchmarkInjector.create().getInstance(ImageNormalization.class);
+        imgBytes = generateJpeg(width, width * 5 / 8);
+    }
+
+    @Benchmark
+    public ImmutableMap<ImageVariant, ImageNormalization.Image> normalizeVariants() throws IOException {
+        try (SpooledImageUpload upload = SpooledImageUpload.spool(new ByteArrayInputStream(imgBytes), imgBytes.length, SPOOL_MEMORY_THRESHOLD_BYTES);
+             ImageInputStream iis = upload.openImageInputStream()) {
+            return normalization.normalizeVariants(iis).orElseThrow();
+        }
+    }
+
+    @Benchmark
+    public byte[] fullDecode() throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imgBytes));
+        BufferedImage convertedImage = new BufferedImage(1024, 640, BufferedImage.TYPE_INT_RGB);
+        convertedImage.createGraphics().drawImage(image, 0, 0, 1024, 640, Color.WHITE, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(convertedImage, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] generateJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.WHITE);
+        for (int x = 0; x < width; x += 50) {
+            graphics.drawLine(x, 0, width - x, height);
+        }
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
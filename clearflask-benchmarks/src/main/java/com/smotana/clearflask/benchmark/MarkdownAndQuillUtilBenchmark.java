@@ -0,0 +1,54 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.smotana.clearflask.util.MarkdownAndQuillUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Markdown conversion used by GitHub/GitLab sync and the LLM integration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkdownAndQuillUtilBenchmark {
+
+    @Param({"3", "40"})
+    public int blocks;
+
+    private MarkdownAndQuillUtil markdownAndQuillUtil;
+    private String markdown;
+    private String html;
+
+    @Setup
+    public void setup() {
+        markdownAndQuillUtil = BenchmarkInjector.create().getInstance(MarkdownAndQuillUtil.class);
+        markdown = BenchmarkFixtures.markdown(blocks, blocks);
+        html = BenchmarkFixtures.quillHtml(blocks, blocks);
+    }
+
+    @Benchmark
+    public String markdownToQuill() {
+        return markdownAndQuillUtil.markdownToQuill(BenchmarkFixtures.PROJECT_ID, "post", "benchmark-post", markdown);
+    }
+
+    @Benchmark
+    public String quillToMarkdown() {
+        return markdownAndQuillUtil.quillToMarkdown(html);
+    }
+}
@@ -0,0 +1,188 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ServiceManager;
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.ServiceManagerProvider;
+import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
+import com.smotana.clearflask.store.mysql.MysqlUtil;
+import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
+import com.smotana.clearflask.store.mysql.model.tables.JooqIdeaTags;
+import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaRecord;
+import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaTagsRecord;
+import com.smotana.clearflask.web.Application;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writing posts to the MySQL search index, one statement per round trip as done previously versus
+ * {@link MysqlUtil#sequentialBatch} per post and for a whole group of posts.
+ * <p>
+ * Requires a running MySQL instance and is therefore not part of the default run, e.g.:
+ * <pre>
+ * docker run --rm -p 3306:3306 -e MYSQL_ROOT_PASSWORD=benchmark mysql:8
+ * make benchmark-mysql
+ * </pre>
+ * Connection defaults to the above and can be changed with system properties mysql.host, mysql.port, mysql.user
+ * and mysql.pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MysqlIndexWriteBenchmark {
+
+    private static final int TAGS_PER_IDEA = 3;
+
+    @Param({"1", "25"})
+    public int ideaCount;
+
+    private ServiceManager serviceManager;
+    private DSLContext mysql;
+    private MysqlUtil mysqlUtil;
+    private Random random;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkInjector.create().createChildInjector(
+                ServiceManagerProvider.module(),
+                MysqlUtil.module(),
+                Modules.override(
+                        DefaultMysqlProvider.module()
+                ).with(new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        bind(MeterRegistry.class).toInstance(new SimpleMeterRegistry());
+                        install(ConfigSystem.configModule(Application.Config.class));
+                        install(ConfigSystem.overrideModule(Application.Config.class, om -> {
+                            om.override(om.id().defaultSearchEngine()).withValue(SearchEngine.READWRITE_MYSQL);
+                            om.override(om.id().createIndexesOnStartup()).withValue(true);
+                        }));
+                        install(ConfigSystem.overrideModule(DefaultMysqlProvider.Config.class, om -> {
+                            om.override(om.id().host()).withValue(System.getProperty("mysql.host", "localhost"));
+                            om.override(om.id().port()).withValue(Integer.getInteger("mysql.port", 3306));
+                            om.override(om.id().user()).withValue(System.getProperty("mysql.user", "root"));
+                            om.override(om.id().pass()).withValue(System.getProperty("mysql.pass", "benchmark"));
+                            om.override(om.id().databaseName()).withValue("clearflask_benchmark");
+                            om.override(om.id().recreateDatabaseOnStartup()).withValue(true);
+                            om.override(om.id().dropDatabaseOnShutdown()).withValue(true);
+                        }));
+                    }
+                }));
+        serviceManager = injector.getInstance(ServiceManager.class);
+        serviceManager.startAsync().awaitHealthy();
+        mysql = injector.getInstance(DSLContext.class);
+        mysqlUtil = injector.getInstance(MysqlUtil.class);
+        mysql.ddl(JooqIdea.IDEA, JooqIdeaTags.IDEA_TAGS).executeBatch();
+        random = new Random(ideaCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serviceManager.stopAsync().awaitStopped();
+    }
+
+    @Benchmark
+    public int perStatement() {
+        int count = 0;
+        for (int i = 0; i < ideaCount; i++) {
+            for (Query query : ideaQueries(ImmutableList.of(ideaRecord()), false)) {
+                count += query.execute();
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int batchPerIdea() {
+        int count = 0;
+        for (int i = 0; i < ideaCount; i++) {
+            count += mysqlUtil.sequentialBatchSync(ideaQueries(ImmutableList.of(ideaRecord()), true));
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int batchAllIdeas() {
+        ImmutableList.Builder<JooqIdeaRecord> ideasBuilder = ImmutableList.builder();
+        for (int i = 0; i < ideaCount; i++) {
+            ideasBuilder.add(ideaRecord());
+        }
+        return mysqlUtil.sequentialBatchSync(ideaQueries(ideasBuilder.build(), true));
+    }
+
+    private List<Query> ideaQueries(ImmutableList<JooqIdeaRecord> ideas, boolean multiRow) {
+        ImmutableList<JooqIdeaTagsRecord> tags = ideas.stream()
+                .flatMap(idea -> Stream.generate(() -> JooqIdeaTags.IDEA_TAGS.newRecord().values(
+                                idea.getProjectid(),
+                                idea.getPostid(),
+                                BenchmarkFixtures.randomId(random)))
+                        .limit(TAGS_PER_IDEA))
+                .collect(ImmutableList.toImmutableList());
+        if (multiRow) {
+            return Stream.of(mysqlUtil.upsert(ideas), mysqlUtil.upsert(tags))
+                    .flatMap(Optional::stream)
+                    .collect(ImmutableList.toImmutableList());
+        }
+        return Stream.concat(
+                        ideas.stream().map(idea -> mysql.insertInto(JooqIdea.IDEA, JooqIdea.IDEA.fields())
+                                .values(idea)
+                                .onDuplicateKeyUpdate()
+                                .set(idea)),
+                        tags.stream().map(tag -> mysql.insertInto(JooqIdeaTags.IDEA_TAGS, JooqIdeaTags.IDEA_TAGS.fields())
+                                .values(tag)
+                                .onDuplicateKeyUpdate()
+                                .set(tag)))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private JooqIdeaRecord ideaRecord() {
+        JooqIdeaRecord ideaRecord = JooqIdea.IDEA.newRecord();
+        ideaRecord.setProjectid(BenchmarkFixtures.PROJECT_ID);
+        ideaRecord.setPostid(BenchmarkFixtures.randomId(random));
+        ideaRecord.setAuthoruserid(BenchmarkFixtures.randomId(random));
+        ideaRecord.setAuthorname(BenchmarkFixtures.words(random, 2));
+        ideaRecord.setAuthorismod(false);
+        ideaRecord.setCreated(Instant.now());
+        ideaRecord.setLastactivity(Instant.now());
+        ideaRecord.setTitle(BenchmarkFixtures.words(random, 6));
+        ideaRecord.setDescription(BenchmarkFixtures.words(random, 60));
+        ideaRecord.setCategoryid(BenchmarkFixtures.randomId(random));
+        ideaRecord.setStatusid(BenchmarkFixtures.randomId(random));
+        ideaRecord.setCommentcount(0L);
+        ideaRecord.setChildcommentcount(0L);
+        ideaRecord.setVotevalue(1L);
+        ideaRecord.setVoterscount(1L);
+        ideaRecord.setTrendscore(random.nextDouble());
+        return ideaRecord;
+    }
+}
@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.inject.Injector;
+import com.smotana.clearflask.api.model.Category;
+import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.api.model.Expression;
+import com.smotana.clearflask.api.model.IdeaStatus;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.store.ProjectStore.ProjectModel;
+import com.smotana.clearflask.store.VoteStore.VoteValue;
+import io.dataspray.singletable.SingleTable;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Project lookups done on every request, e.g. voting on a post checks its category, status and tags. Compares the
+ * precomputed lookup tables of the cached project against scanning its config.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectLookupBenchmark {
+
+    /** Number of categories: a single feedback board vs a full roadmap */
+    @Param({"3", "20"})
+    public int categoryCount;
+
+    private ProjectStore projectStore;
+    private String categoryId;
+    private String statusId;
+    private String tagId;
+
+    @Setup
+    public void setup() {
+        Injector injector = BenchmarkInjector.create();
+        projectStore = injector.getInstance(ProjectStore.class);
+        ConfigAdmin configAdmin = BenchmarkFixtures.projectConfig(categoryCount, categoryCount, 10, 20);
+        ProjectModel projectModel = new ProjectModel(
+                "benchmark-account",
+                ImmutableSet.of(),
+                BenchmarkFixtures.PROJECT_ID,
+                "version",
+                null,
+                ImmutableSet.of(),
+                injector.getInstance(Gson.class).toJson(configAdmin),
+                null);
+        Mockito.when(injector.getInstance(AmazonDynamoDB.class).getItem(Mockito.any(GetItemRequest.class)))
+                .thenReturn(new GetItemResult().withItem(ItemUtils.toAttributeValues(injector.getInstance(SingleTable.class)
+                        .parseTableSchema(ProjectModel.class)
+                        .toItem(projectModel))));
+
+        // Last of each to make scanning pay the full cost
+        Category category = configAdmin.getContent().getCategories().get(categoryCount - 1);
+        categoryId = category.getCategoryId();
+        statusId = category.getWorkflow().getStatuses().get(category.getWorkflow().getStatuses().size() - 1).getStatusId();
+        tagId = category.getTagging().getTags().get(category.getTagging().getTags().size() - 1).getTagId();
+        projectStore.getProject(BenchmarkFixtures.PROJECT_ID, true).orElseThrow();
+    }
+
+    @Benchmark
+    public void lookup(Blackhole blackhole) {
+        Project project = projectStore.getProject(BenchmarkFixtures.PROJECT_ID, true).get();
+        blackhole.consume(project.getCategory(categoryId));
+        blackhole.consume(project.getStatus(categoryId, statusId));
+        blackhole.consume(project.getTag(categoryId, tagId));
+        blackhole.consume(project.isVotingAllowed(VoteValue.Upvote, categoryId, Optional.of(statusId)));
+        blackhole.consume(project.getCategoryExpressionWeight(categoryId, "👍"));
+    }
+
+    @Benchmark
+    public void lookupByScan(Blackhole blackhole) {
+        Project project = projectStore.getProject(BenchmarkFixtures.PROJECT_ID, true).get();
+        Optional<Category> categoryOpt = project.getVersionedConfigAdmin().getConfig().getContent().getCategories().stream()
+                .filter(c -> categoryId.equals(c.getCategoryId()))
+                .findFirst();
+        blackhole.consume(categoryOpt);
+        Optional<IdeaStatus> statusOpt = categoryOpt.flatMap(c -> c.getWorkflow().getStatuses().stream()
+                .filter(s -> statusId.equals(s.getStatusId()))
+                .findFirst());
+        blackhole.consume(statusOpt);
+        blackhole.consume(categoryOpt.flatMap(c -> c.getTagging().getTags().stream()
+                .filter(t -> tagId.equals(t.getTagId()))
+                .findFirst()));
+        blackhole.consume(categoryOpt.get().getSupport().getVote() != null
+                && statusOpt.get().getDisableVoting() != Boolean.TRUE);
+        blackhole.consume(categoryOpt.get().getSupport().getExpress().getLimitEmojiSet().stream()
+                .filter(e -> "👍".equals(e.getDisplay()))
+                .findFirst()
+                .map(Expression::getWeight)
+                .orElse(1d));
+    }
+}
@@ -0,0 +1,53 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.smotana.clearflask.web.security.Sanitizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every post, comment and response is sanitized on write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SanitizerBenchmark {
+
+    /** Number of Quill blocks: a short comment vs a long post */
+    @Param({"3", "40"})
+    public int blocks;
+
+    private Sanitizer sanitizer;
+    private String html;
+
+    @Setup
+    public void setup() {
+        sanitizer = BenchmarkInjector.create().getInstance(Sanitizer.class);
+        html = BenchmarkFixtures.quillHtml(blocks, blocks);
+    }
+
+    @Benchmark
+    public String richHtml() {
+        return sanitizer.richHtml(html, "post", "benchmark-post", BenchmarkFixtures.PROJECT_ID, true);
+    }
+
+    @Benchmark
+    public String richHtmlToPlaintext() {
+        return sanitizer.richHtmlToPlaintext(html);
+    }
+}
@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.WilsonScoreInterval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trending and vote ranking scores, recomputed on every vote and expression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoreBenchmark {
+
+    private static final int INPUT_COUNT = 1024;
+
+    private ExpDecayScore expDecayScore;
+    private WilsonScoreInterval wilsonScoreInterval;
+    private double[] prevScores;
+    private long[] timesMillis;
+    private int[] trials;
+    private int[] successes;
+    private int index;
+
+    @Setup
+    public void setup() {
+        expDecayScore = new ExpDecayScore(Duration.ofDays(7));
+        wilsonScoreInterval = new WilsonScoreInterval(0.95);
+        Random random = new Random(INPUT_COUNT);
+        long now = 1654084800000L;
+        prevScores = new double[INPUT_COUNT];
+        timesMillis = new long[INPUT_COUNT];
+        trials = new int[INPUT_COUNT];
+        successes = new int[INPUT_COUNT];
+        for (int i = 0; i < INPUT_COUNT; i++) {
+            prevScores[i] = random.nextDouble() * 1_000_000d;
+            timesMillis[i] = now + i * 60_000L;
+            trials[i] = random.nextInt(5_000);
+            successes[i] = trials[i] == 0 ? 0 : random.nextInt(trials[i] + 1);
+        }
+    }
+
+    @Benchmark
+    public double expDecayScoreUpdate() {
+        int i = index++ & (INPUT_COUNT - 1);
+        return expDecayScore.updateScore(prevScores[i], timesMillis[i]);
+    }
+
+    @Benchmark
+    public double wilsonScoreLowerBound() {
+        int i = index++ & (INPUT_COUNT - 1);
+        return wilsonScoreInterval.lowerBound(trials[i], successes[i]);
+    }
+}
@@ -0,0 +1,82 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.inject.Key;
+import com.smotana.clearflask.util.ServerSecret;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search cursors are encrypted on every paginated response and decrypted on every next page request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerSecretBenchmark {
+
+    public enum CursorType {
+        /** MySQL offset */
+        OFFSET,
+        /** ElasticSearch search_after sort values */
+        SEARCH_AFTER,
+        /** ElasticSearch scroll id */
+        SCROLL
+    }
+
+    @Param
+    public CursorType cursorType;
+
+    private ServerSecret serverSecretCursor;
+    private String cursor;
+    private String cursorEncrypted;
+
+    @Setup
+    public void setup() {
+        serverSecretCursor = BenchmarkInjector.create().getInstance(Key.get(ServerSecret.class, BenchmarkInjector.CURSOR_SECRET_NAME));
+        Random random = new Random(cursorType.ordinal());
+        switch (cursorType) {
+            case OFFSET:
+                cursor = "40";
+                break;
+            case SEARCH_AFTER:
+                cursor = "[" + random.nextDouble() + ",\"" + BenchmarkFixtures.randomId(random) + "\"]";
+                break;
+            case SCROLL:
+                StringBuilder scrollIdBuilder = new StringBuilder("FGluY2x1ZGVfY29udGV4dF91dWlkDXF1ZXJ5QW5kRmV0Y2gB");
+                while (scrollIdBuilder.length() < 160) {
+                    scrollIdBuilder.append(BenchmarkFixtures.randomId(random));
+                }
+                cursor = scrollIdBuilder.substring(0, 160);
+                break;
+            default:
+                throw new RuntimeException("Unknown cursor type " + cursorType);
+        }
+        cursorEncrypted = serverSecretCursor.encryptString(cursor);
+    }
+
+    @Benchmark
+    public String encryptString() {
+        return serverSecretCursor.encryptString(cursor);
+    }
+
+    @Benchmark
+    public String decryptString() {
+        return serverSecretCursor.decryptString(cursorEncrypted);
+    }
+}
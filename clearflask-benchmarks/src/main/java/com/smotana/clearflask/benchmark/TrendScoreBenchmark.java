@@ -0,0 +1,111 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.ExpDecayScoreBuffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Votes and expressions arriving within one trend score flush period. Per event, every vote results in an
+ * EXP_DECAY script update in each search engine; buffered, only one update per distinct post is sent.
+ * The scriptUpdates counter shows the number of search engine updates issued per flush period.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrendScoreBenchmark {
+
+    private static final int EVENT_COUNT = 10_000;
+
+    /**
+     * Number of posts receiving votes; most votes go to a handful of popular posts.
+     */
+    @Param({"100", "10000"})
+    public int ideaCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long scriptUpdates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            scriptUpdates = 0;
+        }
+    }
+
+    private ExpDecayScore expDecayScore;
+    private String[] eventIdeaIds;
+    private long[] eventTimesMillis;
+    private double[] scores;
+    private int[] eventIdeaIndexes;
+
+    @Setup
+    public void setup() {
+        expDecayScore = new ExpDecayScore(Duration.ofDays(7));
+        Random random = new Random(ideaCount);
+        long now = 1654084800000L;
+        String[] ideaIds = new String[ideaCount];
+        for (int i = 0; i < ideaCount; i++) {
+            ideaIds[i] = BenchmarkFixtures.randomId(random);
+        }
+        scores = new double[ideaCount];
+        eventIdeaIds = new String[EVENT_COUNT];
+        eventIdeaIndexes = new int[EVENT_COUNT];
+        eventTimesMillis = new long[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            int ideaIndex = (int) (ideaCount * Math.pow(random.nextDouble(), 3));
+            eventIdeaIndexes[i] = ideaIndex;
+            eventIdeaIds[i] = ideaIds[ideaIndex];
+            eventTimesMillis[i] = now + i;
+        }
+    }
+
+    @Benchmark
+    public double perEvent(Counters counters) {
+        double sum = 0;
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            int ideaIndex = eventIdeaIndexes[i];
+            scores[ideaIndex] = expDecayScore.updateScore(scores[ideaIndex], eventTimesMillis[i]);
+            sum += scores[ideaIndex];
+        }
+        counters.scriptUpdates += EVENT_COUNT;
+        return sum;
+    }
+
+    @Benchmark
+    public double buffered(Counters counters) {
+        ExpDecayScoreBuffer buffer = new ExpDecayScoreBuffer(expDecayScore);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            buffer.add(BenchmarkFixtures.PROJECT_ID, eventIdeaIds[i], eventTimesMillis[i]);
+        }
+        ImmutableMap<String, Double> pending = buffer.drain(BenchmarkFixtures.PROJECT_ID);
+        double sum = 0;
+        for (double score : pending.values()) {
+            sum += expDecayScore.toTimeInMillis(score);
+        }
+        counters.scriptUpdates += pending.size();
+        return sum;
+    }
+}
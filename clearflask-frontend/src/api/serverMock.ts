@@ -948,6 +948,23 @@ class ServerMock implements Client.ApiInterface, Admin.ApiInterface {
     });
   }
 
+  async ideaSearchBatch(request: Client.IdeaSearchBatchRequest): Promise<Client.IdeaWithVoteSearchBatchResponse> {
+    const results = await Promise.all(request.ideaSearchBatch.searches.map(search => this.ideaSearch({
+      projectId: request.projectId,
+      ideaSearch: search.ideaSearch,
+      cursor: search.cursor,
+    })));
+    return { results };
+  }
+
+  liveUpdates(request: Client.LiveUpdatesRequest): EventSource {
+    // Mock data changes locally, nothing to push
+    return {
+      close: () => {
+      },
+    } as EventSource;
+  }
+
   ideaSearchAdmin(request: Admin.IdeaSearchAdminRequest): Promise<Admin.IdeaSearchResponse> {
     return this.ideaSearchGeneric(request);
   }
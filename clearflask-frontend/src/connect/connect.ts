@@ -79,10 +79,48 @@ function replaceAndSend(res, filePath) {
   }
 }
 
+const secureContextCacheCapacity = 1000;
+const secureContextCacheDurationMs = 3600 * 1000;
 const secureContextCache = new MapExpire([], {
-  capacity: 100,
+  capacity: secureContextCacheCapacity,
   duration: 0, // default expiry in millisecond
 });
+function cacheSecureContext(certAndKey: CertGetOrCreateResponse, servername?: string): SecureContext {
+  const secureContext = tls.createSecureContext({
+    key: certAndKey.keypair.privateKeyPem,
+    cert: certAndKey.cert.cert + "\n" + certAndKey.cert.chain,
+  });
+  const expiresInMs = certAndKey.cert.expiresAt - new Date().getTime();
+  new Set([
+    ...(servername ? [servername] : []),
+    certAndKey.cert.subject,
+    ...certAndKey.cert.altnames,
+  ]).forEach(name => secureContextCache.set(
+    name,
+    secureContext,
+    Math.min(secureContextCacheDurationMs, expiresInMs)));
+  return secureContext;
+}
+async function preloadSecureContexts() {
+  var cursor: string | undefined;
+  var count = 0;
+  try {
+    do {
+      const response = await ServerConnect.get()
+        .dispatch()
+        .certPreloadConnect(
+          { cursor },
+          undefined,
+          { 'x-cf-connect-token': connectConfig.connectToken });
+      response.results.forEach(certAndKey => cacheSecureContext(certAndKey));
+      count += response.results.length;
+      cursor = response.cursor;
+    } while (cursor && count < secureContextCacheCapacity);
+    console.log('Preloaded certs', count);
+  } catch (response: any) {
+    console.log('Failed to preload certs, continuing without', response);
+  }
+}
 const sniCallback: ServerOptions['SNICallback'] = async (servername, callback) => {
   // Get cert
   const wildName = '*.' + servername
@@ -106,18 +144,8 @@ const sniCallback: ServerOptions['SNICallback'] = async (servername, callback) =
       return;
     }
 
-    // Create secure context
-    secureContext = tls.createSecureContext({
-      key: certAndKey.keypair.privateKeyPem,
-      cert: certAndKey.cert.cert + "\n" + certAndKey.cert.chain,
-    });
-
-    // Add to cache
-    const expiresInSec = certAndKey.cert.expiresAt - new Date().getTime();
-    [servername, ...certAndKey.cert.altnames].forEach(altName => secureContextCache.set(
-      servername,
-      secureContext,
-      Math.min(3600, expiresInSec)));
+    // Create secure context and add to cache
+    secureContext = cacheSecureContext(certAndKey, servername);
   }
 
   callback(null, secureContext);
@@ -301,6 +329,7 @@ if (!connectConfig.disableAutoFetchCertificate) {
     const serverHttps = https.createServer({
       SNICallback: sniCallback,
     }, serverApp);
+    preloadSecureContexts();
 
     // Http(s)
     const serverHttpx = httpx.createServer(serverHttp, serverHttps);
@@ -1099,9 +1099,21 @@ public class StripeBilling extends ManagedService implements Billing {
                 .setStatus(SubscriptionListParams.Status.ALL)
                 .setLimit(config.listPageSize())
                 .build();
+        Subscription best = selectPrimarySubscription(Subscription.list(params).autoPagingIterable()).orElse(null);
+        Customer customer = Customer.retrieve(a.getStripeCustomerId());
+        SubSnapshot snap = new SubSnapshot(best, hasDefaultPaymentMethod(customer));
+        subSnapshotCache.put(a.getAccountId(), snap);
+        return snap;
+    }
+
+    /**
+     * Picks the subscription that represents a customer's billing state out of all of the
+     * customer's subscriptions. See {@link #loadSubSnapshot} for the priority.
+     */
+    static Optional<Subscription> selectPrimarySubscription(Iterable<Subscription> subs) {
         Subscription best = null;
         int bestRank = Integer.MAX_VALUE;
-        for (Subscription s : Subscription.list(params).autoPagingIterable()) {
+        for (Subscription s : subs) {
             int rank = statusRank(s.getStatus());
             if (rank == Integer.MAX_VALUE) continue; // canceled / incomplete_expired
             if (rank < bestRank
@@ -1111,12 +1123,25 @@ public class StripeBilling extends ManagedService implements Billing {
                 bestRank = rank;
             }
         }
-        Customer customer = Customer.retrieve(a.getStripeCustomerId());
-        boolean hasPm = customer.getInvoiceSettings() != null
+        return Optional.ofNullable(best);
+    }
+
+    static boolean hasDefaultPaymentMethod(Customer customer) {
+        return customer != null
+                && customer.getInvoiceSettings() != null
                 && !Strings.isNullOrEmpty(customer.getInvoiceSettings().getDefaultPaymentMethod());
-        SubSnapshot snap = new SubSnapshot(best, hasPm);
-        subSnapshotCache.put(a.getAccountId(), snap);
-        return snap;
+    }
+
+    /**
+     * Reconciles {@code account.status} from a subscription snapshot the caller already
+     * fetched, e.g. from a bulk listing, instead of fetching it per account. Seeds the
+     * snapshot cache so the entitlement check makes no Stripe calls; only an actual status
+     * change writes to DynamoDB.
+     */
+    public SubscriptionStatus reconcileStatus(AccountStore.Account a, Optional<Subscription> subOpt, Customer customer, String reason) {
+        subSnapshotCache.put(a.getAccountId(), new SubSnapshot(subOpt.orElse(null), hasDefaultPaymentMethod(customer)));
+        return updateAndGetEntitlementStatus(a.getStatus(), synthAccount(a, customer),
+                synthSubscription(a, subOpt.orElse(null)), reason);
     }
 
     /** Lower rank wins. {@code Integer.MAX_VALUE} means terminal / not a candidate. */
@@ -2,6 +2,16 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.billing;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -14,17 +24,28 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.util.Extern;
 import com.stripe.exception.StripeException;
+import com.stripe.model.Customer;
 import com.stripe.model.Subscription;
 import com.stripe.param.SubscriptionListParams;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.smotana.clearflask.billing.StripeBilling.META_CLEARFLASK_ACCOUNT_ID;
 
 /**
  * Daily safety-net job that reconciles {@code account.status} against the live Stripe
@@ -34,6 +55,10 @@ import java.util.concurrent.TimeUnit;
  * <p>Webhooks are the primary status push; live reads on the billing page are the secondary
  * check. This job is the third layer — runs once a day, lists active Stripe subscriptions,
  * and updates DynamoDB if it disagrees with Stripe.
+ *
+ * <p>The subscription listing expands each customer so the per-account snapshot is built from
+ * the listing alone; local accounts are resolved in DynamoDB batches and compared in parallel.
+ * Stripe is only called again for accounts whose status drifted.
  */
 @Slf4j
 @Singleton
@@ -58,19 +83,47 @@ public class StripeSyncService extends ManagedService {
 
         @DefaultValue("100")
         long pageSize();
+
+        @DefaultValue("8")
+        int reconcileThreads();
+
+        @DefaultValue("100")
+        int accountBatchSize();
     }
 
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "stripe.sync";
+
     @Inject
     private Config config;
     @Inject
     private AccountStore accountStore;
     @Inject
-    private Billing billing;
+    private StripeBilling stripeBilling;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private ListeningScheduledExecutorService executor;
+    private ListeningExecutorService reconcileExecutor;
+    private Counter checkedCounter;
+    private Counter driftCounter;
+    private Counter failedCounter;
+    private Timer accountTimer;
+    private Timer runTimer;
+
+    @Inject
+    private void setup() {
+        checkedCounter = meterRegistry.counter(METER_NAME + ".checked");
+        driftCounter = meterRegistry.counter(METER_NAME + ".drift");
+        failedCounter = meterRegistry.counter(METER_NAME + ".failed");
+        accountTimer = meterRegistry.timer(METER_NAME + ".account");
+        runTimer = meterRegistry.timer(METER_NAME + ".run");
+    }
 
     @Override
     protected void serviceStart() {
+        // Also used by manual runs while the schedule is disabled
+        reconcileExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.reconcileThreads(),
+                new ThreadFactoryBuilder().setNameFormat("StripeSyncService-reconcile-%d").build()));
         if (!config.enabled()) {
             log.info("StripeSyncService disabled");
             return;
@@ -87,6 +140,10 @@ public class StripeSyncService extends ManagedService {
             executor.shutdownNow();
             executor.awaitTermination(30, TimeUnit.SECONDS);
         }
+        if (reconcileExecutor != null) {
+            reconcileExecutor.shutdownNow();
+            reconcileExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
     }
 
     private void reconcileSafely() {
@@ -99,39 +156,116 @@ public class StripeSyncService extends ManagedService {
 
     @Extern
     public synchronized String reconcile() throws StripeException {
-        long checked = 0;
-        long drift = 0;
+        long startNanos = System.nanoTime();
+
+        // Single listing, grouped by customer. Customers are expanded inline so the
+        // payment-method check needs no per-account Customer.retrieve.
+        Map<String, List<Subscription>> subsByCustomerId = Maps.newLinkedHashMap();
+        Map<String, Customer> customerById = Maps.newHashMap();
         SubscriptionListParams params = SubscriptionListParams.builder()
                 .setStatus(SubscriptionListParams.Status.ALL)
                 .setLimit(config.pageSize())
+                .addExpand("data.customer")
                 .build();
         for (Subscription sub : Subscription.list(params).autoPagingIterable()) {
-            checked++;
             String customerId = sub.getCustomer();
             if (customerId == null) continue;
-            Optional<AccountStore.Account> aOpt = accountStore.getAccountByStripeCustomerId(customerId);
-            if (aOpt.isEmpty()) {
-                log.debug("StripeSyncService: Stripe customer {} has no local account; skipping", customerId);
-                continue;
+            subsByCustomerId.computeIfAbsent(customerId, c -> Lists.newArrayList()).add(sub);
+            if (sub.getCustomerObject() != null) {
+                customerById.putIfAbsent(customerId, sub.getCustomerObject());
             }
-            AccountStore.Account a = aOpt.get();
-            SubscriptionStatus before = a.getStatus();
-            try {
-                org.killbill.billing.client.model.gen.Account synthAccount = billing.getAccount(a.getAccountId());
-                org.killbill.billing.client.model.gen.Subscription synthSub = billing.getSubscription(a.getAccountId());
-                SubscriptionStatus after = billing.updateAndGetEntitlementStatus(before, synthAccount, synthSub,
-                        "StripeSyncService reconcile");
-                if (!after.equals(before)) drift++;
-            } catch (Exception ex) {
-                log.warn("StripeSyncService: reconcile failed for account {} (customer {})",
-                        a.getAccountId(), customerId, ex);
+        }
+
+        AtomicLong checked = new AtomicLong();
+        AtomicLong drift = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ImmutableList.Builder<ListenableFuture<?>> futuresBuilder = ImmutableList.builder();
+        for (List<String> customerIdsBatch : Iterables.partition(subsByCustomerId.keySet(), config.accountBatchSize())) {
+            ImmutableMap<String, AccountStore.Account> accountByCustomerId = resolveAccounts(customerIdsBatch, subsByCustomerId);
+            for (String customerId : customerIdsBatch) {
+                AccountStore.Account a = accountByCustomerId.get(customerId);
+                if (a == null) {
+                    log.debug("StripeSyncService: Stripe customer {} has no local account; skipping", customerId);
+                    continue;
+                }
+                futuresBuilder.add(reconcileExecutor.submit(() -> {
+                    long accountStartNanos = System.nanoTime();
+                    checked.incrementAndGet();
+                    checkedCounter.increment();
+                    try {
+                        SubscriptionStatus before = a.getStatus();
+                        SubscriptionStatus after = stripeBilling.reconcileStatus(a,
+                                StripeBilling.selectPrimarySubscription(subsByCustomerId.get(customerId)),
+                                customerById.get(customerId),
+                                "StripeSyncService reconcile");
+                        if (!after.equals(before)) {
+                            drift.incrementAndGet();
+                            driftCounter.increment();
+                        }
+                    } catch (Exception ex) {
+                        failed.incrementAndGet();
+                        failedCounter.increment();
+                        log.warn("StripeSyncService: reconcile failed for account {} (customer {})",
+                                a.getAccountId(), customerId, ex);
+                    } finally {
+                        accountTimer.record(System.nanoTime() - accountStartNanos, TimeUnit.NANOSECONDS);
+                    }
+                }));
             }
         }
-        String msg = String.format("StripeSyncService: checked=%d drift=%d", checked, drift);
+        try {
+            Futures.whenAllComplete(futuresBuilder.build()).call(() -> null, MoreExecutors.directExecutor()).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        long tookNanos = System.nanoTime() - startNanos;
+        runTimer.record(tookNanos, TimeUnit.NANOSECONDS);
+        String msg = String.format("StripeSyncService: checked=%d drift=%d failed=%d took=%dms",
+                checked.get(), drift.get(), failed.get(), TimeUnit.NANOSECONDS.toMillis(tookNanos));
         log.info(msg);
         return msg;
     }
 
+    /**
+     * Resolves local accounts for a batch of Stripe customers. Subscriptions created by us carry
+     * the account id in metadata which allows a single batch get; the rest fall back to the
+     * stripeCustomerId index one by one.
+     */
+    private ImmutableMap<String, AccountStore.Account> resolveAccounts(List<String> customerIds, Map<String, List<Subscription>> subsByCustomerId) {
+        Map<String, String> accountIdByCustomerId = Maps.newHashMap();
+        for (String customerId : customerIds) {
+            subsByCustomerId.get(customerId).stream()
+                    .map(Subscription::getMetadata)
+                    .filter(metadata -> metadata != null && !Strings.isNullOrEmpty(metadata.get(META_CLEARFLASK_ACCOUNT_ID)))
+                    .map(metadata -> metadata.get(META_CLEARFLASK_ACCOUNT_ID))
+                    .findFirst()
+                    .ifPresent(accountId -> accountIdByCustomerId.put(customerId, accountId));
+        }
+        ImmutableMap<String, AccountStore.Account> accountById = accountStore.getAccounts(
+                ImmutableSet.copyOf(accountIdByCustomerId.values()), false);
+
+        ImmutableMap.Builder<String, AccountStore.Account> accountByCustomerIdBuilder = ImmutableMap.builder();
+        for (String customerId : customerIds) {
+            Optional<AccountStore.Account> aOpt = Optional.ofNullable(accountIdByCustomerId.get(customerId))
+                    .map(accountById::get)
+                    // Metadata may be stale if the account was re-linked to another customer
+                    .filter(a -> customerId.equals(a.getStripeCustomerId()));
+            if (aOpt.isEmpty()) {
+                try {
+                    aOpt = accountStore.getAccountByStripeCustomerId(customerId);
+                } catch (Exception ex) {
+                    log.warn("StripeSyncService: failed to resolve account for customer {}", customerId, ex);
+                }
+            }
+            aOpt.ifPresent(a -> accountByCustomerIdBuilder.put(customerId, a));
+        }
+        return accountByCustomerIdBuilder.build();
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
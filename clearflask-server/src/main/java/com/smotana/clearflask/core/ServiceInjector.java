@@ -36,6 +36,7 @@ import com.smotana.clearflask.billing.StripeOverdueEscalationService;
 import com.smotana.clearflask.billing.StripePlanStore;
 import com.smotana.clearflask.billing.StripeProvisioner;
 import com.smotana.clearflask.billing.StripeSyncService;
+import com.smotana.clearflask.store.SearchEngineRouter;
 import com.smotana.clearflask.store.ServiceSecretStore;
 import com.smotana.clearflask.store.WebhookEventDedupStore;
 import com.smotana.clearflask.web.resource.StripeWebhookResource;
@@ -44,6 +45,9 @@ import com.smotana.clearflask.core.email.ProjectDeletionService;
 import com.smotana.clearflask.core.email.TrialEndingReminderService;
 import com.smotana.clearflask.core.email.WeeklyDigestService;
 import com.smotana.clearflask.core.image.ImageNormalizationImpl;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.core.metrics.PrometheusMetricsServer;
+import com.smotana.clearflask.core.metrics.StoreMetricsInterceptor;
 import com.smotana.clearflask.core.push.NotificationServiceImpl;
 import com.smotana.clearflask.core.push.message.EmailLogin;
 import com.smotana.clearflask.core.push.message.EmailTemplates;
@@ -67,6 +71,7 @@ import com.smotana.clearflask.core.push.message.OnTrialEnded;
 import com.smotana.clearflask.core.push.message.OnTrialEnding;
 import com.smotana.clearflask.core.push.provider.BrowserPushServiceImpl;
 import com.smotana.clearflask.core.push.provider.EmailServiceImpl;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService;
 import com.smotana.clearflask.security.CertFetcherImpl;
 import com.smotana.clearflask.security.CheckMailOrgEmailValidator;
 import com.smotana.clearflask.security.ClearFlaskSso;
@@ -91,12 +96,16 @@ import com.smotana.clearflask.store.slack.SlackStoreImpl;
 import com.smotana.clearflask.store.gitlab.GitLabClientProviderImpl;
 import com.smotana.clearflask.store.gitlab.GitLabStoreImpl;
 import com.smotana.clearflask.store.impl.ConfigurableLlmPromptStore;
+import com.smotana.clearflask.store.impl.CounterReconciler;
 import com.smotana.clearflask.store.impl.DynamoCertStore;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
 import com.smotana.clearflask.store.impl.DynamoDraftStore;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoEmailOutboxStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.impl.DynamoLlmHistoryStore;
 import com.smotana.clearflask.store.impl.DynamoLlmMemoryStore;
 import com.smotana.clearflask.store.impl.DynamoNotificationStore;
@@ -104,6 +113,8 @@ import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoRemoteLicenseStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
+import com.smotana.clearflask.store.impl.HistogramRollupBackfiller;
+import com.smotana.clearflask.store.impl.IntegrationBackfiller;
 import com.smotana.clearflask.store.impl.LangChainLlmAgentStore;
 import com.smotana.clearflask.store.impl.LangChainLlmToolingStore;
 import com.smotana.clearflask.store.impl.PorkbunDnsStore;
@@ -126,6 +137,8 @@ import com.smotana.clearflask.util.MustacheProvider;
 import com.smotana.clearflask.util.ProjectUpgraderImpl;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.filter.ApiExceptionMapperFilter;
+import com.smotana.clearflask.web.filter.GzipWriterInterceptor;
+import com.smotana.clearflask.web.filter.ResponseCacheFilter;
 import com.smotana.clearflask.web.filter.UmbrellaFilterProvider;
 import com.smotana.clearflask.web.resource.AccountResource;
 import com.smotana.clearflask.web.resource.CommentResource;
@@ -151,6 +164,8 @@ import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.security.SecretsGuard;
 import com.smotana.clearflask.web.security.SuperAdminPredicate;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.LiveUpdateServiceImpl;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -226,6 +241,11 @@ public enum ServiceInjector {
                 install(GuavaRateLimiters.module());
                 install(MustacheProvider.module());
 
+                // Metrics
+                install(MeterRegistryProvider.module());
+                install(PrometheusMetricsServer.module());
+                install(StoreMetricsInterceptor.module());
+
                 // Stores
                 install(ConfigAwsCredentialsProvider.module());
                 install(DefaultDynamoDbProvider.module());
@@ -237,11 +257,18 @@ public enum ServiceInjector {
                 install(DynamoElasticAccountStore.module());
                 install(DynamoElasticUserStore.module());
                 install(DynamoTokenVerifyStore.module());
+                install(DynamoEmailOutboxStore.module());
                 install(DynamoElasticIdeaStore.module());
                 install(DynamoDraftStore.module());
                 install(DynamoNotificationStore.module());
                 install(DynamoElasticCommentStore.module());
                 install(DynamoVoteStore.module());
+                install(DynamoCounterStore.module());
+                install(CounterReconciler.module());
+                install(DynamoHistogramRollupStore.module());
+                install(SearchEngineRouter.module());
+                install(HistogramRollupBackfiller.module());
+                install(IntegrationBackfiller.module());
                 install(DynamoCertStore.module());
                 install(DynamoRemoteLicenseStore.module());
                 install(CloudLocalLicenseStore.module());
@@ -262,6 +289,8 @@ public enum ServiceInjector {
                 install(MysqlUtil.module());
                 install(ElasticUtil.module());
                 install(DefaultServerSecret.module(Names.named("cursor")));
+                install(LiveUpdateServiceImpl.module());
+                install(ResponseCacheImpl.module());
                 install(WebhookServiceImpl.module());
                 install(DynamoCouponStore.module());
 
@@ -303,6 +332,8 @@ public enum ServiceInjector {
 
                 // Security
                 install(AuthenticationFilter.module());
+                install(GzipWriterInterceptor.module());
+                install(ResponseCacheFilter.module());
                 install(UmbrellaFilterProvider.module());
                 install(SuperAdminPredicate.module());
                 install(TieredWebLimiter.module());
@@ -340,6 +371,8 @@ public enum ServiceInjector {
                 }
                 if (env != Environment.PRODUCTION_SELF_HOST) {
                 }
+                install(WebhookEventDedupStore.module());
+                install(WebhookIngestionService.module());
                 install(GitHubResource.module());
                 install(JiraResource.module());
                 install(SlackResource.module());
@@ -377,7 +410,6 @@ public enum ServiceInjector {
                     install(BillingRouter.module());
                     install(PlanStoreRouter.module());
                     install(ServiceSecretStore.module());
-                    install(WebhookEventDedupStore.module());
                     install(StripeWebhookResource.module());
                 }
 
@@ -2,9 +2,14 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.image;
 
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.store.ContentStore.ImageVariant;
 import com.smotana.clearflask.web.ApiException;
 import lombok.Value;
 
+import javax.imageio.stream.ImageInputStream;
+import java.util.Optional;
+
 public interface ImageNormalization {
 
     /**
@@ -21,6 +26,20 @@ public interface ImageNormalization {
      */
     Image normalize(byte[] imgBytes, double maxWidth, double maxHeight) throws ApiException;
 
+    /**
+     * Normalize image with custom max dimensions, leaves the stream open.
+     *
+     * @return Empty if the image should be kept as is, e.g. animated GIFs
+     */
+    Optional<Image> normalize(ImageInputStream imgStream, double maxWidth, double maxHeight) throws ApiException;
+
+    /**
+     * Normalize image into every {@link ImageVariant} from a single decode, leaves the stream open.
+     *
+     * @return Empty if the image should be kept as is, e.g. animated GIFs
+     */
+    Optional<ImmutableMap<ImageVariant, Image>> normalizeVariants(ImageInputStream imgStream) throws ApiException;
+
     @Value
     class Image {
         String mediaType;
@@ -2,19 +2,23 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.image;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.store.ContentStore.ImageVariant;
 import com.smotana.clearflask.web.ApiException;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.imageio.*;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.ws.rs.core.Response;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -22,6 +26,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
 
 @Slf4j
 public class ImageNormalizationImpl implements ImageNormalization {
@@ -38,6 +44,19 @@ public class ImageNormalizationImpl implements ImageNormalization {
 
         @DefaultValue("true")
         boolean keepGifsAsIs();
+
+        @DefaultValue("640")
+        double cardMaxWidth();
+
+        @DefaultValue("1280")
+        double cardMaxHeight();
+
+        /**
+         * Large images are decoded with source subsampling down to this multiple of the largest target size, the
+         * remainder is scaled down with interpolation to avoid aliasing. Zero disables subsampling.
+         */
+        @DefaultValue("2")
+        double subsamplingHeadroom();
     }
 
     private static final String COMMENT_INDEX = "comment";
@@ -52,29 +71,94 @@ public class ImageNormalizationImpl implements ImageNormalization {
 
     @Override
     public Image normalize(byte[] imgBytes, double maxWidth, double maxHeight) throws ApiException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(imgBytes);
-             ImageInputStream iis = ImageIO.createImageInputStream(bais)) {
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(new ByteArrayInputStream(imgBytes))) {
+            return normalize(iis, maxWidth, maxHeight)
+                    .orElseGet(() -> new Image(ContentType.GIF.getMediaType(), imgBytes));
+        } catch (IOException ex) {
+            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
+        }
+    }
+
+    @Override
+    public Optional<Image> normalize(ImageInputStream imgStream, double maxWidth, double maxHeight) throws ApiException {
+        return normalize(imgStream, ImmutableMap.of(
+                ImageVariant.FULL, new Dimension2DDouble(maxWidth, maxHeight)))
+                .map(variants -> variants.get(ImageVariant.FULL));
+    }
+
+    @Override
+    public Optional<ImmutableMap<ImageVariant, Image>> normalizeVariants(ImageInputStream imgStream) throws ApiException {
+        return normalize(imgStream, ImmutableMap.of(
+                ImageVariant.FULL, new Dimension2DDouble(config.maxWidth(), config.maxHeight()),
+                ImageVariant.CARD, new Dimension2DDouble(config.cardMaxWidth(), config.cardMaxHeight())));
+    }
+
+    /**
+     * @param boundaries Max dimensions of each variant, ordered from largest to smallest as each variant is scaled
+     *                   down from the previous one
+     */
+    private Optional<ImmutableMap<ImageVariant, Image>> normalize(ImageInputStream iis, ImmutableMap<ImageVariant, Dimension2DDouble> boundaries) throws ApiException {
+        try {
             Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(iis);
             if (!imageReaders.hasNext()) {
                 throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Unsupported format");
             }
             ImageReader imageReader = imageReaders.next();
-            String format = imageReader.getFormatName();
-            imageReader.setInput(iis);
-            int numImages = imageReader.getNumImages(true);
+            try {
+                String format = imageReader.getFormatName();
+                imageReader.setInput(iis);
+                int numImages = imageReader.getNumImages(true);
+
+                if (numImages < 1) {
+                    throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Empty image");
+                } else if ("gif".equals(format) && numImages > 1 && config.keepGifsAsIs()) {
+                    return Optional.empty();
+                }
+
+                // Target dimensions are derived from the original size so subsampling does not affect them
+                int width = imageReader.getWidth(0);
+                int height = imageReader.getHeight(0);
+                Dimension2DDouble largest = boundaries.values().iterator().next();
+                BufferedImage image = readSubsampled(imageReader, width, height, largest.getWidth(), largest.getHeight());
+                if (image == null) {
+                    throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "No image");
+                }
 
-            if (numImages < 1) {
-                throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Empty image");
-            } else if ("gif".equals(format) && numImages > 1 && config.keepGifsAsIs()) {
-                return new Image(ContentType.GIF.getMediaType(), imgBytes);
-            } else {
-                return writeJpeg(imageReader.read(0), maxWidth, maxHeight);
+                ImmutableMap.Builder<ImageVariant, Image> variantsBuilder = ImmutableMap.builder();
+                for (Map.Entry<ImageVariant, Dimension2DDouble> boundary : boundaries.entrySet()) {
+                    image = resizeImg(image, getScaledDimension(width, height, boundary.getValue().getWidth(), boundary.getValue().getHeight()));
+                    variantsBuilder.put(boundary.getKey(), writeJpeg(image));
+                }
+                return Optional.of(variantsBuilder.build());
+            } finally {
+                imageReader.dispose();
             }
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
         }
     }
 
+    /**
+     * Decodes the first frame skipping rows and columns not needed for the target size. Avoids allocating the full
+     * resolution raster of large photos.
+     */
+    private BufferedImage readSubsampled(ImageReader imageReader, int width, int height, double maxWidth, double maxHeight) throws IOException {
+        ImageReadParam param = imageReader.getDefaultReadParam();
+        int subsampling = getSubsampling(width, height, maxWidth, maxHeight, config.subsamplingHeadroom());
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return imageReader.read(0, param);
+    }
+
+    int getSubsampling(double imageWidth, double imageHeight, double boundaryWidth, double boundaryHeight, double headroom) {
+        if (headroom <= 0d) {
+            return 1;
+        }
+        double ratio = Math.min(boundaryWidth / imageWidth, boundaryHeight / imageHeight) * headroom;
+        return ratio >= 1d ? 1 : (int) Math.floor(1d / ratio);
+    }
+
     /**
      * Write animated GIF with resized frames.
      * Note: This method preserves animation but may lose some metadata like frame delays.
@@ -104,27 +188,20 @@ public class ImageNormalizationImpl implements ImageNormalization {
         return new Image(ContentType.GIF.getMediaType(), data);
     }
 
-    private Image writeJpeg(BufferedImage image) {
-        return writeJpeg(image, config.maxWidth(), config.maxHeight());
-    }
-
-    private Image writeJpeg(BufferedImage image, double maxWidth, double maxHeight) {
-        if (image == null) {
-            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "No image");
-        }
-
-        BufferedImage convertedImage = resizeImg(image, maxWidth, maxHeight);
-
+    private Image writeJpeg(BufferedImage convertedImage) {
         JPEGImageWriteParam jpegParams = new JPEGImageWriteParam(null);
         jpegParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
         jpegParams.setCompressionQuality(0.8f);
 
         byte[] data;
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
             final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-            writer.setOutput(ios);
-            writer.write(null, new IIOImage(convertedImage, null, null), jpegParams);
+            try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(convertedImage, null, null), jpegParams);
+            } finally {
+                writer.dispose();
+            }
             data = out.toByteArray();
         } catch (IOException ex) {
             throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
@@ -137,24 +214,39 @@ public class ImageNormalizationImpl implements ImageNormalization {
     }
 
     private BufferedImage resizeImg(BufferedImage image, double maxWidth, double maxHeight) {
-        Dimension scaledDimension = getScaledDimension(image.getWidth(), image.getHeight(), maxWidth, maxHeight);
+        return resizeImg(image, getScaledDimension(image.getWidth(), image.getHeight(), maxWidth, maxHeight));
+    }
+
+    private BufferedImage resizeImg(BufferedImage image, Dimension scaledDimension) {
         final BufferedImage convertedImage = new BufferedImage(
-                (int) scaledDimension.getWidth(),
-                (int) scaledDimension.getHeight(),
+                Math.max(1, (int) scaledDimension.getWidth()),
+                Math.max(1, (int) scaledDimension.getHeight()),
                 BufferedImage.TYPE_INT_RGB);
 
-        convertedImage.createGraphics().drawImage(
-                image,
-                0,
-                0,
-                convertedImage.getWidth(),
-                convertedImage.getHeight(),
-                Color.WHITE,
-                null);
+        Graphics2D graphics = convertedImage.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(
+                    image,
+                    0,
+                    0,
+                    convertedImage.getWidth(),
+                    convertedImage.getHeight(),
+                    Color.WHITE,
+                    null);
+        } finally {
+            graphics.dispose();
+        }
 
         return convertedImage;
     }
 
+    @Value
+    private static class Dimension2DDouble {
+        double width;
+        double height;
+    }
+
     Dimension getScaledDimension(double imageWidth, double imageHeight, double boundaryWidth, double boundaryHeight) {
         double ratio = Math.min(boundaryWidth / imageWidth, boundaryHeight / imageHeight);
         return ratio >= 1d
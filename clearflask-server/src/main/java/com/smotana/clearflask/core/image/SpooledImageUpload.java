@@ -0,0 +1,182 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.image;
+
+import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.web.ApiException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.ws.rs.core.Response;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+/**
+ * Request body of an image upload, read once and held in memory up to a threshold, otherwise in a temp file.
+ * <p>
+ * The format is sniffed from the first bytes so unsupported uploads are rejected before the rest is read, and the size
+ * limit is enforced while reading rather than after. Close to delete the temp file.
+ */
+@Slf4j
+public class SpooledImageUpload implements Closeable {
+
+    private static final int HEADER_SIZE = 16;
+
+    public enum Format {
+        JPEG(ContentType.JPEG),
+        PNG(null),
+        GIF(ContentType.GIF),
+        BMP(null),
+        ICO(null),
+        TIFF(null),
+        PSD(null),
+        SVG(null);
+
+        /**
+         * Content type if the upload may be stored as is without normalization
+         */
+        private final ContentType contentType;
+
+        Format(ContentType contentType) {
+            this.contentType = contentType;
+        }
+
+        public Optional<ContentType> getContentTypeOpt() {
+            return Optional.ofNullable(contentType);
+        }
+    }
+
+    private final Format format;
+    private final DeferredFileOutputStream spool;
+
+    private SpooledImageUpload(Format format, DeferredFileOutputStream spool) {
+        this.format = format;
+        this.spool = spool;
+    }
+
+    /**
+     * Reads the body fully and closes it.
+     *
+     * @throws ApiException with 415 if the format is not recognized or 413 if the body exceeds maxBytes
+     */
+    public static SpooledImageUpload spool(InputStream body, long maxBytes, int memoryThresholdBytes) throws ApiException {
+        DeferredFileOutputStream spool = DeferredFileOutputStream.builder()
+                .setThreshold(memoryThresholdBytes)
+                .setPrefix("upload-")
+                .setSuffix(".tmp")
+                .get();
+        try (body; spool) {
+            BufferedInputStream bufferedBody = new BufferedInputStream(body);
+            bufferedBody.mark(HEADER_SIZE);
+            byte[] header = bufferedBody.readNBytes(HEADER_SIZE);
+            Optional<Format> formatOpt = sniff(header);
+            if (formatOpt.isEmpty()) {
+                throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Unsupported format");
+            }
+            bufferedBody.reset();
+
+            // Read one byte past the limit to tell an exact fit apart from an oversized body
+            long length = IOUtils.copyLarge(bufferedBody, spool, 0, maxBytes + 1);
+            if (length > maxBytes) {
+                throw new ApiException(Response.Status.REQUEST_ENTITY_TOO_LARGE, "File too large");
+            }
+            return new SpooledImageUpload(formatOpt.get(), spool);
+        } catch (IOException ex) {
+            deleteSpoolFile(spool);
+            throw new ApiException(Response.Status.BAD_REQUEST, "Failed to read upload", ex);
+        } catch (RuntimeException ex) {
+            deleteSpoolFile(spool);
+            throw ex;
+        }
+    }
+
+    static Optional<Format> sniff(byte[] header) {
+        if (startsWith(header, 0xFF, 0xD8, 0xFF)) {
+            return Optional.of(Format.JPEG);
+        } else if (startsWith(header, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return Optional.of(Format.PNG);
+        } else if (startsWith(header, 'G', 'I', 'F', '8')) {
+            return Optional.of(Format.GIF);
+        } else if (startsWith(header, 'B', 'M')) {
+            return Optional.of(Format.BMP);
+        } else if (startsWith(header, 0x00, 0x00, 0x01, 0x00)) {
+            return Optional.of(Format.ICO);
+        } else if (startsWith(header, 'I', 'I', 0x2A, 0x00) || startsWith(header, 'M', 'M', 0x00, 0x2A)) {
+            return Optional.of(Format.TIFF);
+        } else if (startsWith(header, '8', 'B', 'P', 'S')) {
+            return Optional.of(Format.PSD);
+        }
+        // SVG is XML, possibly preceded by a byte order mark and whitespace
+        String text = new String(header, StandardCharsets.UTF_8).replace("\uFEFF", "").stripLeading();
+        if (text.startsWith("<")) {
+            return Optional.of(Format.SVG);
+        }
+        return Optional.empty();
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getLength() {
+        return spool.getByteCount();
+    }
+
+    public boolean isInMemory() {
+        return spool.isInMemory();
+    }
+
+    public InputStream openStream() throws IOException {
+        return spool.isInMemory()
+                ? new ByteArrayInputStream(spool.getData())
+                : Files.newInputStream(spool.getFile().toPath());
+    }
+
+    /**
+     * Seekable stream for ImageIO, spooled files are read directly instead of being cached again by ImageIO.
+     */
+    public ImageInputStream openImageInputStream() throws IOException {
+        return spool.isInMemory()
+                ? new MemoryCacheImageInputStream(new ByteArrayInputStream(spool.getData()))
+                : new FileImageInputStream(spool.getFile());
+    }
+
+    @Override
+    public void close() {
+        deleteSpoolFile(spool);
+    }
+
+    private static void deleteSpoolFile(DeferredFileOutputStream spool) {
+        File file = spool.getFile();
+        if (!spool.isInMemory() && file != null) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException ex) {
+                log.warn("Failed to delete upload spool file {}", file, ex);
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] header, int... prefix) {
+        if (header.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((header[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
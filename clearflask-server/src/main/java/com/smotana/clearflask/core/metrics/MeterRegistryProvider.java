@@ -0,0 +1,123 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.metrics;
+
+import com.google.inject.Module;
+import com.google.inject.*;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ClassLoaderMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.binder.system.UptimeMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Single registry all ClearFlask meters are recorded into. Scraped by {@link PrometheusMetricsServer}.
+ */
+@Slf4j
+@Singleton
+public class MeterRegistryProvider extends ManagedService implements Provider<PrometheusMeterRegistry> {
+
+    public static final String METER_PREFIX = "clearflask.";
+
+    public interface Config {
+        /**
+         * Publish histogram buckets for ClearFlask timers so latency percentiles can be aggregated across
+         * instances. Disabling leaves only count, sum and max per timer.
+         */
+        @DefaultValue("true")
+        boolean percentilesHistogram();
+
+        /**
+         * Lower bound of histogram buckets, keeps the number of buckets per timer small.
+         */
+        @DefaultValue("PT0.001S")
+        Duration histogramMinimumExpected();
+
+        /**
+         * Upper bound of histogram buckets.
+         */
+        @DefaultValue("PT60S")
+        Duration histogramMaximumExpected();
+
+        @DefaultValue("true")
+        boolean jvmMetricsEnabled();
+    }
+
+    @Inject
+    private Config config;
+
+    private volatile PrometheusMeterRegistry registry;
+    private Optional<JvmGcMetrics> jvmGcMetricsOpt = Optional.empty();
+
+    @Override
+    public PrometheusMeterRegistry get() {
+        if (registry != null) return registry;
+        synchronized (this) {
+            if (registry != null) return registry;
+
+            PrometheusMeterRegistry newRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+            newRegistry.config().meterFilter(new MeterFilter() {
+                @Override
+                public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig statsConfig) {
+                    if (!id.getName().startsWith(METER_PREFIX)
+                            || id.getType() != Meter.Type.TIMER) {
+                        return statsConfig;
+                    }
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(config.percentilesHistogram())
+                            .minimumExpectedValue((double) config.histogramMinimumExpected().toNanos())
+                            .maximumExpectedValue((double) config.histogramMaximumExpected().toNanos())
+                            .build()
+                            .merge(statsConfig);
+                }
+            });
+
+            if (config.jvmMetricsEnabled()) {
+                new ClassLoaderMetrics().bindTo(newRegistry);
+                new JvmMemoryMetrics().bindTo(newRegistry);
+                new JvmThreadMetrics().bindTo(newRegistry);
+                new ProcessorMetrics().bindTo(newRegistry);
+                new UptimeMetrics().bindTo(newRegistry);
+                JvmGcMetrics jvmGcMetrics = new JvmGcMetrics();
+                jvmGcMetrics.bindTo(newRegistry);
+                jvmGcMetricsOpt = Optional.of(jvmGcMetrics);
+            }
+
+            registry = newRegistry;
+            return registry;
+        }
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        // Registry itself is left open, other services may still record while shutting down
+        jvmGcMetricsOpt.ifPresent(JvmGcMetrics::close);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(PrometheusMeterRegistry.class).toProvider(MeterRegistryProvider.class).asEagerSingleton();
+                bind(MeterRegistry.class).to(PrometheusMeterRegistry.class);
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(MeterRegistryProvider.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes {@link PrometheusMeterRegistry} in Prometheus text format on its own port, so scraping never competes with
+ * API traffic for Tomcat threads and the endpoint is not reachable through the public load balancer.
+ */
+@Slf4j
+@Singleton
+public class PrometheusMetricsServer extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("0.0.0.0")
+        String host();
+
+        @DefaultValue("9464")
+        int port();
+
+        @DefaultValue("/metrics")
+        String path();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private PrometheusMeterRegistry registry;
+
+    private Optional<HttpServer> serverOpt = Optional.empty();
+    private Optional<ExecutorService> executorOpt = Optional.empty();
+
+    @Override
+    protected void serviceStart() throws Exception {
+        if (!config.enabled()) {
+            log.info("Prometheus metrics endpoint disabled");
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(config.host(), config.port()), 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("PrometheusMetricsServer-worker-%d")
+                .setDaemon(true)
+                .build());
+        server.setExecutor(executor);
+        server.createContext(config.path(), this::handleScrape);
+        server.start();
+        serverOpt = Optional.of(server);
+        executorOpt = Optional.of(executor);
+        log.info("Prometheus metrics available on {}:{}{}", config.host(), config.port(), config.path());
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        serverOpt.ifPresent(server -> server.stop(0));
+        if (executorOpt.isPresent()) {
+            executorOpt.get().shutdownNow();
+            executorOpt.get().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String contentType = TextFormat.chooseContentType(exchange.getRequestHeaders().getFirst("Accept"));
+            byte[] body;
+            try {
+                body = registry.scrape(contentType).getBytes(StandardCharsets.UTF_8);
+            } catch (Exception ex) {
+                log.warn("Failed to scrape metrics", ex);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(PrometheusMetricsServer.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.metrics;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.matcher.AbstractMatcher;
+import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.VoteStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every method of the core stores that is part of the store's interface.
+ * <p>
+ * Only the synchronous part of a call is measured; for methods returning an indexing future, the time spent
+ * in the search engine after returning shows up under the client metrics instead.
+ */
+@Slf4j
+public class StoreMetricsInterceptor implements MethodInterceptor {
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "store";
+    private static final ImmutableSet<Class<?>> STORE_INTERFACES = ImmutableSet.of(
+            IdeaStore.class,
+            CommentStore.class,
+            UserStore.class,
+            VoteStore.class,
+            AccountStore.class);
+
+    @Inject
+    private MeterRegistry registry;
+
+    private final ConcurrentMap<Method, Timer[]> timersByMethod = new ConcurrentHashMap<>();
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            Object result = invocation.proceed();
+            success = true;
+            return result;
+        } finally {
+            timersByMethod.computeIfAbsent(invocation.getMethod(), this::createTimers)[success ? 0 : 1]
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer[] createTimers(Method method) {
+        String storeName = STORE_INTERFACES.stream()
+                .filter(storeInterface -> storeInterface.isAssignableFrom(method.getDeclaringClass()))
+                .map(Class::getSimpleName)
+                .findFirst()
+                .orElse(method.getDeclaringClass().getSimpleName());
+        return new Timer[]{
+                createTimer(storeName, method.getName(), "success"),
+                createTimer(storeName, method.getName(), "error")};
+    }
+
+    private Timer createTimer(String storeName, String methodName, String outcome) {
+        return Timer.builder(METER_NAME)
+                .tag("store", storeName)
+                .tag("method", methodName)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static boolean isStoreInterfaceMethod(Method method) {
+        if (method.isSynthetic() || method.isBridge() || method.isDefault()) {
+            return false;
+        }
+        for (Class<?> storeInterface : STORE_INTERFACES) {
+            if (!storeInterface.isAssignableFrom(method.getDeclaringClass())) {
+                continue;
+            }
+            try {
+                storeInterface.getMethod(method.getName(), method.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // Not part of this interface
+            }
+        }
+        return false;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                StoreMetricsInterceptor interceptor = new StoreMetricsInterceptor();
+                requestInjection(interceptor);
+                bindInterceptor(new AbstractMatcher<Class<?>>() {
+                    @Override
+                    public boolean matches(Class<?> clazz) {
+                        return STORE_INTERFACES.stream().anyMatch(storeInterface -> storeInterface.isAssignableFrom(clazz));
+                    }
+                }, new AbstractMatcher<Method>() {
+                    @Override
+                    public boolean matches(Method method) {
+                        return isStoreInterfaceMethod(method);
+                    }
+                }, interceptor);
+            }
+        };
+    }
+}
@@ -41,6 +41,8 @@ import com.smotana.clearflask.store.VoteStore.ListResponse;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NonNull;
@@ -142,14 +144,16 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     private OnDigest onDigest;
     @Inject
     private OnProjectDeletionImminent onProjectDeletionImminent;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private ListeningExecutorService executor;
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
+        executor = MoreExecutors.listeningDecorator(ExecutorServiceMetrics.monitor(meterRegistry, new ThreadPoolExecutor(
                 2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-worker-%d").build()));
+                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-worker-%d").build()), "NotificationServiceImpl"));
     }
 
     @Override
@@ -2,44 +2,79 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.core.push.provider;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.kik.config.ice.annotations.NoDefaultValue;
 import com.smotana.clearflask.api.model.UserUpdate;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
 import com.smotana.clearflask.util.LogUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import nl.martijndwars.webpush.*;
-import org.apache.http.Header;
-import org.apache.http.HttpResponse;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.NumericDate;
 import org.jose4j.lang.JoseException;
 import rx.Observable;
 
-import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkState;
 
 @Slf4j
 @Singleton
-public class BrowserPushServiceImpl implements BrowserPushService {
+public class BrowserPushServiceImpl extends ManagedService implements BrowserPushService {
 
     public interface Config {
         @DefaultValue("true")
@@ -59,8 +94,77 @@ public class BrowserPushServiceImpl implements BrowserPushService {
         String privateKey();
 
         Observable<String> privateKeyObservable();
+
+        /**
+         * Valid options: AESGCM AES128GCM
+         */
+        @DefaultValue("AESGCM")
+        Encoding encoding();
+
+        @DefaultValue("P28D")
+        Duration ttl();
+
+        /**
+         * VAPID subject, a mailto: or https: contact for the push service. Empty to omit.
+         */
+        @DefaultValue("")
+        String vapidSubject();
+
+        /**
+         * Signed VAPID headers are reused per push service origin until they are about to expire.
+         */
+        @DefaultValue("PT12H")
+        Duration vapidExpiry();
+
+        @DefaultValue("PT1H")
+        Duration vapidRefreshBefore();
+
+        @DefaultValue("64")
+        int maxConcurrent();
+
+        @DefaultValue("8")
+        int maxConcurrentPerOrigin();
+
+        /**
+         * Pushes beyond this waiting for a push service are dropped.
+         */
+        @DefaultValue("10000")
+        int maxQueued();
+
+        @DefaultValue("4")
+        int threadPoolSize();
+
+        @DefaultValue("PT5S")
+        Duration connectTimeout();
+
+        @DefaultValue("PT10S")
+        Duration requestTimeout();
+
+        /**
+         * Expired subscriptions are collected and removed from users in batches.
+         */
+        @DefaultValue("PT10S")
+        Duration pruneInterval();
+
+        @DefaultValue("PT10S")
+        Duration shutdownDrainTimeout();
     }
 
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "browserpush";
+    /**
+     * Host suffix of well known push services to metric tag, anything else is tagged as "other" to bound cardinality
+     * as endpoints are user supplied.
+     */
+    private static final ImmutableMap<String, String> ORIGIN_TAG_BY_HOST_SUFFIX = ImmutableMap.of(
+            "fcm.googleapis.com", "fcm",
+            "android.googleapis.com", "fcm",
+            "push.services.mozilla.com", "mozilla",
+            "push.apple.com", "apple",
+            "notify.windows.com", "wns");
+    private static final String SENDER_KEY_ID = "server";
+    private static final String SENDER_KEY_CURVE_LABEL = "P-256";
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
     @Value
     @Builder
     @AllArgsConstructor
@@ -88,8 +192,46 @@ public class BrowserPushServiceImpl implements BrowserPushService {
     private Gson gson;
     @Inject
     private UserStore userStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    private volatile Optional<KeyPair> keyPairOpt = Optional.empty();
+    /**
+     * Audience (push service origin) to signed VAPID JWT
+     */
+    private Cache<String, String> vapidTokenCache;
+    private final ConcurrentMap<String, OriginLane> originLanes = Maps.newConcurrentMap();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private Semaphore concurrentSemaphore;
+    /**
+     * Null until started, pushes are queued until then.
+     */
+    private volatile ExecutorService executor;
+    private HttpClient httpClient;
+    /**
+     * Project id to user id to expired subscription
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> expiredSubscriptions = Maps.newConcurrentMap();
+    private ScheduledExecutorService pruneExecutor;
+    private Counter droppedCounter;
+    private Counter prunedCounter;
+    private final Map<String, Timer> sendTimers = Maps.newConcurrentMap();
 
-    private final PushService pushService = new PushService();
+    /**
+     * Pushes waiting for a single push service. Pushes of one origin share HTTP/2 connections and are limited in
+     * concurrency separately so a slow push service does not hold up others. Lanes are removed once idle.
+     */
+    private static class OriginLane {
+        private final Queue<PreparedPush> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+    }
+
+    @Value
+    private static class PreparedPush {
+        BrowserPush browserPush;
+        Subscription subscription;
+        String origin;
+    }
 
     @Inject
     private void setup() {
@@ -112,6 +254,56 @@ public class BrowserPushServiceImpl implements BrowserPushService {
                         config.privateKeyObservable())
                 .forEach(o -> o.subscribe(v -> setKeyPair(config.publicKey(), config.privateKey())));
         setKeyPair(config.publicKey(), config.privateKey());
+
+        vapidTokenCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.vapidExpiry().minus(config.vapidRefreshBefore()))
+                .build();
+        concurrentSemaphore = new Semaphore(config.maxConcurrent());
+        meterRegistry.gauge(METER_NAME + ".queued", queuedCount);
+        droppedCounter = meterRegistry.counter(METER_NAME + ".dropped");
+        prunedCounter = meterRegistry.counter(METER_NAME + ".pruned");
+    }
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(DefaultDynamoDbProvider.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(config.threadPoolSize(),
+                new ThreadFactoryBuilder().setNameFormat("BrowserPushServiceImpl-worker-%d").build());
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(config.connectTimeout())
+                .executor(executor)
+                .build();
+        this.executor = executor;
+        pruneExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("BrowserPushServiceImpl-prune-%d").build());
+        pruneExecutor.scheduleWithFixedDelay(this::pruneExpiredSubscriptions,
+                config.pruneInterval().toMillis(), config.pruneInterval().toMillis(), TimeUnit.MILLISECONDS);
+
+        // Send pushes queued before start
+        originLanes.values().forEach(this::dispatch);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        long deadlineNanos = System.nanoTime() + config.shutdownDrainTimeout().toNanos();
+        while ((queuedCount.get() > 0 || concurrentSemaphore.availablePermits() < config.maxConcurrent())
+                && deadlineNanos - System.nanoTime() > 0) {
+            Thread.sleep(100);
+        }
+        if (pruneExecutor != null) {
+            pruneExecutor.shutdownNow();
+            pruneExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        pruneExpiredSubscriptions();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
     }
 
     private void setKeyPair(String publicKeyStr, String privateKeyStr) {
@@ -129,7 +321,10 @@ public class BrowserPushServiceImpl implements BrowserPushService {
             throw new RuntimeException(ex);
         }
         checkState(Utils.verifyKeyPair(privateKey, publicKey), "Configuration mismatch, public/private keys do not match");
-        pushService.setKeyPair(new KeyPair(publicKey, privateKey));
+        keyPairOpt = Optional.of(new KeyPair(publicKey, privateKey));
+        if (vapidTokenCache != null) {
+            vapidTokenCache.invalidateAll();
+        }
     }
 
     @Override
@@ -145,59 +340,288 @@ public class BrowserPushServiceImpl implements BrowserPushService {
         } catch (JsonSyntaxException ex) {
             throw new RuntimeException("Cannot parse browser subscription: " + browserPush.getSubscription(), ex);
         }
-        HttpResponse response;
+        String origin;
         try {
-            response = pushService.send(Notification.builder()
-                    .endpoint(subscription.endpoint)
-                    .userPublicKey(subscription.keys.p256dh)
-                    .userAuth(subscription.keys.auth)
-                    .urgency(config.urgency())
-                    .payload(gson.toJson(Payload.builder()
-                            .notificationTitle(browserPush.getTitle())
-                            .notificationOptions(Payload.Options.builder()
-                                    .silent(true)
-                                    .body(browserPush.getBody())
-                                    .build())
-                            .build()))
-                    .build());
-        } catch (InterruptedException | ExecutionException | GeneralSecurityException | IOException |
-                 JoseException ex) {
-            throw new RuntimeException("Cannot parse public key for subscription: " + browserPush.getSubscription(), ex);
-        }
-
-        switch (response.getStatusLine().getStatusCode()) {
+            URL endpointUrl = new URL(subscription.endpoint);
+            origin = endpointUrl.getProtocol() + "://" + endpointUrl.getHost()
+                    + (endpointUrl.getPort() == -1 ? "" : ":" + endpointUrl.getPort());
+        } catch (MalformedURLException ex) {
+            throw new RuntimeException("Cannot parse browser subscription endpoint: " + browserPush.getSubscription(), ex);
+        }
+
+        if (queuedCount.incrementAndGet() > config.maxQueued()) {
+            queuedCount.decrementAndGet();
+            droppedCounter.increment();
+            if (LogUtil.rateLimitAllowLog("browserpush-queuefull")) {
+                log.warn("Browser push queue full, dropping push for projectId {} userId {}",
+                        browserPush.getProjectId(), browserPush.getUserId());
+            }
+            return;
+        }
+        // Enqueue atomically with idle lane removal so a push is never added to a removed lane
+        PreparedPush push = new PreparedPush(browserPush, subscription, origin);
+        OriginLane lane = originLanes.compute(origin, (o, existingLane) -> {
+            OriginLane l = existingLane != null ? existingLane : new OriginLane();
+            l.queue.add(push);
+            return l;
+        });
+        dispatch(lane);
+    }
+
+    /**
+     * Starts as many queued pushes of this origin as concurrency limits allow. Called on enqueue and whenever a push
+     * completes.
+     */
+    private void dispatch(OriginLane lane) {
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            // Not started yet, dispatched on start
+            return;
+        }
+        while (!lane.queue.isEmpty()) {
+            if (lane.inFlight.incrementAndGet() > config.maxConcurrentPerOrigin()) {
+                lane.inFlight.decrementAndGet();
+                return;
+            }
+            if (!concurrentSemaphore.tryAcquire()) {
+                lane.inFlight.decrementAndGet();
+                return;
+            }
+            PreparedPush push = lane.queue.poll();
+            if (push == null) {
+                concurrentSemaphore.release();
+                lane.inFlight.decrementAndGet();
+                continue;
+            }
+            queuedCount.decrementAndGet();
+            long startNanos = System.nanoTime();
+            try {
+                executor.execute(() -> sendAsync(push, startNanos, () -> {
+                    concurrentSemaphore.release();
+                    lane.inFlight.decrementAndGet();
+                    dispatch(lane);
+                    removeLaneIfIdle(push.getOrigin());
+                    // Another origin may be waiting on the global limit
+                    originLanes.values().forEach(this::dispatch);
+                }));
+            } catch (Exception ex) {
+                concurrentSemaphore.release();
+                lane.inFlight.decrementAndGet();
+                droppedCounter.increment();
+                log.warn("Failed to dispatch browser push", ex);
+                return;
+            }
+        }
+    }
+
+    private void removeLaneIfIdle(String origin) {
+        originLanes.computeIfPresent(origin, (o, lane) -> lane.queue.isEmpty() && lane.inFlight.get() == 0
+                ? null
+                : lane);
+    }
+
+    private void sendAsync(PreparedPush push, long startNanos, Runnable onComplete) {
+        HttpRequest request;
+        try {
+            request = buildRequest(push);
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("browserpush-encrypt")) {
+                log.warn("Cannot prepare browser push for subscription: {}", push.getBrowserPush().getSubscription(), ex);
+            }
+            onComplete.run();
+            return;
+        }
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, ex) -> {
+                    try {
+                        String statusTag;
+                        if (ex != null) {
+                            statusTag = "error";
+                            if (LogUtil.rateLimitAllowLog("browserpush-exception")) {
+                                log.warn("Failed to send browser push to origin {}", push.getOrigin(), ex);
+                            }
+                        } else {
+                            statusTag = String.valueOf(response.statusCode());
+                            handleResponse(push, response);
+                        }
+                        String originTag = originTag(push.getOrigin());
+                        sendTimers.computeIfAbsent(originTag + "-" + statusTag, k -> Timer.builder(METER_NAME + ".send")
+                                        .tag("origin", originTag)
+                                        .tag("status", statusTag)
+                                        .register(meterRegistry))
+                                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                    } finally {
+                        onComplete.run();
+                    }
+                });
+    }
+
+    private HttpRequest buildRequest(PreparedPush push) throws GeneralSecurityException, JoseException, ExecutionException {
+        BrowserPush browserPush = push.getBrowserPush();
+        Subscription subscription = push.getSubscription();
+        Encoding encoding = config.encoding();
+        byte[] payload = gson.toJson(Payload.builder()
+                        .notificationTitle(browserPush.getTitle())
+                        .notificationOptions(Payload.Options.builder()
+                                .silent(true)
+                                .body(browserPush.getBody())
+                                .build())
+                        .build())
+                .getBytes(StandardCharsets.UTF_8);
+
+        // Encryption is keyed per subscription and message, only the VAPID signature can be reused
+        byte[] salt = new byte[16];
+        SECURE_RANDOM.nextBytes(salt);
+        Encrypted encrypted = encrypt(
+                payload,
+                (ECPublicKey) Utils.loadPublicKey(subscription.keys.p256dh),
+                Base64Encoder.decode(subscription.keys.auth),
+                encoding,
+                salt,
+                generateSenderKeyPair());
+
+        Optional<KeyPair> keyPairOpt = this.keyPairOpt;
+        Optional<String> vapidTokenOpt = keyPairOpt.isPresent()
+                ? Optional.of(vapidTokenCache.get(push.getOrigin(), () -> signVapidToken(
+                push.getOrigin(),
+                keyPairOpt.get().getPrivate(),
+                Instant.now().plus(config.vapidExpiry()),
+                config.vapidSubject())))
+                : Optional.empty();
+        return buildRequest(
+                subscription.endpoint,
+                encoding,
+                encrypted,
+                vapidTokenOpt,
+                keyPairOpt.map(KeyPair::getPublic),
+                config.ttl(),
+                config.urgency(),
+                config.requestTimeout());
+    }
+
+    /**
+     * Encrypts the payload for a subscription as in RFC 8291 (aes128gcm) or its earlier draft (aesgcm).
+     *
+     * @param salt          Random 16 bytes, unique per message
+     * @param senderKeyPair Ephemeral P-256 key pair, unique per message
+     */
+    @VisibleForTesting
+    static Encrypted encrypt(byte[] payload, ECPublicKey userPublicKey, byte[] userAuth, Encoding encoding, byte[] salt, KeyPair senderKeyPair) throws GeneralSecurityException {
+        HttpEce httpEce = new HttpEce(
+                ImmutableMap.of(SENDER_KEY_ID, senderKeyPair),
+                ImmutableMap.of(SENDER_KEY_ID, SENDER_KEY_CURVE_LABEL));
+        byte[] ciphertext = httpEce.encrypt(payload, salt, null, SENDER_KEY_ID, userPublicKey, userAuth, encoding);
+        return new Encrypted(senderKeyPair.getPublic(), salt, ciphertext);
+    }
+
+    private static KeyPair generateSenderKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        keyPairGenerator.initialize(ECNamedCurveTable.getParameterSpec(Utils.CURVE));
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    @VisibleForTesting
+    static HttpRequest buildRequest(
+            String endpoint,
+            Encoding encoding,
+            Encrypted encrypted,
+            Optional<String> vapidTokenOpt,
+            Optional<PublicKey> vapidPublicKeyOpt,
+            Duration ttl,
+            Urgency urgency,
+            Duration requestTimeout) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .timeout(requestTimeout)
+                .header("TTL", String.valueOf(ttl.toSeconds()))
+                .header("Urgency", urgency.getHeaderValue())
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(encrypted.getCiphertext()));
+        String vapidToken = vapidTokenOpt.orElse(null);
+        String vapidPublicKey = vapidPublicKeyOpt
+                .map(publicKey -> Base64Encoder.encodeUrlWithoutPadding(Utils.encode((ECPublicKey) publicKey)))
+                .orElse(null);
+        if (encoding == Encoding.AES128GCM) {
+            requestBuilder.header("Content-Encoding", "aes128gcm");
+            if (vapidToken != null) {
+                if (endpoint.startsWith("https://fcm.googleapis.com")) {
+                    endpoint = endpoint.replace("fcm/send", "wp");
+                }
+                requestBuilder.header("Authorization", "vapid t=" + vapidToken + ", k=" + vapidPublicKey);
+            }
+        } else {
+            requestBuilder.header("Content-Encoding", "aesgcm");
+            requestBuilder.header("Encryption", "salt=" + Base64Encoder.encodeUrlWithoutPadding(encrypted.getSalt()));
+            String cryptoKey = "dh=" + Base64Encoder.encodeUrl(Utils.encode((ECPublicKey) encrypted.getPublicKey()));
+            if (vapidToken != null) {
+                requestBuilder.header("Authorization", "WebPush " + vapidToken);
+                cryptoKey += ";p256ecdsa=" + vapidPublicKey;
+            }
+            requestBuilder.header("Crypto-Key", cryptoKey);
+        }
+        return requestBuilder.uri(URI.create(endpoint)).build();
+    }
+
+    @VisibleForTesting
+    static String signVapidToken(String audience, PrivateKey privateKey, Instant expiry, String subject) throws JoseException {
+        JwtClaims claims = new JwtClaims();
+        claims.setAudience(audience);
+        claims.setExpirationTime(NumericDate.fromSeconds(expiry.getEpochSecond()));
+        if (!subject.isEmpty()) {
+            claims.setSubject(subject);
+        }
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setHeader("typ", "JWT");
+        jws.setPayload(claims.toJson());
+        jws.setKey(privateKey);
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256);
+        return jws.getCompactSerialization();
+    }
+
+    @VisibleForTesting
+    static String originTag(String origin) {
+        String host = URI.create(origin).getHost();
+        if (host == null) {
+            return "other";
+        }
+        return ORIGIN_TAG_BY_HOST_SUFFIX.entrySet().stream()
+                .filter(e -> host.equals(e.getKey()) || host.endsWith("." + e.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse("other");
+    }
+
+    private void handleResponse(PreparedPush push, HttpResponse<Void> response) {
+        BrowserPush browserPush = push.getBrowserPush();
+        switch (response.statusCode()) {
             case 201:
                 break;
             case 429:
-                Header retryAfterHeader = response.getFirstHeader("retry-after");
-                String hostname;
-                try {
-                    hostname = new URL(subscription.endpoint).getHost();
-                } catch (MalformedURLException exception) {
-                    hostname = "unknown";
-                }
                 if (LogUtil.rateLimitAllowLog("browserpush-ratelimited")) {
-                    log.warn("Push service limit reached, endpoint retry-after {} host {}",
-                            retryAfterHeader == null ? null : retryAfterHeader.getValue(), hostname);
+                    log.warn("Push service limit reached, endpoint retry-after {} origin {}",
+                            response.headers().firstValue("retry-after").orElse(null), push.getOrigin());
                 }
                 break;
             case 400:
                 if (LogUtil.rateLimitAllowLog("browserpush-invalidrequest")) {
                     log.warn("Invalid request, notification {} subscription {}",
-                            browserPush, subscription);
+                            browserPush, push.getSubscription());
                 }
                 break;
-            case 404:
-                log.debug("Subscription expired for projectId {} userId {}",
-                        browserPush.getProjectId(), browserPush.getUserId());
-                userStore.updateUser(browserPush.getProjectId(), browserPush.getUserId(),
-                        UserUpdate.builder().browserPushToken("").build());
+            case 401:
+            case 403:
+                // VAPID token rejected, sign a new one next time
+                vapidTokenCache.invalidate(push.getOrigin());
+                if (LogUtil.rateLimitAllowLog("browserpush-unauthorized")) {
+                    log.warn("Push service rejected authorization with http code {} origin {}",
+                            response.statusCode(), push.getOrigin());
+                }
                 break;
+            case 404:
             case 410:
-                log.debug("Subscription no longer valid for projectId {} userId {}",
+                log.debug("Subscription expired for projectId {} userId {}",
                         browserPush.getProjectId(), browserPush.getUserId());
-                userStore.updateUser(browserPush.getProjectId(), browserPush.getUserId(),
-                        UserUpdate.builder().browserPushToken("").build());
+                expiredSubscriptions.computeIfAbsent(browserPush.getProjectId(), p -> Maps.newConcurrentMap())
+                        .put(browserPush.getUserId(), browserPush.getSubscription());
                 break;
             case 413:
                 if (LogUtil.rateLimitAllowLog("browserpush-payloadtoolarge")) {
@@ -208,18 +632,45 @@ public class BrowserPushServiceImpl implements BrowserPushService {
             default:
                 if (LogUtil.rateLimitAllowLog("browserpush-unknown")) {
                     log.warn("Failed to send notification, unknown reason with http code {} browserPush {}",
-                            response.getStatusLine().getStatusCode(), browserPush);
+                            response.statusCode(), browserPush);
                 }
                 break;
         }
     }
 
+    /**
+     * Removes expired subscriptions collected since last run. Users are fetched in bulk per project and only cleared if
+     * they have not subscribed again in the meantime.
+     */
+    private void pruneExpiredSubscriptions() {
+        for (String projectId : ImmutableSet.copyOf(expiredSubscriptions.keySet())) {
+            ConcurrentMap<String, String> userIdToSubscription = expiredSubscriptions.remove(projectId);
+            if (userIdToSubscription == null || userIdToSubscription.isEmpty()) {
+                continue;
+            }
+            try {
+                ImmutableMap<String, UserModel> users = userStore.getUsers(projectId, ImmutableSet.copyOf(userIdToSubscription.keySet()));
+                users.values().stream()
+                        .filter(user -> userIdToSubscription.get(user.getUserId()).equals(user.getBrowserPushToken()))
+                        .forEach(user -> {
+                            userStore.updateUser(projectId, user.getUserId(),
+                                    UserUpdate.builder().browserPushToken("").build());
+                            prunedCounter.increment();
+                        });
+            } catch (Exception ex) {
+                log.warn("Failed to prune expired browser push subscriptions for projectId {}", projectId, ex);
+            }
+        }
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
             protected void configure() {
                 bind(BrowserPushService.class).to(BrowserPushServiceImpl.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(BrowserPushServiceImpl.class).asEagerSingleton();
             }
         };
     }
@@ -0,0 +1,182 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.push.provider;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import lombok.Value;
+import lombok.With;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-memory queue of emails waiting to be sent with a lane per {@link Priority}. Higher priority lanes are
+ * always drained first, within a lane emails are sent in order.
+ */
+public class EmailOutbox {
+
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    @Value
+    public static class QueuedEmail {
+        Email email;
+        Priority priority;
+        Instant queued;
+        @With
+        int attempt;
+    }
+
+    private final int capacity;
+    private final EnumMap<Priority, Deque<QueuedEmail>> lanes = new EnumMap<>(Priority.class);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int size = 0;
+
+    public EmailOutbox(int capacity) {
+        this.capacity = capacity;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @return False if the outbox is full
+     */
+    public boolean offer(QueuedEmail queuedEmail) {
+        lock.lock();
+        try {
+            if (size >= capacity) {
+                return false;
+            }
+            lanes.get(queuedEmail.getPriority()).addLast(queuedEmail);
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts emails back at the front of their lanes, e.g. after being throttled. May exceed capacity as these emails
+     * were already accepted.
+     */
+    public void requeue(List<QueuedEmail> queuedEmails) {
+        if (queuedEmails.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (QueuedEmail queuedEmail : Lists.reverse(queuedEmails)) {
+                lanes.get(queuedEmail.getPriority()).addFirst(queuedEmail);
+                size++;
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next email of the highest priority lane. If it is batchable, other batchable emails of the same
+     * type from the same lane are taken along.
+     *
+     * @return Empty if nothing arrived within timeout
+     */
+    public ImmutableList<QueuedEmail> pollBatch(int maxBatchSize, Duration timeout, Predicate<Email> batchable) throws InterruptedException {
+        long remainingNanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (size == 0) {
+                if (remainingNanos <= 0L) {
+                    return ImmutableList.of();
+                }
+                remainingNanos = notEmpty.awaitNanos(remainingNanos);
+            }
+            for (Priority priority : Priority.values()) {
+                Deque<QueuedEmail> lane = lanes.get(priority);
+                QueuedEmail head = lane.pollFirst();
+                if (head == null) {
+                    continue;
+                }
+                size--;
+                if (maxBatchSize <= 1 || !batchable.test(head.getEmail())) {
+                    return ImmutableList.of(head);
+                }
+                ImmutableList.Builder<QueuedEmail> batchBuilder = ImmutableList.<QueuedEmail>builder().add(head);
+                int batchSize = 1;
+                Iterator<QueuedEmail> laneIterator = lane.iterator();
+                while (batchSize < maxBatchSize && laneIterator.hasNext()) {
+                    QueuedEmail next = laneIterator.next();
+                    if (head.getEmail().getTypeTag().equals(next.getEmail().getTypeTag())
+                            && batchable.test(next.getEmail())) {
+                        laneIterator.remove();
+                        size--;
+                        batchBuilder.add(next);
+                        batchSize++;
+                    }
+                }
+                return batchBuilder.build();
+            }
+            throw new IllegalStateException("Outbox size " + size + " but all lanes are empty");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ImmutableList<QueuedEmail> drainAll() {
+        lock.lock();
+        try {
+            ImmutableList.Builder<QueuedEmail> drainedBuilder = ImmutableList.builder();
+            for (Deque<QueuedEmail> lane : lanes.values()) {
+                drainedBuilder.addAll(lane);
+                lane.clear();
+            }
+            size = 0;
+            return drainedBuilder.build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size(Priority priority) {
+        lock.lock();
+        try {
+            return lanes.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity - size);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
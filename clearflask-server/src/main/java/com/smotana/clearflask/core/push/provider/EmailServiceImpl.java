@@ -4,36 +4,69 @@ package com.smotana.clearflask.core.push.provider;
 
 import com.amazonaws.services.simpleemailv2.AmazonSimpleEmailServiceV2;
 import com.amazonaws.services.simpleemailv2.model.AccountSuspendedException;
+import com.amazonaws.services.simpleemailv2.model.AlreadyExistsException;
 import com.amazonaws.services.simpleemailv2.model.BadRequestException;
 import com.amazonaws.services.simpleemailv2.model.Body;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailContent;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntry;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntryResult;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailStatus;
 import com.amazonaws.services.simpleemailv2.model.Content;
+import com.amazonaws.services.simpleemailv2.model.CreateEmailTemplateRequest;
 import com.amazonaws.services.simpleemailv2.model.Destination;
 import com.amazonaws.services.simpleemailv2.model.EmailContent;
+import com.amazonaws.services.simpleemailv2.model.EmailTemplateContent;
+import com.amazonaws.services.simpleemailv2.model.GetAccountRequest;
 import com.amazonaws.services.simpleemailv2.model.LimitExceededException;
 import com.amazonaws.services.simpleemailv2.model.MailFromDomainNotVerifiedException;
 import com.amazonaws.services.simpleemailv2.model.Message;
 import com.amazonaws.services.simpleemailv2.model.MessageRejectedException;
 import com.amazonaws.services.simpleemailv2.model.MessageTag;
 import com.amazonaws.services.simpleemailv2.model.NotFoundException;
+import com.amazonaws.services.simpleemailv2.model.ReplacementEmailContent;
+import com.amazonaws.services.simpleemailv2.model.ReplacementTemplate;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailRequest;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailResult;
 import com.amazonaws.services.simpleemailv2.model.SendEmailRequest;
 import com.amazonaws.services.simpleemailv2.model.SendEmailResult;
+import com.amazonaws.services.simpleemailv2.model.SendQuota;
 import com.amazonaws.services.simpleemailv2.model.SendingPausedException;
+import com.amazonaws.services.simpleemailv2.model.Template;
 import com.amazonaws.services.simpleemailv2.model.TooManyRequestsException;
 import com.google.common.base.Charsets;
 import com.google.common.base.Enums;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.GuavaRateLimiters;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.kik.config.ice.ConfigSystem;
+import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.email.AmazonSimpleEmailServiceProvider;
+import com.smotana.clearflask.core.push.provider.EmailOutbox.Priority;
+import com.smotana.clearflask.core.push.provider.EmailOutbox.QueuedEmail;
+import com.smotana.clearflask.store.EmailOutboxStore;
+import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.simplejavamail.email.EmailBuilder;
 import org.simplejavamail.email.EmailPopulatingBuilder;
@@ -43,13 +76,20 @@ import org.simplejavamail.mailer.config.TransportStrategy;
 import rx.Observable;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Singleton
-public class EmailServiceImpl implements EmailService {
+public class EmailServiceImpl extends ManagedService implements EmailService {
 
     public interface Config {
         @DefaultValue("true")
@@ -118,8 +158,77 @@ public class EmailServiceImpl implements EmailService {
         Observable<String> smtpStrategyObservable();
 
         Observable<String> smtpTlsProtocolsObservable();
+
+        /**
+         * Emails beyond this are spilled if enabled, otherwise dropped.
+         */
+        @DefaultValue("10000")
+        int outboxCapacity();
+
+        @DefaultValue("2")
+        int outboxWorkerThreads();
+
+        @DefaultValue(value = "EMAIL_VERIFY,FORGOT_PASSWORD,ADMIN_FORGOT_PASSWORD", innerType = String.class)
+        List<String> priorityHighTypeTags();
+
+        @DefaultValue(value = "WEEKLY_DIGEST", innerType = String.class)
+        List<String> priorityLowTypeTags();
+
+        /**
+         * SES maximum send rate, used unless fetched from the SES account.
+         */
+        @DefaultValue("14")
+        double sesMaxSendRate();
+
+        @DefaultValue("true")
+        boolean sesMaxSendRateFromAccount();
+
+        /**
+         * Lowest rate the send rate backs off to when throttled by SES.
+         */
+        @DefaultValue("0.5")
+        double sesMinSendRate();
+
+        @DefaultValue("PT1S")
+        Duration throttleBackoffInitial();
+
+        @DefaultValue("PT1M")
+        Duration throttleBackoffMax();
+
+        @DefaultValue("5")
+        int maxAttempts();
+
+        /**
+         * Emails of the same type are sent with a single SES bulk request using a template that passes through
+         * already rendered content.
+         */
+        @DefaultValue("true")
+        boolean bulkSendEnabled();
+
+        @DefaultValue("50")
+        int bulkSendMaxSize();
+
+        @DefaultValue("clearflask-passthrough")
+        String bulkSendTemplateName();
+
+        @DefaultValue("false")
+        boolean spillEnabled();
+
+        @DefaultValue("PT30S")
+        Duration spillClaimInterval();
+
+        @DefaultValue("PT10S")
+        Duration shutdownDrainTimeout();
     }
 
+    private enum Outcome {
+        SENT,
+        THROTTLED,
+        FAILED
+    }
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "email";
+
     @Inject
     private Config config;
     @Inject
@@ -128,9 +237,28 @@ public class EmailServiceImpl implements EmailService {
     private Provider<AmazonSimpleEmailServiceV2> sesProvider;
     @Inject
     private GuavaRateLimiters guavaRateLimiters;
+    @Inject
+    private EmailOutboxStore emailOutboxStore;
+    @Inject
+    private Gson gson;
+    @Inject
+    private MeterRegistry meterRegistry;
 
-    private RateLimiter rateLimiter;
+    private volatile RateLimiter rateLimiter;
     private volatile Optional<Mailer> smtpOpt = Optional.empty();
+    private EmailOutbox outbox;
+    private ExecutorService workerExecutor;
+    private ScheduledExecutorService spillExecutor;
+    private volatile boolean running = false;
+    private RateLimiter sesRateLimiter;
+    private volatile double sesMaxSendRate;
+    private volatile boolean bulkSendAvailable = false;
+    private final AtomicInteger consecutiveThrottles = new AtomicInteger();
+    private Timer waitTimer;
+    private Counter droppedCounter;
+    private Counter spilledCounter;
+    private Counter throttledCounter;
+    private final Map<String, Timer> sendTimers = Maps.newConcurrentMap();
 
     @Inject
     private void setup() {
@@ -151,6 +279,87 @@ public class EmailServiceImpl implements EmailService {
         config.smtpPasswordObservable().subscribe(pass -> smtpOpt = Optional.empty());
         config.smtpStrategyObservable().subscribe(strategy -> smtpOpt = Optional.empty());
         config.smtpTlsProtocolsObservable().subscribe(protos -> smtpOpt = Optional.empty());
+
+        outbox = new EmailOutbox(config.outboxCapacity());
+        sesMaxSendRate = config.sesMaxSendRate();
+        sesRateLimiter = RateLimiter.create(sesMaxSendRate);
+        for (Priority priority : Priority.values()) {
+            meterRegistry.gauge(METER_NAME + ".outbox.depth", Tags.of("priority", priority.name().toLowerCase()),
+                    outbox, o -> o.size(priority));
+        }
+        waitTimer = meterRegistry.timer(METER_NAME + ".outbox.wait");
+        droppedCounter = meterRegistry.counter(METER_NAME + ".outbox.dropped");
+        spilledCounter = meterRegistry.counter(METER_NAME + ".outbox.spilled");
+        throttledCounter = meterRegistry.counter(METER_NAME + ".throttled");
+    }
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(AmazonSimpleEmailServiceProvider.class, DefaultDynamoDbProvider.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        if ("ses".equals(config.useService())) {
+            if (config.sesMaxSendRateFromAccount()) {
+                try {
+                    Optional.ofNullable(sesProvider.get().getAccount(new GetAccountRequest()).getSendQuota())
+                            .map(SendQuota::getMaxSendRate)
+                            .filter(maxSendRate -> maxSendRate > 0d)
+                            .ifPresent(maxSendRate -> {
+                                sesMaxSendRate = maxSendRate;
+                                sesRateLimiter.setRate(maxSendRate);
+                            });
+                } catch (Exception ex) {
+                    log.warn("Failed to fetch SES send quota, using configured rate {}/s", config.sesMaxSendRate(), ex);
+                }
+            }
+            if (config.bulkSendEnabled()) {
+                bulkSendAvailable = ensureBulkSendTemplate();
+            }
+        }
+
+        running = true;
+        workerExecutor = Executors.newFixedThreadPool(config.outboxWorkerThreads(),
+                new ThreadFactoryBuilder().setNameFormat("EmailOutbox-worker-%d").build());
+        for (int i = 0; i < config.outboxWorkerThreads(); i++) {
+            workerExecutor.execute(this::work);
+        }
+        if (config.spillEnabled()) {
+            spillExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("EmailOutbox-spill-%d").build());
+            spillExecutor.scheduleWithFixedDelay(this::claimSpilled,
+                    config.spillClaimInterval().toMillis(), config.spillClaimInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        if (spillExecutor != null) {
+            spillExecutor.shutdownNow();
+        }
+        // Give workers a chance to send what is queued
+        long deadlineNanos = System.nanoTime() + config.shutdownDrainTimeout().toNanos();
+        while (outbox.size() > 0 && deadlineNanos - System.nanoTime() > 0) {
+            Thread.sleep(100);
+        }
+        running = false;
+        if (workerExecutor != null) {
+            workerExecutor.shutdownNow();
+            workerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        ImmutableList<Email> unsent = outbox.drainAll().stream()
+                .map(QueuedEmail::getEmail)
+                .collect(ImmutableList.toImmutableList());
+        if (unsent.isEmpty()) {
+            return;
+        }
+        if (config.spillEnabled()) {
+            emailOutboxStore.spill(unsent);
+            log.info("Spilled {} unsent emails on shutdown", unsent.size());
+        } else {
+            log.warn("Dropping {} unsent emails on shutdown", unsent.size());
+        }
     }
 
     @Override
@@ -160,105 +369,384 @@ public class EmailServiceImpl implements EmailService {
             return;
         }
 
-        if (!rateLimiter.tryAcquire()) {
-            if (LogUtil.rateLimitAllowLog("emailpush-ratelimited")) {
-                log.warn("Email service self rate limited, project/account id {} toAddress {} subject {}",
-                        email.getProjectOrAccountId(), email.getToAddress(), email.getSubject());
-            }
+        if (outbox.offer(new QueuedEmail(email, getPriority(email), Instant.now(), 0))) {
             return;
         }
-
-        String fromEmailAddress = config.fromEmailLocalPart()
-                + "@"
-                + Optional.ofNullable(Strings.emptyToNull(config.fromEmailDomainOverride()))
-                .orElseGet(configApp::domain);
-
-        if ("ses".equals(config.useService())) {
-            String emailDisplayName = config.emailDisplayName();
-            if (!Strings.isNullOrEmpty(emailDisplayName)) {
-                fromEmailAddress = emailDisplayName + " <" + fromEmailAddress + ">";
+        if (config.spillEnabled()) {
+            try {
+                emailOutboxStore.spill(ImmutableList.of(email));
+                spilledCounter.increment();
+                return;
+            } catch (Exception ex) {
+                log.warn("Failed to spill email", ex);
             }
+        }
+        droppedCounter.increment();
+        if (LogUtil.rateLimitAllowLog("emailpush-outboxfull")) {
+            log.warn("Email outbox full, dropping email project/account id {} toAddress {} subject {}",
+                    email.getProjectOrAccountId(), email.getToAddress(), email.getSubject());
+        }
+    }
 
-            Destination destination = new Destination()
-                    .withToAddresses(email.getToAddress());
-            if (config.bccOnTagTypes() != null
-                    && config.bccOnTagTypes().contains(email.getTypeTag())) {
-                destination.withBccAddresses(getBccEmails());
-            }
+    private Priority getPriority(Email email) {
+        if (config.priorityHighTypeTags() != null
+                && config.priorityHighTypeTags().contains(email.getTypeTag())) {
+            return Priority.HIGH;
+        } else if (config.priorityLowTypeTags() != null
+                && config.priorityLowTypeTags().contains(email.getTypeTag())) {
+            return Priority.LOW;
+        } else {
+            return Priority.NORMAL;
+        }
+    }
 
-            SendEmailResult sendEmailResult;
+    private void work() {
+        while (running) {
             try {
-                sendEmailResult = sesProvider.get().sendEmail(new SendEmailRequest()
-                        .withDestination(destination)
-                        .withFromEmailAddress(fromEmailAddress)
-                        .withEmailTags(new MessageTag().withName("id").withValue(email.getProjectOrAccountId()),
-                                new MessageTag().withName("type").withValue(email.getTypeTag()))
-                        .withContent(new EmailContent().withSimple(new Message()
-                                .withSubject(new Content()
-                                        .withCharset(Charsets.UTF_8.name())
-                                        .withData(email.getSubject()))
-                                .withBody(new Body()
-                                        .withHtml(new Content()
-                                                .withCharset(Charsets.UTF_8.name())
-                                                .withData(email.getContentHtml()))
-                                        .withText(new Content()
-                                                .withCharset(Charsets.UTF_8.name())
-                                                .withData(email.getContentText()))))));
-            } catch (TooManyRequestsException | SendingPausedException | LimitExceededException ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-toomanyreqs")) {
-                    log.warn("Email service limited, project/account id {} toAddress {} subject {}",
-                            email.getProjectOrAccountId(), email.getToAddress(), email.getSubject(), ex);
-                }
-                return;
-            } catch (AccountSuspendedException ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-accountsuspended")) {
-                    log.warn("Email service account suspended", ex);
-                }
-                return;
-            } catch (MessageRejectedException | MailFromDomainNotVerifiedException | NotFoundException |
-                     BadRequestException ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-misconfigured")) {
-                    log.warn("Email service misconfigured", ex);
+                boolean isBulk = bulkSendAvailable && "ses".equals(config.useService());
+                ImmutableList<QueuedEmail> batch = outbox.pollBatch(
+                        isBulk ? config.bulkSendMaxSize() : 1,
+                        Duration.ofSeconds(1),
+                        email -> email.getContentHtml() != null);
+                if (!batch.isEmpty()) {
+                    process(batch);
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
                 return;
             } catch (Exception ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-exception")) {
-                    log.warn("Email cannot be delivered", ex);
-                }
-                return;
+                log.warn("Email outbox worker failed", ex);
             }
-            log.trace("Email sent to {} project/account id {} message id {} subject {}",
-                    email.getToAddress(), email.getProjectOrAccountId(), sendEmailResult.getMessageId(), email.getSubject());
+        }
+    }
+
+    private void process(ImmutableList<QueuedEmail> batch) throws InterruptedException {
+        // Self rate limit and SES quota, wait instead of dropping
+        boolean acquired;
+        try {
+            acquired = acquire(rateLimiter, batch.size())
+                    && (!"ses".equals(config.useService()) || acquire(sesRateLimiter, batch.size()));
+        } catch (InterruptedException ex) {
+            // Shutting down, put the batch back to be spilled along with the rest of the outbox
+            outbox.requeue(batch);
+            throw ex;
+        }
+        if (!acquired) {
+            outbox.requeue(batch);
+            return;
+        }
+
+        ImmutableList<Outcome> outcomes = batch.size() > 1
+                ? sendSesBulk(batch.stream().map(QueuedEmail::getEmail).collect(ImmutableList.toImmutableList()))
+                : ImmutableList.of(sendSingle(batch.get(0).getEmail()));
+
+        List<QueuedEmail> retries = Lists.newArrayList();
+        for (int i = 0; i < batch.size(); i++) {
+            QueuedEmail queuedEmail = batch.get(i);
+            switch (outcomes.get(i)) {
+                case SENT:
+                    waitTimer.record(Duration.between(queuedEmail.getQueued(), Instant.now()));
+                    break;
+                case THROTTLED:
+                    if (queuedEmail.getAttempt() + 1 < config.maxAttempts()) {
+                        retries.add(queuedEmail.withAttempt(queuedEmail.getAttempt() + 1));
+                    } else {
+                        droppedCounter.increment();
+                        if (LogUtil.rateLimitAllowLog("emailpush-maxattempts")) {
+                            log.warn("Email throttled too many times, dropping project/account id {} toAddress {} subject {}",
+                                    queuedEmail.getEmail().getProjectOrAccountId(), queuedEmail.getEmail().getToAddress(), queuedEmail.getEmail().getSubject());
+                        }
+                    }
+                    break;
+                case FAILED:
+                default:
+                    break;
+            }
+        }
+
+        if (retries.isEmpty()) {
+            onSent(batch.size());
         } else {
-            if (this.smtpOpt.isEmpty()) {
-                System.setProperty("mail.smtp.ssl.protocols", config.smtpTlsProtocols());
-                this.smtpOpt = Optional.of(MailerBuilder
-                        .withSMTPServer(
-                                config.smtpHost(),
-                                config.smtpPort(),
-                                config.smtpUser(),
-                                config.smtpPassword())
-                        .withTransportStrategy(Enums.getIfPresent(TransportStrategy.class, config.smtpStrategy())
-                                .or(TransportStrategy.SMTP_TLS))
-                        .buildMailer());
+            outbox.requeue(retries);
+            onThrottled();
+        }
+    }
+
+    /**
+     * Waits for permits while running. {@link RateLimiter#acquire()} is not interruptible, so poll instead.
+     */
+    private boolean acquire(RateLimiter limiter, int permits) throws InterruptedException {
+        while (!limiter.tryAcquire(permits, 1, TimeUnit.SECONDS)) {
+            if (!running) {
+                return false;
             }
-            EmailPopulatingBuilder emailBuilder = EmailBuilder.startingBlank()
-                    .from(config.emailDisplayName(), fromEmailAddress)
-                    .to(email.getToAddress())
-                    .withSubject(email.getSubject())
-                    .withHTMLText(email.getContentHtml())
-                    .withPlainText(email.getContentText());
-            if (config.bccOnTagTypes() != null
-                    && config.bccOnTagTypes().contains(email.getTypeTag())) {
-                Set<String> bccEmails = getBccEmails();
-                if (!bccEmails.isEmpty()) {
-                    emailBuilder.bcc(String.join(",", bccEmails));
+            Thread.sleep(1000);
+        }
+        return true;
+    }
+
+    /**
+     * Additive increase of the SES send rate back up to the quota.
+     */
+    private void onSent(int count) {
+        consecutiveThrottles.set(0);
+        if ("ses".equals(config.useService()) && sesRateLimiter.getRate() < sesMaxSendRate) {
+            sesRateLimiter.setRate(Math.min(sesMaxSendRate, sesRateLimiter.getRate() + sesMaxSendRate * 0.01d * count));
+        }
+    }
+
+    /**
+     * Multiplicative decrease of the SES send rate and exponential backoff of this worker.
+     */
+    private void onThrottled() throws InterruptedException {
+        throttledCounter.increment();
+        if ("ses".equals(config.useService())) {
+            sesRateLimiter.setRate(Math.max(config.sesMinSendRate(), sesRateLimiter.getRate() / 2d));
+        }
+        int throttles = Math.min(consecutiveThrottles.incrementAndGet(), 20);
+        long backoffMillis = Math.min(
+                config.throttleBackoffMax().toMillis(),
+                config.throttleBackoffInitial().toMillis() * (1L << (throttles - 1)));
+        Thread.sleep(backoffMillis);
+    }
+
+    private void claimSpilled() {
+        try {
+            int room = outbox.remainingCapacity() - config.outboxCapacity() / 2;
+            if (room <= 0) {
+                return;
+            }
+            for (Email email : emailOutboxStore.claim(Math.min(room, 100))) {
+                if (!outbox.offer(new QueuedEmail(email, getPriority(email), Instant.now(), 0))) {
+                    emailOutboxStore.spill(ImmutableList.of(email));
                 }
             }
-            this.smtpOpt.get().sendMail(emailBuilder.buildEmail(), true);
-            log.info("Sending email to {} subject '{}' project/account id {} ",
-                    email.getToAddress(), email.getProjectOrAccountId(), email.getSubject());
+        } catch (Exception ex) {
+            log.warn("Failed to claim spilled emails", ex);
+        }
+    }
+
+    private boolean ensureBulkSendTemplate() {
+        try {
+            sesProvider.get().createEmailTemplate(new CreateEmailTemplateRequest()
+                    .withTemplateName(config.bulkSendTemplateName())
+                    .withTemplateContent(new EmailTemplateContent()
+                            .withSubject("{{{subject}}}")
+                            .withHtml("{{{html}}}")
+                            .withText("{{{text}}}")));
+            return true;
+        } catch (AlreadyExistsException ex) {
+            return true;
+        } catch (Exception ex) {
+            log.warn("Failed to create SES bulk send template, sending individually", ex);
+            return false;
+        }
+    }
+
+    private ImmutableList<Outcome> sendSesBulk(ImmutableList<Email> emails) {
+        long startNanos = System.nanoTime();
+        SendBulkEmailResult sendBulkEmailResult;
+        try {
+            sendBulkEmailResult = sesProvider.get().sendBulkEmail(new SendBulkEmailRequest()
+                    .withFromEmailAddress(getSesFromEmailAddress())
+                    .withDefaultContent(new BulkEmailContent().withTemplate(new Template()
+                            .withTemplateName(config.bulkSendTemplateName())
+                            .withTemplateData("{}")))
+                    .withBulkEmailEntries(emails.stream()
+                            .map(email -> new BulkEmailEntry()
+                                    .withDestination(getSesDestination(email))
+                                    .withReplacementTags(getSesTags(email))
+                                    .withReplacementEmailContent(new ReplacementEmailContent()
+                                            .withReplacementTemplate(new ReplacementTemplate()
+                                                    .withReplacementTemplateData(gson.toJson(ImmutableMap.of(
+                                                            "subject", email.getSubject(),
+                                                            "html", email.getContentHtml(),
+                                                            "text", email.getContentText()))))))
+                            .collect(ImmutableList.toImmutableList())));
+        } catch (Exception ex) {
+            Outcome outcome = handleSesException(emails.get(0), ex);
+            emails.forEach(email -> recordSend("ses-bulk", outcome, startNanos));
+            return emails.stream().map(email -> outcome).collect(ImmutableList.toImmutableList());
+        }
+
+        ImmutableList.Builder<Outcome> outcomesBuilder = ImmutableList.builder();
+        List<BulkEmailEntryResult> results = sendBulkEmailResult.getBulkEmailEntryResults();
+        for (int i = 0; i < emails.size(); i++) {
+            Email email = emails.get(i);
+            BulkEmailEntryResult result = i < results.size() ? results.get(i) : null;
+            BulkEmailStatus status = result == null ? BulkEmailStatus.FAILED
+                    : Enums.getIfPresent(BulkEmailStatus.class, result.getStatus()).or(BulkEmailStatus.FAILED);
+            Outcome outcome;
+            switch (status) {
+                case SUCCESS:
+                    outcome = Outcome.SENT;
+                    log.trace("Email sent to {} project/account id {} message id {} subject {}",
+                            email.getToAddress(), email.getProjectOrAccountId(), result.getMessageId(), email.getSubject());
+                    break;
+                case ACCOUNT_THROTTLED:
+                case ACCOUNT_DAILY_QUOTA_EXCEEDED:
+                case ACCOUNT_SENDING_PAUSED:
+                case TRANSIENT_FAILURE:
+                    outcome = Outcome.THROTTLED;
+                    break;
+                default:
+                    outcome = Outcome.FAILED;
+                    if (LogUtil.rateLimitAllowLog("emailpush-bulkfailed")) {
+                        log.warn("Email bulk entry failed with status {} error {}, project/account id {} toAddress {} subject {}",
+                                status, result == null ? null : result.getError(),
+                                email.getProjectOrAccountId(), email.getToAddress(), email.getSubject());
+                    }
+                    break;
+            }
+            outcomesBuilder.add(outcome);
+        }
+        ImmutableList<Outcome> outcomes = outcomesBuilder.build();
+        // Recorded per email as with single sends, entries of a bulk send may fail individually
+        outcomes.forEach(outcome -> recordSend("ses-bulk", outcome, startNanos));
+        return outcomes;
+    }
+
+    private Outcome sendSingle(Email email) {
+        long startNanos = System.nanoTime();
+        String service = "ses".equals(config.useService()) ? "ses" : "smtp";
+        Outcome outcome;
+        try {
+            outcome = "ses".equals(service) ? sendSes(email) : sendSmtp(email);
+        } catch (Exception ex) {
+            outcome = Outcome.FAILED;
+            if (LogUtil.rateLimitAllowLog("emailpush-exception")) {
+                log.warn("Email cannot be delivered", ex);
+            }
+        }
+        recordSend(service, outcome, startNanos);
+        return outcome;
+    }
+
+    private void recordSend(String service, Outcome outcome, long startNanos) {
+        sendTimers.computeIfAbsent(service + "-" + outcome, k -> Timer.builder(METER_NAME + ".send")
+                        .tag("service", service)
+                        .tag("outcome", outcome.name().toLowerCase())
+                        .register(meterRegistry))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Outcome sendSes(Email email) {
+        SendEmailResult sendEmailResult;
+        try {
+            sendEmailResult = sesProvider.get().sendEmail(new SendEmailRequest()
+                    .withDestination(getSesDestination(email))
+                    .withFromEmailAddress(getSesFromEmailAddress())
+                    .withEmailTags(getSesTags(email))
+                    .withContent(new EmailContent().withSimple(new Message()
+                            .withSubject(new Content()
+                                    .withCharset(Charsets.UTF_8.name())
+                                    .withData(email.getSubject()))
+                            .withBody(new Body()
+                                    .withHtml(new Content()
+                                            .withCharset(Charsets.UTF_8.name())
+                                            .withData(email.getContentHtml()))
+                                    .withText(new Content()
+                                            .withCharset(Charsets.UTF_8.name())
+                                            .withData(email.getContentText()))))));
+        } catch (Exception ex) {
+            return handleSesException(email, ex);
+        }
+        log.trace("Email sent to {} project/account id {} message id {} subject {}",
+                email.getToAddress(), email.getProjectOrAccountId(), sendEmailResult.getMessageId(), email.getSubject());
+        return Outcome.SENT;
+    }
+
+    private Outcome handleSesException(Email email, Exception ex) {
+        if (ex instanceof TooManyRequestsException
+                || ex instanceof SendingPausedException
+                || ex instanceof LimitExceededException) {
+            if (LogUtil.rateLimitAllowLog("emailpush-toomanyreqs")) {
+                log.warn("Email service limited, project/account id {} toAddress {} subject {}",
+                        email.getProjectOrAccountId(), email.getToAddress(), email.getSubject(), ex);
+            }
+            return Outcome.THROTTLED;
+        } else if (ex instanceof AccountSuspendedException) {
+            if (LogUtil.rateLimitAllowLog("emailpush-accountsuspended")) {
+                log.warn("Email service account suspended", ex);
+            }
+        } else if (ex instanceof MessageRejectedException
+                || ex instanceof MailFromDomainNotVerifiedException
+                || ex instanceof NotFoundException
+                || ex instanceof BadRequestException) {
+            if (LogUtil.rateLimitAllowLog("emailpush-misconfigured")) {
+                log.warn("Email service misconfigured", ex);
+            }
+        } else {
+            if (LogUtil.rateLimitAllowLog("emailpush-exception")) {
+                log.warn("Email cannot be delivered", ex);
+            }
+        }
+        return Outcome.FAILED;
+    }
+
+    private String getFromEmailAddress() {
+        return config.fromEmailLocalPart()
+                + "@"
+                + Optional.ofNullable(Strings.emptyToNull(config.fromEmailDomainOverride()))
+                .orElseGet(configApp::domain);
+    }
+
+    private String getSesFromEmailAddress() {
+        String fromEmailAddress = getFromEmailAddress();
+        String emailDisplayName = config.emailDisplayName();
+        if (!Strings.isNullOrEmpty(emailDisplayName)) {
+            fromEmailAddress = emailDisplayName + " <" + fromEmailAddress + ">";
+        }
+        return fromEmailAddress;
+    }
+
+    private Destination getSesDestination(Email email) {
+        Destination destination = new Destination()
+                .withToAddresses(email.getToAddress());
+        if (config.bccOnTagTypes() != null
+                && config.bccOnTagTypes().contains(email.getTypeTag())) {
+            destination.withBccAddresses(getBccEmails());
+        }
+        return destination;
+    }
+
+    private MessageTag[] getSesTags(Email email) {
+        return new MessageTag[]{
+                new MessageTag().withName("id").withValue(email.getProjectOrAccountId()),
+                new MessageTag().withName("type").withValue(email.getTypeTag())};
+    }
+
+    private Outcome sendSmtp(Email email) {
+        String fromEmailAddress = getFromEmailAddress();
+        if (this.smtpOpt.isEmpty()) {
+            System.setProperty("mail.smtp.ssl.protocols", config.smtpTlsProtocols());
+            this.smtpOpt = Optional.of(MailerBuilder
+                    .withSMTPServer(
+                            config.smtpHost(),
+                            config.smtpPort(),
+                            config.smtpUser(),
+                            config.smtpPassword())
+                    .withTransportStrategy(Enums.getIfPresent(TransportStrategy.class, config.smtpStrategy())
+                            .or(TransportStrategy.SMTP_TLS))
+                    .buildMailer());
+        }
+        EmailPopulatingBuilder emailBuilder = EmailBuilder.startingBlank()
+                .from(config.emailDisplayName(), fromEmailAddress)
+                .to(email.getToAddress())
+                .withSubject(email.getSubject())
+                .withHTMLText(email.getContentHtml())
+                .withPlainText(email.getContentText());
+        if (config.bccOnTagTypes() != null
+                && config.bccOnTagTypes().contains(email.getTypeTag())) {
+            Set<String> bccEmails = getBccEmails();
+            if (!bccEmails.isEmpty()) {
+                emailBuilder.bcc(String.join(",", bccEmails));
+            }
         }
+        this.smtpOpt.get().sendMail(emailBuilder.buildEmail(), true);
+        log.info("Sending email to {} subject '{}' project/account id {} ",
+                email.getToAddress(), email.getProjectOrAccountId(), email.getSubject());
+        return Outcome.SENT;
     }
 
     private Set<String> getBccEmails() {
@@ -279,6 +767,8 @@ public class EmailServiceImpl implements EmailService {
             protected void configure() {
                 bind(EmailService.class).to(EmailServiceImpl.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(EmailServiceImpl.class).asEagerSingleton();
             }
         };
     }
@@ -0,0 +1,340 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.webhook;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.store.WebhookEventDedupStore;
+import com.smotana.clearflask.util.LogUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes inbound integration webhooks off the request thread.
+ *
+ * <p>Resources verify the signature, resolve the project and parse the payload, then hand the
+ * event over and acknowledge right away. Events are deduplicated on the provider's delivery
+ * id and queued per project so events of one project are processed in the order they arrived
+ * while projects are processed in parallel. A worker drains up to a batch of events of one
+ * project before yielding to other projects.
+ *
+ * <p>Same trade-off as Stripe webhooks: an event claimed and queued on an instance that dies
+ * before processing it is lost, as redeliveries are treated as duplicates.
+ */
+@Slf4j
+@Singleton
+public class WebhookIngestionService extends ManagedService {
+
+    public enum Provider {
+        GITHUB,
+        GITLAB,
+        JIRA,
+        SLACK
+    }
+
+    public enum Result {
+        QUEUED,
+        DUPLICATE,
+        /**
+         * Queue is full, caller should respond such that the provider retries later
+         */
+        REJECTED
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle() throws Exception;
+    }
+
+    public interface Config {
+        /**
+         * If false, events are processed inline on the request thread.
+         */
+        @DefaultValue("true")
+        boolean async();
+
+        @DefaultValue("true")
+        boolean dedupEnabled();
+
+        @DefaultValue("8")
+        int threadPoolSize();
+
+        @DefaultValue("10000")
+        int maxQueued();
+
+        @DefaultValue("1000")
+        int maxQueuedPerProject();
+
+        @DefaultValue("20")
+        int maxBatchSize();
+
+        @DefaultValue("3")
+        int maxAttempts();
+
+        @DefaultValue("PT5S")
+        Duration retryDelay();
+
+        @DefaultValue("PT30S")
+        Duration shutdownDrainTimeout();
+    }
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "webhook";
+
+    @Inject
+    private Config config;
+    @Inject
+    private WebhookEventDedupStore webhookEventDedupStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Guarded by itself
+     */
+    private final Map<String, ProjectQueue> projectQueues = Maps.newHashMap();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final EnumMap<Provider, AtomicInteger> queuedByProvider = new EnumMap<>(Provider.class);
+    private final EnumMap<Provider, Timer> lagTimers = new EnumMap<>(Provider.class);
+    private final EnumMap<Provider, Timer> processTimers = new EnumMap<>(Provider.class);
+    private final EnumMap<Provider, Counter> duplicateCounters = new EnumMap<>(Provider.class);
+    private final EnumMap<Provider, Counter> rejectedCounters = new EnumMap<>(Provider.class);
+    private final EnumMap<Provider, Counter> failedCounters = new EnumMap<>(Provider.class);
+    private ScheduledExecutorService executor;
+    private volatile boolean accepting = false;
+
+    private static class ProjectQueue {
+        private final Deque<QueuedEvent> events = new ArrayDeque<>();
+        /**
+         * Whether a worker is scheduled or running for this project, ensures in-order processing
+         */
+        private boolean scheduled = false;
+    }
+
+    @Value
+    private static class QueuedEvent {
+        Provider provider;
+        String projectId;
+        Optional<String> eventIdOpt;
+        Handler handler;
+        long queuedNanos;
+        @With
+        int attempt;
+    }
+
+    @Inject
+    private void setup() {
+        for (Provider provider : Provider.values()) {
+            Tags tags = Tags.of("provider", provider.name().toLowerCase());
+            queuedByProvider.put(provider, meterRegistry.gauge(METER_NAME + ".queued", tags, new AtomicInteger()));
+            lagTimers.put(provider, Timer.builder(METER_NAME + ".lag")
+                    .tags(tags)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+            processTimers.put(provider, meterRegistry.timer(METER_NAME + ".process", tags));
+            duplicateCounters.put(provider, meterRegistry.counter(METER_NAME + ".duplicate", tags));
+            rejectedCounters.put(provider, meterRegistry.counter(METER_NAME + ".rejected", tags));
+            failedCounters.put(provider, meterRegistry.counter(METER_NAME + ".failed", tags));
+        }
+    }
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(WebhookEventDedupStore.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = new ScheduledThreadPoolExecutor(config.threadPoolSize(),
+                new ThreadFactoryBuilder().setNameFormat("WebhookIngestionService-worker-%d").build());
+        accepting = true;
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        accepting = false;
+        long deadlineNanos = System.nanoTime() + config.shutdownDrainTimeout().toNanos();
+        while (queuedCount.get() > 0 && deadlineNanos - System.nanoTime() > 0) {
+            Thread.sleep(100);
+        }
+        if (queuedCount.get() > 0) {
+            log.warn("Dropping {} unprocessed webhook events on shutdown", queuedCount.get());
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Call after the event has been authenticated.
+     *
+     * @param eventIdOpt Provider's unique delivery id, used for deduplication of retries
+     */
+    public Result submit(Provider provider, String projectId, Optional<String> eventIdOpt, Handler handler) {
+        if (!config.async()) {
+            if (!claim(provider, eventIdOpt)) {
+                return Result.DUPLICATE;
+            }
+            try {
+                handler.handle();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+            return Result.QUEUED;
+        }
+
+        if (!accepting || queuedCount.get() >= config.maxQueued()) {
+            return reject(provider, projectId);
+        }
+        synchronized (projectQueues) {
+            ProjectQueue projectQueue = projectQueues.get(projectId);
+            if (projectQueue != null && projectQueue.events.size() >= config.maxQueuedPerProject()) {
+                return reject(provider, projectId);
+            }
+        }
+        // Claim only once we know there is room, otherwise the provider's retry would be treated as a duplicate
+        if (!claim(provider, eventIdOpt)) {
+            return Result.DUPLICATE;
+        }
+        enqueue(new QueuedEvent(provider, projectId, eventIdOpt, handler, System.nanoTime(), 0));
+        return Result.QUEUED;
+    }
+
+    private boolean claim(Provider provider, Optional<String> eventIdOpt) {
+        if (!config.dedupEnabled() || eventIdOpt.isEmpty()) {
+            return true;
+        }
+        if (webhookEventDedupStore.tryClaim(provider.name().toLowerCase() + ":" + eventIdOpt.get())) {
+            return true;
+        }
+        duplicateCounters.get(provider).increment();
+        log.debug("Skipping duplicate {} webhook event {}", provider, eventIdOpt.get());
+        return false;
+    }
+
+    private Result reject(Provider provider, String projectId) {
+        rejectedCounters.get(provider).increment();
+        if (LogUtil.rateLimitAllowLog("webhook-ingestion-rejected")) {
+            log.warn("Webhook queue full, rejecting {} event for project {}, queued {}",
+                    provider, projectId, queuedCount.get());
+        }
+        return Result.REJECTED;
+    }
+
+    private void enqueue(QueuedEvent event) {
+        boolean schedule = false;
+        synchronized (projectQueues) {
+            ProjectQueue projectQueue = projectQueues.computeIfAbsent(event.getProjectId(), p -> new ProjectQueue());
+            projectQueue.events.addLast(event);
+            queuedCount.incrementAndGet();
+            queuedByProvider.get(event.getProvider()).incrementAndGet();
+            if (!projectQueue.scheduled) {
+                projectQueue.scheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            executor.execute(() -> process(event.getProjectId()));
+        }
+    }
+
+    private void process(String projectId) {
+        List<QueuedEvent> batch = Lists.newArrayList();
+        synchronized (projectQueues) {
+            ProjectQueue projectQueue = projectQueues.get(projectId);
+            while (batch.size() < config.maxBatchSize() && !projectQueue.events.isEmpty()) {
+                batch.add(projectQueue.events.pollFirst());
+            }
+        }
+
+        Duration rescheduleDelay = Duration.ZERO;
+        for (int i = 0; i < batch.size(); i++) {
+            QueuedEvent event = batch.get(i);
+            if (event.getAttempt() == 0) {
+                lagTimers.get(event.getProvider()).record(System.nanoTime() - event.getQueuedNanos(), TimeUnit.NANOSECONDS);
+            }
+            long startNanos = System.nanoTime();
+            boolean success;
+            try {
+                event.getHandler().handle();
+                success = true;
+            } catch (Exception ex) {
+                success = false;
+                failedCounters.get(event.getProvider()).increment();
+                if (LogUtil.rateLimitAllowLog("webhook-ingestion-failed")) {
+                    log.warn("Failed to process {} webhook event {} for project {} attempt {}",
+                            event.getProvider(), event.getEventIdOpt().orElse(null), projectId, event.getAttempt() + 1, ex);
+                }
+            } finally {
+                processTimers.get(event.getProvider()).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+            if (!success && event.getAttempt() + 1 < config.maxAttempts()) {
+                // Put the failed event and the rest of the batch back in order and retry later
+                ImmutableList<QueuedEvent> remaining = ImmutableList.<QueuedEvent>builder()
+                        .add(event.withAttempt(event.getAttempt() + 1))
+                        .addAll(batch.subList(i + 1, batch.size()))
+                        .build();
+                synchronized (projectQueues) {
+                    ProjectQueue projectQueue = projectQueues.get(projectId);
+                    Lists.reverse(remaining).forEach(projectQueue.events::addFirst);
+                }
+                rescheduleDelay = config.retryDelay();
+                break;
+            }
+            queuedCount.decrementAndGet();
+            queuedByProvider.get(event.getProvider()).decrementAndGet();
+        }
+
+        synchronized (projectQueues) {
+            ProjectQueue projectQueue = projectQueues.get(projectId);
+            if (projectQueue.events.isEmpty()) {
+                projectQueues.remove(projectId);
+                return;
+            }
+        }
+        // Yield to other projects before continuing with this one
+        executor.schedule(() -> process(projectId), rescheduleDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(WebhookIngestionService.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(WebhookIngestionService.class).asEagerSingleton();
+            }
+        };
+    }
+}
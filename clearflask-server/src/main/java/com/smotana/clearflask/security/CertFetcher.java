@@ -3,6 +3,7 @@
 package com.smotana.clearflask.security;
 
 import com.smotana.clearflask.api.model.CertGetOrCreateResponse;
+import com.smotana.clearflask.api.model.CertPreloadResponse;
 import com.smotana.clearflask.store.CertStore.CertModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel;
 import lombok.NonNull;
@@ -13,6 +14,12 @@ import java.util.Optional;
 public interface CertFetcher {
     Optional<CertGetOrCreateResponse> getOrCreateCertAndKeypair(String domain);
 
+    /**
+     * Page of all existing unexpired certs, for the connect front end to warm its cache on startup. Does not create
+     * or renew any certs.
+     */
+    CertPreloadResponse preloadCertsAndKeypairs(Optional<String> cursorOpt);
+
     @Value
     class CertAndKeypair {
         @NonNull
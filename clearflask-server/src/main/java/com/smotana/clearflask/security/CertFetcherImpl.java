@@ -11,6 +11,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
@@ -22,13 +23,16 @@ import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.CertGetOrCreateResponse;
+import com.smotana.clearflask.api.model.CertPreloadResponse;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.CertStore;
+import com.smotana.clearflask.store.CertStore.CertListResponse;
 import com.smotana.clearflask.store.CertStore.CertModel;
 import com.smotana.clearflask.store.CertStore.ChallengeModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel.KeypairType;
 import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
 import lombok.SneakyThrows;
@@ -63,6 +67,9 @@ import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
@@ -97,6 +104,50 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
          */
         @DefaultValue("sni.clearflask.com")
         String customDomainExpectedCnameTarget();
+
+        /**
+         * Certs served from memory are re-read after this long to pick up renewals by other instances. A renewed
+         * cert does not invalidate the previous one, so serving it until then is fine.
+         */
+        @DefaultValue("PT1H")
+        Duration certCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long certCacheSizeMax();
+
+        /**
+         * Domains without a project, not pointing to us or failing cert creation are not looked up again for this long.
+         */
+        @DefaultValue("PT2M")
+        Duration unknownDomainCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long unknownDomainCacheSizeMax();
+
+        /**
+         * Renew expiring certs in the background on whichever instance holds the renewal lease. Requests then only
+         * renew certs the background renewal fell behind on.
+         */
+        @DefaultValue("true")
+        boolean renewalEnabled();
+
+        @DefaultValue("PT1H")
+        Duration renewalRunEvery();
+
+        @DefaultValue("PT10M")
+        Duration renewalStartupDelay();
+
+        /**
+         * Extended before each renewal, must outlast a single ACME order.
+         */
+        @DefaultValue("PT15M")
+        Duration renewalLeaseDuration();
+
+        @DefaultValue("100")
+        int renewalPageSize();
+
+        @DefaultValue("50")
+        int preloadPageSize();
     }
 
     @Inject
@@ -121,9 +172,26 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
                     return gson.fromJson(certStr, CertGetOrCreateResponse.class);
                 }
             });
+    private final String leaseOwner = UUID.randomUUID().toString();
+    private final Set<String> domainsRenewing = ConcurrentHashMap.newKeySet();
+    private com.google.common.cache.Cache<String, CertAndKeypair> certCache;
+    private com.google.common.cache.Cache<String, Boolean> unknownDomainCache;
     private ListeningExecutorService executor;
+    private ListeningScheduledExecutorService renewalExecutor;
     private Duration renewWithExpiry;
 
+    @Inject
+    private void setup() {
+        certCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.certCacheExpireAfterWrite())
+                .maximumSize(config.certCacheSizeMax())
+                .build();
+        unknownDomainCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.unknownDomainCacheExpireAfterWrite())
+                .maximumSize(config.unknownDomainCacheSizeMax())
+                .build();
+    }
+
     @Override
     protected void serviceStart() throws Exception {
         Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
@@ -134,12 +202,25 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
                 .minus(config.renewWithExpiryRangeMin());
         renewWithExpiry = config.renewWithExpiryRangeMin()
                 .plus((long) (expiryRange.toSeconds() * ThreadLocalRandom.current().nextDouble()), ChronoUnit.SECONDS);
+
+        if (config.enabled() && config.renewalEnabled() && Strings.isNullOrEmpty(config.staticCert())) {
+            renewalExecutor = MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("CertFetcher-renewal-%d").build()));
+            renewalExecutor.scheduleAtFixedRate(this::renewExpiringSafely,
+                    config.renewalStartupDelay(), config.renewalRunEvery());
+        }
     }
 
     @Override
     protected void serviceStop() throws Exception {
         executor.shutdownNow();
+        if (renewalExecutor != null) {
+            renewalExecutor.shutdownNow();
+        }
         executor.awaitTermination(30, TimeUnit.SECONDS);
+        if (renewalExecutor != null) {
+            renewalExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
     }
 
     @Override
@@ -159,6 +240,9 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
         }
 
         // Dynamic cert handling
+        if (unknownDomainCache.getIfPresent(domain) != null) {
+            return Optional.empty();
+        }
         try {
             String domainToRequest;
             // Custom domains (a customer's own domain pointed at us) use the ACME HTTP-01 challenge,
@@ -170,72 +254,204 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
                 domainToRequest = "*." + configApp.domain();
                 isCustomDomain = false;
             } else if (!projectStore.getProjectBySlug(domain, true).isPresent()) {
+                unknownDomainCache.put(domain, Boolean.TRUE);
                 return Optional.empty();
             } else {
                 domainToRequest = domain;
                 isCustomDomain = true;
             }
 
-            Optional<CertModel> certModelOpt = certStore.getCert(domainToRequest, false);
-            if (certModelOpt.isPresent()
-                    && Instant.now().isAfter(certModelOpt.get().getExpiresAt().minus(renewWithExpiry))
-                    && (certModelOpt.get().getRetryAfter() == null || Instant.now().isAfter(certModelOpt.get().getRetryAfter()))) {
-                if (isCustomDomain && !isCustomDomainPointingToUs(domain)) {
-                    if (LogUtil.rateLimitAllowLog("CertFetcher-custom-domain-dns-mismatch-" + domain)) {
-                        log.info("Skipping cert renewal for custom domain {}, its DNS no longer resolves to us (expected to match {}); serving existing cert until it does",
-                                domain, config.customDomainExpectedCnameTarget());
-                    }
-                } else {
-                    executor.submit(() -> {
-                        try {
-                            createCert(domainToRequest);
-                        } catch (AcmeRateLimitedException ex) {
-                            log.warn("Acme rate limit for domain {}", domain, ex);
-                            ex.getRetryAfter().ifPresent(retryAfter -> certStore.setCertRetryAfter(domainToRequest, retryAfter));
-                        } catch (Exception ex) {
-                            log.warn("Failed to renew cert for domain {}", domain, ex);
-                        }
-                    });
+            CertAndKeypair certAndKeypairCached = certCache.getIfPresent(domainToRequest);
+            if (certAndKeypairCached != null
+                    && Instant.now().isBefore(certAndKeypairCached.getCert().getExpiresAt())) {
+                return Optional.of(certAndKeypairCached.toCertGetOrCreateResponse());
+            }
+
+            Optional<CertAndKeypair> certAndKeypairOpt = getOrCreateCertAndKeypairUncached(domain, domainToRequest, isCustomDomain);
+            if (certAndKeypairOpt.isPresent()) {
+                certCache.put(domainToRequest, certAndKeypairOpt.get());
+            } else {
+                unknownDomainCache.put(domain, Boolean.TRUE);
+            }
+            return certAndKeypairOpt.map(CertAndKeypair::toCertGetOrCreateResponse);
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("WildCertFetcherImpl-failed-get-create-wildcart-cert")) {
+                log.warn("Failed to get/create wildcard cert for domain {}", domain, ex);
+            }
+            return Optional.empty();
+        }
+    }
+
+    private Optional<CertAndKeypair> getOrCreateCertAndKeypairUncached(String domain, String domainToRequest, boolean isCustomDomain) throws Exception {
+        Optional<CertModel> certModelOpt = certStore.getCert(domainToRequest, false);
+        if (certModelOpt.isPresent()
+                && isDueForRenewal(certModelOpt.get(), config.renewalEnabled() ? config.renewWithExpiryRangeMin() : renewWithExpiry)) {
+            if (isCustomDomain && !isCustomDomainPointingToUs(domain)) {
+                if (LogUtil.rateLimitAllowLog("CertFetcher-custom-domain-dns-mismatch-" + domain)) {
+                    log.info("Skipping cert renewal for custom domain {}, its DNS no longer resolves to us (expected to match {}); serving existing cert until it does",
+                            domain, config.customDomainExpectedCnameTarget());
                 }
+            } else {
+                executor.submit(() -> renewCert(domainToRequest));
             }
-            if (certModelOpt.isEmpty()) {
-                if (isCustomDomain && !isCustomDomainPointingToUs(domain)) {
-                    if (LogUtil.rateLimitAllowLog("CertFetcher-custom-domain-dns-mismatch-" + domain)) {
-                        log.info("Skipping cert creation for custom domain {}, its DNS does not resolve to us (expected to match {})",
-                                domain, config.customDomainExpectedCnameTarget());
-                    }
-                    return Optional.empty();
+        }
+        if (certModelOpt.isEmpty()) {
+            if (isCustomDomain && !isCustomDomainPointingToUs(domain)) {
+                if (LogUtil.rateLimitAllowLog("CertFetcher-custom-domain-dns-mismatch-" + domain)) {
+                    log.info("Skipping cert creation for custom domain {}, its DNS does not resolve to us (expected to match {})",
+                            domain, config.customDomainExpectedCnameTarget());
                 }
-                synchronized (this) {
-                    certModelOpt = certStore.getCert(domainToRequest, true);
-                    if (certModelOpt.isEmpty()) {
-                        try {
-                            return Optional.of(createCert(domainToRequest))
-                                    .map(CertAndKeypair::toCertGetOrCreateResponse);
-                        } catch (Exception ex) {
-                            log.warn("Failed to create cert for domain {}", domain, ex);
-                            return Optional.empty();
-                        }
+                return Optional.empty();
+            }
+            synchronized (this) {
+                certModelOpt = certStore.getCert(domainToRequest, true);
+                if (certModelOpt.isEmpty()) {
+                    try {
+                        return Optional.of(createCert(domainToRequest));
+                    } catch (Exception ex) {
+                        log.warn("Failed to create cert for domain {}", domain, ex);
+                        return Optional.empty();
                     }
                 }
             }
-            Optional<KeypairModel> keypairModelOpt = certStore.getKeypair(KeypairType.CERT, domainToRequest);
-            if (keypairModelOpt.isEmpty()) {
-                log.warn("No keypair found matching cert for domain {}, re-creating both", domainToRequest);
-                certStore.deleteCert(domainToRequest);
-                return Optional.of(createCert(domainToRequest))
-                        .map(CertAndKeypair::toCertGetOrCreateResponse);
+        }
+        Optional<KeypairModel> keypairModelOpt = certStore.getKeypair(KeypairType.CERT, domainToRequest);
+        if (keypairModelOpt.isEmpty()) {
+            log.warn("No keypair found matching cert for domain {}, re-creating both", domainToRequest);
+            certStore.deleteCert(domainToRequest);
+            return Optional.of(createCert(domainToRequest));
+        }
+
+        return Optional.of(new CertAndKeypair(
+                certModelOpt.get(),
+                keypairModelOpt.get()));
+    }
+
+    @Override
+    public CertPreloadResponse preloadCertsAndKeypairs(Optional<String> cursorOpt) {
+        if (!config.enabled()) {
+            return new CertPreloadResponse(null, ImmutableList.of());
+        }
+
+        String staticCert = config.staticCert();
+        if (!Strings.isNullOrEmpty(staticCert)) {
+            try {
+                return new CertPreloadResponse(null, ImmutableList.of(staticCertCache.get(staticCert)));
+            } catch (ExecutionException ex) {
+                throw new RuntimeException("Failed to parse static from configuration, check for 'staticCert' property", ex);
             }
+        }
+
+        CertListResponse certListResponse = certStore.listCerts(cursorOpt, config.preloadPageSize());
+        Instant now = Instant.now();
+        ImmutableList<CertGetOrCreateResponse> results = certListResponse.getCerts().stream()
+                .filter(certModel -> now.isBefore(certModel.getExpiresAt()))
+                .map(certModel -> Optional.ofNullable(certCache.getIfPresent(certModel.getDomain()))
+                        .map(CertAndKeypair::getKeypair)
+                        .or(() -> certStore.getKeypair(KeypairType.CERT, certModel.getDomain()))
+                        .map(keypairModel -> new CertAndKeypair(certModel, keypairModel)))
+                .flatMap(Optional::stream)
+                .peek(certAndKeypair -> certCache.put(certAndKeypair.getCert().getDomain(), certAndKeypair))
+                .map(CertAndKeypair::toCertGetOrCreateResponse)
+                .collect(ImmutableList.toImmutableList());
+        return new CertPreloadResponse(certListResponse.getCursorOpt().orElse(null), results);
+    }
 
-            return Optional.of(new CertAndKeypair(
-                            certModelOpt.get(),
-                            keypairModelOpt.get()))
-                    .map(CertAndKeypair::toCertGetOrCreateResponse);
+    private void renewExpiringSafely() {
+        try {
+            renewExpiring();
         } catch (Exception ex) {
-            if (LogUtil.rateLimitAllowLog("WildCertFetcherImpl-failed-get-create-wildcart-cert")) {
-                log.warn("Failed to get/create wildcard cert for domain {}", domain, ex);
+            log.warn("Background cert renewal failed", ex);
+        }
+    }
+
+    /**
+     * Renews all certs due for renewal while holding the fleet-wide renewal lease.
+     */
+    @Extern
+    public synchronized String renewExpiring() {
+        if (!certStore.acquireRenewalLease(leaseOwner, config.renewalLeaseDuration())) {
+            return "Renewal lease held by another instance";
+        }
+        long checked = 0;
+        long renewed = 0;
+        long failed = 0;
+        long skipped = 0;
+        Optional<String> cursorOpt = Optional.empty();
+        do {
+            CertListResponse certListResponse = certStore.listCerts(cursorOpt, config.renewalPageSize());
+            cursorOpt = certListResponse.getCursorOpt();
+            for (CertModel certModel : certListResponse.getCerts()) {
+                checked++;
+                if (!isDueForRenewal(certModel, renewWithExpiry)) {
+                    continue;
+                }
+                if (!isRenewable(certModel.getDomain())) {
+                    skipped++;
+                    continue;
+                }
+                // ACME orders take a while, extend the lease before each one and stop if another instance took over
+                if (!certStore.acquireRenewalLease(leaseOwner, config.renewalLeaseDuration())) {
+                    log.info("Lost cert renewal lease after renewing {} certs", renewed);
+                    return "Lost renewal lease after renewing " + renewed + " certs";
+                }
+                if (renewCert(certModel.getDomain())) {
+                    renewed++;
+                } else {
+                    failed++;
+                }
             }
-            return Optional.empty();
+        } while (cursorOpt.isPresent());
+        String summary = String.format("Checked %d certs, renewed %d, failed %d, skipped %d",
+                checked, renewed, failed, skipped);
+        log.info("Cert renewal: {}", summary);
+        return summary;
+    }
+
+    private boolean isDueForRenewal(CertModel certModel, Duration renewWithExpiry) {
+        Instant now = Instant.now();
+        return now.isAfter(certModel.getExpiresAt().minus(renewWithExpiry))
+                && (certModel.getRetryAfter() == null || now.isAfter(certModel.getRetryAfter()));
+    }
+
+    /**
+     * Whether a stored cert is still worth renewing: our current wildcard domain, or a custom domain whose project
+     * still exists and whose DNS still points to us. Others are left to expire.
+     */
+    private boolean isRenewable(String domainToRequest) {
+        if (domainToRequest.startsWith("*.")) {
+            return domainToRequest.equals("*." + configApp.domain());
+        }
+        if (projectStore.getProjectBySlug(domainToRequest, true).isEmpty()) {
+            return false;
+        }
+        if (!isCustomDomainPointingToUs(domainToRequest)) {
+            if (LogUtil.rateLimitAllowLog("CertFetcher-custom-domain-dns-mismatch-" + domainToRequest)) {
+                log.info("Skipping cert renewal for custom domain {}, its DNS no longer resolves to us (expected to match {})",
+                        domainToRequest, config.customDomainExpectedCnameTarget());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean renewCert(String domainToRequest) {
+        // Requests and background renewal may both find the same cert due
+        if (!domainsRenewing.add(domainToRequest)) {
+            return false;
+        }
+        try {
+            createCert(domainToRequest);
+            return true;
+        } catch (AcmeRateLimitedException ex) {
+            log.warn("Acme rate limit for domain {}", domainToRequest, ex);
+            ex.getRetryAfter().ifPresent(retryAfter -> certStore.setCertRetryAfter(domainToRequest, retryAfter));
+            return false;
+        } catch (Exception ex) {
+            log.warn("Failed to renew cert for domain {}", domainToRequest, ex);
+            return false;
+        } finally {
+            domainsRenewing.remove(domainToRequest);
         }
     }
 
@@ -372,7 +588,10 @@ public class CertFetcherImpl extends ManagedService implements CertFetcher {
 
         certStore.setCert(certModel);
 
-        return new CertAndKeypair(certModel, domainKeypair);
+        CertAndKeypair certAndKeypair = new CertAndKeypair(certModel, domainKeypair);
+        certCache.put(domain, certAndKeypair);
+        unknownDomainCache.invalidate(domain);
+        return certAndKeypair;
     }
 
     @SneakyThrows
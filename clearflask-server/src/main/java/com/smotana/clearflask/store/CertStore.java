@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store;
 
+import com.google.common.collect.ImmutableList;
 import com.smotana.clearflask.api.model.Cert;
 import com.smotana.clearflask.api.model.Challenge;
 import com.smotana.clearflask.api.model.Keypair;
@@ -14,10 +15,12 @@ import org.shredzone.acme4j.util.KeyPairUtils;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.security.KeyPair;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
+import static io.dataspray.singletable.TableType.Gsi;
 import static io.dataspray.singletable.TableType.Primary;
 
 public interface CertStore {
@@ -54,6 +57,22 @@ public interface CertStore {
 
     void deleteCert(String domain);
 
+    /**
+     * Lists all certs including expired ones not yet removed by TTL.
+     */
+    CertListResponse listCerts(Optional<String> cursorOpt, int pageSize);
+
+    /**
+     * Takes or extends the fleet-wide lease on background cert renewal. Returns false if another owner holds an
+     * unexpired lease.
+     */
+    boolean acquireRenewalLease(String leaseOwner, Duration leaseDuration);
+
+    @Value
+    class CertListResponse {
+        ImmutableList<CertModel> certs;
+        Optional<String> cursorOpt;
+    }
 
     @Value
     @Builder(toBuilder = true)
@@ -121,6 +140,7 @@ public interface CertStore {
     @Builder(toBuilder = true)
     @AllArgsConstructor
     @DynamoTable(type = Primary, partitionKeys = {"domain"}, rangePrefix = "certByDomain")
+    @DynamoTable(type = Gsi, indexNumber = 2, shardKeys = "domain", shardCount = 10, rangePrefix = "certSharded", rangeKeys = "domain")
     class CertModel {
         @NonNull
         String domain;
@@ -155,4 +175,20 @@ public interface CertStore {
                     getExpiresAt().toEpochMilli());
         }
     }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"leaseId"}, rangePrefix = "certRenewalLease")
+    class RenewalLeaseModel {
+        @NonNull
+        String leaseId;
+
+        @NonNull
+        String leaseOwner;
+
+        long leaseExpiresEpochSec;
+
+        long ttlInEpochSec;
+    }
 }
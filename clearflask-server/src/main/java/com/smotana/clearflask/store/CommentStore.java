@@ -48,6 +48,14 @@ public interface CommentStore {
 
     CommentAndIndexingFuture<List<Void>> createCommentAndUpvote(CommentModel comment);
 
+    /**
+     * Bulk create for imports. Unlike {@link #createCommentAndUpvote}, comments are not upvoted and the comment counts
+     * of their ideas and parent comments are not incremented, callers are expected to set them upfront.
+     * <p>
+     * Safe to retry with the same comments, existing comments are overwritten and not counted again.
+     */
+    ListenableFuture<List<Void>> createComments(String projectId, Iterable<CommentModel> comments);
+
     Optional<CommentModel> getComment(String projectId, String ideaId, String commentId);
 
     ImmutableMap<String, CommentModel> getComments(String projectId, String ideaId, Collection<String> commentIds);
@@ -58,6 +66,8 @@ public interface CommentStore {
 
     ImmutableSet<CommentModel> getCommentsForPost(String projectId, String ideaId, ImmutableSet<String> mergedPostIds, Optional<String> parentCommentIdOpt, ImmutableSet<String> excludeChildrenCommentIds);
 
+    long countComments(String projectId);
+
     void exportAllForProject(String projectId, Consumer<CommentModel> consumer);
 
     CommentAndIndexingFuture<Void> updateComment(String projectId, String ideaId, String commentId, Instant updated, CommentUpdate commentUpdate);
@@ -81,6 +91,7 @@ public interface CommentStore {
     @Value
     class SearchCommentsResponse {
         ImmutableList<CommentModel> comments;
+        @With
         Optional<String> cursorOpt;
     }
 
@@ -23,6 +23,12 @@ public interface ContentStore {
 
     String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length, String fileName);
 
+    /**
+     * Uploads all variants of an image under file names derived from the same id. Returns the signed URL of the
+     * {@link ImageVariant#FULL} variant, which is the URL to store and pass to {@link #signUrl(String, String, ImageVariant)}.
+     */
+    String uploadVariantsAndSign(String projectId, String userId, ContentType contentType, ImmutableMap<ImageVariant, byte[]> variants);
+
     /**
      * Throws a WebApplicationException with proxied response
      */
@@ -50,6 +56,11 @@ public interface ContentStore {
 
     Optional<String> signUrl(String matchProjectId, String url);
 
+    /**
+     * Signs the URL of the given variant. Content uploaded without variants is signed as is.
+     */
+    Optional<String> signUrl(String matchProjectId, String url, ImageVariant variant);
+
     String signUrl(ContentUrl contentUrl);
 
     Optional<ContentUrl> parseContentUrl(String url);
@@ -81,6 +92,24 @@ public interface ContentStore {
                 .collect(ImmutableMap.toImmutableMap(ContentType::getMediaType, e -> e));
     }
 
+    /**
+     * Sizes an uploaded image is stored in, see ImageNormalizationImpl.Config for dimensions
+     */
+    enum ImageVariant {
+        CARD("card"),
+        FULL("full");
+
+        String fileNameSuffix;
+
+        ImageVariant(String fileNameSuffix) {
+            this.fileNameSuffix = fileNameSuffix;
+        }
+
+        public String getFileNameSuffix() {
+            return fileNameSuffix;
+        }
+    }
+
     @Value
     class ContentUrl {
         @NonNull
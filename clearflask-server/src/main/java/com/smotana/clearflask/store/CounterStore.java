@@ -0,0 +1,83 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import io.dataspray.singletable.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Maintained totals of posts, comments and tracked users kept per project and per account so that plan limits
+ * and billing can be checked without counting in the search engine.
+ * <p>
+ * Counters are updated once the items they count are written, best effort and outside of the item's write, and are
+ * periodically reconciled against the source of truth to correct any drift.
+ */
+public interface CounterStore {
+
+    /**
+     * Updates both the project's and its owning account's counter. Failures are logged rather than thrown so that
+     * the counted write is not failed because of its counter.
+     */
+    void update(String projectId, CounterType type, long diff);
+
+    long get(CounterScope scope, String scopeId, CounterType type);
+
+    /**
+     * Adjusts counter to match the actual value.
+     *
+     * @return Difference that was applied
+     */
+    long reconcile(CounterScope scope, String scopeId, CounterType type, long actual);
+
+    /**
+     * Moves project's totals from one account to another.
+     */
+    void changeOwner(String projectId, String oldAccountId, String newAccountId);
+
+    /**
+     * Removes project's counters and subtracts its totals from the owning account.
+     */
+    void deleteAllForProject(String accountId, String projectId);
+
+    /**
+     * Removes account counters; project counters are removed as part of project deletion.
+     */
+    void deleteAllForAccount(String accountId);
+
+    enum CounterScope {
+        PROJECT,
+        ACCOUNT
+    }
+
+    enum CounterType {
+        POSTS,
+        COMMENTS,
+        TRACKED_USERS
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"scopeId", "scope", "type"}, rangePrefix = "counter", rangeKeys = {"shardId"})
+    class Counter {
+        @NonNull
+        String scopeId;
+
+        @NonNull
+        CounterScope scope;
+
+        @NonNull
+        CounterType type;
+
+        @NonNull
+        long shardId;
+
+        @NonNull
+        long count;
+    }
+}
@@ -0,0 +1,62 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import io.dataspray.singletable.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Durable overflow of the in-memory email outbox. Emails are spilled when the outbox is full or the server is shutting
+ * down and are claimed back by whichever server has room first.
+ */
+public interface EmailOutboxStore {
+
+    void spill(ImmutableList<Email> emails);
+
+    /**
+     * Each spilled email is claimed by exactly one caller.
+     */
+    ImmutableList<Email> claim(int maxCount);
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "shard", rangePrefix = "emailOutbox", rangeKeys = "emailId")
+    class SpilledEmail {
+        /**
+         * Spreads spilled emails across partitions.
+         */
+        @NonNull
+        String shard;
+
+        @NonNull
+        String emailId;
+
+        @NonNull
+        String toAddress;
+
+        @NonNull
+        String subject;
+
+        String contentHtml;
+
+        @NonNull
+        String contentText;
+
+        @NonNull
+        String projectOrAccountId;
+
+        @NonNull
+        String typeTag;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+}
@@ -25,7 +25,7 @@ import java.util.Optional;
 
 import static io.dataspray.singletable.TableType.Primary;
 
-public interface GitHubStore {
+public interface GitHubStore extends IntegrationBackfillSource {
     AvailableRepos getReposForUser(String accountId, String code);
 
     void setupConfigGitHubIntegration(String accountId, Optional<ConfigAdmin> configPrevious, ConfigAdmin configAdmin);
@@ -25,7 +25,7 @@ import java.util.Optional;
 
 import static io.dataspray.singletable.TableType.Primary;
 
-public interface GitLabStore {
+public interface GitLabStore extends IntegrationBackfillSource {
 
     /**
      * Get available GitLab projects for the user after OAuth authorization.
@@ -0,0 +1,122 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableSet;
+import com.smotana.clearflask.api.model.HistogramInterval;
+import com.smotana.clearflask.api.model.HistogramResponse;
+import io.dataspray.singletable.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Daily counts of posts, comments and users kept per project and post category so that dashboard histograms are
+ * served without aggregating over every item in the search engine.
+ * <p>
+ * Rollups are updated once the items they count are written, best effort and outside of the item's write. Projects
+ * created before rollups existed are filled in once by
+ * {@link com.smotana.clearflask.store.impl.HistogramRollupBackfiller}, until then histograms are served from the
+ * search engine.
+ */
+public interface HistogramRollupStore {
+
+    /**
+     * Updates both the project-wide and the category rollups. Failures are logged rather than thrown so that the
+     * counted write is not failed because of its rollup.
+     */
+    void update(String projectId, RollupType type, Map<RollupKey, Long> diffs);
+
+    /**
+     * Points are re-bucketed from daily rollups into the requested interval. Hits are the total across all days.
+     *
+     * @param categoryIds Only applicable to posts, if empty counts all categories
+     * @return Empty if rollups are disabled or the project has not been backfilled yet
+     */
+    Optional<HistogramResponse> histogram(String projectId, RollupType type, ImmutableSet<String> categoryIds, Optional<LocalDate> startOpt, Optional<LocalDate> endOpt, Optional<HistogramInterval> intervalOpt);
+
+    boolean isBackfilled(String projectId, RollupType type);
+
+    /**
+     * Replaces all rollups of a given type with the given counts and marks the project as backfilled.
+     */
+    void backfill(String projectId, RollupType type, Map<RollupKey, Long> counts);
+
+    /**
+     * New projects start out with nothing to backfill.
+     */
+    void markBackfilled(String projectId);
+
+    void deleteAllForProject(String projectId);
+
+    enum RollupType {
+        POSTS,
+        COMMENTS,
+        USERS
+    }
+
+    @Value
+    class RollupKey {
+        @Nullable
+        String categoryId;
+
+        @NonNull
+        LocalDate day;
+
+        public static RollupKey of(@Nullable String categoryId, Instant created) {
+            return new RollupKey(categoryId, LocalDate.ofInstant(created, ZoneOffset.UTC));
+        }
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId", "type"}, rangePrefix = "histogramRollup", rangeKeys = {"categoryId", "day"})
+    class HistogramRollup {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        RollupType type;
+
+        /**
+         * Post category or {@code *} for the project-wide total.
+         */
+        @NonNull
+        String categoryId;
+
+        /**
+         * ISO date in UTC, sorts chronologically.
+         */
+        @NonNull
+        String day;
+
+        @NonNull
+        long count;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId", "type"}, rangePrefix = "histogramRollupBackfilled")
+    class HistogramRollupBackfilled {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        RollupType type;
+
+        @NonNull
+        Instant backfilled;
+    }
+}
@@ -65,8 +65,15 @@ public interface IdeaStore {
 
     Optional<IdeaModel> getIdea(String projectId, String ideaId);
 
+    /**
+     * @param useCache if false, skips the item cache and performs a strongly consistent read
+     */
+    Optional<IdeaModel> getIdea(String projectId, String ideaId, boolean useCache);
+
     ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds);
 
+    ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds, boolean useCache);
+
     LinkResponse linkIdeas(String projectId, String ideaId, String parentIdeaId, boolean undo, BiFunction<String, String, Double> categoryExpressionToWeightMapper);
 
     MergeResponse mergeIdeas(String projectId, String ideaId, String parentIdeaId, boolean undo, BiFunction<String, String, Double> categoryExpressionToWeightMapper);
@@ -83,6 +90,21 @@ public interface IdeaStore {
      */
     SearchResponse searchIdeas(String projectId, IdeaSearchAdmin ideaSearchAdmin, boolean excludePrivate, ImmutableSet<String> hiddenStatusIds, Optional<String> cursorOpt);
 
+    /**
+     * Runs multiple searches at once using a single multi search or a single query.
+     *
+     * @return Responses in the same order as searches
+     */
+    ImmutableList<SearchResponse> searchIdeas(String projectId, ImmutableList<IdeaSearchWithCursor> ideaSearches, Optional<String> requestorUserIdOpt, ImmutableSet<String> hiddenStatusIds);
+
+    /**
+     * Runs multiple admin searches at once including private posts, see
+     * {@link #searchIdeas(String, ImmutableList, Optional, ImmutableSet)}.
+     *
+     * @return Responses in the same order as searches
+     */
+    ImmutableList<SearchResponse> searchIdeasAdmin(String projectId, ImmutableList<IdeaSearchAdmin> ideaSearchAdmins);
+
     long countIdeas(String projectId);
 
     IdeaAggregateResponse countIdeas(String projectId, String categoryId);
@@ -128,9 +150,16 @@ public interface IdeaStore {
         long projectId;
     }
 
+    @Value
+    class IdeaSearchWithCursor {
+        IdeaSearch ideaSearch;
+        Optional<String> cursorOpt;
+    }
+
     @Value
     class SearchResponse {
         ImmutableList<String> ideaIds;
+        @With
         Optional<String> cursorOpt;
         long totalHits;
         boolean totalHitsGte;
@@ -0,0 +1,115 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Lists issues that existed before an integration was linked so they can be imported by
+ * {@link com.smotana.clearflask.store.impl.IntegrationBackfiller}.
+ */
+public interface IntegrationBackfillSource {
+
+    /**
+     * Lists the next page of issues in a stable order. Acquires a permit from the budget before each request made
+     * against the provider, including requests made later by {@link IssueImporter#importIssue()}.
+     *
+     * @param cursorOpt Cursor of the previous page, empty to start from the beginning
+     * @throws IllegalStateException if the integration is not linked or authorized for the project
+     */
+    IssuePage listIssues(Project project, Optional<String> cursorOpt, int pageSize, RateLimiter budget) throws IOException;
+
+    @Value
+    class IssuePage {
+        @NonNull
+        ImmutableList<PendingIssue> issues;
+
+        /**
+         * Empty if this is the last page
+         */
+        @NonNull
+        Optional<String> nextCursorOpt;
+    }
+
+    @Value
+    class PendingIssue {
+        @NonNull
+        String ideaId;
+
+        /**
+         * Converts the issue and fetches its comments, safe to call concurrently with other issues of the same page
+         */
+        @NonNull
+        IssueImporter importer;
+    }
+
+    /**
+     * Cursor for sources listed in ascending order of a timestamp that can be filtered on, with the filter including
+     * the timestamp itself. Issues sharing the last timestamp of a page are listed again and skipped as already
+     * imported. When a whole page shares one timestamp, the page number within that timestamp moves on instead, as
+     * moving the timestamp forward would skip the rest of the issues sharing it.
+     */
+    @Value
+    class TimestampCursor {
+        long timestampMillis;
+
+        /**
+         * 1-based page of issues at or after the timestamp
+         */
+        int page;
+
+        public static TimestampCursor parse(String cursor) {
+            int separatorIndex = cursor.indexOf(':');
+            if (separatorIndex == -1) {
+                // Cursors saved before the page number was added
+                return new TimestampCursor(Long.parseLong(cursor), 1);
+            }
+            return new TimestampCursor(
+                    Long.parseLong(cursor.substring(0, separatorIndex)),
+                    Integer.parseInt(cursor.substring(separatorIndex + 1)));
+        }
+
+        /**
+         * Cursor of the page after a full page.
+         *
+         * @param currentOpt               Cursor of the full page, empty for the first page
+         * @param lastIssueTimestampMillis Timestamp of the last issue on the full page
+         */
+        public static TimestampCursor next(Optional<TimestampCursor> currentOpt, long lastIssueTimestampMillis) {
+            if (currentOpt.isPresent() && lastIssueTimestampMillis <= currentOpt.get().getTimestampMillis()) {
+                return new TimestampCursor(currentOpt.get().getTimestampMillis(), currentOpt.get().getPage() + 1);
+            }
+            return new TimestampCursor(lastIssueTimestampMillis, 1);
+        }
+
+        public String serialize() {
+            return timestampMillis + ":" + page;
+        }
+    }
+
+    @FunctionalInterface
+    interface IssueImporter {
+        ImportedIssue importIssue() throws IOException;
+    }
+
+    @Value
+    class ImportedIssue {
+        /**
+         * Comment counts are already set to match comments
+         */
+        @NonNull
+        IdeaModel idea;
+
+        @NonNull
+        ImmutableList<CommentModel> comments;
+    }
+}
@@ -27,7 +27,7 @@ import static io.dataspray.singletable.TableType.Primary;
  * Store interface for Jira integration, following the same patterns as GitHubStore.
  * Provides two-way sync between ClearFlask posts and Jira issues.
  */
-public interface JiraStore {
+public interface JiraStore extends IntegrationBackfillSource {
 
     /**
      * Get available Jira projects for a user after OAuth authorization.
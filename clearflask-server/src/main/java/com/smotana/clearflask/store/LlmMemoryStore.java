@@ -10,11 +10,16 @@ import lombok.NonNull;
 import lombok.Value;
 
 import java.util.List;
+import java.util.Optional;
 
 import static io.dataspray.singletable.TableType.Primary;
 
 /**
  * Messages in "Memory" are AI and user messages used for prompt, which can be summarized, skipped.
+ * <p>
+ * Stored as an append-only log of messages, each with its token count, and a summary record per conversation holding
+ * the window of messages that fit into the token limit. Messages falling out of the window are compacted into the
+ * summary record and removed from the log.
  *
  * @see LlmHistoryStore LlmHistoryStore used for exact messages to be displayed in Thread history to the user.
  */
@@ -26,6 +31,69 @@ public interface LlmMemoryStore {
 
     void addAll(String convoId, List<ChatMessage> messages);
 
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"convoId"}, rangePrefix = "llmMemoryMsg", rangeKeys = {"seq"})
+    class MemoryMessageModel {
+        @NonNull
+        String convoId;
+
+        /**
+         * Position in the conversation, not zero-padded so order by this field rather than by the range key.
+         */
+        long seq;
+
+        @NonNull
+        String messageJson;
+
+        long tokenCount;
+
+        public ChatMessage getMessage() {
+            return ChatMessageDeserializer.messageFromJson(getMessageJson());
+        }
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"convoId"}, rangePrefix = "llmMemorySummary")
+    class MemorySummaryModel {
+        @NonNull
+        String convoId;
+
+        /**
+         * Seq of the next message to be appended, also used for optimistic locking.
+         */
+        long nextSeq;
+
+        /**
+         * Seq of the oldest message still in the window; all older messages have been compacted.
+         */
+        long windowStartSeq;
+
+        long windowTokenCount;
+
+        /**
+         * Only the latest system message is retained, outside the window.
+         */
+        String systemMessageJson;
+
+        long systemMessageTokenCount;
+
+        long compactedMessageCount;
+
+        long compactedTokenCount;
+
+        public Optional<ChatMessage> getSystemMessageOpt() {
+            return Optional.ofNullable(getSystemMessageJson())
+                    .map(ChatMessageDeserializer::messageFromJson);
+        }
+    }
+
+    /**
+     * Previous storage of the whole memory in a single item, migrated to {@link MemoryMessageModel} on first read.
+     */
     @Value
     @Builder(toBuilder = true)
     @AllArgsConstructor
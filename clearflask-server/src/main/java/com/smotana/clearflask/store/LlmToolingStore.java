@@ -18,6 +18,14 @@ public interface LlmToolingStore {
 
     ToolExecution runTool(String projectId, ToolExecutionRequest request);
 
+    /**
+     * Runs all tool requests of a single model turn. Results are cached per project until its posts change and
+     * multiple post searches are sent together as one search.
+     *
+     * @return Executions in the same order as requests
+     */
+    ImmutableList<ToolExecution> runTools(String projectId, List<ToolExecutionRequest> requests);
+
     @Tool("Searches for posts based on criteria")
     String searchPosts(
             @ToolMemoryId String projectId,
@@ -119,6 +119,8 @@ public interface ProjectStore {
 
         Optional<IdeaStatus> getStatus(String categoryId, String statusId);
 
+        Optional<Tag> getTag(String categoryId, String tagId);
+
         /**
          * Returns all status IDs that have disablePublicDisplay set to true.
          * These posts should be hidden from non-admin users.
@@ -0,0 +1,505 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Named;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.util.MathUtil;
+import com.smotana.clearflask.util.ServerSecret;
+import com.smotana.clearflask.web.ApiException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Routes search reads of projects writing to both ElasticSearch and MySQL.
+ * <p>
+ * The configured read engine is asked first. If it has not answered within its recent p95 latency, the same read is
+ * hedged to the other engine and whichever answers first wins. Each engine has a circuit breaker; after consecutive
+ * errors reads go to the other engine first until the breaker closes again.
+ * <p>
+ * Cursors only work with the engine that issued them. Cursors issued by the non-configured engine are marked so later
+ * pages stay on that engine, and pages with a cursor are never hedged. Projects with a single engine are passed
+ * through, only recording metrics.
+ */
+@Slf4j
+@Singleton
+public class SearchEngineRouter extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enableHedging();
+
+        @DefaultValue("PT0.05S")
+        Duration hedgeDelayMin();
+
+        @DefaultValue("PT2S")
+        Duration hedgeDelayMax();
+
+        /**
+         * Limits extra load put on the secondary engine when the primary is slow across the board.
+         */
+        @DefaultValue("20")
+        int hedgeMaxConcurrent();
+
+        @DefaultValue("true")
+        boolean enableCircuitBreaker();
+
+        @DefaultValue("5")
+        int circuitBreakerErrorThreshold();
+
+        @DefaultValue("PT30S")
+        Duration circuitBreakerOpenDuration();
+
+        /**
+         * Reads beyond this are run on the calling thread without hedging.
+         */
+        @DefaultValue("50")
+        int threadPoolSize();
+    }
+
+    public enum Engine {
+        ELASTICSEARCH,
+        MYSQL
+    }
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "search";
+    private static final String CURSOR_ENGINE_MARKER = "~";
+
+    @Inject
+    private Config config;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+    @Inject
+    @Named("cursor")
+    private ServerSecret serverSecretCursor;
+
+    private ListeningExecutorService executor;
+    private Semaphore hedgeSemaphore;
+    private ImmutableMap<Engine, EngineState> engineStates;
+
+    @Inject
+    private void setup() {
+        hedgeSemaphore = new Semaphore(config.hedgeMaxConcurrent());
+        engineStates = Arrays.stream(Engine.values())
+                .collect(ImmutableMap.toImmutableMap(e -> e, EngineState::new));
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                config.threadPoolSize(), config.threadPoolSize(),
+                1, TimeUnit.MINUTES,
+                new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("SearchEngineRouter-%d").build());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        executor = MoreExecutors.listeningDecorator(threadPoolExecutor);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param hedgeable        Whether the read may be sent to both engines; false for reads that hold server-side
+     *                         resources until paged through, such as accurate cursors
+     * @param readElastic      Read given the ElasticSearch cursor
+     * @param readMysql        Read given the MySQL cursor
+     * @param cursorGetter     Cursor of the result
+     * @param cursorReplacer   Copy of the result with a different cursor
+     */
+    public <T> T read(
+            String projectId,
+            Optional<String> cursorOpt,
+            boolean hedgeable,
+            Function<Optional<String>, T> readElastic,
+            Function<Optional<String>, T> readMysql,
+            Function<T, Optional<String>> cursorGetter,
+            BiFunction<T, Optional<String>, T> cursorReplacer) {
+        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        Engine primary = searchEngine.isReadElastic() ? Engine.ELASTICSEARCH : Engine.MYSQL;
+        Reads<T> reads = new Reads<>(readElastic, readMysql);
+        if (!searchEngine.isWriteElastic() || !searchEngine.isWriteMysql()) {
+            return readTimed(primary, cursorOpt, reads);
+        }
+
+        if (cursorOpt.isPresent()) {
+            // Stay on the engine that issued the cursor
+            EngineCursor engineCursor = parseCursor(primary, cursorOpt.get());
+            return markCursor(primary, engineCursor.getEngine(),
+                    readTimed(engineCursor.getEngine(), Optional.of(engineCursor.getCursor()), reads),
+                    cursorGetter, cursorReplacer);
+        }
+
+        EngineResult<T> engineResult = readRouted(primary, hedgeable, reads);
+        return markCursor(primary, engineResult.getEngine(), engineResult.getResult(), cursorGetter, cursorReplacer);
+    }
+
+    /**
+     * Batch of reads sent to an engine in a single request, such as a multi-search. Reads with a cursor are sent to
+     * the engine that issued it, the rest are routed together as in
+     * {@link #read(String, Optional, boolean, Function, Function, Function, BiFunction)}. Cursors are marked the
+     * same way so both accept each other's cursors.
+     *
+     * @param readElastic Reads at the given indexes of the batch given their ElasticSearch cursors
+     * @param readMysql   Reads at the given indexes of the batch given their MySQL cursors
+     */
+    public <T> ImmutableList<T> readBatch(
+            String projectId,
+            ImmutableList<Optional<String>> cursorOpts,
+            BiFunction<ImmutableList<Integer>, ImmutableList<Optional<String>>, ImmutableList<T>> readElastic,
+            BiFunction<ImmutableList<Integer>, ImmutableList<Optional<String>>, ImmutableList<T>> readMysql,
+            Function<T, Optional<String>> cursorGetter,
+            BiFunction<T, Optional<String>, T> cursorReplacer) {
+        SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+        Engine primary = searchEngine.isReadElastic() ? Engine.ELASTICSEARCH : Engine.MYSQL;
+        ImmutableList<Integer> allIndexes = IntStream.range(0, cursorOpts.size()).boxed()
+                .collect(ImmutableList.toImmutableList());
+        if (!searchEngine.isWriteElastic() || !searchEngine.isWriteMysql()) {
+            return readTimed(primary, Optional.empty(), new Reads<>(
+                    c -> readElastic.apply(allIndexes, cursorOpts),
+                    c -> readMysql.apply(allIndexes, cursorOpts)));
+        }
+
+        // Group by the engine that issued the cursor, empty for reads without a cursor
+        Map<Optional<Engine>, List<Integer>> indexesByCursorEngine = Maps.newHashMap();
+        List<Optional<String>> engineCursorOpts = Lists.newArrayList();
+        for (int i = 0; i < cursorOpts.size(); i++) {
+            Optional<EngineCursor> engineCursorOpt = cursorOpts.get(i).map(cursor -> parseCursor(primary, cursor));
+            engineCursorOpts.add(engineCursorOpt.map(EngineCursor::getCursor));
+            indexesByCursorEngine.computeIfAbsent(engineCursorOpt.map(EngineCursor::getEngine), e -> Lists.newArrayList())
+                    .add(i);
+        }
+
+        List<T> results = Lists.newArrayList(Collections.nCopies(cursorOpts.size(), null));
+        indexesByCursorEngine.forEach((cursorEngineOpt, indexesList) -> {
+            ImmutableList<Integer> indexes = ImmutableList.copyOf(indexesList);
+            ImmutableList<Optional<String>> indexesCursorOpts = indexes.stream()
+                    .map(engineCursorOpts::get)
+                    .collect(ImmutableList.toImmutableList());
+            Reads<ImmutableList<T>> reads = new Reads<>(
+                    c -> readElastic.apply(indexes, indexesCursorOpts),
+                    c -> readMysql.apply(indexes, indexesCursorOpts));
+            EngineResult<ImmutableList<T>> engineResult = cursorEngineOpt.isPresent()
+                    ? new EngineResult<>(cursorEngineOpt.get(), readTimed(cursorEngineOpt.get(), Optional.empty(), reads))
+                    : readRouted(primary, true, reads);
+            for (int j = 0; j < indexes.size(); j++) {
+                results.set(indexes.get(j), markCursor(primary, engineResult.getEngine(), engineResult.getResult().get(j), cursorGetter, cursorReplacer));
+            }
+        });
+        return ImmutableList.copyOf(results);
+    }
+
+    private <T> EngineResult<T> readRouted(Engine primary, boolean hedgeable, Reads<T> reads) {
+        Engine first = primary;
+        Engine second = other(primary);
+        if (config.enableCircuitBreaker()
+                && engineStates.get(first).isOpen()
+                && !engineStates.get(second).isOpen()) {
+            first = second;
+            second = primary;
+            engineStates.get(first).failoverCounter.increment();
+        }
+
+        if (hedgeable && config.enableHedging() && executor != null) {
+            try {
+                return readHedged(first, second, reads);
+            } catch (RejectedExecutionException ex) {
+                // Thread pool exhausted, continue on calling thread without hedging
+            }
+        }
+
+        try {
+            return new EngineResult<>(first, readTimed(first, Optional.empty(), reads));
+        } catch (RuntimeException ex) {
+            if (!isEngineFailure(ex) || !canFailover(second)) {
+                throw ex;
+            }
+            log.warn("Search on {} failed, failing over to {}", first, second, ex);
+            engineStates.get(second).failoverCounter.increment();
+            return new EngineResult<>(second, readTimed(second, Optional.empty(), reads));
+        }
+    }
+
+    private <T> EngineResult<T> readHedged(Engine first, Engine second, Reads<T> reads) {
+        ListenableFuture<T> firstFuture = executor.submit(() -> readTimed(first, Optional.empty(), reads));
+        try {
+            return new EngineResult<>(first, firstFuture.get(hedgeDelay(first).toNanos(), TimeUnit.NANOSECONDS));
+        } catch (TimeoutException ex) {
+            if (!canFailover(second) || !hedgeSemaphore.tryAcquire()) {
+                return new EngineResult<>(first, getUnchecked(firstFuture));
+            }
+        } catch (ExecutionException ex) {
+            if (!isEngineFailure(ex.getCause()) || !canFailover(second)) {
+                throw unwrap(ex);
+            }
+            log.warn("Search on {} failed, failing over to {}", first, second, ex.getCause());
+            engineStates.get(second).failoverCounter.increment();
+            return new EngineResult<>(second, readTimed(second, Optional.empty(), reads));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+
+        // First engine is slow, race it against the second one
+        engineStates.get(second).hedgeCounter.increment();
+        ListenableFuture<T> secondFuture;
+        try {
+            secondFuture = executor.submit(() -> readTimed(second, Optional.empty(), reads));
+        } catch (RejectedExecutionException ex) {
+            hedgeSemaphore.release();
+            return new EngineResult<>(first, getUnchecked(firstFuture));
+        }
+        secondFuture.addListener(hedgeSemaphore::release, MoreExecutors.directExecutor());
+
+        SettableFuture<EngineResult<T>> winnerFuture = SettableFuture.create();
+        AtomicInteger failures = new AtomicInteger();
+        addRaceCallback(first, firstFuture, winnerFuture, failures);
+        addRaceCallback(second, secondFuture, winnerFuture, failures);
+        // Loser is left to finish, cancelling does not stop the remote query anyway
+        EngineResult<T> winner = getUnchecked(winnerFuture);
+        if (winner.getEngine() == second) {
+            engineStates.get(second).hedgeWonCounter.increment();
+        }
+        return winner;
+    }
+
+    private <T> void addRaceCallback(Engine engine, ListenableFuture<T> future, SettableFuture<EngineResult<T>> winnerFuture, AtomicInteger failures) {
+        Futures.addCallback(future, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T result) {
+                winnerFuture.set(new EngineResult<>(engine, result));
+            }
+
+            @Override
+            public void onFailure(Throwable th) {
+                // Only fail once both failed, prefer propagating the first engine's error
+                if (failures.incrementAndGet() >= 2) {
+                    winnerFuture.setException(th);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private <T> T readTimed(Engine engine, Optional<String> cursorOpt, Reads<T> reads) {
+        EngineState state = engineStates.get(engine);
+        long startNanos = System.nanoTime();
+        try {
+            T result = (engine == Engine.ELASTICSEARCH ? reads.getReadElastic() : reads.getReadMysql()).apply(cursorOpt);
+            state.successTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            state.onSuccess();
+            return result;
+        } catch (RuntimeException ex) {
+            if (isEngineFailure(ex)) {
+                state.errorTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                state.onError();
+            }
+            throw ex;
+        }
+    }
+
+    private Duration hedgeDelay(Engine engine) {
+        double p95Nanos = 0d;
+        for (ValueAtPercentile valueAtPercentile : engineStates.get(engine).successTimer.takeSnapshot().percentileValues()) {
+            if (valueAtPercentile.percentile() == 0.95d) {
+                p95Nanos = valueAtPercentile.value(TimeUnit.NANOSECONDS);
+            }
+        }
+        return Duration.ofNanos(MathUtil.minmax(
+                config.hedgeDelayMin().toNanos(),
+                (long) p95Nanos,
+                config.hedgeDelayMax().toNanos()));
+    }
+
+    private boolean canFailover(Engine engine) {
+        return !config.enableCircuitBreaker() || !engineStates.get(engine).isOpen();
+    }
+
+    /**
+     * Client errors such as an unsupported sort would fail on either engine.
+     */
+    @VisibleForTesting
+    static boolean isEngineFailure(Throwable th) {
+        return !(th instanceof ApiException)
+                || ((ApiException) th).getStatus().getFamily() != Response.Status.Family.CLIENT_ERROR;
+    }
+
+    private static Engine other(Engine engine) {
+        return engine == Engine.ELASTICSEARCH ? Engine.MYSQL : Engine.ELASTICSEARCH;
+    }
+
+    private static <T> T getUnchecked(ListenableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException ex) {
+        return ex.getCause() instanceof RuntimeException
+                ? (RuntimeException) ex.getCause()
+                : new RuntimeException(ex.getCause());
+    }
+
+    /**
+     * Engine that issued the cursor and the cursor as issued by it, without the marker.
+     */
+    private EngineCursor parseCursor(Engine primary, String cursor) {
+        String cursorDecrypted = serverSecretCursor.decryptString(cursor);
+        if (!cursorDecrypted.startsWith(CURSOR_ENGINE_MARKER)) {
+            return new EngineCursor(primary, cursor);
+        }
+        int markerEnd = cursorDecrypted.indexOf(CURSOR_ENGINE_MARKER, 1);
+        return new EngineCursor(
+                Engine.valueOf(cursorDecrypted.substring(1, markerEnd)),
+                serverSecretCursor.encryptString(cursorDecrypted.substring(markerEnd + 1)));
+    }
+
+    private <T> T markCursor(Engine primary, Engine engine, T result, Function<T, Optional<String>> cursorGetter, BiFunction<T, Optional<String>, T> cursorReplacer) {
+        if (engine == primary) {
+            return result;
+        }
+        Optional<String> cursorOpt = cursorGetter.apply(result);
+        if (cursorOpt.isEmpty()) {
+            return result;
+        }
+        return cursorReplacer.apply(result, Optional.of(serverSecretCursor.encryptString(
+                CURSOR_ENGINE_MARKER + engine.name() + CURSOR_ENGINE_MARKER
+                        + serverSecretCursor.decryptString(cursorOpt.get()))));
+    }
+
+    @Value
+    private static class Reads<T> {
+        Function<Optional<String>, T> readElastic;
+        Function<Optional<String>, T> readMysql;
+    }
+
+    @Value
+    private static class EngineCursor {
+        Engine engine;
+        String cursor;
+    }
+
+    @Value
+    private static class EngineResult<T> {
+        Engine engine;
+        T result;
+    }
+
+    private class EngineState {
+        private final Engine engine;
+        private final Timer successTimer;
+        private final Timer errorTimer;
+        private final Counter hedgeCounter;
+        private final Counter hedgeWonCounter;
+        private final Counter failoverCounter;
+        private final AtomicInteger consecutiveErrors = new AtomicInteger();
+        private final AtomicLong openUntilNanos = new AtomicLong(System.nanoTime());
+
+        private EngineState(Engine engine) {
+            this.engine = engine;
+            String engineTag = engine.name().toLowerCase();
+            this.successTimer = Timer.builder(METER_NAME)
+                    .tag("engine", engineTag)
+                    .tag("outcome", "success")
+                    .publishPercentiles(0.95d)
+                    .register(meterRegistry);
+            this.errorTimer = Timer.builder(METER_NAME)
+                    .tag("engine", engineTag)
+                    .tag("outcome", "error")
+                    .register(meterRegistry);
+            this.hedgeCounter = meterRegistry.counter(METER_NAME + ".hedge", "engine", engineTag);
+            this.hedgeWonCounter = meterRegistry.counter(METER_NAME + ".hedge.won", "engine", engineTag);
+            this.failoverCounter = meterRegistry.counter(METER_NAME + ".failover", "engine", engineTag);
+            meterRegistry.gauge(METER_NAME + ".breaker.open", Tags.of("engine", engineTag),
+                    this, s -> s.isOpen() ? 1d : 0d);
+        }
+
+        private boolean isOpen() {
+            return openUntilNanos.get() - System.nanoTime() > 0;
+        }
+
+        private void onSuccess() {
+            // Also closes a breaker letting reads through after it expired
+            consecutiveErrors.set(0);
+        }
+
+        private void onError() {
+            int errors = consecutiveErrors.incrementAndGet();
+            if (errors >= config.circuitBreakerErrorThreshold()) {
+                if (!isOpen()) {
+                    log.warn("Circuit breaker opened for {} after {} consecutive errors", engine, errors);
+                }
+                openUntilNanos.set(System.nanoTime() + config.circuitBreakerOpenDuration().toNanos());
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(SearchEngineRouter.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(SearchEngineRouter.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -38,8 +38,15 @@ public interface UserStore {
 
     Optional<UserModel> getUser(String projectId, String userId);
 
+    /**
+     * @param useCache if false, skips the item cache and performs a strongly consistent read
+     */
+    Optional<UserModel> getUser(String projectId, String userId, boolean useCache);
+
     ImmutableMap<String, UserModel> getUsers(String projectId, ImmutableCollection<String> userIds);
 
+    ImmutableMap<String, UserModel> getUsers(String projectId, ImmutableCollection<String> userIds, boolean useCache);
+
     Optional<UserModel> getUserByIdentifier(String projectId, IdentifierType type, String identifier);
 
     HistogramResponse histogram(String projectId, HistogramSearchAdmin searchAdmin);
@@ -119,6 +126,7 @@ public interface UserStore {
     @Value
     class SearchUsersResponse {
         ImmutableList<String> userIds;
+        @With
         Optional<String> cursorOpt;
         long totalHits;
         boolean totalHitsGte;
@@ -15,6 +15,7 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
@@ -27,6 +28,8 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
     public static final int DYNAMO_READ_BATCH_MAX_SIZE = 100;
     public static final int DYNAMO_WRITE_BATCH_MAX_SIZE = 25;
     public static final String DYNAMO_WRITE_BATCH_MAX_SIZE_STR = "25";
+    /** Limit raised to 100 in 2022, kept lower for compatibility with DynamoDB Local */
+    public static final int DYNAMO_TRANSACT_MAX_SIZE = 25;
 
     public interface Config {
         @DefaultValue("")
@@ -45,6 +48,8 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
     private Application.Config configApp;
     @Inject
     private AWSCredentialsProvider AwsCredentialsProvider;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private Optional<AmazonDynamoDB> amazonDynamoDBOpt = Optional.empty();
 
@@ -61,7 +66,8 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
         log.info("Opening Dynamo client on {}", config.serviceEndpoint());
         AmazonDynamoDBClientBuilder amazonDynamoDBClientBuilder = AmazonDynamoDBClientBuilder
                 .standard()
-                .withCredentials(AwsCredentialsProvider);
+                .withCredentials(AwsCredentialsProvider)
+                .withRequestHandlers(new DynamoMetricsRequestHandler(meterRegistry));
         String serviceEndpoint = config.serviceEndpoint();
         String signingRegion = config.signingRegion();
         String productionRegion = config.productionRegion();
@@ -0,0 +1,122 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.dynamo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded cache of DynamoDB items scoped by project. Each project gets its own cache capped in size so a single large
+ * project cannot evict everyone else's items.
+ * <p>
+ * Writers should {@link #put} the item returned by the write, readers {@link #putIfAbsent} so a slow read never
+ * overwrites a newer write. Items changed on other nodes are only seen once they expire.
+ * <p>
+ * While disabled nothing is cached and writers' {@link #put} drops the item instead, so nothing stale is served
+ * once re-enabled.
+ */
+public class DynamoItemCache<T> {
+
+    private final BooleanSupplier enabled;
+    private final long maxItemsPerProject;
+    private final Duration expireAfterWrite;
+    private final Cache<String, Cache<String, T>> projectCaches;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public DynamoItemCache(String entityType, BooleanSupplier enabled, Duration expireAfterWrite, long maxProjects, long maxItemsPerProject, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxItemsPerProject = maxItemsPerProject;
+        this.expireAfterWrite = expireAfterWrite;
+        this.projectCaches = CacheBuilder.newBuilder()
+                .expireAfterAccess(expireAfterWrite)
+                .maximumSize(maxProjects)
+                .build();
+        Tags tags = Tags.of("entity", entityType);
+        this.hitCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "dynamo.itemcache.hit", tags);
+        this.missCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "dynamo.itemcache.miss", tags);
+        meterRegistry.gauge(MeterRegistryProvider.METER_PREFIX + "dynamo.itemcache.hitratio", tags, this, c -> {
+            double total = c.hitCounter.count() + c.missCounter.count();
+            return total == 0d ? 0d : c.hitCounter.count() / total;
+        });
+    }
+
+    public Optional<T> get(String projectId, String itemId) {
+        Optional<T> itemOpt = Optional.ofNullable(projectCaches.getIfPresent(projectId))
+                .map(projectCache -> projectCache.getIfPresent(itemId));
+        (itemOpt.isPresent() ? hitCounter : missCounter).increment();
+        return itemOpt;
+    }
+
+    /**
+     * Returns only the cached items, the rest need to be fetched.
+     */
+    public ImmutableMap<String, T> getAll(String projectId, Collection<String> itemIds) {
+        Cache<String, T> projectCache = projectCaches.getIfPresent(projectId);
+        ImmutableMap<String, T> items = projectCache == null
+                ? ImmutableMap.of()
+                : projectCache.getAllPresent(itemIds);
+        hitCounter.increment(items.size());
+        missCounter.increment(itemIds.size() - items.size());
+        return items;
+    }
+
+    public void put(String projectId, String itemId, T item) {
+        if (!enabled.getAsBoolean()) {
+            invalidate(projectId, itemId);
+            return;
+        }
+        getProjectCache(projectId).put(itemId, item);
+    }
+
+    public void putIfAbsent(String projectId, String itemId, T item) {
+        if (!enabled.getAsBoolean()) {
+            return;
+        }
+        getProjectCache(projectId).asMap().putIfAbsent(itemId, item);
+    }
+
+    public void putAllIfAbsent(String projectId, Map<String, T> items) {
+        if (items.isEmpty() || !enabled.getAsBoolean()) {
+            return;
+        }
+        Map<String, T> projectCacheMap = getProjectCache(projectId).asMap();
+        items.forEach(projectCacheMap::putIfAbsent);
+    }
+
+    public void invalidate(String projectId, String itemId) {
+        Cache<String, T> projectCache = projectCaches.getIfPresent(projectId);
+        if (projectCache != null) {
+            projectCache.invalidate(itemId);
+        }
+    }
+
+    public void invalidateAll(String projectId, Iterable<String> itemIds) {
+        Cache<String, T> projectCache = projectCaches.getIfPresent(projectId);
+        if (projectCache != null) {
+            projectCache.invalidateAll(itemIds);
+        }
+    }
+
+    public void invalidateProject(String projectId) {
+        projectCaches.invalidate(projectId);
+    }
+
+    private Cache<String, T> getProjectCache(String projectId) {
+        return projectCaches.asMap().computeIfAbsent(projectId, id -> CacheBuilder.newBuilder()
+                .expireAfterWrite(expireAfterWrite)
+                .maximumSize(maxItemsPerProject)
+                .build());
+    }
+}
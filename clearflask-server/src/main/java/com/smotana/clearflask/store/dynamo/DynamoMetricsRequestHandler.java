@@ -0,0 +1,74 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.dynamo;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each DynamoDB call including SDK retries, tagged by operation (e.g. GetItem, BatchWriteItem).
+ */
+public class DynamoMetricsRequestHandler extends RequestHandler2 {
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "client";
+    private static final HandlerContextKey<Long> START_NANOS = new HandlerContextKey<>("ClearFlaskMetricsStartNanos");
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<Class<?>, Timer[]> timersByRequestClass = new ConcurrentHashMap<>();
+
+    public DynamoMetricsRequestHandler(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        request.addHandlerContext(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        record(request, true);
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception ex) {
+        record(request, false);
+    }
+
+    private void record(Request<?> request, boolean success) {
+        Long startNanos = request.getHandlerContext(START_NANOS);
+        if (startNanos == null) {
+            return;
+        }
+        timersByRequestClass.computeIfAbsent(request.getOriginalRequest().getClass(), this::createTimers)[success ? 0 : 1]
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer[] createTimers(Class<?> requestClass) {
+        String operation = requestClass.getSimpleName();
+        if (operation.endsWith("Request") && AmazonWebServiceRequest.class.isAssignableFrom(requestClass)) {
+            operation = operation.substring(0, operation.length() - "Request".length());
+        }
+        return new Timer[]{
+                createTimer(operation, "success"),
+                createTimer(operation, "error")};
+    }
+
+    private Timer createTimer(String operation, String outcome) {
+        return Timer.builder(METER_NAME)
+                .tag("engine", "dynamodb")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -19,10 +19,13 @@ import com.smotana.clearflask.core.ServiceInjector.Environment;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
@@ -67,6 +70,8 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
     private Environment env;
     @Inject
     private Provider<RestHighLevelClient> elasticProvider;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private Optional<RestHighLevelClient> restClientOpt = Optional.empty();
 
@@ -84,6 +89,7 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
         }
 
         log.info("Opening ElasticSearch client on {}", config.serviceEndpoint());
+        ElasticMetricsInterceptor metricsInterceptor = new ElasticMetricsInterceptor(meterRegistry);
         restClientOpt = Optional.of(new RestHighLevelClient(RestClient
                 .builder(HttpHost.create(config.serviceEndpoint()))
                 .setDefaultHeaders((config.enableCompatibilityHeaderForVersion7() ? ImmutableList.<Header>of(
@@ -104,7 +110,9 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
                                 return duration;
                             }
                             return maxIdleTime;
-                        }))
+                        })
+                        .addInterceptorFirst((HttpRequestInterceptor) metricsInterceptor)
+                        .addInterceptorLast((HttpResponseInterceptor) metricsInterceptor))
                 .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
                         .setConnectTimeout(config.requestTimeout())
                         .setSocketTimeout(config.requestTimeout()))));
@@ -0,0 +1,87 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each HTTP exchange with ElasticSearch, tagged by HTTP method and endpoint (e.g. "POST _search").
+ * Index names are left out on purpose as there is one per project.
+ * <p>
+ * Exchanges that fail without a response (connection errors, timeouts) are not recorded.
+ */
+public class ElasticMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "client";
+    private static final String START_NANOS_ATTR = "clearflask.metrics.startNanos";
+    private static final String OPERATION_ATTR = "clearflask.metrics.operation";
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, Timer[]> timersByOperation = new ConcurrentHashMap<>();
+
+    public ElasticMetricsInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        context.setAttribute(OPERATION_ATTR, toOperation(request.getRequestLine().getMethod(), request.getRequestLine().getUri()));
+        context.setAttribute(START_NANOS_ATTR, System.nanoTime());
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Object startNanos = context.getAttribute(START_NANOS_ATTR);
+        Object operation = context.getAttribute(OPERATION_ATTR);
+        if (!(startNanos instanceof Long) || !(operation instanceof String)) {
+            return;
+        }
+        boolean success = response.getStatusLine().getStatusCode() < 400;
+        timersByOperation.computeIfAbsent((String) operation, this::createTimers)[success ? 0 : 1]
+                .record(System.nanoTime() - (Long) startNanos, TimeUnit.NANOSECONDS);
+        context.removeAttribute(START_NANOS_ATTR);
+        context.removeAttribute(OPERATION_ATTR);
+    }
+
+    /**
+     * Picks the first path segment starting with an underscore as the endpoint, e.g. "/idea-abc/_update/123" becomes
+     * "_update". Paths without one act on the index itself.
+     */
+    private static String toOperation(String method, String uri) {
+        int pathEnd = uri.indexOf('?');
+        String path = pathEnd == -1 ? uri : uri.substring(0, pathEnd);
+        String endpoint = "index";
+        for (String segment : path.split("/")) {
+            if (segment.startsWith("_")) {
+                endpoint = segment;
+                break;
+            }
+        }
+        return method + " " + endpoint;
+    }
+
+    private Timer[] createTimers(String operation) {
+        return new Timer[]{
+                createTimer(operation, "success"),
+                createTimer(operation, "error")};
+    }
+
+    private Timer createTimer(String operation, String outcome) {
+        return Timer.builder(METER_NAME)
+                .tag("engine", "elasticsearch")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -11,6 +11,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.inject.Module;
 import com.google.inject.*;
 import com.google.inject.name.Named;
@@ -24,14 +28,20 @@ import com.smotana.clearflask.util.ServerSecret;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.ConnectionClosedException;
+import org.apache.http.util.EntityUtils;
 import org.apache.lucene.search.TotalHits;
 import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -39,11 +49,13 @@ import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.bucket.histogram.*;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
@@ -86,8 +98,20 @@ public class ElasticUtil {
         @DefaultValue(DYNAMO_WRITE_BATCH_MAX_SIZE_STR)
         int scrollSizeDefault();
 
+        /**
+         * Keep alive between pages of an accurate cursor, applies to both point in time and scroll.
+         */
         @DefaultValue("PT1M")
         Duration elasticScrollKeepAlive();
+
+        /**
+         * Accurate cursors use a point in time with search_after instead of a scroll. Scroll cursors already
+         * handed out keep working either way.
+         * <p>
+         * Requires Elasticsearch 7.12+, falls back to scroll on older versions and on OpenSearch.
+         */
+        @DefaultValue("false")
+        boolean usePointInTime();
     }
 
     @Value
@@ -96,13 +120,42 @@ public class ElasticUtil {
         private final Optional<String> cursorOpt;
     }
 
+    @Value
+    public static class CursorSearch {
+        SearchRequest searchRequest;
+        Optional<String> cursorOpt;
+        ImmutableList<String> sortFields;
+        Optional<SortOrder> sortOrderOpt;
+        Optional<Integer> sizeOpt;
+        ImmutableSet<String> sourceIncludes;
+    }
+
     @VisibleForTesting
     enum PaginationType {
+        POINT_IN_TIME,
         SCROLL,
         SEARCH_AFTER,
         FROM
     }
 
+    /**
+     * Serialized into the encrypted cursor for {@link PaginationType#POINT_IN_TIME}.
+     */
+    @Value
+    private static class PointInTimeCursor {
+        String pit;
+        JsonArray after;
+    }
+
+    /**
+     * Sorting by shard and Lucene doc id is the cheapest tie-breaker for a point in time.
+     */
+    private static final String SHARD_DOC_SORT_FIELD = "_shard_doc";
+    /**
+     * First Elasticsearch version with both the point in time API and _shard_doc sort.
+     */
+    private static final int[] POINT_IN_TIME_MIN_VERSION = {7, 12};
+
     @Inject
     @Named("cursor")
     private ServerSecret serverSecretCursor;
@@ -111,6 +164,11 @@ public class ElasticUtil {
     @Inject
     private Provider<RestHighLevelClient> elastic;
 
+    /**
+     * Null until the cluster version was successfully checked.
+     */
+    private volatile Boolean pointInTimeSupported;
+
     public String getIndexName(String indexName, String projectId) {
         return indexName + "-" + projectId;
     }
@@ -149,67 +207,180 @@ public class ElasticUtil {
         checkArgument(searchRequest.source() != null);
 
         Optional<String> cursorDecryptedOpt = cursorOpt.map(serverSecretCursor::decryptString);
-
-        int paginationSize;
-        if (sizeOpt.isPresent()) {
-            paginationSize = MathUtil.minmax(1, sizeOpt.get(), useAccurateCursor ? Integer.MAX_VALUE : configSearch.pageSizeMax());
-        } else {
-            paginationSize = useAccurateCursor ? configSearch.scrollSizeDefault() : configSearch.pageSizeDefault();
+        int paginationSize = paginationSize(useAccurateCursor, sizeOpt, configSearch);
+        PaginationType paginationType = choosePaginationType(useAccurateCursor, sortFields, configSearch);
+        if (useAccurateCursor && cursorDecryptedOpt.isPresent()) {
+            // Continue with whichever the cursor was created with
+            paginationType = isPointInTimeCursor(cursorDecryptedOpt.get())
+                    ? PaginationType.POINT_IN_TIME
+                    : PaginationType.SCROLL;
         }
-
-        PaginationType paginationType = choosePaginationType(useAccurateCursor, sortFields);
-        SearchResponse searchResponse;
+        SearchResponse searchResponse = null;
         try {
-            if (useAccurateCursor && cursorDecryptedOpt.isPresent()) {
+            if (paginationType == PaginationType.SCROLL && cursorDecryptedOpt.isPresent()) {
                 searchResponse = elastic.get().scroll(new SearchScrollRequest()
                                 .scrollId(cursorDecryptedOpt.get())
                                 .scroll(TimeValue.timeValueMillis(configSearch.elasticScrollKeepAlive().toMillis())),
                         RequestOptions.DEFAULT);
             } else {
-                // Set sorting and order
-                for (String sortField : sortFields) {
-                    searchRequest.source().sort(SortBuilders
-                            .fieldSort(sortField)
-                            .order(sortOrderOpt.orElse(SortOrder.ASC)));
-                }
-
-                // Set page paginationSize
-                searchRequest.source().size(paginationSize);
-
-                // Set source includes
-                if (sourceIncludes.isEmpty()) {
-                    searchRequest.source().fetchSource(false);
-                } else {
-                    searchRequest.source().fetchSource(sourceIncludes.toArray(new String[]{}), null);
-                }
-
-                // Set cursor
-                switch (paginationType) {
-                    case SCROLL:
-                        searchRequest.scroll(TimeValue.timeValueMillis(configSearch.elasticScrollKeepAlive().toMillis()));
-                        break;
-                    case SEARCH_AFTER:
-                        cursorDecryptedOpt.ifPresent(cursorDecrypted -> searchRequest.source().searchAfter(gson.fromJson(cursorDecrypted, Object[].class)));
-                        break;
-                    case FROM:
-                        cursorDecryptedOpt.ifPresent(cursorDecrypted -> searchRequest.source().from(gson.fromJson(cursorDecrypted, int.class)));
-                        break;
-                }
+                prepareSearch(searchRequest, cursorDecryptedOpt, sortFields, sortOrderOpt, paginationType, paginationSize, configSearch, sourceIncludes);
 
                 // Finally run the search
                 searchResponse = retry(() -> elastic.get().search(searchRequest, RequestOptions.DEFAULT));
             }
         } catch (IOException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            // Failed searches would otherwise hold the point in time open until keep alive expires
+            if (searchResponse == null
+                    && paginationType == PaginationType.POINT_IN_TIME
+                    && searchRequest.source().pointInTimeBuilder() != null) {
+                closePointInTime(searchRequest.source().pointInTimeBuilder().getEncodedId());
+            }
+        }
+
+        return completeSearch(searchRequest, searchResponse, paginationType, paginationSize);
+    }
+
+    /**
+     * Same as {@link #searchWithCursor} for multiple searches sent in a single multi search request. Scroll
+     * pagination is not supported as each scroll needs its own request.
+     *
+     * @return Responses in the same order as searches
+     */
+    public ImmutableList<SearchResponseWithCursor> multiSearchWithCursor(
+            ImmutableList<CursorSearch> searches,
+            ConfigSearch configSearch) {
+        if (searches.isEmpty()) {
+            return ImmutableList.of();
         }
 
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        PaginationType[] paginationTypes = new PaginationType[searches.size()];
+        int[] paginationSizes = new int[searches.size()];
+        for (int i = 0; i < searches.size(); i++) {
+            CursorSearch search = searches.get(i);
+            checkArgument(search.getSearchRequest().source() != null);
+            paginationTypes[i] = choosePaginationType(false, search.getSortFields(), configSearch);
+            paginationSizes[i] = paginationSize(false, search.getSizeOpt(), configSearch);
+            prepareSearch(search.getSearchRequest(),
+                    search.getCursorOpt().map(serverSecretCursor::decryptString),
+                    search.getSortFields(),
+                    search.getSortOrderOpt(),
+                    paginationTypes[i],
+                    paginationSizes[i],
+                    configSearch,
+                    search.getSourceIncludes());
+            multiSearchRequest.add(search.getSearchRequest());
+        }
+
+        MultiSearchResponse multiSearchResponse = retry(() -> elastic.get().msearch(multiSearchRequest, RequestOptions.DEFAULT));
 
+        ImmutableList.Builder<SearchResponseWithCursor> responsesBuilder = ImmutableList.builder();
+        MultiSearchResponse.Item[] items = multiSearchResponse.getResponses();
+        for (int i = 0; i < searches.size(); i++) {
+            if (items[i].isFailure()) {
+                throw new RuntimeException("Multi search failed for search " + i, items[i].getFailure());
+            }
+            responsesBuilder.add(completeSearch(
+                    searches.get(i).getSearchRequest(),
+                    items[i].getResponse(),
+                    paginationTypes[i],
+                    paginationSizes[i]));
+        }
+        return responsesBuilder.build();
+    }
+
+    private int paginationSize(boolean useAccurateCursor, Optional<Integer> sizeOpt, ConfigSearch configSearch) {
+        if (sizeOpt.isPresent()) {
+            return MathUtil.minmax(1, sizeOpt.get(), useAccurateCursor ? Integer.MAX_VALUE : configSearch.pageSizeMax());
+        } else {
+            return useAccurateCursor ? configSearch.scrollSizeDefault() : configSearch.pageSizeDefault();
+        }
+    }
+
+    private void prepareSearch(
+            SearchRequest searchRequest,
+            Optional<String> cursorDecryptedOpt,
+            ImmutableList<String> sortFields,
+            Optional<SortOrder> sortOrderOpt,
+            PaginationType paginationType,
+            int paginationSize,
+            ConfigSearch configSearch,
+            ImmutableSet<String> sourceIncludes) {
+        // Set sorting and order
+        for (String sortField : sortFields) {
+            searchRequest.source().sort(SortBuilders
+                    .fieldSort(sortField)
+                    .order(sortOrderOpt.orElse(SortOrder.ASC)));
+        }
+
+        // Set page paginationSize
+        searchRequest.source().size(paginationSize);
+
+        // Set source includes
+        if (sourceIncludes.isEmpty()) {
+            searchRequest.source().fetchSource(false);
+        } else {
+            searchRequest.source().fetchSource(sourceIncludes.toArray(new String[]{}), null);
+        }
+
+        // Set cursor
+        switch (paginationType) {
+            case POINT_IN_TIME:
+                TimeValue keepAlive = TimeValue.timeValueMillis(configSearch.elasticScrollKeepAlive().toMillis());
+                String pitId;
+                if (cursorDecryptedOpt.isPresent()) {
+                    PointInTimeCursor cursor = gson.fromJson(cursorDecryptedOpt.get(), PointInTimeCursor.class);
+                    pitId = cursor.getPit();
+                    searchRequest.source().searchAfter(toSearchAfter(cursor.getAfter()));
+                } else {
+                    pitId = openPointInTime(searchRequest.indices(), keepAlive);
+                }
+                if (sortFields.isEmpty()) {
+                    // Keep relevance order as with scroll, score is part of the sort values kept in the cursor
+                    searchRequest.source().sort(SortBuilders.scoreSort());
+                }
+                searchRequest.source().sort(SortBuilders.fieldSort(SHARD_DOC_SORT_FIELD).order(SortOrder.ASC));
+                searchRequest.source().pointInTimeBuilder(new PointInTimeBuilder(pitId).setKeepAlive(keepAlive));
+                // Point in time already determines the indices
+                searchRequest.indices(new String[]{});
+                break;
+            case SCROLL:
+                searchRequest.scroll(TimeValue.timeValueMillis(configSearch.elasticScrollKeepAlive().toMillis()));
+                break;
+            case SEARCH_AFTER:
+                cursorDecryptedOpt.ifPresent(cursorDecrypted -> searchRequest.source().searchAfter(gson.fromJson(cursorDecrypted, Object[].class)));
+                break;
+            case FROM:
+                cursorDecryptedOpt.ifPresent(cursorDecrypted -> searchRequest.source().from(gson.fromJson(cursorDecrypted, int.class)));
+                break;
+        }
+    }
+
+    private SearchResponseWithCursor completeSearch(
+            SearchRequest searchRequest,
+            SearchResponse searchResponse,
+            PaginationType paginationType,
+            int paginationSize) {
         SearchHit[] hits = searchResponse.getHits().getHits();
 
         // Get new cursor
         boolean mayHaveMoreResults = hits.length >= paginationSize;
         Optional<String> cursorOptNew = Optional.empty();
         switch (paginationType) {
+            case POINT_IN_TIME:
+                // Point in time id may change between requests, always continue with the latest
+                String pitId = Optional.ofNullable(searchResponse.pointInTimeId())
+                        .orElse(searchRequest.source().pointInTimeBuilder().getEncodedId());
+                if (mayHaveMoreResults) {
+                    cursorOptNew = Optional.of(gson.toJson(new PointInTimeCursor(
+                            pitId,
+                            gson.toJsonTree(hits[hits.length - 1].getSortValues()).getAsJsonArray())));
+                } else {
+                    closePointInTime(pitId);
+                }
+                break;
             case SCROLL:
                 if (mayHaveMoreResults) {
                     cursorOptNew = Optional.ofNullable(searchResponse.getScrollId());
@@ -341,10 +512,13 @@ public class ElasticUtil {
 
     private PaginationType choosePaginationType(
             boolean useAccurateCursor,
-            ImmutableList<String> sortFields) {
+            ImmutableList<String> sortFields,
+            ConfigSearch configSearch) {
         if (useAccurateCursor) {
-            // Since we want accurate pagination, use scroll pagination
-            return PaginationType.SCROLL;
+            // Since we want accurate pagination, search a consistent snapshot
+            return configSearch.usePointInTime() && isPointInTimeSupported()
+                    ? PaginationType.POINT_IN_TIME
+                    : PaginationType.SCROLL;
         } else if (!sortFields.isEmpty()) {
             // Since sort fields are present, use search_after pagination
             return PaginationType.SEARCH_AFTER;
@@ -356,6 +530,105 @@ public class ElasticUtil {
         }
     }
 
+    @VisibleForTesting
+    boolean isPointInTimeSupported() {
+        Boolean supported = pointInTimeSupported;
+        if (supported != null) {
+            return supported;
+        }
+        try {
+            Response response = elastic.get().getLowLevelClient().performRequest(new Request("GET", "/"));
+            JsonObject version = JsonParser.parseString(EntityUtils.toString(response.getEntity()))
+                    .getAsJsonObject()
+                    .getAsJsonObject("version");
+            supported = isPointInTimeSupported(
+                    Optional.ofNullable(version.get("distribution")).map(JsonElement::getAsString),
+                    version.get("number").getAsString());
+        } catch (IOException | RuntimeException ex) {
+            // Not cached, checked again on next search
+            log.warn("Failed to determine cluster version, not using point in time", ex);
+            return false;
+        }
+        if (!supported) {
+            log.info("Cluster does not support point in time, accurate cursors use scroll");
+        }
+        pointInTimeSupported = supported;
+        return supported;
+    }
+
+    @VisibleForTesting
+    static boolean isPointInTimeSupported(Optional<String> distributionOpt, String versionNumber) {
+        if (distributionOpt.isPresent() && !"elasticsearch".equalsIgnoreCase(distributionOpt.get())) {
+            // OpenSearch has its own incompatible point in time API
+            return false;
+        }
+        String[] parts = versionNumber.split("[.-]");
+        for (int i = 0; i < POINT_IN_TIME_MIN_VERSION.length; i++) {
+            int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+            if (part != POINT_IN_TIME_MIN_VERSION[i]) {
+                return part > POINT_IN_TIME_MIN_VERSION[i];
+            }
+        }
+        return true;
+    }
+
+    private String openPointInTime(String[] indices, TimeValue keepAlive) {
+        Request request = new Request("POST", "/" + String.join(",", indices) + "/_pit");
+        request.addParameter("keep_alive", keepAlive.getStringRep());
+        return retry(() -> {
+            Response response = elastic.get().getLowLevelClient().performRequest(request);
+            return JsonParser.parseString(EntityUtils.toString(response.getEntity()))
+                    .getAsJsonObject()
+                    .get("id")
+                    .getAsString();
+        });
+    }
+
+    private void closePointInTime(String pitId) {
+        Request request = new Request("DELETE", "/_pit");
+        request.setJsonEntity(gson.toJson(ImmutableMap.of("id", pitId)));
+        elastic.get().getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+            }
+
+            @Override
+            public void onFailure(Exception ex) {
+                log.warn("Failed to close point in time", ex);
+            }
+        });
+    }
+
+    private boolean isPointInTimeCursor(String cursorDecrypted) {
+        // Scroll ids are plain base64
+        return cursorDecrypted.startsWith("{");
+    }
+
+    /**
+     * Keeps whole numbers as longs, as doubles would lose precision of large sort values such as _shard_doc.
+     */
+    private Object[] toSearchAfter(JsonArray after) {
+        Object[] searchAfter = new Object[after.size()];
+        for (int i = 0; i < after.size(); i++) {
+            JsonElement element = after.get(i);
+            if (element.isJsonNull()) {
+                searchAfter[i] = null;
+            } else if (element.getAsJsonPrimitive().isNumber()) {
+                BigDecimal number = element.getAsBigDecimal();
+                try {
+                    searchAfter[i] = number.longValueExact();
+                } catch (ArithmeticException ex) {
+                    searchAfter[i] = number.doubleValue();
+                }
+            } else if (element.getAsJsonPrimitive().isBoolean()) {
+                searchAfter[i] = element.getAsBoolean();
+            } else {
+                searchAfter[i] = element.getAsString();
+            }
+        }
+        return searchAfter;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
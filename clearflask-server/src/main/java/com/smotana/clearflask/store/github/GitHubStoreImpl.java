@@ -13,6 +13,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.*;
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
@@ -68,6 +69,7 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -386,52 +388,19 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
         switch (ghIssue.getAction()) {
             case "opened":
                 UserModel user = getCfUserFromGhUser(project.getProjectId(), ghIssue.getIssue().getUser());
-                return Optional.of(ideaStore.createIdeaAndUpvote(new IdeaModel(
-                        project.getProjectId(),
+                return Optional.of(ideaStore.createIdeaAndUpvote(ghIssueToIdea(
+                        project,
+                        integration,
                         ideaId,
-                        user.getUserId(),
-                        user.getName(),
-                        user.getIsMod(),
-                        user.getPic(),
-                        user.getPicUrl(),
+                        user,
                         Instant.now(),
-                        ghIssue.getIssue().getTitle(),
-                        markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-post", ideaId, ghIssue.getIssue().getBody()),
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        integration.getCreateWithCategoryId(),
+                        ghIssue.getIssue(),
                         Optional.ofNullable(Strings.emptyToNull(integration.getInitialStatusId()))
                                 .or(() -> project.getCategory(integration.getCreateWithCategoryId())
                                         .map(Category::getWorkflow)
                                         .flatMap(workflow -> Optional.ofNullable(workflow.getEntryStatus())))
                                 .orElse(null),
-                        integration.getCreateWithTags() != null
-                                ? ImmutableSet.copyOf(integration.getCreateWithTags())
-                                : ImmutableSet.of(),
-                        0L,
-                        0L,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        ImmutableMap.of(),
-                        null,
-                        ImmutableSet.of(),
-                        ImmutableSet.of(),
-                        null,
-                        null,
-                        ImmutableSet.of(),
-                        null,
-                        ghIssue.getIssue().getHtmlUrl().toExternalForm(),
-                        null,
-                        null,  // visibility
-                        null))); // adminNotes
+                        0L)));
             case "reopened":
             case "closed":
                 Optional<String> switchToStatusOpt = Optional.ofNullable(integration.getStatusSync())
@@ -495,23 +464,13 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
                 Optional<IdeaModel> ideaOpt = ideaStore.getIdea(project.getProjectId(), postId);
                 if (ideaOpt.isPresent()) {
                     UserModel user = getCfUserFromGhUser(project.getProjectId(), ghIssueComment.getComment().getUser());
-                    return Optional.of(commentStore.createCommentAndUpvote(new CommentModel(
+                    return Optional.of(commentStore.createCommentAndUpvote(ghIssueCommentToComment(
                             project.getProjectId(),
                             postId,
                             commentId,
-                            ImmutableList.of(),
-                            0,
-                            0L,
-                            user.getUserId(),
-                            user.getName(),
-                            user.getIsMod(),
-                            user.getPic(),
-                            user.getPicUrl(),
+                            user,
                             Instant.now(),
-                            null,
-                            markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-comment", commentId, ghIssueComment.getComment().getBody()),
-                            0,
-                            0)));
+                            ghIssueComment.getComment())));
                 } else if ("edited".equals(ghIssueComment.getAction())) {
                     // GitHub client is missing "changes" parsing so we cannot do:
                     // ghIssueComment.getChanges().getBody()
@@ -796,6 +755,158 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
 
     }
 
+    @Override
+    public IssuePage listIssues(Project project, Optional<String> cursorOpt, int pageSize, RateLimiter budget) throws IOException {
+        com.smotana.clearflask.api.model.GitHub integration = project.getGitHubIntegration()
+                .orElseThrow(() -> new IllegalStateException("GitHub integration not linked for project " + project.getProjectId()));
+        budget.acquire();
+        GHRepository repository = gitHubClientProvider.getInstallationClient(integration.getInstallationId())
+                .getClient()
+                .getRepositoryById(integration.getRepositoryId());
+
+        // Ordered by last update as the since filter allows resuming from a cursor without paging through
+        // everything again. Issues updated during the backfill are listed again and skipped as already imported.
+        GHIssueQueryBuilder query = repository.queryIssues()
+                .state(GHIssueState.ALL)
+                .sort(GHIssueQueryBuilder.Sort.UPDATED)
+                .direction(GHDirection.ASC)
+                .pageSize(pageSize);
+        Optional<TimestampCursor> cursorParsedOpt = cursorOpt.map(TimestampCursor::parse);
+        cursorParsedOpt.ifPresent(cursor -> query.since(new Date(cursor.getTimestampMillis())));
+        PagedIterator<GHIssue> issuesIterator = query.list().withPageSize(pageSize).iterator();
+        // Pages past the first are only needed when more than a page of issues share the same second
+        List<GHIssue> ghIssues = ImmutableList.of();
+        for (int page = 1; page <= cursorParsedOpt.map(TimestampCursor::getPage).orElse(1); page++) {
+            budget.acquire();
+            if (!issuesIterator.hasNext()) {
+                ghIssues = ImmutableList.of();
+                break;
+            }
+            ghIssues = issuesIterator.nextPage();
+        }
+
+        Optional<String> nextCursorOpt = Optional.empty();
+        if (ghIssues.size() >= pageSize) {
+            nextCursorOpt = Optional.of(TimestampCursor.next(
+                    cursorParsedOpt,
+                    ghIssues.get(ghIssues.size() - 1).getUpdatedAt().getTime()).serialize());
+        }
+
+        Optional<GitHubStatusSync> statusSyncOpt = Optional.ofNullable(integration.getStatusSync());
+        String initialStatusId = Optional.ofNullable(Strings.emptyToNull(integration.getInitialStatusId()))
+                .or(() -> project.getCategory(integration.getCreateWithCategoryId())
+                        .map(Category::getWorkflow)
+                        .flatMap(workflow -> Optional.ofNullable(workflow.getEntryStatus())))
+                .orElse(null);
+        Map<Long, UserModel> usersByGhUserId = Maps.newConcurrentMap();
+        ImmutableList.Builder<PendingIssue> pendingIssuesBuilder = ImmutableList.builder();
+        for (GHIssue ghIssue : ghIssues) {
+            if (ghIssue.isPullRequest()) {
+                continue;
+            }
+            String ideaId = ideaStore.genDeterministicIdeaIdForGithubIssue(ghIssue.getNumber(), ghIssue.getId(), integration.getRepositoryId());
+            pendingIssuesBuilder.add(new PendingIssue(ideaId, () -> {
+                ImmutableList<GHIssueComment> ghComments = ImmutableList.of();
+                if (integration.getCommentSync() == Boolean.TRUE && ghIssue.getCommentsCount() > 0) {
+                    budget.acquire((ghIssue.getCommentsCount() + 99) / 100);
+                    ghComments = ImmutableList.copyOf(ghIssue.listComments().withPageSize(100).toList());
+                }
+                ImmutableList.Builder<CommentModel> commentsBuilder = ImmutableList.builder();
+                for (GHIssueComment ghComment : ghComments) {
+                    String commentId = commentStore.genDeterministicCommentIdForGithubIssueComment(ghComment.getId());
+                    GHUser ghCommentUser = ghComment.getUser();
+                    commentsBuilder.add(ghIssueCommentToComment(
+                            project.getProjectId(),
+                            ideaId,
+                            commentId,
+                            usersByGhUserId.computeIfAbsent(ghCommentUser.getId(), id -> getCfUserFromGhUser(project.getProjectId(), ghCommentUser)),
+                            ghComment.getCreatedAt().toInstant(),
+                            ghComment));
+                }
+                ImmutableList<CommentModel> comments = commentsBuilder.build();
+                GHUser ghIssueUser = ghIssue.getUser();
+                return new ImportedIssue(ghIssueToIdea(
+                        project,
+                        integration,
+                        ideaId,
+                        usersByGhUserId.computeIfAbsent(ghIssueUser.getId(), id -> getCfUserFromGhUser(project.getProjectId(), ghIssueUser)),
+                        ghIssue.getCreatedAt().toInstant(),
+                        ghIssue,
+                        statusSyncOpt.map(ghIssue.getState() == GHIssueState.CLOSED
+                                        ? GitHubStatusSync::getClosedStatus
+                                        : GitHubStatusSync::getOpenStatus)
+                                .orElse(initialStatusId),
+                        comments.size()), comments);
+            }));
+        }
+        return new IssuePage(pendingIssuesBuilder.build(), nextCursorOpt);
+    }
+
+    private IdeaModel ghIssueToIdea(Project project, com.smotana.clearflask.api.model.GitHub integration, String ideaId, UserModel user, Instant created, GHIssue ghIssue, String statusId, long commentCount) {
+        return new IdeaModel(
+                project.getProjectId(),
+                ideaId,
+                user.getUserId(),
+                user.getName(),
+                user.getIsMod(),
+                user.getPic(),
+                user.getPicUrl(),
+                created,
+                ghIssue.getTitle(),
+                markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gh-new-post", ideaId, ghIssue.getBody()),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                integration.getCreateWithCategoryId(),
+                statusId,
+                integration.getCreateWithTags() != null
+                        ? ImmutableSet.copyOf(integration.getCreateWithTags())
+                        : ImmutableSet.of(),
+                commentCount,
+                commentCount,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                ImmutableMap.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                null,
+                null,
+                ImmutableSet.of(),
+                null,
+                ghIssue.getHtmlUrl().toExternalForm(),
+                null,
+                null,  // visibility
+                null); // adminNotes
+    }
+
+    private CommentModel ghIssueCommentToComment(String projectId, String postId, String commentId, UserModel user, Instant created, GHIssueComment ghComment) {
+        return new CommentModel(
+                projectId,
+                postId,
+                commentId,
+                ImmutableList.of(),
+                0,
+                0L,
+                user.getUserId(),
+                user.getName(),
+                user.getIsMod(),
+                user.getPic(),
+                user.getPicUrl(),
+                created,
+                null,
+                markdownAndQuillUtil.markdownToQuill(projectId, "gh-new-comment", commentId, ghComment.getBody()),
+                0,
+                0);
+    }
+
     private UserModel getCfUserFromGhUser(String projectId, GHUser ghUser) {
         return userStore.createOrGet(
                 projectId,
@@ -13,6 +13,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.*;
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
@@ -52,9 +53,12 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
+import org.gitlab4j.api.Constants;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.AbstractUser;
 import org.gitlab4j.api.models.Issue;
+import org.gitlab4j.api.models.IssueFilter;
 import org.gitlab4j.api.models.Label;
 import org.gitlab4j.api.models.Note;
 import org.gitlab4j.api.models.ProjectHook;
@@ -72,6 +76,7 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -625,52 +630,16 @@ public class GitLabStoreImpl extends ManagedService implements GitLabStore {
         switch (action != null ? action : "") {
             case "open":
                 UserModel user = getCfUserFromGlUser(project.getProjectId(), issueEvent.getUser());
-                return Optional.of(ideaStore.createIdeaAndUpvote(new IdeaModel(
-                        project.getProjectId(),
+                return Optional.of(ideaStore.createIdeaAndUpvote(glIssueToIdea(
+                        project,
+                        integration,
                         ideaId,
-                        user.getUserId(),
-                        user.getName(),
-                        user.getIsMod(),
-                        user.getPic(),
-                        user.getPicUrl(),
+                        user,
                         Instant.now(),
                         issueEvent.getObjectAttributes().getTitle(),
-                        markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gl-new-post", ideaId, issueEvent.getObjectAttributes().getDescription()),
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        integration.getCreateWithCategoryId(),
-                        Optional.ofNullable(Strings.emptyToNull(integration.getInitialStatusId()))
-                                .or(() -> project.getCategory(integration.getCreateWithCategoryId())
-                                        .map(Category::getWorkflow)
-                                        .flatMap(workflow -> Optional.ofNullable(workflow.getEntryStatus())))
-                                .orElse(null),
-                        integration.getCreateWithTags() != null
-                                ? ImmutableSet.copyOf(integration.getCreateWithTags())
-                                : ImmutableSet.of(),
-                        0L,
-                        0L,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        null,
-                        ImmutableMap.of(),
-                        null,
-                        ImmutableSet.of(),
-                        ImmutableSet.of(),
-                        null,
-                        null,
-                        ImmutableSet.of(),
-                        null,
-                        null, // linkedGitHubUrl
-                        null, // coverImg
-                        null, // visibility
-                        null))); // adminNotes
+                        issueEvent.getObjectAttributes().getDescription(),
+                        getInitialStatusId(project, integration),
+                        0L)));
             case "reopen":
             case "close":
                 Optional<String> switchToStatusOpt = Optional.ofNullable(integration.getStatusSync())
@@ -737,23 +706,13 @@ public class GitLabStoreImpl extends ManagedService implements GitLabStore {
         Optional<IdeaModel> ideaOpt = ideaStore.getIdea(project.getProjectId(), postId);
         if (ideaOpt.isPresent()) {
             UserModel user = getCfUserFromGlUser(project.getProjectId(), noteEvent.getUser());
-            return Optional.of(commentStore.createCommentAndUpvote(new CommentModel(
+            return Optional.of(commentStore.createCommentAndUpvote(glNoteToComment(
                     project.getProjectId(),
                     postId,
                     commentId,
-                    ImmutableList.of(),
-                    0,
-                    0L,
-                    user.getUserId(),
-                    user.getName(),
-                    user.getIsMod(),
-                    user.getPic(),
-                    user.getPicUrl(),
+                    user,
                     Instant.now(),
-                    null,
-                    markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gl-new-comment", commentId, noteEvent.getObjectAttributes().getNote()),
-                    0,
-                    0)));
+                    noteEvent.getObjectAttributes().getNote())));
         }
 
         return Optional.empty();
@@ -1072,7 +1031,167 @@ public class GitLabStoreImpl extends ManagedService implements GitLabStore {
         return gitLabIssueMetadataOpt;
     }
 
-    private UserModel getCfUserFromGlUser(String projectId, User glUser) {
+    @Override
+    public IssuePage listIssues(Project project, Optional<String> cursorOpt, int pageSize, RateLimiter budget) throws IOException {
+        GitLab integration = project.getGitLabIntegration()
+                .orElseThrow(() -> new IllegalStateException("GitLab integration not linked for project " + project.getProjectId()));
+        String instanceUrl = Strings.isNullOrEmpty(integration.getGitlabInstanceUrl())
+                ? DEFAULT_GITLAB_URL : integration.getGitlabInstanceUrl();
+        GitLabAuthorization auth = getAccountAuthorizationForProject(project.getAccountId(), instanceUrl, integration.getProjectId())
+                .orElseThrow(() -> new IllegalStateException("No GitLab authorization for project " + project.getProjectId()));
+        GitLabApi api = gitLabClientProvider.getClient(instanceUrl, auth.getAccessToken()).getApi();
+
+        // Keyed on creation time rather than page number so issues deleted during the backfill do not shift pages
+        IssueFilter filter = new IssueFilter();
+        filter.setOrderBy(Constants.IssueOrderBy.CREATED_AT);
+        filter.setSort(Constants.SortOrder.ASC);
+        Optional<TimestampCursor> cursorParsedOpt = cursorOpt.map(TimestampCursor::parse);
+        cursorParsedOpt.ifPresent(cursor -> filter.setCreatedAfter(new Date(cursor.getTimestampMillis())));
+        budget.acquire();
+        List<Issue> glIssues;
+        try {
+            glIssues = api.getIssuesApi().getIssues(integration.getProjectId(), filter,
+                    cursorParsedOpt.map(TimestampCursor::getPage).orElse(1), pageSize);
+        } catch (GitLabApiException ex) {
+            throw new IOException("Failed to list GitLab issues", ex);
+        }
+
+        Optional<String> nextCursorOpt = Optional.empty();
+        if (glIssues.size() >= pageSize) {
+            nextCursorOpt = Optional.of(TimestampCursor.next(
+                    cursorParsedOpt,
+                    glIssues.get(glIssues.size() - 1).getCreatedAt().getTime()).serialize());
+        }
+
+        Optional<GitLabStatusSync> statusSyncOpt = Optional.ofNullable(integration.getStatusSync());
+        String initialStatusId = getInitialStatusId(project, integration);
+        Map<Long, UserModel> usersByGlUserId = Maps.newConcurrentMap();
+        ImmutableList.Builder<PendingIssue> pendingIssuesBuilder = ImmutableList.builder();
+        for (Issue glIssue : glIssues) {
+            String ideaId = ideaStore.genDeterministicIdeaIdForGitlabIssue(glIssue.getIid(), glIssue.getId(), integration.getProjectId());
+            pendingIssuesBuilder.add(new PendingIssue(ideaId, () -> {
+                ImmutableList.Builder<CommentModel> commentsBuilder = ImmutableList.builder();
+                if (integration.getCommentSync() == Boolean.TRUE
+                        && glIssue.getUserNotesCount() != null && glIssue.getUserNotesCount() > 0) {
+                    for (int page = 1; ; page++) {
+                        budget.acquire();
+                        List<Note> glNotes;
+                        try {
+                            glNotes = api.getNotesApi().getIssueNotes(integration.getProjectId(), glIssue.getIid(), page, 100);
+                        } catch (GitLabApiException ex) {
+                            throw new IOException("Failed to list GitLab issue notes", ex);
+                        }
+                        for (Note glNote : glNotes) {
+                            if (glNote.getSystem() == Boolean.TRUE) {
+                                continue;
+                            }
+                            String commentId = commentStore.genDeterministicCommentIdForGitlabNote(glNote.getId());
+                            commentsBuilder.add(glNoteToComment(
+                                    project.getProjectId(),
+                                    ideaId,
+                                    commentId,
+                                    usersByGlUserId.computeIfAbsent(glNote.getAuthor().getId(), id -> getCfUserFromGlUser(project.getProjectId(), glNote.getAuthor())),
+                                    glNote.getCreatedAt().toInstant(),
+                                    glNote.getBody()));
+                        }
+                        if (glNotes.size() < 100) {
+                            break;
+                        }
+                    }
+                }
+                ImmutableList<CommentModel> comments = commentsBuilder.build();
+                return new ImportedIssue(glIssueToIdea(
+                        project,
+                        integration,
+                        ideaId,
+                        usersByGlUserId.computeIfAbsent(glIssue.getAuthor().getId(), id -> getCfUserFromGlUser(project.getProjectId(), glIssue.getAuthor())),
+                        glIssue.getCreatedAt().toInstant(),
+                        glIssue.getTitle(),
+                        glIssue.getDescription(),
+                        statusSyncOpt.map(glIssue.getState() == Constants.IssueState.CLOSED
+                                        ? GitLabStatusSync::getClosedStatus
+                                        : GitLabStatusSync::getOpenStatus)
+                                .orElse(initialStatusId),
+                        comments.size()), comments);
+            }));
+        }
+        return new IssuePage(pendingIssuesBuilder.build(), nextCursorOpt);
+    }
+
+    private String getInitialStatusId(Project project, GitLab integration) {
+        return Optional.ofNullable(Strings.emptyToNull(integration.getInitialStatusId()))
+                .or(() -> project.getCategory(integration.getCreateWithCategoryId())
+                        .map(Category::getWorkflow)
+                        .flatMap(workflow -> Optional.ofNullable(workflow.getEntryStatus())))
+                .orElse(null);
+    }
+
+    private IdeaModel glIssueToIdea(Project project, GitLab integration, String ideaId, UserModel user, Instant created, String title, String descriptionMarkdown, String statusId, long commentCount) {
+        return new IdeaModel(
+                project.getProjectId(),
+                ideaId,
+                user.getUserId(),
+                user.getName(),
+                user.getIsMod(),
+                user.getPic(),
+                user.getPicUrl(),
+                created,
+                title,
+                markdownAndQuillUtil.markdownToQuill(project.getProjectId(), "gl-new-post", ideaId, descriptionMarkdown),
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                integration.getCreateWithCategoryId(),
+                statusId,
+                integration.getCreateWithTags() != null
+                        ? ImmutableSet.copyOf(integration.getCreateWithTags())
+                        : ImmutableSet.of(),
+                commentCount,
+                commentCount,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                ImmutableMap.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                null,
+                null,
+                ImmutableSet.of(),
+                null,
+                null, // linkedGitHubUrl
+                null, // coverImg
+                null, // visibility
+                null); // adminNotes
+    }
+
+    private CommentModel glNoteToComment(String projectId, String postId, String commentId, UserModel user, Instant created, String noteMarkdown) {
+        return new CommentModel(
+                projectId,
+                postId,
+                commentId,
+                ImmutableList.of(),
+                0,
+                0L,
+                user.getUserId(),
+                user.getName(),
+                user.getIsMod(),
+                user.getPic(),
+                user.getPicUrl(),
+                created,
+                null,
+                markdownAndQuillUtil.markdownToQuill(projectId, "gl-new-comment", commentId, noteMarkdown),
+                0,
+                0);
+    }
+
+    private UserModel getCfUserFromGlUser(String projectId, AbstractUser<?> glUser) {
         return userStore.createOrGet(
                 projectId,
                 USER_GUID_GITLAB_PREFIX + glUser.getId(),
@@ -0,0 +1,174 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.AccountStore.Account;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.CounterStore;
+import com.smotana.clearflask.store.CounterStore.CounterScope;
+import com.smotana.clearflask.store.CounterStore.CounterType;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
+import com.smotana.clearflask.util.Extern;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically corrects {@link CounterStore} counters against the search engine. Counters are updated
+ * transactionally with single item writes, but batch writes and imports may drift.
+ * <p>
+ * Posts and comments are counted in the search engine, tracked users are taken from the per project
+ * {@link UserStore.UserCounter}. Account totals are the sum of its projects.
+ */
+@Slf4j
+@Singleton
+public class CounterReconciler extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT24H")
+        Duration runEvery();
+
+        @DefaultValue("PT10M")
+        Duration startupDelay();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private CounterStore counterStore;
+    @Inject
+    private AccountStore accountStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private UserStore userStore;
+
+    private ListeningScheduledExecutorService executor;
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(DefaultMysqlProvider.class);
+    }
+
+    @Override
+    protected void serviceStart() {
+        if (!config.enabled()) {
+            log.info("CounterReconciler disabled");
+            return;
+        }
+        executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("CounterReconciler-%d").build()));
+        executor.scheduleAtFixedRate(this::reconcileSafely,
+                config.startupDelay(), config.runEvery());
+    }
+
+    @Override
+    protected void serviceStop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private void reconcileSafely() {
+        try {
+            reconcile();
+        } catch (Exception ex) {
+            log.warn("CounterReconciler run failed", ex);
+        }
+    }
+
+    @Extern
+    public synchronized String reconcile() {
+        AtomicLong accountsChecked = new AtomicLong();
+        AtomicLong drift = new AtomicLong();
+        accountStore.listAllAccounts(account -> {
+            try {
+                drift.addAndGet(reconcileAccount(account));
+                accountsChecked.incrementAndGet();
+            } catch (Exception ex) {
+                log.warn("CounterReconciler: reconcile failed for account {}", account.getAccountId(), ex);
+            }
+        });
+        String msg = String.format("CounterReconciler: accountsChecked=%d drift=%d", accountsChecked.get(), drift.get());
+        log.info(msg);
+        return msg;
+    }
+
+    @Extern
+    public long reconcileAccount(String accountId) {
+        return reconcileAccount(accountStore.getAccount(accountId, false).orElseThrow());
+    }
+
+    /**
+     * @return Sum of absolute differences applied
+     */
+    private long reconcileAccount(Account account) {
+        long drift = 0L;
+        EnumMap<CounterType, Long> accountTotals = new EnumMap<>(CounterType.class);
+        for (String projectId : account.getProjectIds()) {
+            for (CounterType type : CounterType.values()) {
+                long actual = countActual(projectId, type);
+                drift += Math.abs(counterStore.reconcile(CounterScope.PROJECT, projectId, type, actual));
+                accountTotals.merge(type, actual, Long::sum);
+            }
+        }
+        for (CounterType type : CounterType.values()) {
+            drift += Math.abs(counterStore.reconcile(CounterScope.ACCOUNT, account.getAccountId(), type,
+                    accountTotals.getOrDefault(type, 0L)));
+        }
+        if (drift != 0L) {
+            log.info("CounterReconciler: corrected account {} drift {}", account.getAccountId(), drift);
+        }
+        return drift;
+    }
+
+    private long countActual(String projectId, CounterType type) {
+        switch (type) {
+            case POSTS:
+                return ideaStore.countIdeas(projectId);
+            case COMMENTS:
+                return commentStore.countComments(projectId);
+            case TRACKED_USERS:
+                return userStore.getUserCountForProject(projectId);
+            default:
+                throw new IllegalStateException("Unknown counter type " + type);
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CounterReconciler.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(CounterReconciler.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -2,10 +2,21 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store.impl;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -18,6 +29,8 @@ import com.smotana.clearflask.store.DnsStore;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.web.ApiException;
 import io.dataspray.singletable.Expression;
+import io.dataspray.singletable.IndexSchema;
+import io.dataspray.singletable.ShardPageResult;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
@@ -26,16 +39,21 @@ import rx.functions.Action1;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.core.Response;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
 @Slf4j
 @Singleton
 public class DynamoCertStore implements CertStore {
 
+    private static final String RENEWAL_LEASE_ID = "renewal";
+
     public interface Config {
         @DefaultValue("^_acme-challenge\\.clearflask\\.com$")
         String allowedDnsHostRegex();
@@ -46,6 +64,10 @@ public class DynamoCertStore implements CertStore {
     @Inject
     private Config config;
     @Inject
+    private AmazonDynamoDB dynamo;
+    @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
     private SingleTable singleTable;
     @Inject(optional = true)
     private DnsStore dnsStore;
@@ -53,6 +75,8 @@ public class DynamoCertStore implements CertStore {
     private TableSchema<KeypairModel> keypairSchema;
     private TableSchema<ChallengeModel> challengeSchema;
     private TableSchema<CertModel> certSchema;
+    private IndexSchema<CertModel> certShardedSchema;
+    private TableSchema<RenewalLeaseModel> renewalLeaseSchema;
     private Predicate<String> allowedHostPredicate;
 
     @Inject
@@ -60,6 +84,8 @@ public class DynamoCertStore implements CertStore {
         keypairSchema = singleTable.parseTableSchema(KeypairModel.class);
         challengeSchema = singleTable.parseTableSchema(ChallengeModel.class);
         certSchema = singleTable.parseTableSchema(CertModel.class);
+        certShardedSchema = singleTable.parseGlobalSecondaryIndexSchema(2, CertModel.class);
+        renewalLeaseSchema = singleTable.parseTableSchema(RenewalLeaseModel.class);
 
         Action1<String> compileAllowedDnsHostRegex = r -> allowedHostPredicate = Pattern.compile(r).asPredicate();
         config.allowedDnsHostRegexObservable().subscribe(compileAllowedDnsHostRegex);
@@ -187,6 +213,71 @@ public class DynamoCertStore implements CertStore {
                         "domain", domain))));
     }
 
+    @Override
+    public CertListResponse listCerts(Optional<String> cursorOpt, int pageSize) {
+        ShardPageResult<CertModel> result = singleTable.fetchShardNextPage(
+                certShardedSchema,
+                cursorOpt,
+                pageSize);
+        return new CertListResponse(result.getItems(), result.getCursorOpt());
+    }
+
+    @Override
+    public boolean acquireRenewalLease(String leaseOwner, Duration leaseDuration) {
+        Instant now = Instant.now();
+        try {
+            renewalLeaseSchema.table().putItem(new PutItemSpec()
+                    .withItem(renewalLeaseSchema.toItem(new RenewalLeaseModel(
+                            RENEWAL_LEASE_ID,
+                            leaseOwner,
+                            now.plus(leaseDuration).getEpochSecond(),
+                            now.plus(leaseDuration).plus(Duration.ofDays(1)).getEpochSecond())))
+                    .withConditionExpression("attribute_not_exists(#partitionKey) OR #leaseOwner = :leaseOwner OR #leaseExpiresEpochSec < :now")
+                    .withNameMap(new NameMap()
+                            .with("#partitionKey", renewalLeaseSchema.partitionKeyName())
+                            .with("#leaseOwner", "leaseOwner")
+                            .with("#leaseExpiresEpochSec", "leaseExpiresEpochSec"))
+                    .withValueMap(new ValueMap()
+                            .with(":leaseOwner", leaseOwner)
+                            .with(":now", now.getEpochSecond())));
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * One time operation to add CertModel's GSI 2 keys
+     */
+    @Extern
+    @VisibleForTesting
+    public long upgradeAddGsi2ToCertSchema() {
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        long migrated = 0;
+        do {
+            ScanResult result = dynamo.scan(new ScanRequest()
+                    .withLimit(DYNAMO_WRITE_BATCH_MAX_SIZE)
+                    .withFilterExpression("#primaryRangeKeyName = :primaryRangeValue AND attribute_not_exists(#gsiRangeKeyName)")
+                    .withExpressionAttributeNames(Map.of(
+                            "#primaryRangeKeyName", certSchema.rangeKeyName(),
+                            "#gsiRangeKeyName", certShardedSchema.rangeKeyName()))
+                    .withExpressionAttributeValues(Map.of(
+                            ":primaryRangeValue", new AttributeValue(certSchema.rangeKey(Map.of()).getValue().toString())))
+                    .withTableName(certSchema.tableName())
+                    .withExclusiveStartKey(exclusiveStartKey));
+            exclusiveStartKey = result.getLastEvaluatedKey();
+            if (!result.getItems().isEmpty()) {
+                migrated += result.getItems().size();
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(certSchema.tableName())
+                        .withItemsToPut(result.getItems().stream()
+                                .map(certSchema::fromAttrMap)
+                                .map(certSchema::toItem)
+                                .collect(ImmutableList.toImmutableList()))));
+            }
+        } while (exclusiveStartKey != null && !exclusiveStartKey.isEmpty());
+        return migrated;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
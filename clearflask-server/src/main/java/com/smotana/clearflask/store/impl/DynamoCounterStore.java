@@ -0,0 +1,304 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.CounterStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.util.Extern;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.StreamSupport;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
+@Slf4j
+@Singleton
+public class DynamoCounterStore implements CounterStore {
+
+    public interface Config {
+        /**
+         * This value can never be decreased.
+         * Increase this value to spread writes of busy projects across more items.
+         */
+        @DefaultValue("4")
+        long shardCount();
+
+        @DefaultValue("3")
+        int reconcileMaxAttempts();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private AmazonDynamoDB dynamo;
+    @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private ProjectStore projectStore;
+
+    private TableSchema<Counter> counterSchema;
+
+    @Inject
+    private void setup() {
+        counterSchema = singleTable.parseTableSchema(Counter.class);
+    }
+
+    @Extern
+    @Override
+    public void update(String projectId, CounterType type, long diff) {
+        if (diff == 0L) {
+            return;
+        }
+        // Updated individually rather than in a transaction as concurrent transactions on the same shard would
+        // cancel each other, drift between the project and account is fixed by reconciliation
+        try {
+            updateShard(CounterScope.PROJECT, projectId, type, diff);
+            getAccountId(projectId).ifPresent(accountId ->
+                    updateShard(CounterScope.ACCOUNT, accountId, type, diff));
+        } catch (AmazonServiceException ex) {
+            log.warn("Failed to update counter, projectId {} type {} diff {}",
+                    projectId, type, diff, ex);
+        }
+    }
+
+    @Extern
+    @Override
+    public long get(CounterScope scope, String scopeId, CounterType type) {
+        return getShards(scope, scopeId, type).values().stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    @Extern
+    @Override
+    public long reconcile(CounterScope scope, String scopeId, CounterType type, long actual) {
+        for (int attempt = 1; attempt <= config.reconcileMaxAttempts(); attempt++) {
+            ImmutableMap<Long, Long> shards = getShards(scope, scopeId, type);
+            long diff = actual - shards.values().stream().mapToLong(Long::longValue).sum();
+            if (diff == 0L) {
+                return 0L;
+            }
+            // Condition on every shard being unchanged since read so that concurrent reconciliations,
+            // possibly from another server, do not apply the same difference twice
+            long targetShardId = ThreadLocalRandom.current().nextLong(config.shardCount());
+            ImmutableList.Builder<TransactWriteItem> itemsBuilder = ImmutableList.builder();
+            for (long shardId = 0; shardId < config.shardCount(); shardId++) {
+                Optional<Long> observedCountOpt = Optional.ofNullable(shards.get(shardId));
+                if (shardId == targetShardId) {
+                    itemsBuilder.add(updateTransactItem(scope, scopeId, type, shardId, diff, observedCountOpt));
+                } else {
+                    itemsBuilder.add(conditionCheckTransactItem(scope, scopeId, type, shardId, observedCountOpt));
+                }
+            }
+            try {
+                transact(itemsBuilder.build());
+                return diff;
+            } catch (TransactionCanceledException ex) {
+                if (ex.getCancellationReasons().stream().map(CancellationReason::getCode).noneMatch("ConditionalCheckFailed"::equals)) {
+                    throw ex;
+                }
+                log.debug("Counter changed during reconciliation, attempt {} scope {} scopeId {} type {}",
+                        attempt, scope, scopeId, type);
+            }
+        }
+        log.warn("Failed to reconcile counter due to concurrent updates, scope {} scopeId {} type {}",
+                scope, scopeId, type);
+        return 0L;
+    }
+
+    @Override
+    public void changeOwner(String projectId, String oldAccountId, String newAccountId) {
+        ImmutableList.Builder<TransactWriteItem> itemsBuilder = ImmutableList.builder();
+        for (CounterType type : CounterType.values()) {
+            long count = get(CounterScope.PROJECT, projectId, type);
+            if (count != 0L) {
+                itemsBuilder.add(updateTransactItem(CounterScope.ACCOUNT, oldAccountId, type, -count));
+                itemsBuilder.add(updateTransactItem(CounterScope.ACCOUNT, newAccountId, type, count));
+            }
+        }
+        transact(itemsBuilder.build());
+    }
+
+    @Extern
+    @Override
+    public void deleteAllForProject(String accountId, String projectId) {
+        ImmutableList.Builder<TransactWriteItem> itemsBuilder = ImmutableList.builder();
+        for (CounterType type : CounterType.values()) {
+            long count = get(CounterScope.PROJECT, projectId, type);
+            if (count != 0L) {
+                itemsBuilder.add(updateTransactItem(CounterScope.ACCOUNT, accountId, type, -count));
+            }
+        }
+        transact(itemsBuilder.build());
+        deleteAll(CounterScope.PROJECT, projectId);
+    }
+
+    @Extern
+    @Override
+    public void deleteAllForAccount(String accountId) {
+        deleteAll(CounterScope.ACCOUNT, accountId);
+    }
+
+    private void deleteAll(CounterScope scope, String scopeId) {
+        for (CounterType type : CounterType.values()) {
+            Iterables.partition(StreamSupport.stream(counterSchema.table().query(new QuerySpec()
+                                            .withHashKey(counterSchema.partitionKey(Map.of(
+                                                    "scopeId", scopeId,
+                                                    "scope", scope,
+                                                    "type", type)))
+                                            .withRangeKeyCondition(new RangeKeyCondition(counterSchema.rangeKeyName())
+                                                    .beginsWith(counterSchema.rangeValuePartial(Map.of()))))
+                                    .pages()
+                                    .spliterator(), false)
+                            .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                            .map(counterSchema::fromItem)
+                            .map(counterSchema::primaryKey)
+                            .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
+                    .forEach(counterShardPrimaryKeys -> {
+                        TableWriteItems tableWriteItems = new TableWriteItems(counterSchema.tableName());
+                        counterShardPrimaryKeys.forEach(tableWriteItems::addPrimaryKeyToDelete);
+                        singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    });
+        }
+    }
+
+    private ImmutableMap<Long, Long> getShards(CounterScope scope, String scopeId, CounterType type) {
+        return StreamSupport.stream(counterSchema.table().query(new QuerySpec()
+                                .withHashKey(counterSchema.partitionKey(Map.of(
+                                        "scopeId", scopeId,
+                                        "scope", scope,
+                                        "type", type)))
+                                .withRangeKeyCondition(new RangeKeyCondition(counterSchema.rangeKeyName())
+                                        .beginsWith(counterSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(counterSchema::fromItem)
+                .collect(ImmutableMap.toImmutableMap(Counter::getShardId, Counter::getCount));
+    }
+
+    private TransactWriteItem updateTransactItem(CounterScope scope, String scopeId, CounterType type, long diff) {
+        return updateTransactItem(scope, scopeId, type, ThreadLocalRandom.current().nextLong(config.shardCount()), diff, null);
+    }
+
+    private void updateShard(CounterScope scope, String scopeId, CounterType type, long diff) {
+        Update update = updateTransactItem(scope, scopeId, type, diff).getUpdate();
+        dynamo.updateItem(new UpdateItemRequest()
+                .withTableName(update.getTableName())
+                .withKey(update.getKey())
+                .withUpdateExpression(update.getUpdateExpression())
+                .withExpressionAttributeNames(update.getExpressionAttributeNames())
+                .withExpressionAttributeValues(update.getExpressionAttributeValues()));
+    }
+
+    /**
+     * @param expectedCountOpt If not null, update only if shard count matches or if empty, if shard does not exist
+     */
+    private TransactWriteItem updateTransactItem(CounterScope scope, String scopeId, CounterType type, long shardId, long diff, @Nullable Optional<Long> expectedCountOpt) {
+        Map<String, String> nameMap = Maps.newHashMap();
+        Map<String, AttributeValue> valueMap = Maps.newHashMap();
+        nameMap.put("#scopeId", "scopeId");
+        nameMap.put("#scope", "scope");
+        nameMap.put("#type", "type");
+        nameMap.put("#shardId", "shardId");
+        nameMap.put("#count", "count");
+        valueMap.put(":scopeId", counterSchema.toAttrValue("scopeId", scopeId));
+        valueMap.put(":scope", counterSchema.toAttrValue("scope", scope));
+        valueMap.put(":type", counterSchema.toAttrValue("type", type));
+        valueMap.put(":shardId", counterSchema.toAttrValue("shardId", shardId));
+        valueMap.put(":diff", counterSchema.toAttrValue("count", diff));
+        Update update = new Update()
+                .withTableName(counterSchema.tableName())
+                .withKey(shardKey(scope, scopeId, type, shardId))
+                .withUpdateExpression("SET #scopeId = :scopeId, #scope = :scope, #type = :type, #shardId = :shardId ADD #count :diff");
+        if (expectedCountOpt != null) {
+            update.setConditionExpression(expectedCountCondition(expectedCountOpt, valueMap));
+        }
+        return new TransactWriteItem().withUpdate(update
+                .withExpressionAttributeNames(nameMap)
+                .withExpressionAttributeValues(valueMap));
+    }
+
+    private TransactWriteItem conditionCheckTransactItem(CounterScope scope, String scopeId, CounterType type, long shardId, Optional<Long> expectedCountOpt) {
+        Map<String, AttributeValue> valueMap = Maps.newHashMap();
+        return new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                .withTableName(counterSchema.tableName())
+                .withKey(shardKey(scope, scopeId, type, shardId))
+                .withConditionExpression(expectedCountCondition(expectedCountOpt, valueMap))
+                .withExpressionAttributeNames(Map.of("#count", "count"))
+                .withExpressionAttributeValues(valueMap.isEmpty() ? null : valueMap));
+    }
+
+    private String expectedCountCondition(Optional<Long> expectedCountOpt, Map<String, AttributeValue> valueMap) {
+        if (expectedCountOpt.isEmpty()) {
+            return "attribute_not_exists(#count)";
+        }
+        valueMap.put(":expectedCount", counterSchema.toAttrValue("count", expectedCountOpt.get()));
+        return "#count = :expectedCount";
+    }
+
+    private Map<String, AttributeValue> shardKey(CounterScope scope, String scopeId, CounterType type, long shardId) {
+        return ItemUtils.toAttributeValueMap(counterSchema.primaryKey(Map.of(
+                "scopeId", scopeId,
+                "scope", scope,
+                "type", type,
+                "shardId", shardId)));
+    }
+
+    private void transact(ImmutableList<TransactWriteItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        dynamo.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(items));
+    }
+
+    private Optional<String> getAccountId(String projectId) {
+        return projectStore.getProject(projectId, true)
+                .map(Project::getAccountId);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CounterStore.class).to(DynamoCounterStore.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
@@ -31,6 +31,9 @@ import com.smotana.clearflask.api.model.AccountSearchSuperAdmin;
 import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.CounterStore;
+import com.smotana.clearflask.store.CounterStore.CounterScope;
+import com.smotana.clearflask.store.CounterStore.CounterType;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
@@ -107,6 +110,16 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
         @DefaultValue("PT1M")
         Duration configCacheExpireAfterWrite();
+
+        /**
+         * Read post and tracked user counts for plan limits and billing from maintained counters
+         * instead of counting across all projects.
+         * <p>
+         * Counters of accounts that existed before counters were maintained only hold what changed since, enable
+         * once {@link CounterReconciler} has completed a run.
+         */
+        @DefaultValue("false")
+        boolean enableMaintainedCounters();
     }
 
     @Inject
@@ -138,6 +151,8 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     private IdeaStore ideaStore;
     @Inject
     private ProjectStore projectStore;
+    @Inject
+    private CounterStore counterStore;
 
     private TableSchema<Account> accountSchema;
     private IndexSchema<Account> accountByApiKeySchema;
@@ -567,6 +582,9 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
     @Override
     public long getUserCountForAccount(String accountId) {
+        if (config.enableMaintainedCounters()) {
+            return counterStore.get(CounterScope.ACCOUNT, accountId, CounterType.TRACKED_USERS);
+        }
         return getAccount(accountId, false)
                 .map(Account::getProjectIds)
                 .map(Collection::stream)
@@ -591,6 +609,9 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
 
     @Override
     public long getPostCountForAccount(String accountId) {
+        if (config.enableMaintainedCounters()) {
+            return counterStore.get(CounterScope.ACCOUNT, accountId, CounterType.POSTS);
+        }
         return getAccount(accountId, false).stream()
                 .flatMap(account -> account.getProjectIds().stream())
                 .mapToLong(ideaStore::countIdeas)
@@ -1191,6 +1212,7 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                 .withPrimaryKey(accountSchema.primaryKey(Map.of("accountId", accountId))));
         accountCache.invalidate(accountId);
         revokeSessions(accountId);
+        counterStore.deleteAllForAccount(accountId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = configApp.defaultSearchEngine();
@@ -9,6 +9,7 @@ import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
 import com.google.common.base.Strings;
 import com.google.common.collect.*;
@@ -26,6 +27,9 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.*;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.*;
+import com.smotana.clearflask.store.CounterStore.CounterType;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupKey;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupType;
 import com.smotana.clearflask.store.IdeaStore.IdeaAndIndexingFuture;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
@@ -45,12 +49,14 @@ import com.smotana.clearflask.util.WilsonScoreInterval;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateService;
 import io.dataspray.singletable.Expression;
 import io.dataspray.singletable.IndexSchema;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -59,6 +65,7 @@ import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.document.DocumentField;
@@ -164,6 +171,14 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private SearchEngineRouter searchEngineRouter;
+    @Inject
+    private CounterStore counterStore;
+    @Inject
+    private HistogramRollupStore histogramRollupStore;
+    @Inject
+    private LiveUpdateService liveUpdateService;
 
     private TableSchema<CommentModel> commentSchema;
     private IndexSchema<CommentModel> commentByProjectIdSchema;
@@ -354,6 +369,9 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 .upvotes(comment.getUpvotes() + 1).build();
 
         commentSchema.table().putItem(commentSchema.toItem(commentWithVote));
+        counterStore.update(commentWithVote.getProjectId(), CounterType.COMMENTS, 1L);
+        histogramRollupStore.update(commentWithVote.getProjectId(), RollupType.COMMENTS, ImmutableMap.of(
+                RollupKey.of(null, commentWithVote.getCreated()), 1L));
         Optional<SettableFuture<Void>> parentIndexingFutureOpt = Optional.empty();
         if (commentWithVote.getLevel() > 0) {
             String parentCommentId = commentWithVote.getParentCommentIds().get(commentWithVote.getParentCommentIds().size() - 1);
@@ -398,6 +416,7 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         }
 
         IdeaAndIndexingFuture incrementResponse = ideaStore.incrementIdeaCommentCount(commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getLevel() == 0);
+        liveUpdateService.ideaChanged(incrementResponse.getIdea());
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         indexComment(indexingFuture, commentWithVote);
@@ -409,6 +428,65 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
         return new CommentAndIndexingFuture<>(commentWithVote, Futures.allAsList(builder.build()));
     }
 
+    @Override
+    public ListenableFuture<List<Void>> createComments(String projectId, Iterable<CommentModel> comments) {
+        ArrayList<ListenableFuture<Void>> indexingFutures = Lists.newArrayList();
+        Iterables.partition(comments, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(commentsBatch -> {
+            checkArgument(commentsBatch.stream().map(CommentModel::getProjectId).allMatch(projectId::equals));
+            // Imports are retried with the same comment ids, only count comments that were not already written
+            ImmutableSet<String> existingCommentIds = singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(commentSchema.tableName())
+                            .withPrimaryKeys(commentsBatch.stream()
+                                    .map(comment -> commentSchema.primaryKey(ImmutableMap.of(
+                                            "projectId", projectId,
+                                            "ideaId", comment.getIdeaId(),
+                                            "commentId", comment.getCommentId())))
+                                    .distinct()
+                                    .toArray(PrimaryKey[]::new))))
+                    .map(i -> commentSchema.fromItem(i).getCommentId())
+                    .collect(ImmutableSet.toImmutableSet());
+            ImmutableList<CommentModel> newComments = commentsBatch.stream()
+                    .filter(comment -> !existingCommentIds.contains(comment.getCommentId()))
+                    .collect(ImmutableList.toImmutableList());
+            singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(commentSchema.tableName())
+                    .withItemsToPut(commentsBatch.stream()
+                            .map(commentSchema::toItem)
+                            .collect(ImmutableList.toImmutableList()))));
+            if (!newComments.isEmpty()) {
+                // Batch writes cannot be part of a transaction, drift is corrected by CounterReconciler
+                counterStore.update(projectId, CounterType.COMMENTS, newComments.size());
+                histogramRollupStore.update(projectId, RollupType.COMMENTS, newComments.stream()
+                        .collect(Collectors.groupingBy(
+                                comment -> RollupKey.of(null, comment.getCreated()),
+                                Collectors.counting())));
+            }
+
+            SettableFuture<Void> indexingFuture = SettableFuture.create();
+            SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+            if (searchEngine.isWriteElastic()) {
+                elastic.get().bulkAsync(new BulkRequest()
+                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                                .add(commentsBatch.stream()
+                                        .map(comment -> commentToEsIndexRequest(comment).setRefreshPolicy(WriteRequest.RefreshPolicy.NONE))
+                                        .collect(ImmutableList.toImmutableList())),
+                        RequestOptions.DEFAULT,
+                        searchEngine.isReadElastic() ? ActionListeners.fromFuture(indexingFuture)
+                                : ActionListeners.logFailure());
+            }
+            if (searchEngine.isWriteMysql()) {
+                CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(commentsBatch.stream()
+                        .flatMap(comment -> Arrays.stream(commentToMysqlQuery(comment).queries()))
+                        .collect(ImmutableList.toImmutableList()));
+                if (searchEngine.isReadMysql()) {
+                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
+                } else {
+                    CompletionStageUtil.logFailure(completionStage);
+                }
+            }
+            indexingFutures.add(indexingFuture);
+        });
+        return Futures.allAsList(indexingFutures);
+    }
+
     @Extern
     @Override
     public Optional<CommentModel> getComment(String projectId, String ideaId, String commentId) {
@@ -443,6 +521,17 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
             return new HistogramResponse(ImmutableList.of(), new Hits(0L, null));
         }
 
+        Optional<HistogramResponse> histogramOpt = histogramRollupStore.histogram(
+                projectId,
+                RollupType.COMMENTS,
+                ImmutableSet.of(),
+                Optional.ofNullable(searchAdmin.getFilterCreatedStart()),
+                Optional.ofNullable(searchAdmin.getFilterCreatedEnd()),
+                Optional.ofNullable(searchAdmin.getInterval()));
+        if (histogramOpt.isPresent()) {
+            return histogramOpt.get();
+        }
+
         if (projectStore.getSearchEngineForProject(projectId).isReadElastic()) {
             return elasticUtil.histogram(
                     elasticUtil.getIndexName(COMMENT_INDEX, projectId),
@@ -542,69 +631,80 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                             .map(serverSecretCursor::encryptString));
         } else {
             // For complex searches, fallback to elasticsearch/mysql
-            final PrimaryKey[] primaryKeys;
-            final Optional<String> nextCursorOpt;
-            if (projectStore.getSearchEngineForProject(projectId).isReadElastic()) {
-                BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
-                if (!Strings.isNullOrEmpty(commentSearchAdmin.getFilterAuthorId())) {
-                    queryBuilder.must(QueryBuilders.termQuery("authorUserId", commentSearchAdmin.getFilterAuthorId()));
-                }
-                if (!Strings.isNullOrEmpty(commentSearchAdmin.getSearchText())) {
-                    queryBuilder.must(QueryBuilders.multiMatchQuery(commentSearchAdmin.getSearchText(), "content", "authorName")
-                            .fuzziness("AUTO").zeroTermsQuery(ZeroTermsQueryOption.ALL));
-                }
-                log.trace("Comment search query: {}", queryBuilder);
-                ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
-                        new SearchRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
-                                .source(new SearchSourceBuilder()
-                                        .fetchSource(true)
-                                        .query(queryBuilder)),
-                        cursorOpt, sortFieldsElastic, sortOrderElasticOpt, useAccurateCursor, Optional.of(pageSize), configSearch, ImmutableSet.of("ideaId"));
-
-                SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
-                primaryKeys = Arrays.stream(hits)
-                        .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
-                                "projectId", projectId,
-                                "ideaId", hit.getSourceAsMap().get("ideaId"),
-                                "commentId", hit.getId())))
-                        .toArray(PrimaryKey[]::new);
-                nextCursorOpt = searchResponseWithCursor.getCursorOpt();
-            } else {
-                Optional<Condition> conditionFilterAuthorIdOpt = Optional.ofNullable(Strings.emptyToNull(commentSearchAdmin.getFilterAuthorId()))
-                        .map(JooqComment.COMMENT.AUTHORUSERID::eq);
-
-                Optional<Condition> conditionSearchTextOpt = Optional.ofNullable(Strings.emptyToNull(commentSearchAdmin.getSearchText()))
-                        .map(searchText -> JooqComment.COMMENT.CONTENT.like("%" + searchText + "%")
-                                .or(JooqComment.COMMENT.AUTHORNAME.like("%" + searchText + "%")));
-                primaryKeys = mysql.get().select(JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID)
-                        .from(JooqComment.COMMENT)
-                        .where(mysqlUtil.and(mysqlUtil.and(
-                                        conditionSearchTextOpt,
-                                        conditionFilterAuthorIdOpt),
-                                JooqComment.COMMENT.PROJECTID.eq(projectId)))
-                        .orderBy(sortFieldsMysql)
-                        .offset(mysqlUtil.offset(cursorOpt))
-                        .limit(mysqlUtil.pageSizeMax(configSearch, Optional.empty()))
-                        .stream()
-                        .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
-                                "projectId", projectId,
-                                "ideaId", hit.component1(),
-                                "commentId", hit.component2())))
-                        .toArray(PrimaryKey[]::new);
-                nextCursorOpt = mysqlUtil.nextCursor(configSearch, cursorOpt, Optional.empty(), primaryKeys.length);
-            }
+            return searchEngineRouter.read(
+                    projectId,
+                    cursorOpt,
+                    !useAccurateCursor,
+                    engineCursorOpt -> searchCommentsElastic(projectId, commentSearchAdmin, useAccurateCursor, engineCursorOpt, sortFieldsElastic, sortOrderElasticOpt, pageSize),
+                    engineCursorOpt -> searchCommentsMysql(projectId, commentSearchAdmin, engineCursorOpt, sortFieldsMysql),
+                    SearchCommentsResponse::getCursorOpt,
+                    SearchCommentsResponse::withCursorOpt);
+        }
+    }
 
-            if (primaryKeys.length == 0) {
-                return new SearchCommentsResponse(ImmutableList.of(), cursorOpt);
-            }
+    private SearchCommentsResponse searchCommentsElastic(String projectId, CommentSearchAdmin commentSearchAdmin, boolean useAccurateCursor, Optional<String> cursorOpt, ImmutableList<String> sortFieldsElastic, Optional<SortOrder> sortOrderElasticOpt, int pageSize) {
+        BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
+        if (!Strings.isNullOrEmpty(commentSearchAdmin.getFilterAuthorId())) {
+            queryBuilder.must(QueryBuilders.termQuery("authorUserId", commentSearchAdmin.getFilterAuthorId()));
+        }
+        if (!Strings.isNullOrEmpty(commentSearchAdmin.getSearchText())) {
+            queryBuilder.must(QueryBuilders.multiMatchQuery(commentSearchAdmin.getSearchText(), "content", "authorName")
+                    .fuzziness("AUTO").zeroTermsQuery(ZeroTermsQueryOption.ALL));
+        }
+        log.trace("Comment search query: {}", queryBuilder);
+        ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
+                new SearchRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
+                        .source(new SearchSourceBuilder()
+                                .fetchSource(true)
+                                .query(queryBuilder)),
+                cursorOpt, sortFieldsElastic, sortOrderElasticOpt, useAccurateCursor, Optional.of(pageSize), configSearch, ImmutableSet.of("ideaId"));
+
+        SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
+        PrimaryKey[] primaryKeys = Arrays.stream(hits)
+                .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
+                        "projectId", projectId,
+                        "ideaId", hit.getSourceAsMap().get("ideaId"),
+                        "commentId", hit.getId())))
+                .toArray(PrimaryKey[]::new);
+        return fetchSearchComments(primaryKeys, cursorOpt, searchResponseWithCursor.getCursorOpt());
+    }
 
-            ImmutableList<CommentModel> comments = singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(commentSchema.tableName())
-                            .withPrimaryKeys(primaryKeys)))
-                    .map(i -> commentSchema.fromItem(i))
-                    .collect(ImmutableList.toImmutableList());
+    private SearchCommentsResponse searchCommentsMysql(String projectId, CommentSearchAdmin commentSearchAdmin, Optional<String> cursorOpt, ImmutableList<SortField<?>> sortFieldsMysql) {
+        Optional<Condition> conditionFilterAuthorIdOpt = Optional.ofNullable(Strings.emptyToNull(commentSearchAdmin.getFilterAuthorId()))
+                .map(JooqComment.COMMENT.AUTHORUSERID::eq);
+
+        Optional<Condition> conditionSearchTextOpt = Optional.ofNullable(Strings.emptyToNull(commentSearchAdmin.getSearchText()))
+                .map(searchText -> JooqComment.COMMENT.CONTENT.like("%" + searchText + "%")
+                        .or(JooqComment.COMMENT.AUTHORNAME.like("%" + searchText + "%")));
+        PrimaryKey[] primaryKeys = mysql.get().select(JooqComment.COMMENT.POSTID, JooqComment.COMMENT.COMMENTID)
+                .from(JooqComment.COMMENT)
+                .where(mysqlUtil.and(mysqlUtil.and(
+                                conditionSearchTextOpt,
+                                conditionFilterAuthorIdOpt),
+                        JooqComment.COMMENT.PROJECTID.eq(projectId)))
+                .orderBy(sortFieldsMysql)
+                .offset(mysqlUtil.offset(cursorOpt))
+                .limit(mysqlUtil.pageSizeMax(configSearch, Optional.empty()))
+                .stream()
+                .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
+                        "projectId", projectId,
+                        "ideaId", hit.component1(),
+                        "commentId", hit.component2())))
+                .toArray(PrimaryKey[]::new);
+        return fetchSearchComments(primaryKeys, cursorOpt, mysqlUtil.nextCursor(configSearch, cursorOpt, Optional.empty(), primaryKeys.length));
+    }
 
-            return new SearchCommentsResponse(comments, nextCursorOpt);
+    private SearchCommentsResponse fetchSearchComments(PrimaryKey[] primaryKeys, Optional<String> cursorOpt, Optional<String> nextCursorOpt) {
+        if (primaryKeys.length == 0) {
+            return new SearchCommentsResponse(ImmutableList.of(), cursorOpt);
         }
+
+        ImmutableList<CommentModel> comments = singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(commentSchema.tableName())
+                        .withPrimaryKeys(primaryKeys)))
+                .map(i -> commentSchema.fromItem(i))
+                .collect(ImmutableList.toImmutableList());
+
+        return new SearchCommentsResponse(comments, nextCursorOpt);
     }
 
     @Override
@@ -731,6 +831,21 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                 .collect(ImmutableSet.toImmutableSet());
     }
 
+    @Override
+    public long countComments(String projectId) {
+        if (projectStore.getSearchEngineForProject(projectId).isReadElastic()) {
+            try {
+                return elastic.get().count(new CountRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
+                                RequestOptions.DEFAULT)
+                        .getCount();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        } else {
+            return mysql.get().fetchCount(JooqComment.COMMENT, JooqComment.COMMENT.PROJECTID.eq(projectId));
+        }
+    }
+
     @Override
     public void exportAllForProject(String projectId, Consumer<CommentModel> consumer) {
         StreamSupport.stream(commentByProjectIdSchema.index().query(new QuerySpec()
@@ -944,11 +1059,21 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
     @Override
     public ListenableFuture<Void> deleteComment(String projectId, String ideaId, String commentId) {
         // TODO update childCommentCount for all parents
-        commentSchema.table().deleteItem(new DeleteItemSpec()
-                .withPrimaryKey(commentSchema.primaryKey(ImmutableMap.of(
-                        "projectId", projectId,
-                        "ideaId", ideaId,
-                        "commentId", commentId))));
+        Optional<CommentModel> commentOpt = getComment(projectId, ideaId, commentId);
+        try {
+            commentSchema.table().deleteItem(new DeleteItemSpec()
+                    .withPrimaryKey(commentSchema.primaryKey(ImmutableMap.of(
+                            "projectId", projectId,
+                            "ideaId", ideaId,
+                            "commentId", commentId)))
+                    .withConditionExpression("attribute_exists(#partitionKey)")
+                    .withNameMap(Map.of("#partitionKey", commentSchema.partitionKeyName())));
+            counterStore.update(projectId, CounterType.COMMENTS, -1L);
+            commentOpt.ifPresent(comment -> histogramRollupStore.update(projectId, RollupType.COMMENTS, ImmutableMap.of(
+                    RollupKey.of(null, comment.getCreated()), -1L)));
+        } catch (ConditionalCheckFailedException ex) {
+            // Already deleted
+        }
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -988,17 +1113,22 @@ public class DynamoElasticCommentStore extends ManagedService implements Comment
                                 .spliterator(), false)
                         .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
                         .map(commentSchema::fromItem)
-                        .map(CommentModel::getCommentId)
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(commentIdsBatch -> {
+                        .collect(ImmutableList.toImmutableList()), DYNAMO_WRITE_BATCH_MAX_SIZE)
+                .forEach(commentsBatch -> {
                     TableWriteItems tableWriteItems = new TableWriteItems(commentSchema.tableName());
-                    commentIdsBatch.stream()
-                            .map(commentId -> commentSchema.primaryKey(Map.of(
+                    commentsBatch.stream()
+                            .map(comment -> commentSchema.primaryKey(Map.of(
                                     "ideaId", ideaId,
                                     "projectId", projectId,
-                                    "commentId", commentId)))
+                                    "commentId", comment.getCommentId())))
                             .forEach(tableWriteItems::addPrimaryKeyToDelete);
                     singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                    // Batch writes cannot be part of a transaction, drift is corrected by CounterReconciler
+                    counterStore.update(projectId, CounterType.COMMENTS, -commentsBatch.size());
+                    histogramRollupStore.update(projectId, RollupType.COMMENTS, commentsBatch.stream()
+                            .collect(Collectors.groupingBy(
+                                    comment -> RollupKey.of(null, comment.getCreated()),
+                                    Collectors.summingLong(comment -> -1L))));
                 });
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
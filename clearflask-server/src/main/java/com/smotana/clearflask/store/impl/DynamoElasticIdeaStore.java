@@ -14,6 +14,7 @@ import com.google.common.collect.*;
 import com.google.common.collect.Sets.SetView;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
 import com.google.inject.Module;
@@ -25,14 +26,21 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.*;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.CounterStore;
+import com.smotana.clearflask.store.CounterStore.CounterType;
+import com.smotana.clearflask.store.HistogramRollupStore;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupKey;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupType;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.SearchEngineRouter;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.TransactionAndFundPrevious;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
+import com.smotana.clearflask.store.dynamo.DynamoItemCache;
 import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticScript;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -45,13 +53,15 @@ import com.smotana.clearflask.store.mysql.model.tables.JooqIdeaFunders;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdeaTags;
 import com.smotana.clearflask.store.mysql.model.tables.JooqUser;
 import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaRecord;
-import com.smotana.clearflask.store.mysql.model.tables.records.JooqIdeaTagsRecord;
 import com.smotana.clearflask.util.*;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateService;
+import com.smotana.clearflask.web.util.ResponseCache;
 import io.dataspray.singletable.Expression;
 import io.dataspray.singletable.*;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.TotalHits;
@@ -95,6 +105,7 @@ import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -134,12 +145,27 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         Duration searchCacheExpireAfterAccessPeriod();
 
         Observable<Duration> searchCacheExpireAfterAccessPeriodObservable();
+
+        @DefaultValue("true")
+        boolean enableItemCache();
+
+        /**
+         * Bounds how long changes made on other nodes take to be seen.
+         */
+        @DefaultValue("PT10S")
+        Duration itemCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long itemCacheMaxProjects();
+
+        @DefaultValue("2000")
+        long itemCacheMaxItemsPerProject();
     }
 
     public static final String IDEA_INDEX = "idea";
     public static final String IDEA_TAGS_INDEX = "idea_tags";
     public static final String IDEA_FUNDERS_INDEX = "idea_funders";
-    private static final long EXP_DECAY_PERIOD_MILLIS = Duration.ofDays(7).toMillis();
+    static final long EXP_DECAY_PERIOD_MILLIS = Duration.ofDays(7).toMillis();
     private static final Pattern EXTRACT_GITHUB_ISSUE_FROM_IDEA_ID_MATCHER = Pattern.compile("github-(?<issueNumber>[0-9]+)-(?<issueId>[0-9]+)-(?<repositoryId>[0-9]+)");
     private static final Pattern EXTRACT_GITLAB_ISSUE_FROM_IDEA_ID_MATCHER = Pattern.compile("gitlab-(?<issueIid>[0-9]+)-(?<issueId>[0-9]+)-(?<projectId>[0-9]+)");
 
@@ -174,11 +200,26 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private SearchEngineRouter searchEngineRouter;
+    @Inject
+    private IdeaTrendScoreAggregator trendScoreAggregator;
+    @Inject
+    private CounterStore counterStore;
+    @Inject
+    private HistogramRollupStore histogramRollupStore;
+    @Inject
+    private LiveUpdateService liveUpdateService;
+    @Inject
+    private ResponseCache responseCache;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private TableSchema<IdeaModel> ideaSchema;
     private IndexSchema<IdeaModel> ideaByProjectIdSchema;
     private ExpDecayScore expDecayScoreWeek;
     private Cache<IdeaSearchKey, SearchResponse> ideaSearchCache;
+    private DynamoItemCache<IdeaModel> ideaCache;
 
     @Inject
     private void setup() {
@@ -186,6 +227,12 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         ideaByProjectIdSchema = singleTable.parseGlobalSecondaryIndexSchema(2, IdeaModel.class);
 
         expDecayScoreWeek = new ExpDecayScore(EXP_DECAY_PERIOD_MILLIS);
+        ideaCache = new DynamoItemCache<>("idea",
+                config::enableItemCache,
+                config.itemCacheExpireAfterWrite(),
+                config.itemCacheMaxProjects(),
+                config.itemCacheMaxItemsPerProject(),
+                meterRegistry);
 
         Stream.of(config.searchCacheExpireAfterAccessPeriodObservable(),
                         config.searchCacheExpireAfterWritePeriodObservable())
@@ -428,7 +475,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         }
                     }
                     if (repopulateMysql) {
-                        ideaToMysqlRecords(idea).fetchMany();
+                        mysqlUtil.sequentialBatchSync(ideasToMysqlQueries(ImmutableList.of(idea)));
                     }
                 });
     }
@@ -462,14 +509,36 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         } catch (ConditionalCheckFailedException ex) {
             throw new ApiException(Response.Status.CONFLICT, "Similar title already exists, please choose another.", ex);
         }
+        counterStore.update(idea.getProjectId(), CounterType.POSTS, 1L);
+        histogramRollupStore.update(idea.getProjectId(), RollupType.POSTS, ImmutableMap.of(
+                RollupKey.of(idea.getCategoryId(), idea.getCreated()), 1L));
+        ideaCache.put(idea.getProjectId(), idea.getIdeaId(), idea);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         indexIdea(indexingFuture, idea);
 
-        return indexingFuture;
+        return invalidateResponseCache(idea.getProjectId(), indexingFuture);
+    }
+
+    /**
+     * Upserts all given ideas and their tags using at most two statements regardless of the number of ideas.
+     */
+    private ImmutableList<Query> ideasToMysqlQueries(Collection<IdeaModel> ideas) {
+        return Stream.of(
+                        mysqlUtil.upsert(ideas.stream()
+                                .map(this::ideaToMysqlRecord)
+                                .collect(ImmutableList.toImmutableList())),
+                        mysqlUtil.upsert(ideas.stream()
+                                .flatMap(idea -> idea.getTagIds().stream().map(tagId -> JooqIdeaTags.IDEA_TAGS.newRecord().values(
+                                        idea.getProjectId(),
+                                        idea.getIdeaId(),
+                                        tagId)))
+                                .collect(ImmutableList.toImmutableList())))
+                .flatMap(Optional::stream)
+                .collect(ImmutableList.toImmutableList());
     }
 
-    private Queries ideaToMysqlRecords(IdeaModel idea) {
+    private JooqIdeaRecord ideaToMysqlRecord(IdeaModel idea) {
         JooqIdeaRecord ideaRecord = JooqIdea.IDEA.newRecord();
         ideaRecord.setProjectid(idea.getProjectId());
         ideaRecord.setPostid(idea.getIdeaId());
@@ -495,22 +564,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         ideaRecord.setMergedtopostid(idea.getMergedToPostId());
         ideaRecord.setOrder(idea.getOrder());
         ideaRecord.setVisibility(idea.getVisibility() == null ? null : idea.getVisibility().name());
-
-        Stream<JooqIdeaTagsRecord> tagRecords = idea.getTagIds().stream().map(tagId -> JooqIdeaTags.IDEA_TAGS.newRecord().values(
-                idea.getProjectId(),
-                idea.getIdeaId(),
-                tagId));
-
-        return mysql.get().queries(Stream.concat(Stream.of(mysql.get().insertInto(JooqIdea.IDEA, JooqIdea.IDEA.fields())
-                                .values(ideaRecord)
-                                .onDuplicateKeyUpdate()
-                                .set(ideaRecord)),
-                        tagRecords.map(tagRecord -> mysql.get().insertInto(JooqIdeaTags.IDEA_TAGS, JooqIdeaTags.IDEA_TAGS.fields())
-                                .values(tagRecord)
-                                .onDuplicateKeyUpdate()
-                                .set(tagRecord)))
-                .collect(Collectors.toList())
-        );
+        return ideaRecord;
     }
 
     private IndexRequest ideaToEsIndexRequest(IdeaModel idea, boolean setRefreshPolicy) {
@@ -563,6 +617,13 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     .withItemsToPut(ideasBatch.stream()
                             .map(ideaSchema::toItem)
                             .collect(ImmutableList.toImmutableList()))));
+            // Batch writes cannot be part of a transaction, drift is corrected by CounterReconciler
+            counterStore.update(projectId, CounterType.POSTS, ideasBatch.size());
+            histogramRollupStore.update(projectId, RollupType.POSTS, ideasBatch.stream()
+                    .collect(Collectors.groupingBy(
+                            idea -> RollupKey.of(idea.getCategoryId(), idea.getCreated()),
+                            Collectors.counting())));
+            ideasBatch.forEach(idea -> ideaCache.put(projectId, idea.getIdeaId(), idea));
 
             SettableFuture<Void> indexingFuture = SettableFuture.create();
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -577,52 +638,96 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                                 : ActionListeners.logFailure());
             }
             if (searchEngine.isWriteMysql()) {
-                List<CompletionStage<?>> completionStages = ideasBatch.stream()
-                        .map(this::ideaToMysqlRecords)
-                        .map(mysqlUtil::sequentialBatch)
-                        .collect(Collectors.toList());
+                CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(ideasToMysqlQueries(ideasBatch));
                 if (searchEngine.isReadMysql()) {
-                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStages);
+                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
                 } else {
-                    CompletionStageUtil.logFailure(completionStages);
+                    CompletionStageUtil.logFailure(completionStage);
                 }
             }
             indexingFutures.add(indexingFuture);
         });
-        return Futures.allAsList(indexingFutures);
+        return invalidateResponseCache(projectId, Futures.allAsList(indexingFutures));
     }
 
     @Extern
     @Override
     public Optional<IdeaModel> getIdea(String projectId, String ideaId) {
-        return Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+        return getIdea(projectId, ideaId, true);
+    }
+
+    @Override
+    public Optional<IdeaModel> getIdea(String projectId, String ideaId, boolean useCache) {
+        if (config.enableItemCache() && useCache) {
+            Optional<IdeaModel> ideaCachedOpt = ideaCache.get(projectId, ideaId);
+            if (ideaCachedOpt.isPresent()) {
+                return ideaCachedOpt;
+            }
+        }
+        Optional<IdeaModel> ideaOpt = Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
-                                "ideaId", ideaId))))))
+                                "ideaId", ideaId)))
+                        .withConsistentRead(!useCache))))
                 .map(this::upgradeExpressionsProperty);
+        ideaOpt.ifPresent(idea -> {
+            if (useCache) {
+                ideaCache.putIfAbsent(projectId, ideaId, idea);
+            } else {
+                ideaCache.put(projectId, ideaId, idea);
+            }
+        });
+        return ideaOpt;
     }
 
     @Override
     public ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds) {
+        return getIdeas(projectId, ideaIds, true);
+    }
+
+    @Override
+    public ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds, boolean useCache) {
         if (ideaIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(ideaIds.stream()
-                        .distinct()
-                        .map(ideaId -> ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .toArray(PrimaryKey[]::new))))
+        ImmutableSet<String> ideaIdsDistinct = ImmutableSet.copyOf(ideaIds);
+        ImmutableMap<String, IdeaModel> ideasCached = config.enableItemCache() && useCache
+                ? ideaCache.getAll(projectId, ideaIdsDistinct)
+                : ImmutableMap.of();
+        if (ideasCached.size() == ideaIdsDistinct.size()) {
+            return ideasCached;
+        }
+        ImmutableMap<String, IdeaModel> ideasFetched = singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName())
+                        .withConsistentRead(!useCache)
+                        .withPrimaryKeys(ideaIdsDistinct.stream()
+                                .filter(ideaId -> !ideasCached.containsKey(ideaId))
+                                .map(ideaId -> ideaSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "ideaId", ideaId)))
+                                .toArray(PrimaryKey[]::new))))
                 .map(ideaSchema::fromItem)
                 .map(this::upgradeExpressionsProperty)
                 .collect(ImmutableMap.toImmutableMap(
                         IdeaModel::getIdeaId,
                         i -> i));
+        if (useCache) {
+            ideaCache.putAllIfAbsent(projectId, ideasFetched);
+        } else {
+            ideasFetched.forEach((ideaId, idea) -> ideaCache.put(projectId, ideaId, idea));
+        }
+        if (ideasCached.isEmpty()) {
+            return ideasFetched;
+        }
+        return ImmutableMap.<String, IdeaModel>builder()
+                .putAll(ideasCached)
+                .putAll(ideasFetched)
+                .build();
     }
 
     @Override
     public LinkResponse linkIdeas(String projectId, String ideaId, String parentIdeaId, boolean undo, BiFunction<String, String, Double> categoryExpressionToWeightMapper) {
         ConnectResponse connectResponse = connectIdeas(projectId, ideaId, parentIdeaId, false, undo, categoryExpressionToWeightMapper);
+        responseCache.invalidateProject(projectId);
         return new LinkResponse(connectResponse.idea, connectResponse.parentIdea);
     }
 
@@ -660,14 +765,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             indexIdea(connectResponse.getParentIdea());
         }
 
-        return new MergeResponse(connectResponse.idea, connectResponse.parentIdea, indexingFuture);
+        return new MergeResponse(connectResponse.idea, connectResponse.parentIdea, invalidateResponseCache(projectId, indexingFuture));
     }
 
     private ConnectResponse connectIdeas(String projectId, String ideaId, String parentIdeaId, boolean merge, boolean undo, BiFunction<String, String, Double> categoryExpressionToWeightMapper) {
         if (ideaId.equals(parentIdeaId)) {
             throw new ApiException(Response.Status.BAD_REQUEST, "Cannot connect to itself");
         }
-        ImmutableMap<String, IdeaModel> ideas = getIdeas(projectId, ImmutableSet.of(ideaId, parentIdeaId));
+        ImmutableMap<String, IdeaModel> ideas = getIdeas(projectId, ImmutableSet.of(ideaId, parentIdeaId), false);
         IdeaModel idea = ideas.get(ideaId);
         IdeaModel parentIdea = ideas.get(parentIdeaId);
         if (idea == null || parentIdea == null) {
@@ -874,28 +979,30 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
 
         Expression ideaExpression = ideaExpressionBuilder.build();
         log.trace("connect ideaExpression {}", ideaExpression);
-        idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withUpdateExpression(ideaExpression.updateExpression().orElse(null))
-                        .withConditionExpression(ideaExpression.conditionExpression().orElse(null))
-                        .withNameMap(ideaExpression.nameMap().orElse(null))
-                        .withValueMap(ideaExpression.valMap().orElse(null))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withUpdateExpression(ideaExpression.updateExpression().orElse(null))
+                .withConditionExpression(ideaExpression.conditionExpression().orElse(null))
+                .withNameMap(ideaExpression.nameMap().orElse(null))
+                .withValueMap(ideaExpression.valMap().orElse(null))
+                .withReturnValues(ReturnValue.ALL_NEW));
+        if (merge) {
+            histogramRollupStore.update(projectId, RollupType.POSTS, ImmutableMap.of(
+                    RollupKey.of(idea.getCategoryId(), idea.getCreated()), undo ? 1L : -1L));
+        }
         Expression parentIdeaExpression = parentIdeaExpressionBuilder.build();
         log.trace("connect parentIdeaExpression {}", parentIdeaExpression);
-        parentIdea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", parentIdeaId)))
-                        .withUpdateExpression(parentIdeaExpression.updateExpression().orElse(null))
-                        .withConditionExpression(parentIdeaExpression.conditionExpression().orElse(null))
-                        .withNameMap(parentIdeaExpression.nameMap().orElse(null))
-                        .withValueMap(parentIdeaExpression.valMap().orElse(null))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        parentIdea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", parentIdeaId)))
+                .withUpdateExpression(parentIdeaExpression.updateExpression().orElse(null))
+                .withConditionExpression(parentIdeaExpression.conditionExpression().orElse(null))
+                .withNameMap(parentIdeaExpression.nameMap().orElse(null))
+                .withValueMap(parentIdeaExpression.valMap().orElse(null))
+                .withReturnValues(ReturnValue.ALL_NEW));
 
         return new ConnectResponse(idea, parentIdea);
     }
@@ -912,6 +1019,21 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             return new HistogramResponse(ImmutableList.of(), new Hits(0L, null));
         }
 
+        // Rollups are only kept per category
+        if ((ideaHistogramSearchAdmin.getFilterStatusIds() == null || ideaHistogramSearchAdmin.getFilterStatusIds().isEmpty())
+                && (ideaHistogramSearchAdmin.getFilterTagIds() == null || ideaHistogramSearchAdmin.getFilterTagIds().isEmpty())) {
+            Optional<HistogramResponse> histogramOpt = histogramRollupStore.histogram(
+                    projectId,
+                    RollupType.POSTS,
+                    ideaHistogramSearchAdmin.getFilterCategoryIds() == null ? ImmutableSet.of() : ImmutableSet.copyOf(ideaHistogramSearchAdmin.getFilterCategoryIds()),
+                    Optional.ofNullable(ideaHistogramSearchAdmin.getFilterCreatedStart()),
+                    Optional.ofNullable(ideaHistogramSearchAdmin.getFilterCreatedEnd()),
+                    Optional.ofNullable(ideaHistogramSearchAdmin.getInterval()));
+            if (histogramOpt.isPresent()) {
+                return histogramOpt.get();
+            }
+        }
+
         IdeaSearchAdmin ideaSearchAdmin = new IdeaSearchAdmin(
                 null,
                 ideaHistogramSearchAdmin.getFilterCategoryIds(),
@@ -954,24 +1076,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     public SearchResponse searchIdeas(String projectId, IdeaSearch ideaSearch, Optional<String> requestorUserIdOpt, ImmutableSet<String> hiddenStatusIds, Optional<String> cursorOpt) {
         return searchIdeas(
                 projectId,
-                new IdeaSearchAdmin(
-                        ideaSearch.getSortBy() == null ? null : IdeaSearchAdmin.SortByEnum.valueOf(ideaSearch.getSortBy().name()),
-                        ideaSearch.getFilterCategoryIds(),
-                        ideaSearch.getInvertCategory(),
-                        ideaSearch.getFilterStatusIds(),
-                        ideaSearch.getInvertStatus(),
-                        ideaSearch.getFilterTagIds(),
-                        ideaSearch.getInvertTag(),
-                        ideaSearch.getFilterAuthorId(),
-                        ideaSearch.getInvertAuthorId(),
-                        ideaSearch.getSearchText(),
-                        ideaSearch.getFundedByMeAndActive(),
-                        ideaSearch.getLimit(),
-                        ideaSearch.getSimilarToIdeaId(),
-                        null,
-                        null,
-                        null,
-                        null),
+                toIdeaSearchAdmin(ideaSearch),
                 requestorUserIdOpt,
                 false,
                 true, // excludePrivate: true for regular users
@@ -979,6 +1084,170 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 cursorOpt);
     }
 
+    @Override
+    public ImmutableList<SearchResponse> searchIdeas(String projectId, ImmutableList<IdeaSearchWithCursor> ideaSearches, Optional<String> requestorUserIdOpt, ImmutableSet<String> hiddenStatusIds) {
+        return searchIdeasMulti(
+                projectId,
+                ideaSearches.stream()
+                        .map(IdeaSearchWithCursor::getIdeaSearch)
+                        .map(this::toIdeaSearchAdmin)
+                        .collect(ImmutableList.toImmutableList()),
+                ideaSearches.stream()
+                        .map(IdeaSearchWithCursor::getCursorOpt)
+                        .collect(ImmutableList.toImmutableList()),
+                requestorUserIdOpt,
+                true, // excludePrivate: true for regular users
+                hiddenStatusIds);
+    }
+
+    @Override
+    public ImmutableList<SearchResponse> searchIdeasAdmin(String projectId, ImmutableList<IdeaSearchAdmin> ideaSearchAdmins) {
+        return searchIdeasMulti(
+                projectId,
+                ideaSearchAdmins,
+                ideaSearchAdmins.stream()
+                        .map(ideaSearchAdmin -> Optional.<String>empty())
+                        .collect(ImmutableList.toImmutableList()),
+                Optional.empty(),
+                false, // excludePrivate: false for admins, no hidden status filtering
+                ImmutableSet.of());
+    }
+
+    private ImmutableList<SearchResponse> searchIdeasMulti(
+            String projectId,
+            ImmutableList<IdeaSearchAdmin> ideaSearchAdmins,
+            ImmutableList<Optional<String>> cursorOpts,
+            Optional<String> requestorUserIdOpt,
+            boolean excludePrivate,
+            ImmutableSet<String> hiddenStatusIds) {
+        // Serve from cache where possible, remaining searches are sent together
+        SearchResponse[] searchResponses = new SearchResponse[ideaSearchAdmins.size()];
+        List<Integer> pendingIndexes = Lists.newArrayList();
+        for (int i = 0; i < ideaSearchAdmins.size(); i++) {
+            IdeaSearchAdmin ideaSearchAdmin = ideaSearchAdmins.get(i);
+            Optional<String> cursorOpt = cursorOpts.get(i);
+            if (isSimilarToDisabled(ideaSearchAdmin)) {
+                searchResponses[i] = new SearchResponse(ImmutableList.of(), Optional.empty(), 0L, false);
+            } else if (useSearchCache(ideaSearchAdmin, cursorOpt)) {
+                searchResponses[i] = ideaSearchCache.getIfPresent(new IdeaSearchKey(projectId, ideaSearchAdmin, cursorOpt));
+            }
+            if (searchResponses[i] == null) {
+                pendingIndexes.add(i);
+            }
+        }
+        if (pendingIndexes.isEmpty()) {
+            return ImmutableList.copyOf(searchResponses);
+        }
+
+        ImmutableList<IdeaSearchAdmin> pendingIdeaSearchAdmins = pendingIndexes.stream()
+                .map(ideaSearchAdmins::get)
+                .collect(ImmutableList.toImmutableList());
+        ImmutableList<SearchResponse> pendingSearchResponses = searchEngineRouter.readBatch(
+                projectId,
+                pendingIndexes.stream()
+                        .map(cursorOpts::get)
+                        .collect(ImmutableList.toImmutableList()),
+                (indexes, engineCursorOpts) -> searchIdeasMultiElastic(projectId, indexes.stream().map(pendingIdeaSearchAdmins::get).collect(ImmutableList.toImmutableList()), engineCursorOpts, requestorUserIdOpt, excludePrivate, hiddenStatusIds),
+                (indexes, engineCursorOpts) -> searchIdeasMultiMysql(projectId, indexes.stream().map(pendingIdeaSearchAdmins::get).collect(ImmutableList.toImmutableList()), engineCursorOpts, requestorUserIdOpt, excludePrivate, hiddenStatusIds),
+                SearchResponse::getCursorOpt,
+                SearchResponse::withCursorOpt);
+        for (int j = 0; j < pendingIndexes.size(); j++) {
+            searchResponses[pendingIndexes.get(j)] = pendingSearchResponses.get(j);
+        }
+
+        for (int i : pendingIndexes) {
+            IdeaSearchAdmin ideaSearchAdmin = ideaSearchAdmins.get(i);
+            Optional<String> cursorOpt = cursorOpts.get(i);
+            if (useSearchCache(ideaSearchAdmin, cursorOpt)) {
+                ideaSearchCache.put(new IdeaSearchKey(projectId, ideaSearchAdmin, cursorOpt), searchResponses[i]);
+            }
+        }
+
+        return ImmutableList.copyOf(searchResponses);
+    }
+
+    private ImmutableList<SearchResponse> searchIdeasMultiElastic(
+            String projectId,
+            ImmutableList<IdeaSearchAdmin> ideaSearchAdmins,
+            ImmutableList<Optional<String>> cursorOpts,
+            Optional<String> requestorUserIdOpt,
+            boolean excludePrivate,
+            ImmutableSet<String> hiddenStatusIds) {
+        ImmutableList<ElasticUtil.SearchResponseWithCursor> searchResponsesWithCursor = elasticUtil.multiSearchWithCursor(
+                IntStream.range(0, ideaSearchAdmins.size())
+                        .mapToObj(i -> searchIdeasElasticSearch(projectId, ideaSearchAdmins.get(i), requestorUserIdOpt, excludePrivate, hiddenStatusIds, cursorOpts.get(i)))
+                        .collect(ImmutableList.toImmutableList()),
+                configSearch);
+        return searchResponsesWithCursor.stream()
+                .map(this::toSearchResponse)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private ImmutableList<SearchResponse> searchIdeasMultiMysql(
+            String projectId,
+            ImmutableList<IdeaSearchAdmin> ideaSearchAdmins,
+            ImmutableList<Optional<String>> cursorOpts,
+            Optional<String> requestorUserIdOpt,
+            boolean excludePrivate,
+            ImmutableSet<String> hiddenStatusIds) {
+        // Each search is ranked within its own sub-select as union does not preserve order
+        Field<Integer> searchIndexField = DSL.field(DSL.name("searchIndex"), Integer.class);
+        Field<Integer> searchRankField = DSL.field(DSL.name("searchRank"), Integer.class);
+        Select<Record3<Integer, String, Integer>> unionSelect = null;
+        for (int i = 0; i < ideaSearchAdmins.size(); i++) {
+            IdeaSearchAdmin ideaSearchAdmin = ideaSearchAdmins.get(i);
+            SearchIdeasConditions searchConditions = searchIdeasCondition(projectId, ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds);
+            Select<Record3<Integer, String, Integer>> select = mysql.get().select(
+                            DSL.inline(i).as(searchIndexField),
+                            JooqIdea.IDEA.POSTID,
+                            DSL.rowNumber().over(DSL.orderBy(searchIdeasMysqlSortFields(ideaSearchAdmin))).as(searchRankField))
+                    .from(mysqlUtil.join(JooqIdea.IDEA, searchConditions.getJoins()))
+                    .where(mysqlUtil.and(
+                            searchConditions.getConditions(),
+                            searchConditions.getConditionsRange()))
+                    .groupBy(JooqIdea.IDEA.PROJECTID, JooqIdea.IDEA.POSTID)
+                    .orderBy(searchRankField)
+                    .offset(mysqlUtil.offset(cursorOpts.get(i)))
+                    .limit(mysqlUtil.pageSizeMax(configSearch, Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue)));
+            unionSelect = unionSelect == null ? select : unionSelect.unionAll(select);
+        }
+        org.jooq.Table<Record3<Integer, String, Integer>> searchesTable = unionSelect.asTable("searches");
+        Map<Integer, List<String>> postIdsBySearchIndex = mysql.get().selectFrom(searchesTable)
+                .orderBy(searchesTable.field(searchIndexField), searchesTable.field(searchRankField))
+                .fetchGroups(searchesTable.field(searchIndexField), searchesTable.field(JooqIdea.IDEA.POSTID));
+        ImmutableList.Builder<SearchResponse> searchResponsesBuilder = ImmutableList.builder();
+        for (int i = 0; i < ideaSearchAdmins.size(); i++) {
+            List<String> postIds = postIdsBySearchIndex.getOrDefault(i, ImmutableList.of());
+            searchResponsesBuilder.add(new SearchResponse(
+                    ImmutableList.copyOf(postIds),
+                    mysqlUtil.nextCursor(configSearch, cursorOpts.get(i), Optional.ofNullable(ideaSearchAdmins.get(i).getLimit()).map(Long::intValue), postIds.size()),
+                    postIds.size(),
+                    true));
+        }
+        return searchResponsesBuilder.build();
+    }
+
+    private IdeaSearchAdmin toIdeaSearchAdmin(IdeaSearch ideaSearch) {
+        return new IdeaSearchAdmin(
+                ideaSearch.getSortBy() == null ? null : IdeaSearchAdmin.SortByEnum.valueOf(ideaSearch.getSortBy().name()),
+                ideaSearch.getFilterCategoryIds(),
+                ideaSearch.getInvertCategory(),
+                ideaSearch.getFilterStatusIds(),
+                ideaSearch.getInvertStatus(),
+                ideaSearch.getFilterTagIds(),
+                ideaSearch.getInvertTag(),
+                ideaSearch.getFilterAuthorId(),
+                ideaSearch.getInvertAuthorId(),
+                ideaSearch.getSearchText(),
+                ideaSearch.getFundedByMeAndActive(),
+                ideaSearch.getLimit(),
+                ideaSearch.getSimilarToIdeaId(),
+                null,
+                null,
+                null,
+                null);
+    }
+
     @Override
     public SearchResponse searchIdeas(String projectId, IdeaSearchAdmin ideaSearchAdmin, boolean useAccurateCursor, Optional<String> cursorOpt) {
         return searchIdeas(projectId, ideaSearchAdmin, Optional.empty(), useAccurateCursor, false, ImmutableSet.of(), cursorOpt); // excludePrivate: false for admins, no hidden status filtering
@@ -1235,8 +1504,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             boolean excludePrivate,
             ImmutableSet<String> hiddenStatusIds,
             Optional<String> cursorOpt) {
-        if (!Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
-                && !config.enableSimilarToIdea()) {
+        if (isSimilarToDisabled(ideaSearchAdmin)) {
             return new SearchResponse(
                     ImmutableList.of(),
                     Optional.empty(),
@@ -1244,10 +1512,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                     false);
         }
 
-        boolean useCache = config.enableSearchCache()
-                && cursorOpt.isEmpty()
-                && ideaSearchAdmin.getFundedByMeAndActive() != Boolean.TRUE
-                && ideaSearchAdmin.getSearchText() == null;
+        boolean useCache = useSearchCache(ideaSearchAdmin, cursorOpt);
         IdeaSearchKey key = new IdeaSearchKey(projectId, ideaSearchAdmin, cursorOpt);
         if (useCache) {
             SearchResponse cachedResponse = ideaSearchCache.getIfPresent(key);
@@ -1257,131 +1522,187 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
         Optional<Integer> limitOpt = Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue);
 
-        final SearchResponse searchResponse;
-        if (projectStore.getSearchEngineForProject(projectId).isReadElastic()) {
-            QueryBuilder query = searchIdeasQuery(ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds);
-
-            Optional<SortOrder> sortOrderOpt;
-            ImmutableList<String> sortFields;
-            if (ideaSearchAdmin.getSortBy() != null
-                    && Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
-                    && Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
-                switch (ideaSearchAdmin.getSortBy()) {
-                    case TOP:
-                        sortFields = ImmutableList.of("funded", "voteValue", "expressionsValue");
-                        sortOrderOpt = Optional.of(SortOrder.DESC);
-                        break;
-                    case NEW:
-                        sortFields = ImmutableList.of("created");
-                        sortOrderOpt = Optional.of(SortOrder.DESC);
-                        break;
-                    case TRENDING:
-                        sortFields = ImmutableList.of("trendScore", "funded", "voteValue", "expressionsValue");
-                        sortOrderOpt = Optional.of(SortOrder.DESC);
-                        break;
-                    case RANDOM:
-                        sortFields = ImmutableList.of();
-                        sortOrderOpt = Optional.empty();
-                        query = new FunctionScoreQueryBuilder(query, new RandomScoreFunctionBuilder()
-                                .seed(IdUtil.randomId())
-                                .setField("created"));
-                        break;
-                    case DRAGANDDROP:
-                        sortFields = ImmutableList.of("order", "created");
-                        sortOrderOpt = Optional.of(SortOrder.ASC);
-                        break;
-                    default:
-                        throw new ApiException(Response.Status.BAD_REQUEST,
-                                "Sorting by '" + ideaSearchAdmin.getSortBy() + "' not supported");
-                }
-            } else if (Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
-                sortFields = ImmutableList.of("funded", "voteValue", "expressionsValue");
-                sortOrderOpt = Optional.of(SortOrder.DESC);
-            } else {
-                sortFields = ImmutableList.of();
-                sortOrderOpt = Optional.empty();
-            }
+        SearchResponse searchResponse = searchEngineRouter.read(
+                projectId,
+                cursorOpt,
+                !useAccurateCursor,
+                engineCursorOpt -> searchIdeasElastic(projectId, ideaSearchAdmin, requestorUserIdOpt, useAccurateCursor, excludePrivate, hiddenStatusIds, engineCursorOpt),
+                engineCursorOpt -> searchIdeasMysql(projectId, ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds, engineCursorOpt, limitOpt),
+                SearchResponse::getCursorOpt,
+                SearchResponse::withCursorOpt);
 
-            log.trace("Idea search query: {}", query);
-            ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
-                    new SearchRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).source(new SearchSourceBuilder()
-                            .fetchSource(false)
-                            .query(query)),
-                    cursorOpt, sortFields, sortOrderOpt, useAccurateCursor, limitOpt, configSearch, ImmutableSet.of());
-
-            SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
-            log.trace("searchIdeas hitsSize {} query {}", hits.length, ideaSearchAdmin);
-
-            if (hits.length == 0) {
-                searchResponse = new SearchResponse(
-                        ImmutableList.of(),
-                        Optional.empty(),
-                        0L,
-                        false);
-            } else {
-                searchResponse = new SearchResponse(
-                        Arrays.stream(hits)
-                                .map(SearchHit::getId)
-                                .collect(ImmutableList.toImmutableList()),
-                        searchResponseWithCursor.getCursorOpt(),
-                        searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().value,
-                        searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
-            }
-        } else {
-            SearchIdeasConditions searchConditions = searchIdeasCondition(projectId, ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds);
+        if (useCache) {
+            ideaSearchCache.put(key, searchResponse);
+        }
 
-            final ImmutableList<SortField<?>> sortFields;
-            if (ideaSearchAdmin.getSortBy() != null
-                    && Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
-                    && Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
-                switch (ideaSearchAdmin.getSortBy()) {
-                    case TOP:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
-                        break;
-                    case NEW:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.CREATED.sort(DESC));
-                        break;
-                    case TRENDING:
-                        sortFields = ImmutableList.of(JooqIdea.IDEA.TRENDSCORE.sort(DESC), JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
-                        break;
-                    case RANDOM:
-                        sortFields = ImmutableList.of(DSL.rand().sort(DESC));
-                        break;
-                    case DRAGANDDROP:
-                        sortFields = ImmutableList.of(DSL.coalesce(JooqIdea.IDEA.ORDER, DSL.epoch(JooqIdea.IDEA.CREATED).mul(1000)).asc());
-                        break;
-                    default:
-                        throw new ApiException(Response.Status.BAD_REQUEST,
-                                "Sorting by '" + ideaSearchAdmin.getSortBy() + "' not supported");
-                }
-            } else if (Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
-                sortFields = ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
-            } else {
-                sortFields = ImmutableList.of();
-            }
+        return searchResponse;
+    }
 
-            List<String> postIds = mysql.get().selectDistinct(JooqIdea.IDEA.POSTID)
-                    .from(mysqlUtil.join(JooqIdea.IDEA, searchConditions.getJoins()))
-                    .where(mysqlUtil.and(
-                            searchConditions.getConditions(),
-                            searchConditions.getConditionsRange()))
-                    .orderBy(sortFields)
-                    .offset(mysqlUtil.offset(cursorOpt))
-                    .limit(mysqlUtil.pageSizeMax(configSearch, Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue)))
-                    .fetch(JooqIdea.IDEA.POSTID);
+    private SearchResponse searchIdeasElastic(
+            String projectId,
+            IdeaSearchAdmin ideaSearchAdmin,
+            Optional<String> requestorUserIdOpt,
+            boolean useAccurateCursor,
+            boolean excludePrivate,
+            ImmutableSet<String> hiddenStatusIds,
+            Optional<String> cursorOpt) {
+        ElasticUtil.CursorSearch cursorSearch = searchIdeasElasticSearch(projectId, ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds, cursorOpt);
+        ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
+                cursorSearch.getSearchRequest(),
+                cursorSearch.getCursorOpt(),
+                cursorSearch.getSortFields(),
+                cursorSearch.getSortOrderOpt(),
+                useAccurateCursor,
+                cursorSearch.getSizeOpt(),
+                configSearch,
+                cursorSearch.getSourceIncludes());
+        log.trace("searchIdeas hitsSize {} query {}", searchResponseWithCursor.getSearchResponse().getHits().getHits().length, ideaSearchAdmin);
+        return toSearchResponse(searchResponseWithCursor);
+    }
 
-            searchResponse = new SearchResponse(
-                    ImmutableList.copyOf(postIds),
-                    mysqlUtil.nextCursor(configSearch, cursorOpt, limitOpt, postIds.size()),
-                    postIds.size(),
-                    true);
-        }
+    private SearchResponse searchIdeasMysql(
+            String projectId,
+            IdeaSearchAdmin ideaSearchAdmin,
+            Optional<String> requestorUserIdOpt,
+            boolean excludePrivate,
+            ImmutableSet<String> hiddenStatusIds,
+            Optional<String> cursorOpt,
+            Optional<Integer> limitOpt) {
+        SearchIdeasConditions searchConditions = searchIdeasCondition(projectId, ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds);
+
+        List<String> postIds = mysql.get().selectDistinct(JooqIdea.IDEA.POSTID)
+                .from(mysqlUtil.join(JooqIdea.IDEA, searchConditions.getJoins()))
+                .where(mysqlUtil.and(
+                        searchConditions.getConditions(),
+                        searchConditions.getConditionsRange()))
+                .orderBy(searchIdeasMysqlSortFields(ideaSearchAdmin))
+                .offset(mysqlUtil.offset(cursorOpt))
+                .limit(mysqlUtil.pageSizeMax(configSearch, limitOpt))
+                .fetch(JooqIdea.IDEA.POSTID);
+
+        return new SearchResponse(
+                ImmutableList.copyOf(postIds),
+                mysqlUtil.nextCursor(configSearch, cursorOpt, limitOpt, postIds.size()),
+                postIds.size(),
+                true);
+    }
 
-        if (useCache) {
-            ideaSearchCache.put(key, searchResponse);
+    private boolean isSimilarToDisabled(IdeaSearchAdmin ideaSearchAdmin) {
+        return !Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
+                && !config.enableSimilarToIdea();
+    }
+
+    private boolean useSearchCache(IdeaSearchAdmin ideaSearchAdmin, Optional<String> cursorOpt) {
+        return config.enableSearchCache()
+                && cursorOpt.isEmpty()
+                && ideaSearchAdmin.getFundedByMeAndActive() != Boolean.TRUE
+                && ideaSearchAdmin.getSearchText() == null;
+    }
+
+    private ElasticUtil.CursorSearch searchIdeasElasticSearch(
+            String projectId,
+            IdeaSearchAdmin ideaSearchAdmin,
+            Optional<String> requestorUserIdOpt,
+            boolean excludePrivate,
+            ImmutableSet<String> hiddenStatusIds,
+            Optional<String> cursorOpt) {
+        QueryBuilder query = searchIdeasQuery(ideaSearchAdmin, requestorUserIdOpt, excludePrivate, hiddenStatusIds);
+
+        Optional<SortOrder> sortOrderOpt;
+        ImmutableList<String> sortFields;
+        if (ideaSearchAdmin.getSortBy() != null
+                && Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
+                && Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
+            switch (ideaSearchAdmin.getSortBy()) {
+                case TOP:
+                    sortFields = ImmutableList.of("funded", "voteValue", "expressionsValue");
+                    sortOrderOpt = Optional.of(SortOrder.DESC);
+                    break;
+                case NEW:
+                    sortFields = ImmutableList.of("created");
+                    sortOrderOpt = Optional.of(SortOrder.DESC);
+                    break;
+                case TRENDING:
+                    sortFields = ImmutableList.of("trendScore", "funded", "voteValue", "expressionsValue");
+                    sortOrderOpt = Optional.of(SortOrder.DESC);
+                    break;
+                case RANDOM:
+                    sortFields = ImmutableList.of();
+                    sortOrderOpt = Optional.empty();
+                    query = new FunctionScoreQueryBuilder(query, new RandomScoreFunctionBuilder()
+                            .seed(IdUtil.randomId())
+                            .setField("created"));
+                    break;
+                case DRAGANDDROP:
+                    sortFields = ImmutableList.of("order", "created");
+                    sortOrderOpt = Optional.of(SortOrder.ASC);
+                    break;
+                default:
+                    throw new ApiException(Response.Status.BAD_REQUEST,
+                            "Sorting by '" + ideaSearchAdmin.getSortBy() + "' not supported");
+            }
+        } else if (Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
+            sortFields = ImmutableList.of("funded", "voteValue", "expressionsValue");
+            sortOrderOpt = Optional.of(SortOrder.DESC);
+        } else {
+            sortFields = ImmutableList.of();
+            sortOrderOpt = Optional.empty();
+        }
+
+        log.trace("Idea search query: {}", query);
+        return new ElasticUtil.CursorSearch(
+                new SearchRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).source(new SearchSourceBuilder()
+                        .fetchSource(false)
+                        .query(query)),
+                cursorOpt,
+                sortFields,
+                sortOrderOpt,
+                Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue),
+                ImmutableSet.of());
+    }
+
+    private SearchResponse toSearchResponse(ElasticUtil.SearchResponseWithCursor searchResponseWithCursor) {
+        SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
+        if (hits.length == 0) {
+            return new SearchResponse(
+                    ImmutableList.of(),
+                    Optional.empty(),
+                    0L,
+                    false);
         }
+        return new SearchResponse(
+                Arrays.stream(hits)
+                        .map(SearchHit::getId)
+                        .collect(ImmutableList.toImmutableList()),
+                searchResponseWithCursor.getCursorOpt(),
+                searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().value,
+                searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
+    }
 
-        return searchResponse;
+    private ImmutableList<SortField<?>> searchIdeasMysqlSortFields(IdeaSearchAdmin ideaSearchAdmin) {
+        if (ideaSearchAdmin.getSortBy() != null
+                && Strings.isNullOrEmpty(ideaSearchAdmin.getSimilarToIdeaId())
+                && Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
+            switch (ideaSearchAdmin.getSortBy()) {
+                case TOP:
+                    return ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
+                case NEW:
+                    return ImmutableList.of(JooqIdea.IDEA.CREATED.sort(DESC));
+                case TRENDING:
+                    return ImmutableList.of(JooqIdea.IDEA.TRENDSCORE.sort(DESC), JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
+                case RANDOM:
+                    return ImmutableList.of(DSL.rand().sort(DESC));
+                case DRAGANDDROP:
+                    return ImmutableList.of(DSL.coalesce(JooqIdea.IDEA.ORDER, DSL.epoch(JooqIdea.IDEA.CREATED).mul(1000)).asc());
+                default:
+                    throw new ApiException(Response.Status.BAD_REQUEST,
+                            "Sorting by '" + ideaSearchAdmin.getSortBy() + "' not supported");
+            }
+        } else if (Strings.isNullOrEmpty(ideaSearchAdmin.getSearchText())) {
+            return ImmutableList.of(JooqIdea.IDEA.FUNDED.sort(DESC), JooqIdea.IDEA.VOTEVALUE.sort(DESC), JooqIdea.IDEA.EXPRESSIONSVALUE.sort(DESC));
+        } else {
+            return ImmutableList.of();
+        }
     }
 
     @Override
@@ -1603,11 +1924,10 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                         .where(JooqIdeaTags.IDEA_TAGS.PROJECTID.eq(projectId)
                                 .and(JooqIdeaTags.IDEA_TAGS.POSTID.eq(ideaId))
                                 .and(JooqIdeaTags.IDEA_TAGS.TAGID.notIn(ideaUpdateAdmin.getTagIds()))));
-                indexQueriesMysql.addAll(ideaUpdateAdmin.getTagIds().stream()
-                        .map(tagId -> (Query) mysql.get().insertInto(JooqIdeaTags.IDEA_TAGS, JooqIdeaTags.IDEA_TAGS.fields())
-                                .values(projectId, ideaId, tagId)
-                                .onDuplicateKeyIgnore())
-                        .collect(Collectors.toList()));
+                mysqlUtil.upsert(ideaUpdateAdmin.getTagIds().stream()
+                                .map(tagId -> JooqIdeaTags.IDEA_TAGS.newRecord().values(projectId, ideaId, tagId))
+                                .collect(ImmutableList.toImmutableList()))
+                        .ifPresent(indexQueriesMysql::add);
             }
         }
         if (ideaUpdateAdmin.getFundGoal() != null) {
@@ -1651,7 +1971,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             // accidental exposure through search results
         }
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem());
+        IdeaModel idea = updateIdeaItem(updateItemSpec);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         if (searchEngine.isWriteElastic()) {
@@ -1667,32 +1987,23 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
         if (searchEngine.isWriteMysql()) {
-            List<CompletionStage<?>> completionStages = Lists.newArrayList();
-            if (!indexQueriesMysql.isEmpty()) {
-                indexQueriesMysql.stream()
-                        .map(Query::executeAsync)
-                        .forEach(completionStages::add);
-            }
             if (indexUpdatesMysql.changed()) {
-                CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
+                indexQueriesMysql.add(mysql.get().update(JooqIdea.IDEA)
                         .set(indexUpdatesMysql)
                         .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                                .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                        .executeAsync();
-                completionStages.add(completionStage);
+                                .and(JooqIdea.IDEA.POSTID.eq(ideaId))));
             }
+            CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(indexQueriesMysql);
             if (searchEngine.isReadMysql()) {
-                if (completionStages.isEmpty()) {
-                    indexingFuture.set(null);
-                } else {
-                    CompletionStageUtil.toSettableFuture(indexingFuture, completionStages);
-                }
+                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
             } else {
-                CompletionStageUtil.logFailure(completionStages);
+                CompletionStageUtil.logFailure(completionStage);
             }
         }
 
-        return new IdeaAndIndexingFuture(idea, indexingFuture);
+        liveUpdateService.ideaChanged(idea);
+
+        return new IdeaAndIndexingFuture(idea, invalidateResponseCache(projectId, indexingFuture));
     }
 
     @Override
@@ -1724,15 +2035,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         String updateExpression = "SET " + String.join(", ", setUpdates);
         log.trace("VoteIdea expression: {}", updateExpression);
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(nameMap)
-                        .withValueMap(valMap)
-                        .withUpdateExpression(updateExpression))
-                .getItem());
+        IdeaModel idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withReturnValues(ReturnValue.ALL_NEW)
+                .withNameMap(nameMap)
+                .withValueMap(valMap)
+                .withUpdateExpression(updateExpression));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userVoteUpdateBloom(projectId, userId, ideaId);
@@ -1742,13 +2052,15 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
         Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
         if (voteDiff != 0) {
-            updateTrend = true;
+            updateTrend = !trendScoreAggregator.add(projectId, ideaId);
             indexUpdatesElastic.put("voteValue", orNull(idea.getVoteValue()));
             indexUpdatesMysql.put(JooqIdea.IDEA.VOTEVALUE, idea.getVoteValue());
-            indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                    idea.getTrendScore(),
-                    EXP_DECAY_PERIOD_MILLIS,
-                    System.currentTimeMillis()));
+            if (updateTrend) {
+                indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                        idea.getTrendScore(),
+                        EXP_DECAY_PERIOD_MILLIS,
+                        System.currentTimeMillis()));
+            }
         }
         if (votersCountDiff != 0) {
             indexUpdatesElastic.put("votersCount", orNull(idea.getVotersCount()));
@@ -1759,16 +2071,8 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             if (!indexUpdatesElastic.isEmpty() || updateTrend) {
-                UpdateRequest updateRequest = new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
-                if (updateTrend) {
-                    updateRequest.script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                            "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                            "timeInMillis", System.currentTimeMillis(),
-                            "extraUpdates", indexUpdatesElastic)));
-                } else {
-                    updateRequest.doc(gson.toJson(indexUpdatesElastic), XContentType.JSON);
-                }
-                elastic.get().updateAsync(updateRequest.setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                elastic.get().updateAsync(ideaTrendUpdateRequest(projectId, idea.getIdeaId(), updateTrend, indexUpdatesElastic)
+                                .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                         RequestOptions.DEFAULT,
                         searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                                 : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
@@ -1793,7 +2097,25 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        return new IdeaAndIndexingFuture(idea, indexingFuture);
+        liveUpdateService.ideaChanged(idea);
+
+        return new IdeaAndIndexingFuture(idea, invalidateResponseCache(projectId, indexingFuture));
+    }
+
+    /**
+     * Updates given fields and, unless the event was handed off to {@link IdeaTrendScoreAggregator}, the trend score.
+     */
+    private UpdateRequest ideaTrendUpdateRequest(String projectId, String ideaId, boolean updateTrend, Map<String, Object> indexUpdates) {
+        UpdateRequest updateRequest = new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId);
+        if (updateTrend) {
+            updateRequest.script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
+                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
+                    "timeInMillis", System.currentTimeMillis(),
+                    "extraUpdates", indexUpdates)));
+        } else {
+            updateRequest.doc(gson.toJson(indexUpdates), XContentType.JSON);
+        }
+        return updateRequest;
     }
 
     @Override
@@ -1841,40 +2163,38 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         String updateExpression = "SET " + String.join(", ", setUpdates);
         log.trace("ExpressIdeaSet expression: {}", updateExpression);
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(nameMap)
-                        .withValueMap(valMap)
-                        .withUpdateExpression(updateExpression))
-                .getItem());
+        IdeaModel idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withReturnValues(ReturnValue.ALL_NEW)
+                .withNameMap(nameMap)
+                .withValueMap(valMap)
+                .withUpdateExpression(updateExpression));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
+        boolean updateTrend = !trendScoreAggregator.add(projectId, ideaId);
         Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
         Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
         indexUpdatesElastic.put("expressions", idea.getExpressions().keySet());
         if (expressionsValueDiff != 0d) {
             indexUpdatesElastic.put("expressionsValue", idea.getExpressionsValue());
             indexUpdatesMysql.put(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue());
-            indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                    idea.getTrendScore(),
-                    EXP_DECAY_PERIOD_MILLIS,
-                    System.currentTimeMillis()));
+            if (updateTrend) {
+                indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                        idea.getTrendScore(),
+                        EXP_DECAY_PERIOD_MILLIS,
+                        System.currentTimeMillis()));
+            }
         }
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                                    "timeInMillis", System.currentTimeMillis(),
-                                    "extraUpdates", indexUpdatesElastic)))
+            elastic.get().updateAsync(ideaTrendUpdateRequest(projectId, idea.getIdeaId(), updateTrend, indexUpdatesElastic)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
@@ -1897,7 +2217,9 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        return new IdeaAndExpressionsAndIndexingFuture(expressions, idea, indexingFuture);
+        liveUpdateService.ideaChanged(idea);
+
+        return new IdeaAndExpressionsAndIndexingFuture(expressions, idea, invalidateResponseCache(projectId, indexingFuture));
     }
 
     @Override
@@ -1909,43 +2231,43 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
 
         double expressionValueDiff = expressionToWeightMapper.apply(expression);
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(Map.of("#exprAdd", expression))
-                        .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
-                        .withUpdateExpression("SET expressions.#exprAdd = if_not_exists(expressions.#exprAdd, :zero) + :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
-                .getItem());
+        IdeaModel idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withReturnValues(ReturnValue.ALL_NEW)
+                .withNameMap(Map.of("#exprAdd", expression))
+                .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
+                .withUpdateExpression("SET expressions.#exprAdd = if_not_exists(expressions.#exprAdd, :zero) + :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
+        boolean updateTrend = !trendScoreAggregator.add(projectId, ideaId);
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             Map<String, Object> indexUpdates = Maps.newHashMap();
             indexUpdates.put("expressions", idea.getExpressions().keySet());
             indexUpdates.put("expressionsValue", idea.getExpressionsValue());
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                                    "timeInMillis", System.currentTimeMillis(),
-                                    "extraUpdates", indexUpdates)))
+            elastic.get().updateAsync(ideaTrendUpdateRequest(projectId, idea.getIdeaId(), updateTrend, indexUpdates)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
         }
         if (searchEngine.isWriteMysql()) {
+            Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
+            indexUpdatesMysql.put(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue());
+            if (updateTrend) {
+                indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                        idea.getTrendScore(),
+                        EXP_DECAY_PERIOD_MILLIS,
+                        System.currentTimeMillis()));
+            }
             CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
-                    .set(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue())
-                    .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                            idea.getTrendScore(),
-                            EXP_DECAY_PERIOD_MILLIS,
-                            System.currentTimeMillis()))
+                    .set(indexUpdatesMysql)
                     .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
                             .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
                     .executeAsync();
@@ -1956,12 +2278,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        liveUpdateService.ideaChanged(idea);
+
         return new IdeaAndExpressionsAndIndexingFuture(
                 ImmutableSet.<String>builder()
                         .addAll(expressionsPrev)
                         .add(expression)
                         .build(),
-                idea, indexingFuture);
+                idea, invalidateResponseCache(projectId, indexingFuture));
     }
 
     @Override
@@ -1973,43 +2297,43 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
 
         double expressionValueDiff = -expressionToWeightMapper.apply(expression);
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(Map.of("#exprRem", expression))
-                        .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
-                        .withUpdateExpression("SET expressions.#exprRem = if_not_exists(expressions.#exprRem, :zero) - :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
-                .getItem());
+        IdeaModel idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withReturnValues(ReturnValue.ALL_NEW)
+                .withNameMap(Map.of("#exprRem", expression))
+                .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
+                .withUpdateExpression("SET expressions.#exprRem = if_not_exists(expressions.#exprRem, :zero) - :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"));
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
+        boolean updateTrend = !trendScoreAggregator.add(projectId, ideaId);
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
         if (searchEngine.isWriteElastic()) {
             Map<String, Object> indexUpdates = Maps.newHashMap();
             indexUpdates.put("expressions", idea.getExpressions().keySet());
             indexUpdates.put("expressionsValue", idea.getExpressionsValue());
-            elastic.get().updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
-                            .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
-                                    "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
-                                    "timeInMillis", System.currentTimeMillis(),
-                                    "extraUpdates", indexUpdates)))
+            elastic.get().updateAsync(ideaTrendUpdateRequest(projectId, idea.getIdeaId(), updateTrend, indexUpdates)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                     RequestOptions.DEFAULT,
                     searchEngine.isReadElastic() ? ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId))
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
         }
         if (searchEngine.isWriteMysql()) {
+            Map<Object, Object> indexUpdatesMysql = Maps.newHashMap();
+            indexUpdatesMysql.put(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue());
+            if (updateTrend) {
+                indexUpdatesMysql.put(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                        idea.getTrendScore(),
+                        EXP_DECAY_PERIOD_MILLIS,
+                        System.currentTimeMillis()));
+            }
             CompletionStage<Integer> completionStage = mysql.get().update(JooqIdea.IDEA)
-                    .set(JooqIdea.IDEA.EXPRESSIONSVALUE, idea.getExpressionsValue())
-                    .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
-                            idea.getTrendScore(),
-                            EXP_DECAY_PERIOD_MILLIS,
-                            System.currentTimeMillis()))
+                    .set(indexUpdatesMysql)
                     .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
                             .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
                     .executeAsync();
@@ -2020,9 +2344,11 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
+        liveUpdateService.ideaChanged(idea);
+
         return new IdeaAndExpressionsAndIndexingFuture(
                 ImmutableSet.copyOf(Sets.difference(expressionsPrev, ImmutableSet.of(expression))),
-                idea, indexingFuture);
+                idea, invalidateResponseCache(projectId, indexingFuture));
     }
 
     @Override
@@ -2057,15 +2383,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         String updateExpression = "SET " + String.join(", ", setUpdates);
         log.trace("FundIdea expression: {}", updateExpression);
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(nameMap)
-                        .withValueMap(valMap)
-                        .withUpdateExpression(updateExpression))
-                .getItem());
+        IdeaModel idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withReturnValues(ReturnValue.ALL_NEW)
+                .withNameMap(nameMap)
+                .withValueMap(valMap)
+                .withUpdateExpression(updateExpression));
 
         Map<String, Object> indexUpdatesElastic = Maps.newHashMap();
         JooqIdeaRecord indexUpdatesMysql = JooqIdea.IDEA.newRecord();
@@ -2119,33 +2444,29 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                             : ActionListeners.onFailureRetry(() -> indexIdea(projectId, ideaId)));
         }
         if (searchEngine.isWriteMysql()) {
-            List<CompletionStage<?>> completionStages = Lists.newArrayList();
-            completionStages.add(mysql.get().update(JooqIdea.IDEA)
+            indexQueriesMysql.add(0, mysql.get().update(JooqIdea.IDEA)
                     .set(indexUpdatesMysql)
                     .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
                             idea.getTrendScore(),
                             EXP_DECAY_PERIOD_MILLIS,
                             System.currentTimeMillis()))
                     .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
-                            .and(JooqIdea.IDEA.POSTID.eq(ideaId)))
-                    .executeAsync());
-            if (!indexQueriesMysql.isEmpty()) {
-                indexQueriesMysql.stream()
-                        .map(Query::executeAsync)
-                        .forEach(completionStages::add);
-            }
+                            .and(JooqIdea.IDEA.POSTID.eq(ideaId))));
+            CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(indexQueriesMysql);
             if (searchEngine.isReadMysql()) {
-                CompletionStageUtil.toSettableFuture(indexingFuture, completionStages);
+                CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
             } else {
-                CompletionStageUtil.logFailure(completionStages);
+                CompletionStageUtil.logFailure(completionStage);
             }
         }
 
+        liveUpdateService.ideaChanged(idea);
+
         return new IdeaTransactionAndIndexingFuture(
                 resultingFundAmount,
                 idea,
                 transactionAndFundPrevious.getTransaction(),
-                indexingFuture);
+                invalidateResponseCache(projectId, indexingFuture));
     }
 
     @Extern
@@ -2156,13 +2477,12 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         if (incrementChildCount) {
             attrUpdates.add(new AttributeUpdate("childCommentCount").addNumeric(1));
         }
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withAttributeUpdate(attrUpdates.build()))
-                .getItem());
+        IdeaModel idea = updateIdeaItem(new UpdateItemSpec()
+                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .withReturnValues(ReturnValue.ALL_NEW)
+                .withAttributeUpdate(attrUpdates.build()));
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -2193,7 +2513,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        return new IdeaAndIndexingFuture(idea, indexingFuture);
+        return new IdeaAndIndexingFuture(idea, invalidateResponseCache(projectId, indexingFuture));
     }
 
     @Extern
@@ -2207,6 +2527,9 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         Expression expression = expressionBuilder.build();
         log.trace("delete idea expression {}", expression);
 
+        // Merged posts are not part of histograms
+        Optional<IdeaModel> ideaCountedOpt = getIdea(projectId, ideaId)
+                .filter(idea -> Strings.isNullOrEmpty(idea.getMergedToPostId()));
         try {
             ideaSchema.table().deleteItem(new DeleteItemSpec()
                     .withPrimaryKey(ideaSchema.primaryKey(Map.of(
@@ -2214,9 +2537,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                             "ideaId", ideaId)))
                     .withConditionExpression(expression.conditionExpression().orElse(null))
                     .withNameMap(expression.nameMap().orElse(null)));
+            counterStore.update(projectId, CounterType.POSTS, -1L);
+            ideaCountedOpt.ifPresent(idea -> histogramRollupStore.update(projectId, RollupType.POSTS, ImmutableMap.of(
+                    RollupKey.of(idea.getCategoryId(), idea.getCreated()), -1L)));
         } catch (ConditionalCheckFailedException ex) {
             // Already deleted
         }
+        ideaCache.invalidate(projectId, ideaId);
+        liveUpdateService.ideaDeleted(projectId, ideaId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -2239,17 +2567,28 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        return indexingFuture;
+        return invalidateResponseCache(projectId, indexingFuture);
     }
 
     @Override
     public ListenableFuture<Void> deleteIdeas(String projectId, ImmutableCollection<String> ideaIds) {
-        singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(ideaSchema.tableName())
-                .withPrimaryKeysToDelete(ideaIds.stream()
-                        .map(ideaId -> ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .toArray(PrimaryKey[]::new))));
+        ImmutableMap<String, IdeaModel> ideasToDelete = getIdeas(projectId, ImmutableSet.copyOf(ideaIds));
+        Iterables.partition(ideasToDelete.keySet(), DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(ideaIdsBatch ->
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(ideaSchema.tableName())
+                        .withPrimaryKeysToDelete(ideaIdsBatch.stream()
+                                .map(ideaId -> ideaSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "ideaId", ideaId)))
+                                .toArray(PrimaryKey[]::new)))));
+        // Only ideas found are counted
+        counterStore.update(projectId, CounterType.POSTS, -ideasToDelete.size());
+        histogramRollupStore.update(projectId, RollupType.POSTS, ideasToDelete.values().stream()
+                .filter(idea -> Strings.isNullOrEmpty(idea.getMergedToPostId()))
+                .collect(Collectors.groupingBy(
+                        idea -> RollupKey.of(idea.getCategoryId(), idea.getCreated()),
+                        Collectors.summingLong(idea -> -1L))));
+        ideaCache.invalidateAll(projectId, ideaIds);
+        ideaIds.forEach(ideaId -> liveUpdateService.ideaDeleted(projectId, ideaId));
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -2275,12 +2614,14 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
             }
         }
 
-        return indexingFuture;
+        return invalidateResponseCache(projectId, indexingFuture);
     }
 
     @Extern
     @Override
     public ListenableFuture<Void> deleteAllForProject(String projectId) {
+        ideaCache.invalidateProject(projectId);
+
         // Delete ideas
         Iterables.partition(StreamSupport.stream(ideaByProjectIdSchema.index().query(new QuerySpec()
                                         .withHashKey(ideaByProjectIdSchema.partitionKey(Map.of(
@@ -2331,7 +2672,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
     }
 
     private void indexIdea(SettableFuture<Void> indexingFuture, String projectId, String ideaId) {
-        Optional<IdeaModel> ideaOpt = getIdea(projectId, ideaId);
+        Optional<IdeaModel> ideaOpt = getIdea(projectId, ideaId, false);
         if (!ideaOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
@@ -2371,7 +2712,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                             : ActionListeners.logFailure());
         }
         if (searchEngine.isWriteMysql()) {
-            CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(ideaToMysqlRecords(idea));
+            CompletionStage<Integer> completionStage = mysqlUtil.sequentialBatch(ideasToMysqlQueries(ImmutableList.of(idea)));
             if (searchEngine.isReadMysql()) {
                 CompletionStageUtil.toSettableFuture(indexingFuture, completionStage);
             } else {
@@ -2380,6 +2721,12 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         }
     }
 
+    private IdeaModel updateIdeaItem(UpdateItemSpec updateItemSpec) {
+        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem());
+        ideaCache.put(idea.getProjectId(), idea.getIdeaId(), idea);
+        return idea;
+    }
+
     private IdeaModel upgradeExpressionsProperty(IdeaModel post) {
         if (post.getExpressions() != null) {
             return post;
@@ -2388,22 +2735,31 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
         log.info("Updating post {} in project {} with missing expressions property",
                 post.getIdeaId(), post.getProjectId());
         try {
-            return ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                            .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                    "projectId", post.getProjectId(),
-                                    "ideaId", post.getIdeaId())))
-                            .withReturnValues(ReturnValue.ALL_NEW)
-                            .withNameMap(ImmutableMap.of("#expressions", "expressions"))
-                            .withValueMap(ImmutableMap.of(":expressions", ideaSchema.toDynamoValue("expressions", ImmutableMap.of())))
-                            .withConditionExpression("attribute_not_exists(#expressions)")
-                            .withUpdateExpression("SET #expressions = :expressions"))
-                    .getItem());
+            return updateIdeaItem(new UpdateItemSpec()
+                    .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                            "projectId", post.getProjectId(),
+                            "ideaId", post.getIdeaId())))
+                    .withReturnValues(ReturnValue.ALL_NEW)
+                    .withNameMap(ImmutableMap.of("#expressions", "expressions"))
+                    .withValueMap(ImmutableMap.of(":expressions", ideaSchema.toDynamoValue("expressions", ImmutableMap.of())))
+                    .withConditionExpression("attribute_not_exists(#expressions)")
+                    .withUpdateExpression("SET #expressions = :expressions"));
         } catch (ConditionalCheckFailedException ex) {
             // Nothing to do, already fixed
             return post;
         }
     }
 
+    /**
+     * Drops cached responses of the project right away and again once the change is searchable, as searches read
+     * from the index.
+     */
+    private <T> ListenableFuture<T> invalidateResponseCache(String projectId, ListenableFuture<T> indexingFuture) {
+        responseCache.invalidateProject(projectId);
+        indexingFuture.addListener(() -> responseCache.invalidateProject(projectId), MoreExecutors.directExecutor());
+        return indexingFuture;
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -2411,6 +2767,7 @@ public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore
                 bind(IdeaStore.class).to(DynamoElasticIdeaStore.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
                 install(ConfigSystem.configModule(ConfigSearch.class, Names.named("idea")));
+                install(IdeaTrendScoreAggregator.module());
                 Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(DynamoElasticIdeaStore.class).asEagerSingleton();
             }
         };
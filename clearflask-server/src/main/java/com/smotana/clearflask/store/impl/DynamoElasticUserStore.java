@@ -33,9 +33,16 @@ import com.kik.config.ice.convert.MoreConfigValueConverters;
 import com.smotana.clearflask.api.model.*;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.CounterStore;
+import com.smotana.clearflask.store.CounterStore.CounterType;
+import com.smotana.clearflask.store.HistogramRollupStore;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupKey;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupType;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.SearchEngineRouter;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.dynamo.DynamoItemCache;
 import com.smotana.clearflask.store.elastic.ActionListeners;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.mysql.CompletionStageUtil;
@@ -57,6 +64,7 @@ import io.dataspray.singletable.TableSchema;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.impl.compression.GzipCompressionCodec;
 import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.NonNull;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -167,6 +175,21 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
         @DefaultValue("true")
         boolean enableHistograms();
+
+        @DefaultValue("true")
+        boolean enableItemCache();
+
+        /**
+         * Bounds how long changes made on other nodes take to be seen.
+         */
+        @DefaultValue("PT10S")
+        Duration itemCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long itemCacheMaxProjects();
+
+        @DefaultValue("2000")
+        long itemCacheMaxItemsPerProject();
     }
 
     private static final String USER_INDEX = "user";
@@ -200,6 +223,14 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private Provider<DSLContext> mysql;
     @Inject
     private MysqlUtil mysqlUtil;
+    @Inject
+    private SearchEngineRouter searchEngineRouter;
+    @Inject
+    private CounterStore counterStore;
+    @Inject
+    private HistogramRollupStore histogramRollupStore;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private TableSchema<UserModel> userSchema;
     private IndexSchema<UserModel> userByProjectIdSchema;
@@ -209,9 +240,16 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private IndexSchema<UserSession> sessionByUserSchema;
     private TableSchema<UserCounter> userCounterSchema;
     private CloseableHttpClient client;
+    private DynamoItemCache<UserModel> userCache;
 
     @Inject
     private void setup() {
+        userCache = new DynamoItemCache<>("user",
+                config::enableItemCache,
+                config.itemCacheExpireAfterWrite(),
+                config.itemCacheMaxProjects(),
+                config.itemCacheMaxItemsPerProject(),
+                meterRegistry);
         userSchema = singleTable.parseTableSchema(UserModel.class);
         userByProjectIdSchema = singleTable.parseGlobalSecondaryIndexSchema(2, UserModel.class);
         identifierToUserIdSchema = singleTable.parseTableSchema(IdentifierUser.class);
@@ -386,6 +424,9 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             }
             throw ex;
         }
+        histogramRollupStore.update(user.getProjectId(), RollupType.USERS, ImmutableMap.of(
+                RollupKey.of(null, user.getCreated()), 1L));
+        userCache.put(user.getProjectId(), user.getUserId(), user);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         indexUser(indexingFuture, user);
@@ -399,11 +440,30 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Extern
     @Override
     public Optional<UserModel> getUser(String projectId, String userId) {
-        return getUser(projectId, userId, false)
-                .or(() -> getUser(projectId, userId, true));
+        return getUser(projectId, userId, true);
+    }
+
+    @Override
+    public Optional<UserModel> getUser(String projectId, String userId, boolean useCache) {
+        if (useCache) {
+            if (config.enableItemCache()) {
+                Optional<UserModel> userCachedOpt = userCache.get(projectId, userId);
+                if (userCachedOpt.isPresent()) {
+                    return userCachedOpt;
+                }
+            }
+            Optional<UserModel> userOpt = fetchUser(projectId, userId, false);
+            userOpt.ifPresent(user -> userCache.putIfAbsent(projectId, userId, user));
+            if (userOpt.isPresent()) {
+                return userOpt;
+            }
+        }
+        Optional<UserModel> userOpt = fetchUser(projectId, userId, true);
+        userOpt.ifPresent(user -> userCache.put(projectId, userId, user));
+        return userOpt;
     }
 
-    private Optional<UserModel> getUser(String projectId, String userId, boolean consistentRead) {
+    private Optional<UserModel> fetchUser(String projectId, String userId, boolean consistentRead) {
         return Optional.ofNullable(userSchema.fromItem(userSchema.table().getItem(new GetItemSpec()
                 .withPrimaryKey(userSchema.primaryKey(Map.of(
                         "projectId", projectId,
@@ -413,18 +473,45 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Override
     public ImmutableMap<String, UserModel> getUsers(String projectId, ImmutableCollection<String> userIds) {
+        return getUsers(projectId, userIds, true);
+    }
+
+    @Override
+    public ImmutableMap<String, UserModel> getUsers(String projectId, ImmutableCollection<String> userIds, boolean useCache) {
         if (userIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(userSchema.tableName()).withPrimaryKeys(userIds.stream()
-                        .map(userId -> userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .toArray(PrimaryKey[]::new))))
+        ImmutableSet<String> userIdsDistinct = ImmutableSet.copyOf(userIds);
+        ImmutableMap<String, UserModel> usersCached = config.enableItemCache() && useCache
+                ? userCache.getAll(projectId, userIdsDistinct)
+                : ImmutableMap.of();
+        if (usersCached.size() == userIdsDistinct.size()) {
+            return usersCached;
+        }
+        ImmutableMap<String, UserModel> usersFetched = singleTable.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(userSchema.tableName())
+                        .withConsistentRead(!useCache)
+                        .withPrimaryKeys(userIdsDistinct.stream()
+                                .filter(userId -> !usersCached.containsKey(userId))
+                                .map(userId -> userSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "userId", userId)))
+                                .toArray(PrimaryKey[]::new))))
                 .map(userSchema::fromItem)
                 .collect(ImmutableMap.toImmutableMap(
                         UserModel::getUserId,
                         i -> i));
+        if (useCache) {
+            userCache.putAllIfAbsent(projectId, usersFetched);
+        } else {
+            usersFetched.forEach((userId, user) -> userCache.put(projectId, userId, user));
+        }
+        if (usersCached.isEmpty()) {
+            return usersFetched;
+        }
+        return ImmutableMap.<String, UserModel>builder()
+                .putAll(usersCached)
+                .putAll(usersFetched)
+                .build();
     }
 
     @Override
@@ -444,6 +531,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             return new HistogramResponse(ImmutableList.of(), new Hits(0L, null));
         }
 
+        Optional<HistogramResponse> histogramOpt = histogramRollupStore.histogram(
+                projectId,
+                RollupType.USERS,
+                ImmutableSet.of(),
+                Optional.ofNullable(searchAdmin.getFilterCreatedStart()),
+                Optional.ofNullable(searchAdmin.getFilterCreatedEnd()),
+                Optional.ofNullable(searchAdmin.getInterval()));
+        if (histogramOpt.isPresent()) {
+            return histogramOpt.get();
+        }
+
         if (projectStore.getSearchEngineForProject(projectId).isReadElastic()) {
             return elasticUtil.histogram(
                     elasticUtil.getIndexName(USER_INDEX, projectId),
@@ -466,141 +564,152 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Override
     public SearchUsersResponse searchUsers(String projectId, UserSearchAdmin userSearchAdmin, boolean useAccurateCursor, Optional<String> cursorOpt, Optional<Integer> pageSizeOpt) {
-        if (projectStore.getSearchEngineForProject(projectId).isReadElastic()) {
-            Optional<SortOrder> sortOrderOpt;
-            if (userSearchAdmin.getSortOrder() != null) {
-                switch (userSearchAdmin.getSortOrder()) {
-                    case ASC:
-                        sortOrderOpt = Optional.of(SortOrder.ASC);
-                        break;
-                    case DESC:
-                        sortOrderOpt = Optional.of(SortOrder.DESC);
-                        break;
-                    default:
-                        throw new ApiException(Response.Status.BAD_REQUEST,
-                                "Sort order '" + userSearchAdmin.getSortOrder() + "' not supported");
-                }
-            } else {
-                sortOrderOpt = Optional.empty();
-            }
-
-            ImmutableList<String> sortFields;
-            if (userSearchAdmin.getSortBy() != null) {
-                switch (userSearchAdmin.getSortBy()) {
-                    case CREATED:
-                        sortFields = ImmutableList.of("created");
-                        break;
-                    case FUNDSAVAILABLE:
-                        sortFields = ImmutableList.of("balance");
-                        break;
-                    case FUNDEDIDEAS:
-                    case SUPPORTEDIDEAS:
-                    case FUNDEDAMOUNT:
-                    case LASTACTIVE:
-                    default:
-                        throw new ApiException(Response.Status.BAD_REQUEST,
-                                "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
-                }
-            } else {
-                sortFields = ImmutableList.of();
-            }
+        return searchEngineRouter.read(
+                projectId,
+                cursorOpt,
+                !useAccurateCursor,
+                engineCursorOpt -> searchUsersElastic(projectId, userSearchAdmin, useAccurateCursor, engineCursorOpt, pageSizeOpt),
+                engineCursorOpt -> searchUsersMysql(projectId, userSearchAdmin, engineCursorOpt, pageSizeOpt),
+                SearchUsersResponse::getCursorOpt,
+                SearchUsersResponse::withCursorOpt);
+    }
 
-            BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
-            if (userSearchAdmin.getIsMod() != null) {
-                queryBuilder.must(QueryBuilders.termQuery("isMod", userSearchAdmin.getIsMod().booleanValue()));
+    private SearchUsersResponse searchUsersElastic(String projectId, UserSearchAdmin userSearchAdmin, boolean useAccurateCursor, Optional<String> cursorOpt, Optional<Integer> pageSizeOpt) {
+        Optional<SortOrder> sortOrderOpt;
+        if (userSearchAdmin.getSortOrder() != null) {
+            switch (userSearchAdmin.getSortOrder()) {
+                case ASC:
+                    sortOrderOpt = Optional.of(SortOrder.ASC);
+                    break;
+                case DESC:
+                    sortOrderOpt = Optional.of(SortOrder.DESC);
+                    break;
+                default:
+                    throw new ApiException(Response.Status.BAD_REQUEST,
+                            "Sort order '" + userSearchAdmin.getSortOrder() + "' not supported");
             }
-            if (!Strings.isNullOrEmpty(userSearchAdmin.getSearchText())) {
-                queryBuilder.must(QueryBuilders.multiMatchQuery(userSearchAdmin.getSearchText(), "name", "email")
-                        .fuzziness("AUTO").zeroTermsQuery(ZeroTermsQueryOption.ALL));
-            }
-            log.trace("User search query: {}", queryBuilder);
-            ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
-                    new SearchRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
-                            .source(new SearchSourceBuilder()
-                                    .fetchSource(false)
-                                    .query(queryBuilder)),
-                    cursorOpt, sortFields, sortOrderOpt, useAccurateCursor, pageSizeOpt, configSearch, ImmutableSet.of());
-
-            SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
-            if (hits.length == 0) {
-                return new SearchUsersResponse(
-                        ImmutableList.of(),
-                        Optional.empty(),
-                        0L,
-                        false);
+        } else {
+            sortOrderOpt = Optional.empty();
+        }
+
+        ImmutableList<String> sortFields;
+        if (userSearchAdmin.getSortBy() != null) {
+            switch (userSearchAdmin.getSortBy()) {
+                case CREATED:
+                    sortFields = ImmutableList.of("created");
+                    break;
+                case FUNDSAVAILABLE:
+                    sortFields = ImmutableList.of("balance");
+                    break;
+                case FUNDEDIDEAS:
+                case SUPPORTEDIDEAS:
+                case FUNDEDAMOUNT:
+                case LASTACTIVE:
+                default:
+                    throw new ApiException(Response.Status.BAD_REQUEST,
+                            "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
             }
+        } else {
+            sortFields = ImmutableList.of();
+        }
 
-            ImmutableList<String> userIds = Arrays.stream(hits)
-                    .map(SearchHit::getId)
-                    .collect(ImmutableList.toImmutableList());
+        BoolQueryBuilder queryBuilder = QueryBuilders.boolQuery();
+        if (userSearchAdmin.getIsMod() != null) {
+            queryBuilder.must(QueryBuilders.termQuery("isMod", userSearchAdmin.getIsMod().booleanValue()));
+        }
+        if (!Strings.isNullOrEmpty(userSearchAdmin.getSearchText())) {
+            queryBuilder.must(QueryBuilders.multiMatchQuery(userSearchAdmin.getSearchText(), "name", "email")
+                    .fuzziness("AUTO").zeroTermsQuery(ZeroTermsQueryOption.ALL));
+        }
+        log.trace("User search query: {}", queryBuilder);
+        ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
+                new SearchRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
+                        .source(new SearchSourceBuilder()
+                                .fetchSource(false)
+                                .query(queryBuilder)),
+                cursorOpt, sortFields, sortOrderOpt, useAccurateCursor, pageSizeOpt, configSearch, ImmutableSet.of());
 
+        SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
+        if (hits.length == 0) {
             return new SearchUsersResponse(
-                    userIds,
-                    searchResponseWithCursor.getCursorOpt(),
-                    searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().value,
-                    searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
-        } else {
-            org.jooq.SortOrder sortOrder;
-            if (userSearchAdmin.getSortOrder() != null) {
-                switch (userSearchAdmin.getSortOrder()) {
-                    case ASC:
-                        sortOrder = org.jooq.SortOrder.ASC;
-                        break;
-                    case DESC:
-                        sortOrder = org.jooq.SortOrder.DESC;
-                        break;
-                    default:
-                        throw new ApiException(Response.Status.BAD_REQUEST,
-                                "Sort order '" + userSearchAdmin.getSortOrder() + "' not supported");
-                }
-            } else {
-                sortOrder = org.jooq.SortOrder.DEFAULT;
-            }
+                    ImmutableList.of(),
+                    Optional.empty(),
+                    0L,
+                    false);
+        }
 
-            ImmutableList<SortField<?>> sortFields;
-            if (userSearchAdmin.getSortBy() != null) {
-                switch (userSearchAdmin.getSortBy()) {
-                    case CREATED:
-                        sortFields = ImmutableList.of(JooqUser.USER.CREATED.sort(sortOrder));
-                        break;
-                    case FUNDSAVAILABLE:
-                        sortFields = ImmutableList.of(JooqUser.USER.BALANCE.sort(sortOrder));
-                        break;
-                    case FUNDEDIDEAS:
-                    case SUPPORTEDIDEAS:
-                    case FUNDEDAMOUNT:
-                    case LASTACTIVE:
-                    default:
-                        throw new ApiException(Response.Status.BAD_REQUEST,
-                                "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
-                }
-            } else {
-                sortFields = ImmutableList.of();
-            }
+        ImmutableList<String> userIds = Arrays.stream(hits)
+                .map(SearchHit::getId)
+                .collect(ImmutableList.toImmutableList());
 
-            Condition conditions = JooqUser.USER.PROJECTID.eq(projectId);
-            if (userSearchAdmin.getIsMod() != null) {
-                conditions = conditions.and(JooqUser.USER.ISMOD.eq(userSearchAdmin.getIsMod()));
+        return new SearchUsersResponse(
+                userIds,
+                searchResponseWithCursor.getCursorOpt(),
+                searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().value,
+                searchResponseWithCursor.getSearchResponse().getHits().getTotalHits().relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
+    }
+
+    private SearchUsersResponse searchUsersMysql(String projectId, UserSearchAdmin userSearchAdmin, Optional<String> cursorOpt, Optional<Integer> pageSizeOpt) {
+        org.jooq.SortOrder sortOrder;
+        if (userSearchAdmin.getSortOrder() != null) {
+            switch (userSearchAdmin.getSortOrder()) {
+                case ASC:
+                    sortOrder = org.jooq.SortOrder.ASC;
+                    break;
+                case DESC:
+                    sortOrder = org.jooq.SortOrder.DESC;
+                    break;
+                default:
+                    throw new ApiException(Response.Status.BAD_REQUEST,
+                            "Sort order '" + userSearchAdmin.getSortOrder() + "' not supported");
             }
-            if (!Strings.isNullOrEmpty(userSearchAdmin.getSearchText())) {
-                conditions = conditions.and(JooqUser.USER.NAME.like("%" + userSearchAdmin.getSearchText() + "%")
-                        .or(JooqUser.USER.EMAIL.like("%" + userSearchAdmin.getSearchText() + "%")));
+        } else {
+            sortOrder = org.jooq.SortOrder.DEFAULT;
+        }
+
+        ImmutableList<SortField<?>> sortFields;
+        if (userSearchAdmin.getSortBy() != null) {
+            switch (userSearchAdmin.getSortBy()) {
+                case CREATED:
+                    sortFields = ImmutableList.of(JooqUser.USER.CREATED.sort(sortOrder));
+                    break;
+                case FUNDSAVAILABLE:
+                    sortFields = ImmutableList.of(JooqUser.USER.BALANCE.sort(sortOrder));
+                    break;
+                case FUNDEDIDEAS:
+                case SUPPORTEDIDEAS:
+                case FUNDEDAMOUNT:
+                case LASTACTIVE:
+                default:
+                    throw new ApiException(Response.Status.BAD_REQUEST,
+                            "Sorting by '" + userSearchAdmin.getSortBy() + "' not supported");
             }
+        } else {
+            sortFields = ImmutableList.of();
+        }
 
-            List<String> userIds = mysql.get().select(JooqUser.USER.USERID)
-                    .from(JooqUser.USER)
-                    .where(conditions)
-                    .orderBy(sortFields)
-                    .offset(mysqlUtil.offset(cursorOpt))
-                    .limit(mysqlUtil.pageSizeMax(configSearch, pageSizeOpt))
-                    .fetch(JooqUser.USER.USERID);
-
-            return new SearchUsersResponse(
-                    ImmutableList.copyOf(userIds),
-                    mysqlUtil.nextCursor(configSearch, cursorOpt, pageSizeOpt, userIds.size()),
-                    userIds.size(),
-                    true);
+        Condition conditions = JooqUser.USER.PROJECTID.eq(projectId);
+        if (userSearchAdmin.getIsMod() != null) {
+            conditions = conditions.and(JooqUser.USER.ISMOD.eq(userSearchAdmin.getIsMod()));
+        }
+        if (!Strings.isNullOrEmpty(userSearchAdmin.getSearchText())) {
+            conditions = conditions.and(JooqUser.USER.NAME.like("%" + userSearchAdmin.getSearchText() + "%")
+                    .or(JooqUser.USER.EMAIL.like("%" + userSearchAdmin.getSearchText() + "%")));
         }
+
+        List<String> userIds = mysql.get().select(JooqUser.USER.USERID)
+                .from(JooqUser.USER)
+                .where(conditions)
+                .orderBy(sortFields)
+                .offset(mysqlUtil.offset(cursorOpt))
+                .limit(mysqlUtil.pageSizeMax(configSearch, pageSizeOpt))
+                .fetch(JooqUser.USER.USERID);
+
+        return new SearchUsersResponse(
+                ImmutableList.copyOf(userIds),
+                mysqlUtil.nextCursor(configSearch, cursorOpt, pageSizeOpt, userIds.size()),
+                userIds.size(),
+                true);
     }
 
     @Override
@@ -647,16 +756,15 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
         UserModel userModel;
         try {
-            userModel = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                            .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                    "projectId", projectId,
-                                    "userId", userId)))
-                            .withUpdateExpression(updateExpression)
-                            .withConditionExpression(conditionExpression)
-                            .withNameMap(nameMap)
-                            .withValueMap(valMap)
-                            .withReturnValues(ReturnValue.ALL_NEW))
-                    .getItem());
+            userModel = updateUserItem(new UpdateItemSpec()
+                    .withPrimaryKey(userSchema.primaryKey(Map.of(
+                            "projectId", projectId,
+                            "userId", userId)))
+                    .withUpdateExpression(updateExpression)
+                    .withConditionExpression(conditionExpression)
+                    .withNameMap(nameMap)
+                    .withValueMap(valMap)
+                    .withReturnValues(ReturnValue.ALL_NEW));
         } catch (ConditionalCheckFailedException ex) {
             log.trace("User already tracked, projectId {} userId {}", projectId, userId, ex);
             return;
@@ -687,6 +795,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 .withUpdateExpression(userCounterUpdateExpression)
                 .withNameMap(userCounterNameMap)
                 .withValueMap(userCounterValueMap));
+        counterStore.update(projectId, CounterType.TRACKED_USERS, diff);
     }
 
     @Override
@@ -725,7 +834,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             String iosPushToken,
             String androidPushToken,
             String browserPushToken) {
-        UserModel user = getUser(projectId, userId).get();
+        UserModel user = getUser(projectId, userId, false).get();
         if (!Strings.isNullOrEmpty(updates.getPassword()) && !Strings.isNullOrEmpty(user.getSsoGuid())) {
             throw new ApiException(Response.Status.BAD_REQUEST, "Cannot change password when using Single Sign-On");
         }
@@ -918,6 +1027,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             }
             throw ex;
         }
+        userCache.invalidate(projectId, userId);
 
         SettableFuture<Void> indexingFuture = SettableFuture.create();
         SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
@@ -955,7 +1065,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Override
     public UserModel userVoteUpdateBloom(String projectId, String userId, String ideaId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
+        UserModel user = getUser(projectId, userId, false).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
         BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getVoteBloom())
                 .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
                 .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability()));
@@ -963,18 +1073,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (!bloomFilterUpdated) {
             return user;
         }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("voteBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return updateUserItem(new UpdateItemSpec()
+                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "userId", userId)))
+                .withAttributeUpdate(new AttributeUpdate("voteBloom").put(BloomFilters.toByteArray(bloomFilter)))
+                .withReturnValues(ReturnValue.ALL_NEW));
     }
 
     @Override
     public UserModel userCommentVoteUpdateBloom(String projectId, String userId, String commentId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
+        UserModel user = getUser(projectId, userId, false).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
         BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getCommentVoteBloom())
                 .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
                 .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability()));
@@ -982,18 +1091,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (!bloomFilterUpdated) {
             return user;
         }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("commentVoteBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return updateUserItem(new UpdateItemSpec()
+                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "userId", userId)))
+                .withAttributeUpdate(new AttributeUpdate("commentVoteBloom").put(BloomFilters.toByteArray(bloomFilter)))
+                .withReturnValues(ReturnValue.ALL_NEW));
     }
 
     @Override
     public UserModel userExpressUpdateBloom(String projectId, String userId, String ideaId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
+        UserModel user = getUser(projectId, userId, false).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
         BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getExpressBloom())
                 .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
                 .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability()));
@@ -1001,29 +1109,27 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (!bloomFilterUpdated) {
             return user;
         }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("expressBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return updateUserItem(new UpdateItemSpec()
+                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "userId", userId)))
+                .withAttributeUpdate(new AttributeUpdate("expressBloom").put(BloomFilters.toByteArray(bloomFilter)))
+                .withReturnValues(ReturnValue.ALL_NEW));
     }
 
     @Override
     public UserModel updateSubscription(String projectId, String userId, String categoryId, boolean subscribe) {
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withConditionExpression("attribute_exists(#partitionKey)")
-                        .withUpdateExpression((subscribe ? "ADD" : "DELETE") + " #subscribedCategoryIds :categoryId")
-                        .withNameMap(new NameMap()
-                                .with("#subscribedCategoryIds", "subscribedCategoryIds")
-                                .with("#partitionKey", userSchema.partitionKeyName()))
-                        .withValueMap(new ValueMap().withStringSet(":categoryId", categoryId))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return updateUserItem(new UpdateItemSpec()
+                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "userId", userId)))
+                .withConditionExpression("attribute_exists(#partitionKey)")
+                .withUpdateExpression((subscribe ? "ADD" : "DELETE") + " #subscribedCategoryIds :categoryId")
+                .withNameMap(new NameMap()
+                        .with("#subscribedCategoryIds", "subscribedCategoryIds")
+                        .with("#partitionKey", userSchema.partitionKeyName()))
+                .withValueMap(new ValueMap().withStringSet(":categoryId", categoryId))
+                .withReturnValues(ReturnValue.ALL_NEW));
     }
 
     @Override
@@ -1040,7 +1146,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         setUpdates.add("#balance = if_not_exists(#balance, :zero) + :balanceDiff");
 
         if (updateBloomWithIdeaIdOpt.isPresent()) {
-            UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
+            UserModel user = getUser(projectId, userId, false).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
             BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getFundBloom())
                     .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
                     .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability()));
@@ -1062,16 +1168,15 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         log.trace("updateUserBalance expression: {}", updateExpression);
         UserModel userModel;
         try {
-            userModel = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                            .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                    "projectId", projectId,
-                                    "userId", userId)))
-                            .withUpdateExpression(updateExpression)
-                            .withConditionExpression(conditionExpressionOpt.orElse(null))
-                            .withNameMap(nameMap)
-                            .withValueMap(valMap)
-                            .withReturnValues(ReturnValue.ALL_NEW))
-                    .getItem());
+            userModel = updateUserItem(new UpdateItemSpec()
+                    .withPrimaryKey(userSchema.primaryKey(Map.of(
+                            "projectId", projectId,
+                            "userId", userId)))
+                    .withUpdateExpression(updateExpression)
+                    .withConditionExpression(conditionExpressionOpt.orElse(null))
+                    .withNameMap(nameMap)
+                    .withValueMap(valMap)
+                    .withReturnValues(ReturnValue.ALL_NEW));
         } catch (ConditionalCheckFailedException ex) {
             if (LogUtil.rateLimitAllowLog("userStore-negativeBalanceWarn")) {
                 log.warn("Attempted to set balance below zero, projectId {} userId {} balanceDiff {} updateBloomWithIdeaIdOpt {}",
@@ -1111,15 +1216,20 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (userIds.isEmpty()) {
             return Futures.immediateFuture(null);
         }
-        ImmutableCollection<UserModel> users = getUsers(projectId, userIds).values();
+        ImmutableCollection<UserModel> users = getUsers(projectId, userIds, false).values();
         if (users.isEmpty()) {
             return Futures.immediateFuture(null);
         }
+        userCache.invalidateAll(projectId, userIds);
         singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(userSchema.tableName()).withPrimaryKeysToDelete(users.stream()
                 .map(userModel -> userSchema.primaryKey(Map.of(
                         "projectId", projectId,
                         "userId", userModel.getUserId())))
                 .toArray(PrimaryKey[]::new))));
+        histogramRollupStore.update(projectId, RollupType.USERS, users.stream()
+                .collect(Collectors.groupingBy(
+                        user -> RollupKey.of(null, user.getCreated()),
+                        Collectors.summingLong(user -> -1L))));
 
         PrimaryKey[] identifiersToDelete = users.stream()
                 .map(this::getUserIdentifiers)
@@ -1376,6 +1486,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                     }
                     throw ex;
                 }
+                userCache.invalidate(projectId, userOpt.get().getUserId());
             }
         }
         if (!userOpt.isPresent()) {
@@ -1529,6 +1640,8 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Extern
     @Override
     public ListenableFuture<Void> deleteAllForProject(String projectId) {
+        userCache.invalidateProject(projectId);
+
         // Delete users
         Iterables.partition(StreamSupport.stream(userByProjectIdSchema.index().query(new QuerySpec()
                                         .withHashKey(userByProjectIdSchema.partitionKey(Map.of(
@@ -1618,12 +1731,18 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         return indexingFuture;
     }
 
+    private UserModel updateUserItem(UpdateItemSpec updateItemSpec) {
+        UserModel user = userSchema.fromItem(userSchema.table().updateItem(updateItemSpec).getItem());
+        userCache.put(user.getProjectId(), user.getUserId(), user);
+        return user;
+    }
+
     private void indexUser(String projectId, String userId) {
         indexUser(SettableFuture.create(), projectId, userId);
     }
 
     private void indexUser(SettableFuture<Void> indexingFuture, String projectId, String userId) {
-        Optional<UserModel> userOpt = getUser(projectId, userId);
+        Optional<UserModel> userOpt = getUser(projectId, userId, false);
         if (!userOpt.isPresent()) {
             SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
             if (searchEngine.isWriteElastic()) {
@@ -0,0 +1,128 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.store.EmailOutboxStore;
+import com.smotana.clearflask.util.IdUtil;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
+@Slf4j
+@Singleton
+public class DynamoEmailOutboxStore implements EmailOutboxStore {
+
+    public interface Config {
+        @DefaultValue("8")
+        int shardCount();
+
+        /**
+         * Emails not claimed within this time are no longer worth sending.
+         */
+        @DefaultValue("P2D")
+        Duration expiry();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
+    private SingleTable singleTable;
+
+    private TableSchema<SpilledEmail> spilledEmailSchema;
+
+    @Inject
+    private void setup() {
+        spilledEmailSchema = singleTable.parseTableSchema(SpilledEmail.class);
+    }
+
+    @Override
+    public void spill(ImmutableList<Email> emails) {
+        long ttlInEpochSec = Instant.now().plus(config.expiry()).getEpochSecond();
+        Iterables.partition(emails, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(batch ->
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(spilledEmailSchema.tableName())
+                        .withItemsToPut(batch.stream()
+                                .map(email -> spilledEmailSchema.toItem(new SpilledEmail(
+                                        String.valueOf(ThreadLocalRandom.current().nextInt(config.shardCount())),
+                                        IdUtil.randomId(),
+                                        email.getToAddress(),
+                                        email.getSubject(),
+                                        email.getContentHtml(),
+                                        email.getContentText(),
+                                        email.getProjectOrAccountId(),
+                                        email.getTypeTag(),
+                                        ttlInEpochSec)))
+                                .collect(ImmutableList.toImmutableList())))));
+    }
+
+    @Override
+    public ImmutableList<Email> claim(int maxCount) {
+        ImmutableList.Builder<Email> claimedBuilder = ImmutableList.builder();
+        int claimedCount = 0;
+        int shardCount = config.shardCount();
+        int startShard = ThreadLocalRandom.current().nextInt(shardCount);
+        long nowInEpochSec = Instant.now().getEpochSecond();
+        for (int i = 0; i < shardCount && claimedCount < maxCount; i++) {
+            String shard = String.valueOf((startShard + i) % shardCount);
+            for (Item item : spilledEmailSchema.table().query(new QuerySpec()
+                    .withHashKey(spilledEmailSchema.partitionKey(Map.of(
+                            "shard", shard)))
+                    .withRangeKeyCondition(new RangeKeyCondition(spilledEmailSchema.rangeKeyName())
+                            .beginsWith(spilledEmailSchema.rangeValuePartial(Map.of())))
+                    .withMaxResultSize(maxCount - claimedCount))) {
+                SpilledEmail candidate = spilledEmailSchema.fromItem(item);
+                // Only the caller that deletes the item gets to send it
+                SpilledEmail spilledEmail = spilledEmailSchema.fromItem(spilledEmailSchema.table().deleteItem(new DeleteItemSpec()
+                                .withPrimaryKey(spilledEmailSchema.primaryKey(candidate))
+                                .withReturnValues(ReturnValue.ALL_OLD))
+                        .getItem());
+                if (spilledEmail == null || spilledEmail.getTtlInEpochSec() < nowInEpochSec) {
+                    continue;
+                }
+                claimedBuilder.add(new Email(
+                        spilledEmail.getToAddress(),
+                        spilledEmail.getSubject(),
+                        spilledEmail.getContentHtml(),
+                        spilledEmail.getContentText(),
+                        spilledEmail.getProjectOrAccountId(),
+                        spilledEmail.getTypeTag()));
+                claimedCount++;
+            }
+        }
+        return claimedBuilder.build();
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(EmailOutboxStore.class).to(DynamoEmailOutboxStore.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
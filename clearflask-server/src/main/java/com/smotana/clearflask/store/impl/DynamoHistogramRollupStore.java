@@ -0,0 +1,280 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.api.model.HistogramInterval;
+import com.smotana.clearflask.api.model.HistogramResponse;
+import com.smotana.clearflask.api.model.HistogramResponsePoints;
+import com.smotana.clearflask.api.model.Hits;
+import com.smotana.clearflask.store.HistogramRollupStore;
+import com.smotana.clearflask.util.Extern;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
+@Slf4j
+@Singleton
+public class DynamoHistogramRollupStore implements HistogramRollupStore {
+
+    public interface Config {
+        /**
+         * Rollups are always maintained, this only controls whether histograms are read from them.
+         */
+        @DefaultValue("true")
+        boolean enableRead();
+    }
+
+    private static final String ALL_CATEGORIES = "*";
+
+    @Inject
+    private Config config;
+    @Inject
+    private AmazonDynamoDB dynamo;
+    @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
+    private SingleTable singleTable;
+
+    private TableSchema<HistogramRollup> rollupSchema;
+    private TableSchema<HistogramRollupBackfilled> backfilledSchema;
+
+    @Inject
+    private void setup() {
+        rollupSchema = singleTable.parseTableSchema(HistogramRollup.class);
+        backfilledSchema = singleTable.parseTableSchema(HistogramRollupBackfilled.class);
+    }
+
+    @Extern
+    @Override
+    public void update(String projectId, RollupType type, Map<RollupKey, Long> diffs) {
+        // Each rollup is shared by all writes of the project on that day, updated individually rather than in a
+        // transaction as concurrent transactions on the same item would cancel each other
+        expand(diffs).forEach((key, diff) -> {
+            try {
+                dynamo.updateItem(updateItemRequest(projectId, type, key, diff));
+            } catch (AmazonServiceException ex) {
+                log.warn("Failed to update rollup, projectId {} type {} categoryId {} day {} diff {}",
+                        projectId, type, key.getCategoryId(), key.getDay(), diff, ex);
+            }
+        });
+    }
+
+    @Override
+    public Optional<HistogramResponse> histogram(String projectId, RollupType type, ImmutableSet<String> categoryIds, Optional<LocalDate> startOpt, Optional<LocalDate> endOpt, Optional<HistogramInterval> intervalOpt) {
+        if (!config.enableRead() || !isBackfilled(projectId, type)) {
+            return Optional.empty();
+        }
+
+        HistogramInterval interval = intervalOpt.orElse(HistogramInterval.DAY);
+        TreeMap<LocalDate, Long> buckets = Maps.newTreeMap();
+        long hits = 0L;
+        for (String categoryId : categoryIds.isEmpty() ? ImmutableSet.of(ALL_CATEGORIES) : categoryIds) {
+            ImmutableList<HistogramRollup> rollups = queryRollups(projectId, type, Optional.of(categoryId))
+                    .collect(ImmutableList.toImmutableList());
+            for (HistogramRollup rollup : rollups) {
+                if (rollup.getCount() == 0L) {
+                    continue;
+                }
+                LocalDate day = LocalDate.parse(rollup.getDay());
+                if (startOpt.isPresent() && day.isBefore(startOpt.get())
+                        || endOpt.isPresent() && day.isAfter(endOpt.get())) {
+                    continue;
+                }
+                hits += rollup.getCount();
+                buckets.merge(bucketStart(day, interval), rollup.getCount(), Long::sum);
+            }
+        }
+
+        return Optional.of(new HistogramResponse(
+                buckets.entrySet().stream()
+                        .map(e -> new HistogramResponsePoints(e.getKey(), e.getValue()))
+                        .collect(ImmutableList.toImmutableList()),
+                new Hits(hits, null)));
+    }
+
+    @Extern
+    @Override
+    public boolean isBackfilled(String projectId, RollupType type) {
+        return backfilledSchema.fromItem(backfilledSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(backfilledSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "type", type))))) != null;
+    }
+
+    @Override
+    public void backfill(String projectId, RollupType type, Map<RollupKey, Long> counts) {
+        deleteAll(projectId, type);
+        Iterables.partition(expand(counts).entrySet(), DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(batch ->
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(rollupSchema.tableName())
+                        .withItemsToPut(batch.stream()
+                                .map(e -> rollupSchema.toItem(new HistogramRollup(
+                                        projectId,
+                                        type,
+                                        e.getKey().getCategoryId(),
+                                        e.getKey().getDay(),
+                                        e.getValue())))
+                                .collect(ImmutableList.toImmutableList())))));
+        backfilledSchema.table().putItem(backfilledSchema.toItem(new HistogramRollupBackfilled(
+                projectId,
+                type,
+                Instant.now())));
+    }
+
+    @Override
+    public void markBackfilled(String projectId) {
+        singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(backfilledSchema.tableName())
+                .withItemsToPut(Stream.of(RollupType.values())
+                        .map(type -> backfilledSchema.toItem(new HistogramRollupBackfilled(
+                                projectId,
+                                type,
+                                Instant.now())))
+                        .collect(ImmutableList.toImmutableList()))));
+    }
+
+    @Extern
+    @Override
+    public void deleteAllForProject(String projectId) {
+        for (RollupType type : RollupType.values()) {
+            backfilledSchema.table().deleteItem(backfilledSchema.primaryKey(Map.of(
+                    "projectId", projectId,
+                    "type", type)));
+            deleteAll(projectId, type);
+        }
+    }
+
+    @VisibleForTesting
+    static LocalDate bucketStart(LocalDate day, HistogramInterval interval) {
+        switch (interval) {
+            case YEAR:
+                return day.withDayOfYear(1);
+            case QUARTER:
+                return LocalDate.of(day.getYear(), (day.getMonthValue() - 1) / 3 * 3 + 1, 1);
+            case MONTH:
+                return day.withDayOfMonth(1);
+            case WEEK:
+                return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case DAY:
+            default:
+                return day;
+        }
+    }
+
+    /**
+     * Adds the project-wide total to the per category diffs.
+     */
+    private ImmutableMap<ExpandedKey, Long> expand(Map<RollupKey, Long> diffs) {
+        Map<ExpandedKey, Long> expanded = Maps.newHashMap();
+        diffs.forEach((key, diff) -> {
+            if (diff == 0L) {
+                return;
+            }
+            String day = key.getDay().toString();
+            expanded.merge(new ExpandedKey(ALL_CATEGORIES, day), diff, Long::sum);
+            if (key.getCategoryId() != null) {
+                expanded.merge(new ExpandedKey(key.getCategoryId(), day), diff, Long::sum);
+            }
+        });
+        return ImmutableMap.copyOf(expanded);
+    }
+
+    private UpdateItemRequest updateItemRequest(String projectId, RollupType type, ExpandedKey key, long diff) {
+        return new UpdateItemRequest()
+                .withTableName(rollupSchema.tableName())
+                .withKey(ItemUtils.toAttributeValueMap(rollupSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "type", type,
+                        "categoryId", key.getCategoryId(),
+                        "day", key.getDay()))))
+                .withUpdateExpression("SET #projectId = :projectId, #type = :type, #categoryId = :categoryId, #day = :day ADD #count :diff")
+                .withExpressionAttributeNames(Map.of(
+                        "#projectId", "projectId",
+                        "#type", "type",
+                        "#categoryId", "categoryId",
+                        "#day", "day",
+                        "#count", "count"))
+                .withExpressionAttributeValues(Map.of(
+                        ":projectId", rollupSchema.toAttrValue("projectId", projectId),
+                        ":type", rollupSchema.toAttrValue("type", type),
+                        ":categoryId", rollupSchema.toAttrValue("categoryId", key.getCategoryId()),
+                        ":day", rollupSchema.toAttrValue("day", key.getDay()),
+                        ":diff", rollupSchema.toAttrValue("count", diff)));
+    }
+
+    private Stream<HistogramRollup> queryRollups(String projectId, RollupType type, Optional<String> categoryIdOpt) {
+        return StreamSupport.stream(rollupSchema.table().query(new QuerySpec()
+                                .withHashKey(rollupSchema.partitionKey(Map.of(
+                                        "projectId", projectId,
+                                        "type", type)))
+                                .withRangeKeyCondition(new RangeKeyCondition(rollupSchema.rangeKeyName())
+                                        .beginsWith(rollupSchema.rangeValuePartial(categoryIdOpt
+                                                .<Map<String, Object>>map(categoryId -> Map.of("categoryId", categoryId))
+                                                .orElse(Map.of())))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(rollupSchema::fromItem)
+                // Partial range key of one category may be a prefix of another
+                .filter(rollup -> categoryIdOpt.isEmpty() || categoryIdOpt.get().equals(rollup.getCategoryId()));
+    }
+
+    private void deleteAll(String projectId, RollupType type) {
+        Iterables.partition(queryRollups(projectId, type, Optional.empty())
+                        .map(rollupSchema::primaryKey)
+                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
+                .forEach(rollupPrimaryKeys -> {
+                    TableWriteItems tableWriteItems = new TableWriteItems(rollupSchema.tableName());
+                    rollupPrimaryKeys.forEach(tableWriteItems::addPrimaryKeyToDelete);
+                    singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+                });
+    }
+
+    @Value
+    private static class ExpandedKey {
+        String categoryId;
+        String day;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(HistogramRollupStore.class).to(DynamoHistogramRollupStore.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
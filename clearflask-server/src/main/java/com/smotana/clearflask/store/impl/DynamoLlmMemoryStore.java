@@ -1,9 +1,20 @@
 package com.smotana.clearflask.store.impl;
 
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -13,18 +24,28 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.store.LlmMemoryStore;
 import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.web.ApiException;
 import dev.langchain4j.data.message.*;
 import dev.langchain4j.model.Tokenizer;
 import dev.langchain4j.model.openai.OpenAiTokenizer;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 
+import javax.ws.rs.core.Response;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 
 @Slf4j
 @Singleton
@@ -33,6 +54,12 @@ public class DynamoLlmMemoryStore implements LlmMemoryStore {
     public interface Config {
         @DefaultValue("10000")
         Integer memoryMaxTokens();
+
+        /**
+         * Attempts to append when another writer appended to the same conversation concurrently.
+         */
+        @DefaultValue("3")
+        int appendMaxAttempts();
     }
 
     @Inject
@@ -42,14 +69,20 @@ public class DynamoLlmMemoryStore implements LlmMemoryStore {
     @Inject
     private SingleTable singleTable;
     @Inject
+    private DynamoDB dynamoDoc;
+    @Inject
     private Gson gson;
 
-    private TableSchema<MessagesModel> messagesSchema;
+    private TableSchema<MemoryMessageModel> messageSchema;
+    private TableSchema<MemorySummaryModel> summarySchema;
+    private TableSchema<MessagesModel> legacyMessagesSchema;
     private volatile Tokenizer tokenizer;
 
     @Inject
     private void setup() {
-        messagesSchema = singleTable.parseTableSchema(MessagesModel.class);
+        messageSchema = singleTable.parseTableSchema(MemoryMessageModel.class);
+        summarySchema = singleTable.parseTableSchema(MemorySummaryModel.class);
+        legacyMessagesSchema = singleTable.parseTableSchema(MessagesModel.class);
 
         setupTokenizer();
         configAgentStore.openAiModelNameObservable().subscribe(v -> setupTokenizer());
@@ -59,12 +92,12 @@ public class DynamoLlmMemoryStore implements LlmMemoryStore {
         tokenizer = new OpenAiTokenizer(configAgentStore.openAiModelName());
     }
 
-    LoadingCache<String, MessagesModel> messagesModelCache = CacheBuilder.newBuilder()
+    LoadingCache<String, Memory> memoryCache = CacheBuilder.newBuilder()
             .expireAfterAccess(Duration.ofMinutes(10L))
             .build(new CacheLoader<>() {
                 @Override
-                public MessagesModel load(@NotNull String convoId) throws Exception {
-                    return fetchMessagesModel(convoId);
+                public Memory load(@NotNull String convoId) throws Exception {
+                    return fetchMemory(convoId);
                 }
             });
 
@@ -73,9 +106,18 @@ public class DynamoLlmMemoryStore implements LlmMemoryStore {
         return gson.toJson(messages(convoId));
     }
 
+    @Extern
+    public String summaryExtern(String convoId) {
+        return gson.toJson(memoryCache.getUnchecked(convoId).getSummary());
+    }
+
     @Override
     public List<ChatMessage> messages(String convoId) {
-        return messagesModelCache.getUnchecked(convoId).getMessages();
+        Memory memory = memoryCache.getUnchecked(convoId);
+        ImmutableList.Builder<ChatMessage> messagesBuilder = ImmutableList.builderWithExpectedSize(memory.getWindow().size() + 1);
+        memory.getSummary().getSystemMessageOpt().ifPresent(messagesBuilder::add);
+        memory.getWindow().forEach(windowMessage -> messagesBuilder.add(windowMessage.getMessage()));
+        return messagesBuilder.build();
     }
 
     @Override
@@ -85,109 +127,209 @@ public class DynamoLlmMemoryStore implements LlmMemoryStore {
 
     @Override
     public void addAll(String convoId, List<ChatMessage> newMessages) {
-        MessagesModel messagesModel = messagesModelCache.getUnchecked(convoId);
-        ImmutableList<ChatMessage> messages = messagesModel.getMessages();
-        messages = ImmutableList.<ChatMessage>builderWithExpectedSize(messages.size() + 1)
-                .addAll(messages)
-                .addAll(newMessages)
-                .build();
-        messages = ensureCapacity(
-                messages,
-                config.memoryMaxTokens(),
-                tokenizer);
-        messagesModel = messagesModel.toBuilder()
-                .messagesJson(messages.stream()
-                        .map(ChatMessageSerializer::messageToJson)
-                        .collect(ImmutableList.toImmutableList()))
-                .build();
-        messagesSchema.table().putItem(messagesSchema.toItem(messagesModel));
-        this.messagesModelCache.put(convoId, messagesModel);
-    }
-
-    private MessagesModel fetchMessagesModel(String convoId) {
-        return Optional.ofNullable(messagesSchema.fromItem(messagesSchema.table().getItem(messagesSchema.primaryKey(Map.of(
-                        "convoId", convoId)))))
-                .orElseGet(() -> new MessagesModel(convoId, ImmutableList.of()));
+        for (int attempt = 1; ; attempt++) {
+            Optional<Memory> memoryOpt = tryAppend(memoryCache.getUnchecked(convoId), newMessages);
+            if (memoryOpt.isPresent()) {
+                memoryCache.put(convoId, memoryOpt.get());
+                return;
+            }
+            memoryCache.invalidate(convoId);
+            if (attempt >= config.appendMaxAttempts()) {
+                throw new ApiException(Response.Status.CONFLICT, "Conversation was updated concurrently, please try again");
+            }
+        }
     }
 
     /**
-     * Trims down messages to fit in memory.
+     * Appends messages and slides the window to fit into the token limit. Only new messages are serialized and
+     * counted, and only new and compacted messages are written.
      * <p/>
+     * Follows {@link dev.langchain4j.memory.chat.TokenWindowChatMemory#ensureCapacity}:
      * <ul>
-     *     <li>Ensures total count of tokens fits into maxTokens </li>
+     *     <li>Ensures total count of tokens fits into maxTokens</li>
      *     <li>Removes orphaned {@link ToolExecutionResultMessage} messages</li>
      *     <li>Ensures only last {@link SystemMessage} is retained</li>
      * </ul>
-     * Based on {@link dev.langchain4j.memory.chat.TokenWindowChatMemory#ensureCapacity}.
+     *
+     * @return empty if another writer appended to the conversation since memory was read
      */
-    private ImmutableList<ChatMessage> ensureCapacity(ImmutableList<ChatMessage> messages, int maxTokens, Tokenizer tokenizer) {
-
-        ImmutableList.Builder<ChatMessage> trimmedMessagesBuilder = ImmutableList.builder();
-        boolean evictOrphanedToolExecutionResultMessages = false;
-        long currentTokenCount = tokenizer.estimateTokenCountInMessages(messages);
-        log.trace("Ensuring capacity for {} messages up to {} tokens, currently at {}", messages.size(), maxTokens, currentTokenCount);
-
-        // Find and remove system messages first, retaining only the most recent one
-        long removeSystemMessageCount = 0;
-        boolean seenSystemMessage = false;
-        // Iterate through messages from most recent to oldest
-        for (ChatMessage message : messages.reverse()) {
+    private Optional<Memory> tryAppend(Memory memory, List<ChatMessage> newMessages) {
+        MemorySummaryModel summary = memory.getSummary();
+        String convoId = summary.getConvoId();
+        long nextSeq = summary.getNextSeq();
+        String systemMessageJson = summary.getSystemMessageJson();
+        long systemMessageTokenCount = summary.getSystemMessageTokenCount();
+        long windowTokenCount = summary.getWindowTokenCount();
+        Deque<WindowMessage> window = new ArrayDeque<>(memory.getWindow());
+        List<MemoryMessageModel> messagesToPut = Lists.newArrayList();
+        for (ChatMessage message : newMessages) {
+            long tokenCount = tokenizer.estimateTokenCountInMessage(message);
+            String messageJson = ChatMessageSerializer.messageToJson(message);
             if (message instanceof SystemMessage) {
-                if (!seenSystemMessage) {
-                    // Retain the latest system message
-                    seenSystemMessage = true;
-                } else {
-                    // Evict all other system messages
-                    // Remove tokens for these messages now so we have a chance to keep other messages later
-                    currentTokenCount -= tokenizer.estimateTokenCountInMessage(message);
-                    removeSystemMessageCount++;
-                }
+                systemMessageJson = messageJson;
+                systemMessageTokenCount = tokenCount;
+                continue;
             }
+            MemoryMessageModel messageModel = new MemoryMessageModel(convoId, nextSeq++, messageJson, tokenCount);
+            messagesToPut.add(messageModel);
+            window.addLast(new WindowMessage(messageModel.getSeq(), message, tokenCount));
+            windowTokenCount += tokenCount;
         }
 
-        for (ChatMessage message : messages) {
+        // Evict oldest messages that don't fit, then any tool results whose AiMessage was evicted
+        List<WindowMessage> evicted = Lists.newArrayList();
+        while (!window.isEmpty()
+                && (systemMessageTokenCount + windowTokenCount > config.memoryMaxTokens()
+                || window.peekFirst().getMessage() instanceof ToolExecutionResultMessage)) {
+            WindowMessage windowMessage = window.removeFirst();
+            log.trace("Evicting message: {}", windowMessage.getMessage().text());
+            windowTokenCount -= windowMessage.getTokenCount();
+            evicted.add(windowMessage);
+        }
+        long evictedTokenCount = evicted.stream().mapToLong(WindowMessage::getTokenCount).sum();
 
-            // Evict tool result messages if requested
-            if (evictOrphanedToolExecutionResultMessages) {
-                if (message instanceof ToolExecutionResultMessage) {
-                    currentTokenCount -= tokenizer.estimateTokenCountInMessage(message);
-                    log.trace("Evicting tool result message: {}", message.text());
-                    continue; // Message evicted
-                } else {
-                    evictOrphanedToolExecutionResultMessages = false;
-                }
-            }
+        MemorySummaryModel summaryUpdated = summary.toBuilder()
+                .nextSeq(nextSeq)
+                .windowStartSeq(window.isEmpty() ? nextSeq : window.peekFirst().getSeq())
+                .windowTokenCount(windowTokenCount)
+                .systemMessageJson(systemMessageJson)
+                .systemMessageTokenCount(systemMessageTokenCount)
+                .compactedMessageCount(summary.getCompactedMessageCount() + evicted.size())
+                .compactedTokenCount(summary.getCompactedTokenCount() + evictedTokenCount)
+                .build();
 
-            // Keep all but one system message
-            if (message instanceof SystemMessage) {
-                if (removeSystemMessageCount > 0) {
-                    // Don't count tokens here, already subtracted above
-                    log.trace("Evicting system message: {}", message.text());
-                    removeSystemMessageCount--;
-                    continue; // Message evicted
-                } else {
-                    trimmedMessagesBuilder.add(message);
-                    continue; // Message retained
-                }
+        // Summary is written first to reserve the seqs of new messages
+        try {
+            if (memory.isSummaryExists()) {
+                summarySchema.table().putItem(new PutItemSpec()
+                        .withItem(summarySchema.toItem(summaryUpdated))
+                        .withConditionExpression("#nextSeq = :nextSeq")
+                        .withNameMap(new NameMap().with("#nextSeq", "nextSeq"))
+                        .withValueMap(new ValueMap().with(":nextSeq", summary.getNextSeq())));
+            } else {
+                summarySchema.table().putItem(new PutItemSpec()
+                        .withItem(summarySchema.toItem(summaryUpdated))
+                        .withConditionExpression("attribute_not_exists(#partitionKey)")
+                        .withNameMap(new NameMap().with("#partitionKey", summarySchema.partitionKeyName())));
             }
+        } catch (ConditionalCheckFailedException ex) {
+            log.debug("Concurrent append to memory of convo {}", convoId);
+            return Optional.empty();
+        }
 
-            // Retain message if it fits
-            if (currentTokenCount <= maxTokens) {
-                trimmedMessagesBuilder.add(message);
-                continue; // Message retained
-            }
+        // New messages that were evicted right away are never written
+        long evictedNewFromSeq = summary.getNextSeq();
+        messagesToPut.removeIf(messageModel -> messageModel.getSeq() < summaryUpdated.getWindowStartSeq());
+        ImmutableList<Long> seqsToDelete = ImmutableList.<Long>builder()
+                .addAll(memory.getStaleSeqs())
+                .addAll(evicted.stream()
+                        .map(WindowMessage::getSeq)
+                        .filter(seq -> seq < evictedNewFromSeq)
+                        .iterator())
+                .build();
+        writeMessages(convoId, messagesToPut, seqsToDelete);
 
-            // Message evicted
-            log.trace("Evicting message that doesn't fit: {}", message.text());
-            currentTokenCount -= tokenizer.estimateTokenCountInMessage(message);
-            // Some LLMs (e.g. OpenAI) prohibit ToolExecutionResultMessage(s) without corresponding AiMessage,
-            // so we have to automatically evict orphan ToolExecutionResultMessage(s) if AiMessage was evicted
-            if (message instanceof AiMessage && ((AiMessage) message).hasToolExecutionRequests()) {
-                evictOrphanedToolExecutionResultMessages = true;
-            }
+        return Optional.of(new Memory(
+                summaryUpdated,
+                true,
+                ImmutableList.copyOf(window),
+                ImmutableList.of()));
+    }
+
+    private void writeMessages(String convoId, List<MemoryMessageModel> messagesToPut, List<Long> seqsToDelete) {
+        Iterables.partition(messagesToPut, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(batch ->
+                singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(messageSchema.tableName())
+                        .withItemsToPut(batch.stream()
+                                .map(messageSchema::toItem)
+                                .collect(ImmutableList.toImmutableList())))));
+        Iterables.partition(seqsToDelete, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(batch -> {
+            TableWriteItems tableWriteItems = new TableWriteItems(messageSchema.tableName());
+            batch.stream()
+                    .map(seq -> messageSchema.primaryKey(Map.of(
+                            "convoId", convoId,
+                            "seq", seq)))
+                    .forEach(tableWriteItems::addPrimaryKeyToDelete);
+            singleTable.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
+        });
+    }
+
+    private Memory fetchMemory(String convoId) {
+        Optional<MemorySummaryModel> summaryOpt = Optional.ofNullable(summarySchema.fromItem(summarySchema.table().getItem(summarySchema.primaryKey(Map.of(
+                "convoId", convoId)))));
+        if (summaryOpt.isEmpty()) {
+            return migrateLegacy(convoId);
         }
+        MemorySummaryModel summary = summaryOpt.get();
+
+        ImmutableList<MemoryMessageModel> messageModels = StreamSupport.stream(messageSchema.table().query(new QuerySpec()
+                                .withHashKey(messageSchema.partitionKey(Map.of(
+                                        "convoId", convoId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(messageSchema.rangeKeyName())
+                                        .beginsWith(messageSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(messageSchema::fromItem)
+                .sorted(Comparator.comparingLong(MemoryMessageModel::getSeq))
+                .collect(ImmutableList.toImmutableList());
+        Map<Boolean, List<MemoryMessageModel>> inWindowPartition = messageModels.stream()
+                .collect(Collectors.partitioningBy(messageModel -> messageModel.getSeq() >= summary.getWindowStartSeq()
+                        && messageModel.getSeq() < summary.getNextSeq()));
+        ImmutableList<WindowMessage> window = inWindowPartition.get(true).stream()
+                .map(messageModel -> new WindowMessage(messageModel.getSeq(), messageModel.getMessage(), messageModel.getTokenCount()))
+                .collect(ImmutableList.toImmutableList());
+
+        // Left behind if compaction or an append was interrupted, cleaned up on next append
+        ImmutableList<Long> staleSeqs = inWindowPartition.get(false).stream()
+                .map(MemoryMessageModel::getSeq)
+                .collect(ImmutableList.toImmutableList());
+
+        return new Memory(
+                summary.toBuilder()
+                        .windowTokenCount(window.stream().mapToLong(WindowMessage::getTokenCount).sum())
+                        .build(),
+                true,
+                window,
+                staleSeqs);
+    }
+
+    private Memory migrateLegacy(String convoId) {
+        Memory memoryEmpty = new Memory(
+                new MemorySummaryModel(convoId, 0L, 0L, 0L, null, 0L, 0L, 0L),
+                false,
+                ImmutableList.of(),
+                ImmutableList.of());
+        Optional<MessagesModel> legacyMessagesOpt = Optional.ofNullable(legacyMessagesSchema.fromItem(legacyMessagesSchema.table().getItem(legacyMessagesSchema.primaryKey(Map.of(
+                "convoId", convoId)))));
+        if (legacyMessagesOpt.isEmpty()) {
+            return memoryEmpty;
+        }
+
+        Optional<Memory> memoryOpt = tryAppend(memoryEmpty, legacyMessagesOpt.get().getMessages());
+        if (memoryOpt.isEmpty()) {
+            // Migrated concurrently
+            return fetchMemory(convoId);
+        }
+        legacyMessagesSchema.table().deleteItem(new DeleteItemSpec()
+                .withPrimaryKey(legacyMessagesSchema.primaryKey(Map.of(
+                        "convoId", convoId))));
+        log.debug("Migrated memory of convo {} with {} messages", convoId, legacyMessagesOpt.get().getMessagesJson().size());
+        return memoryOpt.get();
+    }
+
+    @Value
+    private static class Memory {
+        MemorySummaryModel summary;
+        boolean summaryExists;
+        ImmutableList<WindowMessage> window;
+        ImmutableList<Long> staleSeqs;
+    }
 
-        return trimmedMessagesBuilder.build();
+    @Value
+    private static class WindowMessage {
+        long seq;
+        ChatMessage message;
+        long tokenCount;
     }
 
     public static Module module() {
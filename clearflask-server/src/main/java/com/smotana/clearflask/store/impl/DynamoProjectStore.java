@@ -12,7 +12,10 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -21,6 +24,7 @@ import com.google.inject.Singleton;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.*;
+import com.smotana.clearflask.api.model.Tag;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
@@ -32,9 +36,12 @@ import io.dataspray.singletable.IndexSchema;
 import io.dataspray.singletable.ShardPageResult;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
 
 import javax.ws.rs.core.Response;
 import java.time.Duration;
@@ -43,6 +50,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -77,6 +86,14 @@ public class DynamoProjectStore implements ProjectStore {
         @DefaultValue("PT1M")
         Duration configCacheExpireAfterWrite();
 
+        /**
+         * Projects read after this duration are refreshed in the background while the stale copy keeps being
+         * served. Hot projects therefore never block a request on DynamoDB. Should be less than
+         * {@link #configCacheExpireAfterWrite()}.
+         */
+        @DefaultValue("PT30S")
+        Duration configCacheRefreshAfterWrite();
+
         @DefaultValue("P30D")
         Duration invitationExpireAfterCreation();
 
@@ -105,6 +122,8 @@ public class DynamoProjectStore implements ProjectStore {
     @Inject
     private ProjectUpgrader projectUpgrader;
     @Inject
+    private MeterRegistry meterRegistry;
+    @Inject
     private IntercomUtil intercomUtil;
 
     private TableSchema<ProjectModel> projectSchema;
@@ -114,16 +133,27 @@ public class DynamoProjectStore implements ProjectStore {
     private TableSchema<InvitationModel> invitationSchema;
     private IndexSchema<InvitationModel> invitationByProjectSchema;
     private Cache<String, Optional<String>> slugCache;
-    private Cache<String, Optional<Project>> projectCache;
+    private LoadingCache<String, Optional<Project>> projectCache;
+    private ExecutorService projectRefreshExecutor;
 
     @Inject
     private void setup() {
         slugCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.slugCacheExpireAfterWrite())
                 .build();
+        projectRefreshExecutor = ExecutorServiceMetrics.monitor(meterRegistry, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("DynamoProjectStore-refresh-%d")
+                .setDaemon(true)
+                .build()), "DynamoProjectStore-refresh");
         projectCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(config.configCacheExpireAfterWrite())
-                .build();
+                .refreshAfterWrite(config.configCacheRefreshAfterWrite())
+                .build(CacheLoader.asyncReloading(new CacheLoader<>() {
+                    @Override
+                    public Optional<Project> load(@NotNull String projectId) throws Exception {
+                        return fetchProject(projectId);
+                    }
+                }, projectRefreshExecutor));
 
         projectSchema = singleTable.parseTableSchema(ProjectModel.class);
         projectShardedSchema = singleTable.parseGlobalSecondaryIndexSchema(2, ProjectModel.class);
@@ -198,19 +228,19 @@ public class DynamoProjectStore implements ProjectStore {
     @Override
     public Optional<Project> getProject(String projectId, boolean useCache) {
         if (config.enableConfigCacheRead() && useCache) {
-            final Optional<Project> projectCachedOpt = projectCache.getIfPresent(projectId);
-            //noinspection OptionalAssignedToNull
-            if (projectCachedOpt != null) {
-                return projectCachedOpt;
-            }
+            return projectCache.getUnchecked(projectId);
         }
-        Optional<Project> projectOpt = Optional.ofNullable(projectSchema.fromItem(projectSchema.table()
+        Optional<Project> projectOpt = fetchProject(projectId);
+        projectCache.put(projectId, projectOpt);
+        return projectOpt;
+    }
+
+    private Optional<Project> fetchProject(String projectId) {
+        return Optional.ofNullable(projectSchema.fromItem(projectSchema.table()
                         .getItem(new GetItemSpec()
                                 .withPrimaryKey(projectSchema
                                         .primaryKey(Map.of("projectId", projectId))))))
                 .map(this::getProjectWithUpgrade);
-        projectCache.put(projectId, projectOpt);
-        return projectOpt;
     }
 
     @Override
@@ -712,6 +742,21 @@ public class DynamoProjectStore implements ProjectStore {
                     .withUpdateExpression("SET #projectVersion = :projectVersion"));
         }
 
+        return getProjectSnapshot(projectModel);
+    }
+
+    /**
+     * A project is an immutable snapshot of its model with all lookup tables precomputed. If the cached
+     * snapshot was built from an identical model, it is reused instead of re-parsing the config.
+     */
+    private Project getProjectSnapshot(ProjectModel projectModel) {
+        Optional<Project> projectCachedOpt = projectCache.getIfPresent(projectModel.getProjectId());
+        //noinspection OptionalAssignedToNull
+        if (projectCachedOpt != null
+                && projectCachedOpt.isPresent()
+                && projectModel.equals(projectCachedOpt.get().getModel())) {
+            return projectCachedOpt.get();
+        }
         return new ProjectImpl(projectModel);
     }
 
@@ -728,8 +773,11 @@ public class DynamoProjectStore implements ProjectStore {
         private final ImmutableMap<String, ImmutableMap<String, Double>> categoryExpressionToWeight;
         private final ImmutableMap<String, Category> categories;
         private final ImmutableMap<String, IdeaStatus> statuses;
+        private final ImmutableMap<String, Tag> tags;
+        private final ImmutableSet<String> hiddenStatusIds;
         private final Function<String, String> intercomEmailToIdentityFun;
         private final ImmutableMap<String, ImmutableSet<WebhookListener>> webhookEventToListeners;
+        private final ImmutableSet<WebhookListener> webhookListeners;
 
         private ProjectImpl(ProjectModel projectModel) {
             this.model = projectModel;
@@ -761,6 +809,20 @@ public class DynamoProjectStore implements ProjectStore {
                                             status.getStatusId()),
                                     status)));
             this.statuses = statusesBuilder.build();
+            this.hiddenStatusIds = this.statuses.values().stream()
+                    .filter(status -> status.getDisablePublicDisplay() == Boolean.TRUE)
+                    .map(IdeaStatus::getStatusId)
+                    .collect(ImmutableSet.toImmutableSet());
+
+            ImmutableMap.Builder<String, Tag> tagsBuilder = ImmutableMap.builder();
+            this.versionedConfig.getConfig().getContent().getCategories().forEach(category ->
+                    category.getTagging().getTags().forEach(tag ->
+                            tagsBuilder.put(
+                                    getTagLookupKey(
+                                            category.getCategoryId(),
+                                            tag.getTagId()),
+                                    tag)));
+            this.tags = tagsBuilder.buildKeepingLast();
             this.intercomEmailToIdentityFun = Optional.ofNullable(Strings.emptyToNull(this.versionedConfigAdmin.getConfig().getIntercomIdentityVerificationSecret()))
                     .map(intercomUtil::getEmailToIdentityFun)
                     .orElse((email) -> null);
@@ -772,6 +834,9 @@ public class DynamoProjectStore implements ProjectStore {
                     .collect(Collectors.groupingBy(
                             l -> webhookListenerSearchKey(l.getResourceType(), l.getEventType()),
                             Collectors.mapping(l -> l, ImmutableSet.toImmutableSet()))));
+            this.webhookListeners = this.webhookEventToListeners.values().stream()
+                    .flatMap(ImmutableSet::stream)
+                    .collect(ImmutableSet.toImmutableSet());
         }
 
         @Override
@@ -842,13 +907,14 @@ public class DynamoProjectStore implements ProjectStore {
             return Optional.ofNullable(this.statuses.get(getStatusLookupKey(categoryId, statusId)));
         }
 
+        @Override
+        public Optional<Tag> getTag(String categoryId, String tagId) {
+            return Optional.ofNullable(this.tags.get(getTagLookupKey(categoryId, tagId)));
+        }
+
         @Override
         public ImmutableSet<String> getHiddenStatusIds() {
-            return this.versionedConfig.getConfig().getContent().getCategories().stream()
-                    .flatMap(category -> category.getWorkflow().getStatuses().stream())
-                    .filter(status -> status.getDisablePublicDisplay() == Boolean.TRUE)
-                    .map(IdeaStatus::getStatusId)
-                    .collect(ImmutableSet.toImmutableSet());
+            return hiddenStatusIds;
         }
 
         @Override
@@ -960,9 +1026,7 @@ public class DynamoProjectStore implements ProjectStore {
 
         @Override
         public ImmutableSet<WebhookListener> getAllWebhookListeners() {
-            return webhookEventToListeners.values().stream()
-                    .flatMap(ImmutableSet::stream)
-                    .collect(ImmutableSet.toImmutableSet());
+            return webhookListeners;
         }
 
         @Override
@@ -1020,6 +1084,10 @@ public class DynamoProjectStore implements ProjectStore {
         private String getStatusLookupKey(String categoryId, String statusId) {
             return categoryId + ":" + statusId;
         }
+
+        private String getTagLookupKey(String categoryId, String tagId) {
+            return categoryId + ":" + tagId;
+        }
     }
 
     /**
@@ -0,0 +1,177 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.HistogramRollupStore;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupKey;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupType;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
+import com.smotana.clearflask.util.Extern;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills in {@link HistogramRollupStore} for projects created before rollups were maintained. Runs once on startup and
+ * skips projects already backfilled, so after the first successful run it only checks a marker per project.
+ * <p>
+ * Items are counted from the stores' exports. Items created or deleted while a project is being backfilled may be
+ * missed in that project's rollups.
+ */
+@Slf4j
+@Singleton
+public class HistogramRollupBackfiller extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT15M")
+        Duration startupDelay();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private HistogramRollupStore histogramRollupStore;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private UserStore userStore;
+
+    private ListeningScheduledExecutorService executor;
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(DefaultMysqlProvider.class);
+    }
+
+    @Override
+    protected void serviceStart() {
+        if (!config.enabled()) {
+            log.info("HistogramRollupBackfiller disabled");
+            return;
+        }
+        executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("HistogramRollupBackfiller-%d").build()));
+        executor.schedule(this::backfillSafely, config.startupDelay());
+    }
+
+    @Override
+    protected void serviceStop() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private void backfillSafely() {
+        try {
+            backfill();
+        } catch (Exception ex) {
+            log.warn("HistogramRollupBackfiller run failed", ex);
+        }
+    }
+
+    @Extern
+    public synchronized String backfill() {
+        AtomicLong projectsChecked = new AtomicLong();
+        AtomicLong projectsBackfilled = new AtomicLong();
+        projectStore.listAllProjects(project -> {
+            try {
+                if (backfillProject(project.getProjectId(), false)) {
+                    projectsBackfilled.incrementAndGet();
+                }
+                projectsChecked.incrementAndGet();
+            } catch (Exception ex) {
+                log.warn("HistogramRollupBackfiller: backfill failed for project {}", project.getProjectId(), ex);
+            }
+        });
+        String msg = String.format("HistogramRollupBackfiller: projectsChecked=%d projectsBackfilled=%d", projectsChecked.get(), projectsBackfilled.get());
+        log.info(msg);
+        return msg;
+    }
+
+    /**
+     * @param force Recount even if already backfilled, e.g. to correct drift
+     * @return Whether any rollups were backfilled
+     */
+    @Extern
+    public boolean backfillProject(String projectId, boolean force) {
+        boolean backfilled = false;
+        for (RollupType type : RollupType.values()) {
+            if (!force && histogramRollupStore.isBackfilled(projectId, type)) {
+                continue;
+            }
+            histogramRollupStore.backfill(projectId, type, countActual(projectId, type));
+            backfilled = true;
+        }
+        if (backfilled) {
+            log.info("HistogramRollupBackfiller: backfilled project {}", projectId);
+        }
+        return backfilled;
+    }
+
+    private Map<RollupKey, Long> countActual(String projectId, RollupType type) {
+        Map<RollupKey, Long> counts = Maps.newHashMap();
+        switch (type) {
+            case POSTS:
+                ideaStore.exportAllForProject(projectId, idea -> {
+                    // Merged posts are excluded from histograms
+                    if (Strings.isNullOrEmpty(idea.getMergedToPostId())) {
+                        counts.merge(RollupKey.of(idea.getCategoryId(), idea.getCreated()), 1L, Long::sum);
+                    }
+                });
+                break;
+            case COMMENTS:
+                commentStore.exportAllForProject(projectId, comment ->
+                        counts.merge(RollupKey.of(null, comment.getCreated()), 1L, Long::sum));
+                break;
+            case USERS:
+                userStore.exportAllForProject(projectId, user ->
+                        counts.merge(RollupKey.of(null, user.getCreated()), 1L, Long::sum));
+                break;
+            default:
+                throw new IllegalStateException("Unknown rollup type " + type);
+        }
+        return counts;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(HistogramRollupBackfiller.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(HistogramRollupBackfiller.class).asEagerSingleton();
+            }
+        };
+    }
+}
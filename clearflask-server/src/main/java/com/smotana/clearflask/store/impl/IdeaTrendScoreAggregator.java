@@ -0,0 +1,221 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.elastic.ElasticScript;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.store.mysql.CompletionStageUtil;
+import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
+import com.smotana.clearflask.store.mysql.model.JooqRoutines;
+import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.ExpDecayScoreBuffer;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.impl.DSL;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.smotana.clearflask.store.impl.DynamoElasticIdeaStore.EXP_DECAY_PERIOD_MILLIS;
+import static com.smotana.clearflask.store.impl.DynamoElasticIdeaStore.IDEA_INDEX;
+
+/**
+ * Accumulates trend score events (votes and expressions) in memory and periodically applies them to the search
+ * engines in bulk. A popular post receiving many votes within a flush period results in a single script update
+ * instead of one per vote.
+ * <p>
+ * Trend score is a log-sum-exp of event times, so buffered events can be combined ahead of time and applied as a
+ * single equivalent event. Scores in search engines lag behind by at most {@link Config#flushFrequency()}.
+ * <p>
+ * Buffered events are flushed on shutdown, but are lost if the process dies in between flushes. Trend score only
+ * affects ordering and is not used for vote counts, so this is an accepted loss of up to one flush period of events.
+ */
+@Slf4j
+@Singleton
+public class IdeaTrendScoreAggregator extends ManagedService {
+
+    public interface Config {
+        /**
+         * If disabled, trend score is updated with every vote and expression as before.
+         */
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT10S")
+        Duration flushFrequency();
+
+        @DefaultValue("500")
+        int flushBatchSize();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private DynamoElasticIdeaStore.Config configIdeaStore;
+    @Inject
+    private Provider<RestHighLevelClient> elastic;
+    @Inject
+    private ElasticUtil elasticUtil;
+    @Inject
+    private Provider<DSLContext> mysql;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    private ExpDecayScore expDecayScore;
+    private ExpDecayScoreBuffer buffer;
+    private ScheduledExecutorService executor;
+
+    @Inject
+    private void setup() {
+        expDecayScore = new ExpDecayScore(EXP_DECAY_PERIOD_MILLIS);
+        buffer = new ExpDecayScoreBuffer(expDecayScore);
+        meterRegistry.gauge(MeterRegistryProvider.METER_PREFIX + "idea.trendscore.pending", buffer, ExpDecayScoreBuffer::size);
+    }
+
+    @Override
+    protected ImmutableSet<Class> serviceDependencies() {
+        return ImmutableSet.of(DefaultMysqlProvider.class);
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("IdeaTrendScoreAggregator-%d").build());
+        long flushFrequencyMillis = config.flushFrequency().toMillis();
+        executor.scheduleWithFixedDelay(this::flushSafely, flushFrequencyMillis, flushFrequencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        // Apply whatever accumulated since last flush
+        flushSafely();
+    }
+
+    /**
+     * Records a trend event to be applied on next flush.
+     *
+     * @return false if aggregation is disabled in which case caller is responsible for updating trend score directly
+     */
+    public boolean add(String projectId, String ideaId) {
+        if (!config.enabled() || configIdeaStore.elasticForceRefresh()) {
+            return false;
+        }
+        buffer.add(projectId, ideaId, System.currentTimeMillis());
+        return true;
+    }
+
+    @Extern
+    public void flush() {
+        for (String projectId : buffer.getProjectIds()) {
+            ImmutableMap<String, Double> scores = buffer.drain(projectId);
+            if (scores.isEmpty()) {
+                continue;
+            }
+            SearchEngine searchEngine = projectStore.getSearchEngineForProject(projectId);
+            for (List<Map.Entry<String, Double>> batch : Iterables.partition(scores.entrySet(), config.flushBatchSize())) {
+                if (searchEngine.isWriteElastic()) {
+                    flushElastic(projectId, batch);
+                }
+                if (searchEngine.isWriteMysql()) {
+                    flushMysql(projectId, batch);
+                }
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception ex) {
+            log.warn("Failed to flush trend scores", ex);
+        }
+    }
+
+    private void flushElastic(String projectId, List<Map.Entry<String, Double>> batch) {
+        String indexName = elasticUtil.getIndexName(IDEA_INDEX, projectId);
+        BulkRequest bulkRequest = new BulkRequest();
+        for (Map.Entry<String, Double> entry : batch) {
+            bulkRequest.add(new UpdateRequest(indexName, entry.getKey())
+                    .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
+                            "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
+                            "timeInMillis", expDecayScore.toTimeInMillis(entry.getValue())))));
+        }
+        elastic.get().bulkAsync(bulkRequest, RequestOptions.DEFAULT, new ActionListener<>() {
+            @Override
+            public void onResponse(BulkResponse bulkResponse) {
+                // Failures are expected for ideas deleted since the event
+                if (bulkResponse.hasFailures() && LogUtil.rateLimitAllowLog("ideaTrendScoreAggregator-bulk-failure")) {
+                    log.info("Some trend score updates failed for project {}: {}", projectId, bulkResponse.buildFailureMessage());
+                }
+            }
+
+            @Override
+            public void onFailure(Exception ex) {
+                if (LogUtil.rateLimitAllowLog("ideaTrendScoreAggregator-failure")) {
+                    log.warn("Failed to flush trend scores for project {}", projectId, ex);
+                }
+            }
+        });
+    }
+
+    private void flushMysql(String projectId, List<Map.Entry<String, Double>> batch) {
+        DSLContext context = mysql.get();
+        ImmutableList<Query> queries = batch.stream()
+                .map(entry -> context.update(JooqIdea.IDEA)
+                        .set(JooqIdea.IDEA.TRENDSCORE, JooqRoutines.expDecay(
+                                JooqIdea.IDEA.TRENDSCORE,
+                                DSL.val(EXP_DECAY_PERIOD_MILLIS),
+                                DSL.val(expDecayScore.toTimeInMillis(entry.getValue()))))
+                        .where(JooqIdea.IDEA.PROJECTID.eq(projectId)
+                                .and(JooqIdea.IDEA.POSTID.eq(entry.getKey()))))
+                .collect(ImmutableList.toImmutableList());
+        CompletionStageUtil.logFailure(context.batch(queries).executeAsync());
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(IdeaTrendScoreAggregator.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(IdeaTrendScoreAggregator.class).asEagerSingleton();
+            }
+        };
+    }
+}
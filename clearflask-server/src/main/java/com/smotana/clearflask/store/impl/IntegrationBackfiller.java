@@ -0,0 +1,534 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.GitHubStore;
+import com.smotana.clearflask.store.GitLabStore;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.IntegrationBackfillSource;
+import com.smotana.clearflask.store.IntegrationBackfillSource.ImportedIssue;
+import com.smotana.clearflask.store.IntegrationBackfillSource.IssuePage;
+import com.smotana.clearflask.store.IntegrationBackfillSource.PendingIssue;
+import com.smotana.clearflask.store.JiraStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.util.Extern;
+import io.dataspray.singletable.DynamoTable;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static io.dataspray.singletable.TableType.Primary;
+
+/**
+ * Imports issues and their comments that existed before a GitHub, GitLab or Jira integration was linked, webhooks
+ * only deliver what changes afterwards.
+ * <p>
+ * Issues are listed a page at a time within a per-provider request budget, converted in parallel and written with
+ * bulk store operations. Progress is checkpointed after each page so a backfill resumes where it left off after a
+ * restart, and is held under a lease so only one instance works on it. Issues already present, e.g. created by
+ * webhooks since linking, are skipped.
+ */
+@Slf4j
+@Singleton
+public class IntegrationBackfiller extends ManagedService {
+
+    public enum Provider {
+        GITHUB,
+        GITLAB,
+        JIRA
+    }
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        /**
+         * Integration was unlinked or pointed elsewhere while backfilling
+         */
+        CANCELLED
+    }
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("50")
+        int pageSize();
+
+        /**
+         * Number of backfills making progress at the same time, others wait their turn.
+         */
+        @DefaultValue("4")
+        int threadPoolSize();
+
+        /**
+         * Threads converting issues and fetching their comments, shared by all backfills.
+         */
+        @DefaultValue("8")
+        int convertThreadPoolSize();
+
+        /**
+         * Kept well under GitHub's 5000 requests per hour per installation to leave room for regular sync.
+         */
+        @DefaultValue("1")
+        double githubRequestsPerSecond();
+
+        @DefaultValue("3")
+        double gitlabRequestsPerSecond();
+
+        @DefaultValue("3")
+        double jiraRequestsPerSecond();
+
+        @DefaultValue("3")
+        int maxAttempts();
+
+        @DefaultValue("PT30S")
+        Duration retryDelay();
+
+        @DefaultValue("PT2M")
+        Duration writeTimeout();
+
+        @DefaultValue("PT10M")
+        Duration leaseDuration();
+
+        @DefaultValue("PT5M")
+        Duration resumeStartupDelay();
+    }
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "integration.backfill";
+
+    @Inject
+    private Config config;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private GitHubStore gitHubStore;
+    @Inject
+    private GitLabStore gitLabStore;
+    @Inject
+    private JiraStore jiraStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    private final String leaseOwner = UUID.randomUUID().toString();
+    private final Map<String, RateLimiter> budgets = Maps.newConcurrentMap();
+    private TableSchema<BackfillProgress> progressSchema;
+    private ListeningScheduledExecutorService executor;
+    private ListeningExecutorService convertExecutor;
+
+    @Override
+    protected void serviceStart() throws Exception {
+        progressSchema = singleTable.parseTableSchema(BackfillProgress.class);
+        executor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(config.threadPoolSize(),
+                new ThreadFactoryBuilder().setNameFormat("IntegrationBackfiller-%d").build()));
+        convertExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(config.convertThreadPoolSize(),
+                new ThreadFactoryBuilder().setNameFormat("IntegrationBackfiller-convert-%d").build()));
+        if (config.enabled()) {
+            executor.schedule(this::resumeAllSafely, config.resumeStartupDelay());
+        }
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        for (ListeningExecutorService executorService : ImmutableList.of(executor, convertExecutor)) {
+            executorService.shutdownNow();
+        }
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        convertExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Call after the config is saved. Starts a backfill for each integration that was linked or now points to a
+     * different repository or project.
+     */
+    public void postConfigSaveActions(Optional<ConfigAdmin> configPrevious, ConfigAdmin configAdmin) {
+        if (!config.enabled()) {
+            return;
+        }
+        for (Provider provider : Provider.values()) {
+            Optional<String> targetOpt = getTarget(configAdmin, provider);
+            if (targetOpt.isPresent() && !targetOpt.equals(configPrevious.flatMap(c -> getTarget(c, provider)))) {
+                start(configAdmin.getProjectId(), provider);
+            }
+        }
+    }
+
+    /**
+     * Starts a backfill from the beginning, taking over any previous backfill of the same provider.
+     */
+    @Extern
+    public BackfillProgress start(String projectId, Provider provider) {
+        Project project = projectStore.getProject(projectId, false)
+                .orElseThrow(() -> new IllegalArgumentException("Project not found " + projectId));
+        String target = getTarget(project.getVersionedConfigAdmin().getConfig(), provider)
+                .orElseThrow(() -> new IllegalArgumentException("Integration " + provider + " not linked for project " + projectId));
+        Instant now = Instant.now();
+        BackfillProgress progress = new BackfillProgress(
+                projectId,
+                provider,
+                target,
+                Status.RUNNING,
+                null,
+                0L,
+                0L,
+                0L,
+                0L,
+                now,
+                now,
+                null,
+                leaseOwner,
+                now.plus(config.leaseDuration()).getEpochSecond());
+        progressSchema.table().putItem(progressSchema.toItem(progress));
+        budgets.remove(getBudgetKey(projectId, provider));
+        log.info("Starting {} backfill for project {} target {}", provider, projectId, target);
+        executor.execute(() -> processPage(projectId, provider, 0));
+        return progress;
+    }
+
+    @Extern
+    public Optional<BackfillProgress> getProgress(String projectId, Provider provider) {
+        return Optional.ofNullable(progressSchema.fromItem(progressSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(progressSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "provider", provider))))));
+    }
+
+    /**
+     * Picks up backfills left running by an instance that went away.
+     */
+    @Extern
+    public void resumeAll() {
+        projectStore.listAllProjects(project -> {
+            for (Provider provider : Provider.values()) {
+                if (getTarget(project.getVersionedConfigAdmin().getConfig(), provider).isEmpty()) {
+                    continue;
+                }
+                try {
+                    getProgress(project.getProjectId(), provider)
+                            .filter(progress -> progress.getStatus() == Status.RUNNING)
+                            .filter(progress -> progress.getLeaseExpiresEpochSec() < Instant.now().getEpochSecond())
+                            .flatMap(this::tryTakeLease)
+                            .ifPresent(progress -> {
+                                log.info("Resuming {} backfill for project {} after {} pages",
+                                        provider, progress.getProjectId(), progress.getPages());
+                                executor.execute(() -> processPage(progress.getProjectId(), provider, 0));
+                            });
+                } catch (Exception ex) {
+                    log.warn("Failed to resume {} backfill for project {}", provider, project.getProjectId(), ex);
+                }
+            }
+        });
+    }
+
+    private void resumeAllSafely() {
+        try {
+            resumeAll();
+        } catch (Exception ex) {
+            log.warn("Failed to resume backfills", ex);
+        }
+    }
+
+    private void processPage(String projectId, Provider provider, int attempt) {
+        Optional<BackfillProgress> progressOpt = getProgress(projectId, provider)
+                .filter(progress -> progress.getStatus() == Status.RUNNING)
+                .filter(progress -> leaseOwner.equals(progress.getLeaseOwner()));
+        if (progressOpt.isEmpty()) {
+            log.info("Stopping {} backfill for project {}, taken over or no longer running", provider, projectId);
+            budgets.remove(getBudgetKey(projectId, provider));
+            return;
+        }
+        BackfillProgress progress = progressOpt.get();
+
+        Optional<Project> projectOpt = projectStore.getProject(projectId, false);
+        if (projectOpt.isEmpty() || !projectOpt.flatMap(project -> getTarget(project.getVersionedConfigAdmin().getConfig(), provider))
+                .equals(Optional.of(progress.getTarget()))) {
+            finish(progress.toBuilder().status(Status.CANCELLED).build());
+            return;
+        }
+        Project project = projectOpt.get();
+
+        long startNanos = System.nanoTime();
+        try {
+            IssuePage page = getSource(provider).listIssues(
+                    project,
+                    Optional.ofNullable(progress.getCursor()),
+                    config.pageSize(),
+                    budgets.computeIfAbsent(getBudgetKey(projectId, provider), k -> RateLimiter.create(getRequestsPerSecond(provider))));
+
+            ImmutableMap<String, IdeaModel> existingIdeas = ideaStore.getIdeas(projectId, page.getIssues().stream()
+                    .map(PendingIssue::getIdeaId)
+                    .collect(ImmutableSet.toImmutableSet()), false);
+            ImmutableList<ListenableFuture<ImportedIssue>> importFutures = page.getIssues().stream()
+                    .filter(pendingIssue -> !existingIdeas.containsKey(pendingIssue.getIdeaId()))
+                    .map(pendingIssue -> convertExecutor.submit(() -> pendingIssue.getImporter().importIssue()))
+                    .collect(ImmutableList.toImmutableList());
+            ImmutableList<ImportedIssue> importedIssues = ImmutableList.copyOf(Futures.allAsList(importFutures).get());
+
+            // Comments go first, an idea's presence marks its issue as done so a retry re-imports half-written issues
+            ImmutableList<CommentModel> comments = importedIssues.stream()
+                    .flatMap(importedIssue -> importedIssue.getComments().stream())
+                    .collect(ImmutableList.toImmutableList());
+            if (!comments.isEmpty()) {
+                commentStore.createComments(projectId, comments).get(config.writeTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (!importedIssues.isEmpty()) {
+                ideaStore.createIdeas(projectId, importedIssues.stream()
+                                .map(ImportedIssue::getIdea)
+                                .collect(ImmutableList.toImmutableList()))
+                        .get(config.writeTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            }
+
+            Tags tags = Tags.of("provider", provider.name().toLowerCase());
+            meterRegistry.timer(METER_NAME + ".page", tags).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            meterRegistry.counter(METER_NAME + ".issues", tags).increment(importedIssues.size());
+            meterRegistry.counter(METER_NAME + ".comments", tags).increment(comments.size());
+            meterRegistry.counter(METER_NAME + ".skipped", tags).increment(existingIdeas.size());
+
+            BackfillProgress progressUpdated = progress.toBuilder()
+                    .cursor(page.getNextCursorOpt().orElse(null))
+                    .pages(progress.getPages() + 1)
+                    .issuesImported(progress.getIssuesImported() + importedIssues.size())
+                    .commentsImported(progress.getCommentsImported() + comments.size())
+                    .issuesSkipped(progress.getIssuesSkipped() + existingIdeas.size())
+                    .lastError(null)
+                    .build();
+            if (page.getNextCursorOpt().isEmpty()) {
+                finish(progressUpdated.toBuilder().status(Status.COMPLETED).build());
+                return;
+            }
+            if (!checkpoint(progressUpdated)) {
+                return;
+            }
+            // Yield to other backfills waiting on the executor before continuing
+            executor.execute(() -> processPage(projectId, provider, 0));
+        } catch (Exception ex) {
+            meterRegistry.counter(METER_NAME + ".failed", Tags.of("provider", provider.name().toLowerCase())).increment();
+            String error = Throwables.getRootCause(ex).toString();
+            if (attempt + 1 < config.maxAttempts()) {
+                log.warn("{} backfill page failed for project {} attempt {}, retrying", provider, projectId, attempt + 1, ex);
+                if (checkpoint(progress.toBuilder().lastError(error).build())) {
+                    executor.schedule(() -> processPage(projectId, provider, attempt + 1), config.retryDelay());
+                }
+            } else {
+                log.warn("{} backfill failed for project {} after {} attempts", provider, projectId, attempt + 1, ex);
+                finish(progress.toBuilder().status(Status.FAILED).lastError(error).build());
+            }
+        }
+    }
+
+    private void finish(BackfillProgress progress) {
+        budgets.remove(getBudgetKey(progress.getProjectId(), progress.getProvider()));
+        if (checkpoint(progress)) {
+            log.info("{} backfill for project {} {}: pages {} issues imported {} skipped {} comments imported {}",
+                    progress.getProvider(), progress.getProjectId(), progress.getStatus(), progress.getPages(),
+                    progress.getIssuesImported(), progress.getIssuesSkipped(), progress.getCommentsImported());
+        }
+    }
+
+    /**
+     * Saves progress and renews the lease as long as we still hold it.
+     *
+     * @return False if another instance or a restart has since taken over
+     */
+    private boolean checkpoint(BackfillProgress progress) {
+        Instant now = Instant.now();
+        try {
+            progressSchema.table().putItem(new PutItemSpec()
+                    .withItem(progressSchema.toItem(progress.toBuilder()
+                            .updated(now)
+                            .leaseExpiresEpochSec(now.plus(config.leaseDuration()).getEpochSecond())
+                            .build()))
+                    .withConditionExpression("#leaseOwner = :leaseOwner")
+                    .withNameMap(new NameMap().with("#leaseOwner", "leaseOwner"))
+                    .withValueMap(new ValueMap().with(":leaseOwner", leaseOwner)));
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            log.info("Lost lease on {} backfill for project {}", progress.getProvider(), progress.getProjectId());
+            budgets.remove(getBudgetKey(progress.getProjectId(), progress.getProvider()));
+            return false;
+        }
+    }
+
+    private Optional<BackfillProgress> tryTakeLease(BackfillProgress progress) {
+        Instant now = Instant.now();
+        BackfillProgress progressLeased = progress.toBuilder()
+                .leaseOwner(leaseOwner)
+                .leaseExpiresEpochSec(now.plus(config.leaseDuration()).getEpochSecond())
+                .updated(now)
+                .build();
+        try {
+            progressSchema.table().putItem(new PutItemSpec()
+                    .withItem(progressSchema.toItem(progressLeased))
+                    .withConditionExpression("#leaseOwner = :leaseOwnerPrevious AND #leaseExpiresEpochSec < :now")
+                    .withNameMap(new NameMap()
+                            .with("#leaseOwner", "leaseOwner")
+                            .with("#leaseExpiresEpochSec", "leaseExpiresEpochSec"))
+                    .withValueMap(new ValueMap()
+                            .with(":leaseOwnerPrevious", progress.getLeaseOwner())
+                            .with(":now", now.getEpochSecond())));
+            return Optional.of(progressLeased);
+        } catch (ConditionalCheckFailedException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private IntegrationBackfillSource getSource(Provider provider) {
+        switch (provider) {
+            case GITHUB:
+                return gitHubStore;
+            case GITLAB:
+                return gitLabStore;
+            case JIRA:
+                return jiraStore;
+            default:
+                throw new IllegalStateException("Unknown provider " + provider);
+        }
+    }
+
+    private double getRequestsPerSecond(Provider provider) {
+        switch (provider) {
+            case GITHUB:
+                return config.githubRequestsPerSecond();
+            case GITLAB:
+                return config.gitlabRequestsPerSecond();
+            case JIRA:
+                return config.jiraRequestsPerSecond();
+            default:
+                throw new IllegalStateException("Unknown provider " + provider);
+        }
+    }
+
+    /**
+     * Identifies what the integration is linked to, a change means issues come from somewhere else.
+     */
+    private Optional<String> getTarget(ConfigAdmin configAdmin, Provider provider) {
+        switch (provider) {
+            case GITHUB:
+                return Optional.ofNullable(configAdmin.getGithub())
+                        .map(gitHub -> gitHub.getInstallationId() + "/" + gitHub.getRepositoryId());
+            case GITLAB:
+                return Optional.ofNullable(configAdmin.getGitlab())
+                        .map(gitLab -> Strings.nullToEmpty(gitLab.getGitlabInstanceUrl()) + "/" + gitLab.getProjectId());
+            case JIRA:
+                return Optional.ofNullable(configAdmin.getJira())
+                        .map(jira -> jira.getCloudId() + "/" + jira.getProjectKey());
+            default:
+                throw new IllegalStateException("Unknown provider " + provider);
+        }
+    }
+
+    private String getBudgetKey(String projectId, Provider provider) {
+        return projectId + ":" + provider;
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId"}, rangePrefix = "integrationBackfill", rangeKeys = {"provider"})
+    public static class BackfillProgress {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        Provider provider;
+
+        /**
+         * Repository or project the integration was linked to when the backfill started
+         */
+        @NonNull
+        String target;
+
+        @NonNull
+        Status status;
+
+        /**
+         * Provider specific cursor of the next page, null on the first page
+         */
+        String cursor;
+
+        long pages;
+
+        long issuesImported;
+
+        long issuesSkipped;
+
+        long commentsImported;
+
+        @NonNull
+        Instant started;
+
+        @NonNull
+        Instant updated;
+
+        String lastError;
+
+        @NonNull
+        String leaseOwner;
+
+        long leaseExpiresEpochSec;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(IntegrationBackfiller.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding()
+                        .to(IntegrationBackfiller.class).asEagerSingleton();
+            }
+        };
+    }
+}
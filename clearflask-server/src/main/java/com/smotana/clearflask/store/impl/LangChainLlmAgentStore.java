@@ -205,10 +205,8 @@ public class LangChainLlmAgentStore implements LlmAgentStore {
                         }
 
                         // Fetch data
-                        ImmutableList<ToolExecutionResultMessage> toolResponseMessages = response.content()
-                                .toolExecutionRequests()
-                                .parallelStream()
-                                .map(toolExecutionRequest -> llmToolingStore.runTool(projectId, toolExecutionRequest))
+                        ImmutableList<ToolExecutionResultMessage> toolResponseMessages = llmToolingStore.runTools(projectId, response.content().toolExecutionRequests())
+                                .stream()
                                 .map(toolExecution -> ToolExecutionResultMessage.from(toolExecution.request(), toolExecution.result()))
                                 .collect(ImmutableList.toImmutableList());
                         messages.add(response.content());
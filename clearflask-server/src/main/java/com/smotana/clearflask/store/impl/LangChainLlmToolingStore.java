@@ -1,21 +1,45 @@
 package com.smotana.clearflask.store.impl;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
 import com.samskivert.mustache.Mustache;
 import com.smotana.clearflask.api.model.IdeaSearchAdmin;
 import com.smotana.clearflask.api.model.IdeaSearchAdmin.SortByEnum;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.IdeaStore.SearchResponse;
 import com.smotana.clearflask.store.LlmToolingStore;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.ResponseCache;
+import com.smotana.clearflask.web.util.ResponseCache.CacheKey;
 import dev.langchain4j.agent.tool.Tool;
 import dev.langchain4j.agent.tool.ToolExecutionRequest;
 import dev.langchain4j.agent.tool.ToolSpecification;
@@ -23,27 +47,76 @@ import dev.langchain4j.agent.tool.ToolSpecifications;
 import dev.langchain4j.service.tool.DefaultToolExecutor;
 import dev.langchain4j.service.tool.ToolExecution;
 import dev.langchain4j.service.tool.ToolExecutor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Singleton
-public class LangChainLlmToolingStore implements LlmToolingStore {
+public class LangChainLlmToolingStore extends ManagedService implements LlmToolingStore {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean resultCacheEnabled();
+
+        /**
+         * Also bounds how long results from before a post write are served on other nodes.
+         */
+        @DefaultValue("PT1M")
+        Duration resultCacheExpireAfterWrite();
+
+        @DefaultValue("16777216")
+        long resultCacheMaxWeightInChars();
+
+        @DefaultValue("4")
+        int executorThreads();
+
+        @DefaultValue("PT1M")
+        Duration executionTimeout();
+    }
+
+    private static final String TOOL_SEARCH_POSTS = "searchPosts";
 
+    @Inject
+    private Config config;
     @Inject
     private IdeaStore ideaStore;
     @Inject
+    private ResponseCache responseCache;
+    @Inject
     private Sanitizer sanitizer;
     @Inject
     private Mustache.Compiler mustache;
+    @Inject
+    private Gson gson;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private String templateStrToolSearchPosts;
     private ImmutableMap<String, ToolExecutor> toolExecutorByName;
     private ImmutableList<ToolSpecification> toolSpecifications;
+    /**
+     * Keyed by project generation of {@link ResponseCache} so post writes invalidate results of the project. As with
+     * {@link ResponseCache}, generations are local to each node, so other nodes serve their results until
+     * {@link Config#resultCacheExpireAfterWrite()}.
+     */
+    private Cache<CacheKey, String> resultCache;
+    private Counter resultCacheHitCounter;
+    private Counter resultCacheMissCounter;
+    private ListeningExecutorService executor;
 
     @Inject
     public void setup() throws Exception {
@@ -60,6 +133,25 @@ public class LangChainLlmToolingStore implements LlmToolingStore {
         }
         this.toolExecutorByName = toolExecutorByNameBuilder.build();
         this.toolSpecifications = toolSpecificationsBuilder.build();
+        this.resultCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.resultCacheExpireAfterWrite())
+                .maximumWeight(config.resultCacheMaxWeightInChars())
+                .weigher((CacheKey key, String result) -> key.getRequest().length() + result.length())
+                .build();
+        this.resultCacheHitCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "llmtool.cache.hit");
+        this.resultCacheMissCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "llmtool.cache.miss");
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = MoreExecutors.listeningDecorator(ExecutorServiceMetrics.monitor(meterRegistry, Executors.newFixedThreadPool(config.executorThreads(),
+                new ThreadFactoryBuilder().setNameFormat("LangChainLlmToolingStore-worker-%d").build()), "LangChainLlmToolingStore"));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
     }
 
     @Override
@@ -69,33 +161,196 @@ public class LangChainLlmToolingStore implements LlmToolingStore {
 
     @Override
     public ToolExecution runTool(String projectId, ToolExecutionRequest request) {
+        return runTools(projectId, ImmutableList.of(request)).get(0);
+    }
+
+    @Override
+    public ImmutableList<ToolExecution> runTools(String projectId, List<ToolExecutionRequest> requests) {
+        // Keys are created before executing so a post write during execution leaves the result stale, not cached
+        ImmutableList<CacheKey> keys = requests.stream()
+                .map(request -> responseCache.createKey(projectId, "", "llmTool:" + request.name(), normalizeArguments(request)))
+                .collect(ImmutableList.toImmutableList());
+
+        // Serve from cache, identical requests within the turn are only run once
+        Map<CacheKey, String> resultByKey = Maps.newHashMap();
+        Map<CacheKey, ToolExecutionRequest> pendingByKey = Maps.newLinkedHashMap();
+        for (int i = 0; i < requests.size(); i++) {
+            CacheKey key = keys.get(i);
+            if (resultByKey.containsKey(key) || pendingByKey.containsKey(key)) {
+                continue;
+            }
+            Optional<String> resultOpt = config.resultCacheEnabled()
+                    ? Optional.ofNullable(resultCache.getIfPresent(key))
+                    : Optional.empty();
+            (resultOpt.isPresent() ? resultCacheHitCounter : resultCacheMissCounter).increment();
+            if (resultOpt.isPresent()) {
+                resultByKey.put(key, resultOpt.get());
+            } else {
+                pendingByKey.put(key, requests.get(i));
+            }
+        }
+
+        // Post searches are sent as one multi-search, everything else runs individually
+        Map<CacheKey, IdeaSearchAdmin> searchByKey = Maps.newLinkedHashMap();
+        if (pendingByKey.size() > 1) {
+            pendingByKey.forEach((key, request) -> {
+                if (TOOL_SEARCH_POSTS.equals(request.name())) {
+                    parseSearchPostsArguments(request).ifPresent(search -> searchByKey.put(key, search));
+                }
+            });
+        }
+        if (searchByKey.size() < 2) {
+            searchByKey.clear();
+        }
+        List<ListenableFuture<Map<CacheKey, String>>> futures = Lists.newArrayList();
+        if (!searchByKey.isEmpty()) {
+            futures.add(executor.submit(() -> searchPostsBatch(projectId, searchByKey)));
+        }
+        pendingByKey.forEach((key, request) -> {
+            if (!searchByKey.containsKey(key)) {
+                futures.add(executor.submit(() -> ImmutableMap.of(key, execute(projectId, request))));
+            }
+        });
+
+        try {
+            for (Map<CacheKey, String> results : Futures.allAsList(futures).get(config.executionTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                results.forEach((key, result) -> {
+                    if (config.resultCacheEnabled()) {
+                        resultCache.put(key, result);
+                    }
+                    resultByKey.put(key, result);
+                });
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new UncheckedExecutionException(ex.getCause());
+        } catch (TimeoutException ex) {
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException("Tool execution timed out", ex);
+        }
+
+        ImmutableList.Builder<ToolExecution> executionsBuilder = ImmutableList.builder();
+        for (int i = 0; i < requests.size(); i++) {
+            executionsBuilder.add(ToolExecution.builder()
+                    .request(requests.get(i))
+                    .result(resultByKey.get(keys.get(i)))
+                    .build());
+        }
+        return executionsBuilder.build();
+    }
+
+    private String execute(String projectId, ToolExecutionRequest request) {
         String result = Optional.ofNullable(toolExecutorByName.get(request.name()))
                 .orElseThrow(() -> new IllegalArgumentException("Tool not found: " + request.name()))
                 .execute(request, projectId);
-        if (result.isBlank()) {
-            // ToolExecution cannot have blank result
-            result = "empty result";
-        }
+        result = nonBlankResult(result);
         log.info("Executed tool {} args {} result {}", request.name(), request.arguments(), result);
-        return ToolExecution.builder()
-                .request(request)
-                .result(result)
-                .build();
+        return result;
+    }
+
+    private Map<CacheKey, String> searchPostsBatch(String projectId, Map<CacheKey, IdeaSearchAdmin> searchByKey) {
+        ImmutableList<CacheKey> keys = ImmutableList.copyOf(searchByKey.keySet());
+        ImmutableList<SearchResponse> searchResponses = ideaStore.searchIdeasAdmin(projectId, ImmutableList.copyOf(searchByKey.values()));
+        ImmutableMap<String, IdeaModel> postsById = ideaStore.getIdeas(projectId, searchResponses.stream()
+                .flatMap(searchResponse -> searchResponse.getIdeaIds().stream())
+                .collect(ImmutableSet.toImmutableSet()));
+        Map<CacheKey, String> resultByKey = Maps.newHashMap();
+        for (int i = 0; i < keys.size(); i++) {
+            resultByKey.put(keys.get(i), nonBlankResult(renderPosts(inSearchOrder(searchResponses.get(i).getIdeaIds(), postsById))));
+        }
+        log.info("Tool searchPosts ran {} searches together", keys.size());
+        return resultByKey;
+    }
+
+    /**
+     * Equivalent arguments map to the same string regardless of key order, category order or blank values.
+     */
+    private String normalizeArguments(ToolExecutionRequest request) {
+        if (TOOL_SEARCH_POSTS.equals(request.name())) {
+            Optional<IdeaSearchAdmin> searchOpt = parseSearchPostsArguments(request);
+            if (searchOpt.isPresent()) {
+                return gson.toJson(searchOpt.get());
+            }
+        }
+        try {
+            return sortKeys(JsonParser.parseString(Strings.nullToEmpty(request.arguments()))).toString();
+        } catch (RuntimeException ex) {
+            return Strings.nullToEmpty(request.arguments());
+        }
+    }
+
+    private JsonElement sortKeys(JsonElement element) {
+        if (!element.isJsonObject()) {
+            return element;
+        }
+        JsonObject sorted = new JsonObject();
+        element.getAsJsonObject().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> sorted.add(entry.getKey(), sortKeys(entry.getValue())));
+        return sorted;
+    }
+
+    private Optional<IdeaSearchAdmin> parseSearchPostsArguments(ToolExecutionRequest request) {
+        try {
+            JsonObject arguments = JsonParser.parseString(request.arguments()).getAsJsonObject();
+            return Optional.of(toIdeaSearchAdmin(
+                    SortByEnum.valueOf(arguments.get("sortBy").getAsString()),
+                    getStringOrNull(arguments, "search"),
+                    arguments.has("filterCategoryIds") && arguments.get("filterCategoryIds").isJsonArray()
+                            ? Lists.newArrayList(arguments.getAsJsonArray("filterCategoryIds")).stream()
+                            .map(JsonElement::getAsString)
+                            .collect(ImmutableList.toImmutableList())
+                            : null,
+                    getStringOrNull(arguments, "filterAuthorId"),
+                    arguments.get("limit").getAsLong()));
+        } catch (RuntimeException ex) {
+            // Leave it to the tool executor to report invalid arguments
+            return Optional.empty();
+        }
+    }
+
+    private String getStringOrNull(JsonObject arguments, String name) {
+        JsonElement element = arguments.get(name);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
     }
 
     @Override
     public String searchPosts(String projectId, SortByEnum sortBy, String search, List<String> filterCategoryIds, String filterAuthorId, Long limit) {
-        ImmutableCollection<IdeaModel> posts = ideaStore.getIdeas(projectId, ideaStore.searchIdeas(projectId, IdeaSearchAdmin.builder()
-                                        .sortBy(sortBy)
-                                        .filterCategoryIds(filterCategoryIds)
-                                        .filterAuthorId(filterAuthorId)
-                                        .searchText(search)
-                                        .limit(limit)
-                                        .build(),
-                                false, Optional.empty())
-                        .getIdeaIds())
-                .values();
+        ImmutableList<String> postIds = ideaStore.searchIdeas(projectId,
+                        toIdeaSearchAdmin(sortBy, search, filterCategoryIds, filterAuthorId, limit),
+                        false, Optional.empty())
+                .getIdeaIds();
+        ImmutableList<IdeaModel> posts = inSearchOrder(postIds, ideaStore.getIdeas(projectId, postIds));
         log.info("Tool searchPosts found {} posts", posts.size());
+        return renderPosts(posts);
+    }
+
+    /**
+     * Posts are fetched by id in no particular order, restores the order of the search.
+     */
+    private ImmutableList<IdeaModel> inSearchOrder(ImmutableList<String> postIds, Map<String, IdeaModel> postsById) {
+        return postIds.stream()
+                .map(postsById::get)
+                .filter(Objects::nonNull)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private IdeaSearchAdmin toIdeaSearchAdmin(SortByEnum sortBy, String search, List<String> filterCategoryIds, String filterAuthorId, Long limit) {
+        return IdeaSearchAdmin.builder()
+                .sortBy(sortBy)
+                .filterCategoryIds(filterCategoryIds == null || filterCategoryIds.isEmpty() ? null : filterCategoryIds.stream()
+                        .distinct()
+                        .sorted()
+                        .collect(ImmutableList.toImmutableList()))
+                .filterAuthorId(Strings.emptyToNull(filterAuthorId))
+                .searchText(Strings.emptyToNull(search == null ? null : search.trim()))
+                .limit(limit)
+                .build();
+    }
+
+    private String renderPosts(ImmutableCollection<IdeaModel> posts) {
         String result = mustache
                 .compile(templateStrToolSearchPosts)
                 .execute(new PostsContext(
@@ -106,6 +361,11 @@ public class LangChainLlmToolingStore implements LlmToolingStore {
         return result;
     }
 
+    private String nonBlankResult(String result) {
+        // ToolExecution cannot have blank result
+        return Strings.isNullOrEmpty(result) || result.isBlank() ? "empty result" : result;
+    }
+
     @Value
     private static class PostsContext {
         List<PostContext> posts;
@@ -126,6 +386,8 @@ public class LangChainLlmToolingStore implements LlmToolingStore {
             @Override
             protected void configure() {
                 bind(LlmToolingStore.class).to(LangChainLlmToolingStore.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(LangChainLlmToolingStore.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
             }
         };
     }
@@ -6,11 +6,18 @@ import com.amazonaws.HttpMethod;
 import com.amazonaws.auth.internal.SignerConstants;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -40,6 +47,7 @@ import org.elasticsearch.common.Strings;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
@@ -48,10 +56,16 @@ import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 @Slf4j
 public class S3ContentStore extends ManagedService implements ContentStore {
@@ -59,6 +73,12 @@ public class S3ContentStore extends ManagedService implements ContentStore {
     private static final String KEY_PREFIX = "img/ugc/";
     private static final Pattern CONTENT_TYPE_URL_MATCHER_S3 = Pattern.compile("^(?<scheme>[^:]+)://(?<domain>[^/]+)/" + KEY_PREFIX + "(?<projectId>[^/]+)/(?<userId>[^/]+)/(?<fileName>[^?]+\\.(?<extension>[^.?]+))(?<query>\\?[^#]*)?$");
     private static final Pattern CONTENT_TYPE_URL_MATCHER_PROXY = Pattern.compile("^(?<scheme>[^:]+)://(?<domain>[^/]+)/api" + Application.RESOURCE_VERSION + "/project/(?<projectId>[^/]+)/content/proxy/userId/(?<userId>[^/]+)/file/(?<fileName>[^?]+\\.(?<extension>[^.?]+))(?<query>\\?[^#]*)?$");
+    /**
+     * Variants of an image share the id and extension, e.g. "abc.full.jpeg" and "abc.card.jpeg"
+     */
+    private static final Pattern VARIANT_FILE_NAME_MATCHER = Pattern.compile("^(?<id>[^/.]+)\\.(?<variant>" + Arrays.stream(ImageVariant.values())
+            .map(ImageVariant::getFileNameSuffix)
+            .collect(Collectors.joining("|")) + ")\\.(?<extension>[^.]+)$");
 
     public interface Config {
         @DefaultValue("clearflask-upload.s3.amazonaws.com")
@@ -84,6 +104,18 @@ public class S3ContentStore extends ManagedService implements ContentStore {
          */
         @DefaultValue("")
         String proxyResolveTo();
+
+        /**
+         * Uploads larger than this are streamed in parts rather than in a single request.
+         */
+        @DefaultValue("8388608")
+        long multipartThresholdInBytes();
+
+        /**
+         * S3 requires at least 5MB for all but the last part
+         */
+        @DefaultValue("5242880")
+        long multipartPartSizeInBytes();
     }
 
     @Inject
@@ -116,11 +148,49 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         ContentUrl contentUrl = generateContentUrl(projectId, userId, contentType, fileName);
         ObjectMetadata metadata = new ObjectMetadata();
         metadata.setContentType(contentType.getMediaType());
-        metadata.setContentLength(length);
-        s3.putObject(config.bucketName(), contentUrl.getKey(), inputStream, metadata);
+        if (length > config.multipartThresholdInBytes()) {
+            uploadMultipart(contentUrl.getKey(), metadata, inputStream, length);
+        } else {
+            metadata.setContentLength(length);
+            s3.putObject(config.bucketName(), contentUrl.getKey(), inputStream, metadata);
+        }
         return contentUrl;
     }
 
+    /**
+     * Streams the input in sequential parts so only a part at a time is in flight.
+     */
+    private void uploadMultipart(String key, ObjectMetadata metadata, InputStream inputStream, long length) {
+        String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(config.bucketName(), key, metadata))
+                .getUploadId();
+        try {
+            List<PartETag> partETags = Lists.newArrayList();
+            long partSize = Math.max(config.multipartPartSizeInBytes(), 5L * 1024 * 1024);
+            long offset = 0;
+            for (int partNumber = 1; offset < length; partNumber++) {
+                long size = Math.min(partSize, length - offset);
+                partETags.add(s3.uploadPart(new UploadPartRequest()
+                                .withBucketName(config.bucketName())
+                                .withKey(key)
+                                .withUploadId(uploadId)
+                                .withPartNumber(partNumber)
+                                .withInputStream(inputStream)
+                                .withPartSize(size)
+                                .withLastPart(offset + size >= length))
+                        .getPartETag());
+                offset += size;
+            }
+            s3.completeMultipartUpload(new CompleteMultipartUploadRequest(config.bucketName(), key, uploadId, partETags));
+        } catch (RuntimeException ex) {
+            try {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(config.bucketName(), key, uploadId));
+            } catch (RuntimeException abortEx) {
+                log.warn("Failed to abort multipart upload {} of {}", uploadId, key, abortEx);
+            }
+            throw ex;
+        }
+    }
+
     @Override
     public String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length) {
         ContentUrl contentUrl = upload(projectId, userId, contentType, inputStream, length);
@@ -133,6 +203,21 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         return signUrl(contentUrl);
     }
 
+    @Override
+    public String uploadVariantsAndSign(String projectId, String userId, ContentType contentType, ImmutableMap<ImageVariant, byte[]> variants) {
+        byte[] full = checkNotNull(variants.get(ImageVariant.FULL), "Full variant missing");
+        if (variants.size() == 1) {
+            return uploadAndSign(projectId, userId, contentType, new ByteArrayInputStream(full), full.length);
+        }
+        String id = IdUtil.randomId();
+        for (Map.Entry<ImageVariant, byte[]> variant : variants.entrySet()) {
+            upload(projectId, userId, contentType, new ByteArrayInputStream(variant.getValue()), variant.getValue().length,
+                    getVariantFileName(id, variant.getKey(), contentType.getExtension()));
+        }
+        return signUrl(generateContentUrl(projectId, userId, contentType,
+                getVariantFileName(id, ImageVariant.FULL, contentType.getExtension())));
+    }
+
     @Override
     public void proxy(String projectId, String userId, String object, String xAmzSecurityToken, String xAmzAlgorithm, String xAmzDate, String xAmzSignedHeaders, String xAmzExpires, String xAmzCredential, String xAmzSignature) throws WebApplicationException {
         if (!config.proxyEnabled()) {
@@ -213,7 +298,17 @@ public class S3ContentStore extends ManagedService implements ContentStore {
                 || (matchUserIdOpt.isPresent() && !matchUserIdOpt.get().equals(contentUrlOpt.get().getUserId()))) {
             return;
         }
-        s3.deleteObject(config.bucketName(), contentUrlOpt.get().getKey());
+        ContentUrl contentUrl = contentUrlOpt.get();
+        Matcher variantMatcher = VARIANT_FILE_NAME_MATCHER.matcher(contentUrl.getFileName());
+        if (!variantMatcher.matches()) {
+            s3.deleteObject(config.bucketName(), contentUrl.getKey());
+            return;
+        }
+        s3.deleteObjects(new DeleteObjectsRequest(config.bucketName())
+                .withKeys(Arrays.stream(ImageVariant.values())
+                        .map(variant -> getContentKey(contentUrl.getProjectId(), contentUrl.getUserId(),
+                                getVariantFileName(variantMatcher.group("id"), variant, variantMatcher.group("extension"))))
+                        .toArray(String[]::new)));
     }
 
     @Override
@@ -252,6 +347,27 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         return Optional.of(signUrl(contentUrlOpt.get()));
     }
 
+    @Override
+    public Optional<String> signUrl(String matchProjectId, String url, ImageVariant variant) {
+        Optional<ContentUrl> contentUrlOpt = parseContentUrl(url);
+        if (!contentUrlOpt.isPresent()
+                || !matchProjectId.equals(contentUrlOpt.get().getProjectId())) {
+            return Optional.empty();
+        }
+        ContentUrl contentUrl = contentUrlOpt.get();
+
+        Matcher variantMatcher = VARIANT_FILE_NAME_MATCHER.matcher(contentUrl.getFileName());
+        if (!variantMatcher.matches()) {
+            // Uploaded before variants or kept as is, e.g. animated GIF
+            return Optional.of(signUrl(contentUrl));
+        }
+        return Optional.of(signUrl(generateContentUrl(
+                contentUrl.getProjectId(),
+                contentUrl.getUserId(),
+                contentUrl.getContentType(),
+                getVariantFileName(variantMatcher.group("id"), variant, variantMatcher.group("extension")))));
+    }
+
     @Override
     @SneakyThrows
     public String signUrl(ContentUrl contentUrl) {
@@ -322,6 +438,10 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         return KEY_PREFIX + projectId + "/" + userId + "/" + fileName;
     }
 
+    private String getVariantFileName(String id, ImageVariant variant, String extension) {
+        return id + "." + variant.getFileNameSuffix() + "." + extension;
+    }
+
     private String getContentUrl(String path) {
         return config.scheme() + "://" + config.hostname() + "/" + path;
     }
@@ -97,6 +97,13 @@ public interface JiraClientProvider {
         // Issue operations
         JiraIssue getIssue(String issueKey) throws IOException;
 
+        /**
+         * Search issues using JQL, paginated using the token of the previous page.
+         *
+         * @param nextPageToken Token from the previous page or null for the first page
+         */
+        JiraIssueSearchPage searchIssues(String jql, String nextPageToken, int maxResults) throws IOException;
+
         JiraIssue createIssue(CreateIssueRequest request) throws IOException;
 
         JiraIssue updateIssue(String issueKey, UpdateIssueRequest request) throws IOException;
@@ -160,6 +167,13 @@ public interface JiraClientProvider {
         String updated;
     }
 
+    @Value
+    @Builder
+    class JiraIssueSearchPage {
+        @NonNull ImmutableList<JiraIssue> issues;
+        String nextPageToken;  // Null on last page
+    }
+
     @Value
     @Builder
     class JiraComment {
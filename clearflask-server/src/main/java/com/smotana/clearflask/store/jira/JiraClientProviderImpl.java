@@ -360,6 +360,39 @@ public class JiraClientProviderImpl implements JiraClientProvider {
             return parseIssue(json);
         }
 
+        @Override
+        public JiraIssueSearchPage searchIssues(String jql, String nextPageToken, int maxResults) throws IOException {
+            HttpPost request = new HttpPost(baseUrl + "/rest/api/3/search/jql");
+            request.setHeader("Content-Type", "application/json");
+
+            JsonObject body = new JsonObject();
+            body.addProperty("jql", jql);
+            body.addProperty("maxResults", maxResults);
+            if (nextPageToken != null) {
+                body.addProperty("nextPageToken", nextPageToken);
+            }
+            JsonArray fields = new JsonArray();
+            Stream.of("summary", "description", "status", "issuetype", "priority", "reporter", "assignee", "created", "updated")
+                    .forEach(fields::add);
+            body.add("fields", fields);
+
+            request.setEntity(new StringEntity(gson.toJson(body), Charsets.UTF_8));
+
+            JsonObject response = executeRequest(request, JsonObject.class);
+
+            ImmutableList.Builder<JiraIssue> issues = ImmutableList.builder();
+            if (response.has("issues")) {
+                for (JsonElement element : response.getAsJsonArray("issues")) {
+                    issues.add(parseIssue(element.getAsJsonObject()));
+                }
+            }
+            return JiraIssueSearchPage.builder()
+                    .issues(issues.build())
+                    .nextPageToken(response.has("nextPageToken") && !response.get("nextPageToken").isJsonNull()
+                            ? response.get("nextPageToken").getAsString() : null)
+                    .build();
+        }
+
         @Override
         public JiraIssue createIssue(CreateIssueRequest createRequest) throws IOException {
             HttpPost request = new HttpPost(baseUrl + "/rest/api/3/issue");
@@ -11,10 +11,12 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
@@ -48,6 +50,7 @@ import com.smotana.clearflask.store.jira.JiraClientProvider.JiraApiClient;
 import com.smotana.clearflask.store.jira.JiraClientProvider.JiraClient;
 import com.smotana.clearflask.store.jira.JiraClientProvider.JiraComment;
 import com.smotana.clearflask.store.jira.JiraClientProvider.JiraIssue;
+import com.smotana.clearflask.store.jira.JiraClientProvider.JiraIssueSearchPage;
 import com.smotana.clearflask.store.jira.JiraClientProvider.JiraIssueType;
 import com.smotana.clearflask.store.jira.JiraClientProvider.JiraProject;
 import com.smotana.clearflask.store.jira.JiraClientProvider.JiraCloudInstance;
@@ -69,6 +72,8 @@ import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Optional;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -81,6 +86,7 @@ import java.util.regex.Pattern;
 public class JiraStoreImpl extends ManagedService implements JiraStore {
 
     public static final String USER_GUID_JIRA_PREFIX = "jira-";
+    private static final DateTimeFormatter JIRA_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
     private static final Pattern JIRA_IDEA_ID_PATTERN = Pattern.compile("^jira-([A-Z]+-\\d+)-(.+)$");
     private static final Pattern JIRA_COMMENT_ID_PATTERN = Pattern.compile("^jira-(\\d+)-(.+)$");
 
@@ -527,19 +533,34 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 event.getReporterDisplayName(),
                 event.getReporterEmail());
 
-        // Convert ADF description to Quill
-        String descriptionQuill = null;
-        if (!Strings.isNullOrEmpty(event.getDescription())) {
-            try {
-                descriptionQuill = adfQuillConverter.adfToQuill(event.getDescription());
-            } catch (Exception e) {
-                log.warn("Failed to convert ADF to Quill for issue {}", event.getIssueKey(), e);
-                descriptionQuill = adfQuillConverter.plainTextToQuill(
-                        "Description conversion failed. View in Jira: " + event.getIssueUrl());
-            }
+        IdeaModel idea = jiraIssueToIdea(
+                project,
+                jiraConfig,
+                ideaId,
+                user,
+                Instant.now(),
+                event.getSummary(),
+                convertIssueDescription(event.getIssueKey(), event.getDescription(), event.getIssueUrl()),
+                getInitialStatusId(project, jiraConfig),
+                0L);
+
+        return Optional.of(ideaStore.createIdeaAndUpvote(idea));
+    }
+
+    private String convertIssueDescription(String issueKey, String descriptionAdf, String issueUrl) {
+        if (Strings.isNullOrEmpty(descriptionAdf)) {
+            return null;
+        }
+        try {
+            return adfQuillConverter.adfToQuill(descriptionAdf);
+        } catch (Exception e) {
+            log.warn("Failed to convert ADF to Quill for issue {}", issueKey, e);
+            return adfQuillConverter.plainTextToQuill(
+                    "Description conversion failed. View in Jira: " + issueUrl);
         }
+    }
 
-        // Determine initial status
+    private String getInitialStatusId(Project project, com.smotana.clearflask.api.model.Jira jiraConfig) {
         String statusId = jiraConfig.getInitialStatusId();
         if (statusId == null) {
             // Use workflow default
@@ -549,13 +570,20 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 statusId = category.get().getWorkflow().getStatuses().get(0).getStatusId();
             }
         }
+        return statusId;
+    }
+
+    private IdeaModel jiraIssueToIdea(Project project,
+            com.smotana.clearflask.api.model.Jira jiraConfig,
+            String ideaId, UserModel user, Instant created, String summary, String descriptionQuill,
+            String statusId, long commentCount) {
 
         // Build tags
         ImmutableSet<String> tagIds = jiraConfig.getCreateWithTags() != null
                 ? ImmutableSet.copyOf(jiraConfig.getCreateWithTags())
                 : ImmutableSet.of();
 
-        IdeaModel idea = new IdeaModel(
+        return new IdeaModel(
                 project.getProjectId(),
                 ideaId,
                 user.getUserId(),
@@ -563,8 +591,8 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 user.getIsMod(),
                 user.getPic(),
                 user.getPicUrl(),
-                Instant.now(),
-                event.getSummary(),  // title
+                created,
+                summary,  // title
                 descriptionQuill,    // description
                 null, // response
                 null, // responseAuthorUserId
@@ -575,8 +603,8 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 jiraConfig.getCreateWithCategoryId(),
                 statusId,
                 tagIds,
-                0L, // commentCount
-                0L, // childCommentCount
+                commentCount, // commentCount
+                commentCount, // childCommentCount
                 null, // funded
                 null, // fundGoal
                 null, // fundersCount
@@ -595,8 +623,6 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 null, // coverImg
                 null, // visibility
                 null); // adminNotes
-
-        return Optional.of(ideaStore.createIdeaAndUpvote(idea));
     }
 
     private Optional<IdeaAndIndexingFuture> handleIssueUpdated(Project project,
@@ -635,26 +661,12 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
 
         // Sync status from Jira to ClearFlask
         if (!Strings.isNullOrEmpty(event.getStatus())) {
-            if (jiraConfig.getStatusSync() != null
-                    && jiraConfig.getStatusSync().getStatusMap() != null) {
-
-                // Create reverse map (Jira status name → CF status ID)
-                Map<String, String> reversedMap = jiraConfig.getStatusSync().getStatusMap().entrySet().stream()
-                        .collect(ImmutableMap.toImmutableMap(Map.Entry::getValue, Map.Entry::getKey, (v1, v2) -> v1));
-
-                String mappedCfStatusId = reversedMap.get(event.getStatus());
-
-                // Fall back to default if no mapping found
-                if (mappedCfStatusId == null && jiraConfig.getStatusSync().getDefaultCfStatusId() != null) {
-                    mappedCfStatusId = jiraConfig.getStatusSync().getDefaultCfStatusId();
-                }
-
-                if (mappedCfStatusId != null && !mappedCfStatusId.equals(idea.getStatusId())) {
-                    builder.statusId(mappedCfStatusId);
-                    changed = true;
-                    log.info("Synced Jira status '{}' to ClearFlask status '{}' for idea {}",
-                            event.getStatus(), mappedCfStatusId, ideaId);
-                }
+            Optional<String> mappedCfStatusIdOpt = mapJiraStatusToCfStatusId(jiraConfig, event.getStatus());
+            if (mappedCfStatusIdOpt.isPresent() && !mappedCfStatusIdOpt.get().equals(idea.getStatusId())) {
+                builder.statusId(mappedCfStatusIdOpt.get());
+                changed = true;
+                log.info("Synced Jira status '{}' to ClearFlask status '{}' for idea {}",
+                        event.getStatus(), mappedCfStatusIdOpt.get(), ideaId);
             }
         }
 
@@ -670,6 +682,21 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                         .build()));
     }
 
+    private Optional<String> mapJiraStatusToCfStatusId(com.smotana.clearflask.api.model.Jira jiraConfig, String jiraStatusName) {
+        if (jiraConfig.getStatusSync() == null
+                || jiraConfig.getStatusSync().getStatusMap() == null) {
+            return Optional.empty();
+        }
+
+        // Create reverse map (Jira status name → CF status ID)
+        Map<String, String> reversedMap = jiraConfig.getStatusSync().getStatusMap().entrySet().stream()
+                .collect(ImmutableMap.toImmutableMap(Map.Entry::getValue, Map.Entry::getKey, (v1, v2) -> v1));
+
+        // Fall back to default if no mapping found
+        return Optional.ofNullable(reversedMap.get(jiraStatusName))
+                .or(() -> Optional.ofNullable(jiraConfig.getStatusSync().getDefaultCfStatusId()));
+    }
+
     private Optional<IdeaAndIndexingFuture> handleIssueDeleted(Project project, String ideaId) {
         Optional<IdeaModel> ideaOpt = ideaStore.getIdea(project.getProjectId(), ideaId);
         if (ideaOpt.isEmpty()) {
@@ -732,17 +759,30 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 event.getAuthorDisplayName(),
                 event.getAuthorEmail());
 
-        // Convert ADF to Quill
-        String contentQuill;
+        CommentModel comment = jiraCommentToComment(
+                project.getProjectId(),
+                ideaId,
+                commentId,
+                user,
+                Instant.now(),
+                convertCommentBody(event.getIssueKey(), event.getBody()));
+
+        return Optional.of(commentStore.createCommentAndUpvote(comment));
+    }
+
+    private String convertCommentBody(String issueKey, String bodyAdf) {
         try {
-            contentQuill = adfQuillConverter.adfToQuill(event.getBody());
+            return adfQuillConverter.adfToQuill(bodyAdf);
         } catch (Exception e) {
-            log.warn("Failed to convert ADF comment body for issue {}", event.getIssueKey(), e);
-            contentQuill = adfQuillConverter.plainTextToQuill("(Comment content conversion failed)");
+            log.warn("Failed to convert ADF comment body for issue {}", issueKey, e);
+            return adfQuillConverter.plainTextToQuill("(Comment content conversion failed)");
         }
+    }
 
-        CommentModel comment = new CommentModel(
-                project.getProjectId(),
+    private CommentModel jiraCommentToComment(String projectId, String ideaId, String commentId,
+            UserModel user, Instant created, String contentQuill) {
+        return new CommentModel(
+                projectId,
                 ideaId,
                 commentId,
                 ImmutableList.of(), // parentCommentIds - Jira doesn't have threaded comments by default
@@ -753,13 +793,11 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
                 user.getIsMod(),
                 user.getPic(),
                 user.getPicUrl(),
-                Instant.now(),
+                created,
                 null, // edited
                 contentQuill,
                 0, // upvotes
                 0); // downvotes
-
-        return Optional.of(commentStore.createCommentAndUpvote(comment));
     }
 
     private Optional<CommentAndIndexingFuture<?>> handleCommentUpdated(Project project,
@@ -1078,6 +1116,85 @@ public class JiraStoreImpl extends ManagedService implements JiraStore {
         });
     }
 
+    // ==================== Backfill ====================
+
+    @Override
+    public IssuePage listIssues(Project project, Optional<String> cursorOpt, int pageSize, RateLimiter budget) throws IOException {
+        var jiraConfig = project.getVersionedConfigAdmin().getConfig().getJira();
+        if (jiraConfig == null) {
+            throw new IllegalStateException("Jira integration not linked for project " + project.getProjectId());
+        }
+        JiraAuthorization auth = getAuthorizationWithRefresh(project.getAccountId(), jiraConfig.getCloudId())
+                .orElseThrow(() -> new IllegalStateException("No Jira authorization for project " + project.getProjectId()));
+        JiraApiClient apiClient = jiraClientProvider.getClient(jiraConfig.getCloudId(), auth.getAccessToken()).getApiClient();
+
+        budget.acquire();
+        JiraIssueSearchPage searchPage = apiClient.searchIssues(
+                "project = \"" + jiraConfig.getProjectKey() + "\" ORDER BY created ASC",
+                cursorOpt.orElse(null),
+                pageSize);
+
+        Map<String, UserModel> usersByJiraAccountId = Maps.newConcurrentMap();
+        ImmutableList.Builder<PendingIssue> pendingIssuesBuilder = ImmutableList.builder();
+        for (JiraIssue jiraIssue : searchPage.getIssues()) {
+            String ideaId = genDeterministicIdeaIdForJiraIssue(jiraIssue.getKey(), jiraConfig.getCloudId());
+            String issueUrl = "https://" + jiraConfig.getCloudName() + ".atlassian.net/browse/" + jiraIssue.getKey();
+            pendingIssuesBuilder.add(new PendingIssue(ideaId, () -> {
+                ImmutableList.Builder<CommentModel> commentsBuilder = ImmutableList.builder();
+                if (Boolean.TRUE.equals(jiraConfig.getCommentSync())) {
+                    budget.acquire();
+                    for (JiraComment jiraComment : apiClient.getComments(jiraIssue.getKey())) {
+                        String commentId = genDeterministicCommentIdForJiraComment(jiraComment.getId(), jiraConfig.getCloudId());
+                        commentsBuilder.add(jiraCommentToComment(
+                                project.getProjectId(),
+                                ideaId,
+                                commentId,
+                                getCfUserFromJiraUserCached(project.getProjectId(), jiraComment.getAuthor(), usersByJiraAccountId),
+                                parseJiraTimestamp(jiraComment.getCreated()),
+                                convertCommentBody(jiraIssue.getKey(), jiraComment.getBody())));
+                    }
+                }
+                ImmutableList<CommentModel> comments = commentsBuilder.build();
+                return new ImportedIssue(jiraIssueToIdea(
+                        project,
+                        jiraConfig,
+                        ideaId,
+                        getCfUserFromJiraUserCached(project.getProjectId(), jiraIssue.getReporter(), usersByJiraAccountId),
+                        parseJiraTimestamp(jiraIssue.getCreated()),
+                        jiraIssue.getSummary(),
+                        convertIssueDescription(jiraIssue.getKey(), jiraIssue.getDescription(), issueUrl),
+                        Optional.ofNullable(jiraIssue.getStatus())
+                                .flatMap(status -> mapJiraStatusToCfStatusId(jiraConfig, status.getName()))
+                                .orElseGet(() -> getInitialStatusId(project, jiraConfig)),
+                        comments.size()), comments);
+            }));
+        }
+        return new IssuePage(pendingIssuesBuilder.build(), Optional.ofNullable(searchPage.getNextPageToken()));
+    }
+
+    private UserModel getCfUserFromJiraUserCached(String projectId, JiraClientProvider.JiraUser jiraUser, Map<String, UserModel> cache) {
+        if (jiraUser == null) {
+            return getCfUserFromJiraUser(projectId, null, null, null);
+        }
+        return cache.computeIfAbsent(jiraUser.getAccountId(), accountId -> getCfUserFromJiraUser(
+                projectId,
+                accountId,
+                jiraUser.getDisplayName(),
+                jiraUser.getEmailAddress()));
+    }
+
+    private Instant parseJiraTimestamp(String timestamp) {
+        if (Strings.isNullOrEmpty(timestamp)) {
+            return Instant.now();
+        }
+        try {
+            return JIRA_TIMESTAMP_FORMATTER.parse(timestamp, Instant::from);
+        } catch (DateTimeParseException ex) {
+            log.debug("Failed to parse Jira timestamp {}", timestamp, ex);
+            return Instant.now();
+        }
+    }
+
     // ==================== Helper methods ====================
 
     private UserModel getCfUserFromJiraUser(String projectId, String accountId,
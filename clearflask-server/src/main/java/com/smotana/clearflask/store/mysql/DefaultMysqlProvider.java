@@ -3,27 +3,38 @@
 package com.smotana.clearflask.store.mysql;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Module;
 import com.google.inject.*;
 import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.kik.config.ice.annotations.NoDefaultValue;
-import com.mysql.cj.jdbc.MysqlDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.core.ServiceInjector.Environment;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.CloseableDSLContext;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListenerProvider;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.smotana.clearflask.util.IdUtil.CONTENT_UNIQUE_MAX_LENGTH;
 import static com.smotana.clearflask.util.IdUtil.UUID_DASHLESS_MAX_LENGTH;
@@ -50,6 +61,49 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
         @DefaultValue("clearflask")
         String databaseName();
 
+        @DefaultValue("2")
+        int poolMinIdle();
+
+        @DefaultValue("20")
+        int poolMaxSize();
+
+        /**
+         * Max time to wait for a connection from the pool before failing the query.
+         */
+        @DefaultValue("PT10S")
+        Duration poolConnectionTimeout();
+
+        @DefaultValue("PT5S")
+        Duration poolValidationTimeout();
+
+        @DefaultValue("PT10M")
+        Duration poolIdleTimeout();
+
+        /**
+         * Should be a few seconds shorter than the database's wait_timeout.
+         */
+        @DefaultValue("PT30M")
+        Duration poolMaxLifetime();
+
+        /**
+         * Logs a warning with the stack trace of the borrower if a connection is out of the pool for longer. Zero
+         * to disable.
+         */
+        @DefaultValue("PT1M")
+        Duration poolLeakDetectionThreshold();
+
+        /**
+         * Threads for async queries, more than the pool size will only wait on a connection.
+         */
+        @DefaultValue("20")
+        int asyncExecutorThreads();
+
+        /**
+         * Once full, async queries are run on the caller's thread to slow down the producer.
+         */
+        @DefaultValue("10000")
+        int asyncExecutorQueueSize();
+
         /**
          * For testing only
          */
@@ -71,53 +125,100 @@ public class DefaultMysqlProvider extends ManagedService implements Provider<DSL
     private Environment env;
     @Inject
     private Provider<DSLContext> clientProvider;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private Optional<DSLContext> clientOpt = Optional.empty();
+    private Optional<HikariDataSource> dataSourceOpt = Optional.empty();
+    private Optional<ExecutorService> executorOpt = Optional.empty();
 
     @SneakyThrows
     @Override
-    public DSLContext get() {
+    public synchronized DSLContext get() {
         if (clientOpt.isPresent()) return clientOpt.get();
 
-        if (configApp.startupWaitUntilDeps()) {
-            log.info("Waiting for Mysql to be up {}:{}", config.host(), config.port());
-            try {
-                NetworkUtil.waitUntilPortOpen(config.host(), config.port());
-            } catch (IOException ex) {
-                throw new ProvisionException("Failed to wait until Mysql port opened", ex);
-            }
-        }
+        waitUntilUp();
 
         log.info("Opening Mysql client on {}:{}", config.host(), config.port());
         Class.forName("com.mysql.cj.jdbc.Driver");
         System.setProperty("org.jooq.no-logo", "true");
-        MysqlDataSource dataSource = new MysqlDataSource();
-        dataSource.setURL(getConnectionUrl(true));
-        dataSource.setPassword(config.pass());
-        dataSource.setUser(config.user());
-        dataSource.setDatabaseName(config.databaseName());
-        clientOpt = Optional.of(DSL.using(dataSource, SQLDialect.MYSQL));
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("mysql");
+        hikariConfig.setDriverClassName("com.mysql.cj.jdbc.Driver");
+        hikariConfig.setJdbcUrl(getConnectionUrl(true));
+        hikariConfig.setUsername(config.user());
+        hikariConfig.setPassword(config.pass());
+        hikariConfig.setMinimumIdle(config.poolMinIdle());
+        hikariConfig.setMaximumPoolSize(config.poolMaxSize());
+        hikariConfig.setConnectionTimeout(config.poolConnectionTimeout().toMillis());
+        hikariConfig.setValidationTimeout(config.poolValidationTimeout().toMillis());
+        hikariConfig.setIdleTimeout(config.poolIdleTimeout().toMillis());
+        hikariConfig.setMaxLifetime(config.poolMaxLifetime().toMillis());
+        hikariConfig.setLeakDetectionThreshold(config.poolLeakDetectionThreshold().toMillis());
+        // Connect lazily as before, the database may not exist yet until created on startup
+        hikariConfig.setInitializationFailTimeout(-1);
+        hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
+        hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        // Sends a JDBC batch in a single round trip, see MysqlUtil.sequentialBatch
+        hikariConfig.addDataSourceProperty("rewriteBatchedStatements", "true");
+        hikariConfig.setMetricRegistry(meterRegistry);
+        HikariDataSource dataSource = new HikariDataSource(hikariConfig);
+        dataSourceOpt = Optional.of(dataSource);
+
+        ExecutorService executor = ExecutorServiceMetrics.monitor(meterRegistry, new ThreadPoolExecutor(
+                config.asyncExecutorThreads(), config.asyncExecutorThreads(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.asyncExecutorQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("DefaultMysqlProvider-async-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()), "DefaultMysqlProvider");
+        executorOpt = Optional.of(executor);
+
+        clientOpt = Optional.of(DSL.using(new DefaultConfiguration()
+                .set(dataSource)
+                .set(SQLDialect.MYSQL)
+                .set(executor)
+                .set(new DefaultExecuteListenerProvider(new MysqlMetricsListener(meterRegistry)))));
         return clientOpt.get();
     }
 
     @Override
     protected void serviceStart() throws Exception {
         if (configApp.defaultSearchEngine().isWriteMysql()) {
-            clientProvider.get(); // Load eagerly when enabled
+            // Database is created prior to opening the pool as pooled connections are opened against it
             if (configApp.createIndexesOnStartup()) {
+                waitUntilUp();
                 if (config.recreateDatabaseOnStartup()) {
                     dropDatabase();
                 }
                 createDatabase();
             }
+            clientProvider.get(); // Load eagerly when enabled
+        }
+    }
+
+    private void waitUntilUp() {
+        if (configApp.startupWaitUntilDeps()) {
+            log.info("Waiting for Mysql to be up {}:{}", config.host(), config.port());
+            try {
+                NetworkUtil.waitUntilPortOpen(config.host(), config.port());
+            } catch (IOException ex) {
+                throw new ProvisionException("Failed to wait until Mysql port opened", ex);
+            }
         }
     }
 
     @Override
     protected void serviceStop() throws Exception {
+        if (executorOpt.isPresent()) {
+            executorOpt.get().shutdown();
+            executorOpt.get().awaitTermination(30, TimeUnit.SECONDS);
+        }
         if (config.dropDatabaseOnShutdown() && configApp.defaultSearchEngine().isWriteMysql()) {
             dropDatabase();
         }
+        if (dataSourceOpt.isPresent()) {
+            dataSourceOpt.get().close();
+        }
     }
 
     @Extern
@@ -0,0 +1,55 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.mysql;
+
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteType;
+import org.jooq.impl.DefaultExecuteListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each statement executed through jOOQ, from rendering to the end of fetching, tagged by {@link ExecuteType}.
+ */
+public class MysqlMetricsListener extends DefaultExecuteListener {
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "client";
+    private static final String START_NANOS_KEY = "clearflask.metrics.startNanos";
+    private static final ExecuteType[] EXECUTE_TYPES = ExecuteType.values();
+
+    private final Timer[] successTimers = new Timer[EXECUTE_TYPES.length];
+    private final Timer[] errorTimers = new Timer[EXECUTE_TYPES.length];
+
+    public MysqlMetricsListener(MeterRegistry registry) {
+        for (ExecuteType type : EXECUTE_TYPES) {
+            successTimers[type.ordinal()] = createTimer(registry, type, "success");
+            errorTimers[type.ordinal()] = createTimer(registry, type, "error");
+        }
+    }
+
+    @Override
+    public void start(ExecuteContext ctx) {
+        ctx.data(START_NANOS_KEY, System.nanoTime());
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) {
+        Object startNanos = ctx.data(START_NANOS_KEY);
+        if (!(startNanos instanceof Long)) {
+            return;
+        }
+        (ctx.exception() == null ? successTimers : errorTimers)[ctx.type().ordinal()]
+                .record(System.nanoTime() - (Long) startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Timer createTimer(MeterRegistry registry, ExecuteType type, String outcome) {
+        return Timer.builder(METER_NAME)
+                .tag("engine", "mysql")
+                .tag("operation", type.name())
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -18,11 +18,11 @@ import com.smotana.clearflask.util.ServerSecret;
 import lombok.SneakyThrows;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
-import org.jetbrains.annotations.NotNull;
 import org.jooq.*;
 import org.jooq.exception.DataAccessException;
 import org.jooq.exception.SQLStateClass;
 import org.jooq.impl.DSL;
+import org.jooq.util.mysql.MySQLDSL;
 
 import javax.annotation.Nullable;
 import java.io.Reader;
@@ -36,8 +36,11 @@ import java.util.Comparator;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Singleton
@@ -64,16 +67,57 @@ public class MysqlUtil {
     }
 
     public CompletionStage<Integer> sequentialBatch(Queries queries) {
-        @NotNull Query[] qs = queries.queries();
-        if (qs.length <= 0) {
+        return sequentialBatch(Arrays.asList(queries.queries()));
+    }
+
+    /**
+     * Executes queries in order as a single JDBC batch within one transaction, one round trip instead of one per
+     * query.
+     */
+    public CompletionStage<Integer> sequentialBatch(Collection<? extends Query> queries) {
+        if (queries.isEmpty()) {
             return CompletableFuture.completedFuture(0);
+        } else if (queries.size() == 1) {
+            return queries.iterator().next().executeAsync();
+        }
+        return mysql.get().transactionResultAsync(configuration -> sequentialBatchSync(DSL.using(configuration), queries));
+    }
+
+    /**
+     * Blocking variant of {@link #sequentialBatch(Collection)}.
+     */
+    public int sequentialBatchSync(Collection<? extends Query> queries) {
+        if (queries.isEmpty()) {
+            return 0;
+        } else if (queries.size() == 1) {
+            return queries.iterator().next().execute();
         }
-        CompletionStage<Integer> completionStage = qs[0].executeAsync();
-        for (int i = 1; i < qs.length; i++) {
-            Query nextQuery = qs[i];
-            completionStage = completionStage.thenComposeAsync(count -> nextQuery.executeAsync());
+        return mysql.get().transactionResult(configuration -> sequentialBatchSync(DSL.using(configuration), queries));
+    }
+
+    private int sequentialBatchSync(DSLContext context, Collection<? extends Query> queries) {
+        return IntStream.of(context.batch(queries).execute())
+                // Rewritten batches report Statement.SUCCESS_NO_INFO
+                .filter(count -> count > 0)
+                .sum();
+    }
+
+    /**
+     * Single multi-row insert of all records overwriting existing rows with the same key. Only fields changed on any
+     * of the records are overwritten.
+     */
+    public <R extends TableRecord<R>> Optional<Query> upsert(Collection<R> records) {
+        if (records.isEmpty()) {
+            return Optional.empty();
         }
-        return completionStage;
+        Table<R> table = records.iterator().next().getTable();
+        Map<Field<?>, Field<?>> updates = Arrays.stream(table.fields())
+                .filter(field -> records.stream().anyMatch(record -> record.changed(field)))
+                .collect(Collectors.toMap(Function.identity(), MySQLDSL::values, (a, b) -> a, LinkedHashMap::new));
+        return Optional.of(mysql.get().insertInto(table, table.fields())
+                .valuesOfRecords(records)
+                .onDuplicateKeyUpdate()
+                .set(updates));
     }
 
     public void createIndexIfNotExists(CreateIndexIncludeStep query) {
@@ -1388,9 +1388,7 @@ public class SlackStoreImpl extends ManagedService implements SlackStore {
         sb.append(categoryOpt.map(Category::getName).orElse("Unknown"));
 
         if (!Strings.isNullOrEmpty(idea.getStatusId())) {
-            categoryOpt.flatMap(cat -> cat.getWorkflow().getStatuses().stream()
-                            .filter(s -> idea.getStatusId().equals(s.getStatusId()))
-                            .findFirst())
+            project.getStatus(idea.getCategoryId(), idea.getStatusId())
                     .ifPresent(status -> sb.append(" • ").append(status.getName()));
         }
 
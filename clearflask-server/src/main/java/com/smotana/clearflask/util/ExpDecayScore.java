@@ -19,8 +19,24 @@ public class ExpDecayScore {
      * If changed, also change in exp-decay.painless and exp-decay.sql
      */
     public double updateScore(double prevScore, long timeInMillis) {
-        double u = Math.max(prevScore, rate * timeInMillis);
-        double v = Math.min(prevScore, rate * timeInMillis);
+        return combineScores(prevScore, rate * timeInMillis);
+    }
+
+    /**
+     * Score is the log of the sum of exponentials of each event's time, so two scores accumulated separately
+     * can be combined into the same result as if all events were applied to a single score in any order.
+     */
+    public double combineScores(double scoreA, double scoreB) {
+        double u = Math.max(scoreA, scoreB);
+        double v = Math.min(scoreA, scoreB);
         return u + Math.log1p(Math.exp(v - u));
     }
+
+    /**
+     * Inverse of a single event's contribution. Allows applying an accumulated score through
+     * {@link #updateScore(double, long)} and its painless and sql counterparts.
+     */
+    public long toTimeInMillis(double score) {
+        return Math.round(score / rate);
+    }
 }
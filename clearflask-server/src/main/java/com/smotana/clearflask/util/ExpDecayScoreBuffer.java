@@ -0,0 +1,52 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accumulates {@link ExpDecayScore} events per project and item in memory so they can be applied in bulk.
+ * Draining a project returns, for each item, a single score equivalent to all of its events since the last drain.
+ */
+public class ExpDecayScoreBuffer {
+
+    private final ExpDecayScore expDecayScore;
+    /** Inner maps are only accessed within compute of the outer map which locks per project */
+    private final ConcurrentHashMap<String, Map<String, Double>> pendingByProject = new ConcurrentHashMap<>();
+
+    public ExpDecayScoreBuffer(ExpDecayScore expDecayScore) {
+        this.expDecayScore = expDecayScore;
+    }
+
+    public void add(String projectId, String itemId, long timeInMillis) {
+        double score = expDecayScore.updateScore(Double.NEGATIVE_INFINITY, timeInMillis);
+        pendingByProject.compute(projectId, (p, pending) -> {
+            if (pending == null) {
+                pending = new HashMap<>();
+            }
+            pending.merge(itemId, score, expDecayScore::combineScores);
+            return pending;
+        });
+    }
+
+    public ImmutableSet<String> getProjectIds() {
+        return ImmutableSet.copyOf(pendingByProject.keySet());
+    }
+
+    public ImmutableMap<String, Double> drain(String projectId) {
+        Map<String, Double> pending = pendingByProject.remove(projectId);
+        return pending == null ? ImmutableMap.of() : ImmutableMap.copyOf(pending);
+    }
+
+    /**
+     * Approximate number of pending items across all projects.
+     */
+    public int size() {
+        return pendingByProject.reduceValuesToInt(Long.MAX_VALUE, Map::size, 0, Integer::sum);
+    }
+}
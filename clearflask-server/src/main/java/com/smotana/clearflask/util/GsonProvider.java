@@ -4,12 +4,15 @@ package com.smotana.clearflask.util;
 
 import com.dampcake.gson.immutable.ImmutableAdapterFactory;
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.inject.Module;
 import com.google.inject.*;
 import com.smotana.clearflask.api.model.ConfigAdmin;
 import lombok.extern.slf4j.Slf4j;
 import org.joda.time.DateTime;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -38,10 +41,10 @@ public class GsonProvider implements Provider<Gson> {
                 .disableHtmlEscaping()
                 .registerTypeAdapterFactory(ImmutableAdapterFactory.forGuava())
                 .registerTypeAdapterFactory(new GsonNonNullAdapterFactory())
-                .registerTypeAdapter(Instant.class, new InstantTypeConverter())
-                .registerTypeAdapter(LocalDate.class, new LocalDateTypeConverter())
-                .registerTypeAdapter(DateTime.class, new DateTimeTypeConverter())
-                .registerTypeAdapter(org.joda.time.LocalDate.class, new JodaLocalDateTypeConverter())
+                .registerTypeAdapter(Instant.class, new InstantTypeConverter().nullSafe())
+                .registerTypeAdapter(LocalDate.class, new LocalDateTypeConverter().nullSafe())
+                .registerTypeAdapter(DateTime.class, new DateTimeTypeConverter().nullSafe())
+                .registerTypeAdapter(org.joda.time.LocalDate.class, new JodaLocalDateTypeConverter().nullSafe())
                 .registerTypeAdapterFactory(ExplicitNull.get());
         if (useConfigAdminUpgrader) {
             gsonBuilder.registerTypeAdapter(ConfigAdmin.class, new ConfigAdminUpgrader());
@@ -49,55 +52,55 @@ public class GsonProvider implements Provider<Gson> {
         return gsonBuilder.create();
     }
 
-    private static class InstantTypeConverter
-            implements JsonSerializer<Instant>, JsonDeserializer<Instant> {
+    /**
+     * Streaming adapters rather than JsonSerializer/JsonDeserializer to avoid building an intermediate JsonElement
+     * tree, these are written for every timestamp in every response.
+     */
+    private static class InstantTypeConverter extends TypeAdapter<Instant> {
         @Override
-        public JsonElement serialize(Instant src, Type srcType, JsonSerializationContext context) {
-            return new JsonPrimitive(src.toString());
+        public void write(JsonWriter out, Instant value) throws IOException {
+            out.value(value.toString());
         }
 
         @Override
-        public Instant deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-            return Instant.parse(json.getAsString());
+        public Instant read(JsonReader in) throws IOException {
+            return Instant.parse(in.nextString());
         }
     }
 
-    private static class LocalDateTypeConverter
-            implements JsonSerializer<LocalDate>, JsonDeserializer<LocalDate> {
+    private static class LocalDateTypeConverter extends TypeAdapter<LocalDate> {
         @Override
-        public JsonElement serialize(LocalDate src, Type srcType, JsonSerializationContext context) {
-            return new JsonPrimitive(src.format(DateTimeFormatter.ISO_LOCAL_DATE));
+        public void write(JsonWriter out, LocalDate value) throws IOException {
+            out.value(value.format(DateTimeFormatter.ISO_LOCAL_DATE));
         }
 
         @Override
-        public LocalDate deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-            return LocalDate.parse(json.getAsString(), DateTimeFormatter.ISO_LOCAL_DATE);
+        public LocalDate read(JsonReader in) throws IOException {
+            return LocalDate.parse(in.nextString(), DateTimeFormatter.ISO_LOCAL_DATE);
         }
     }
 
-    private static class DateTimeTypeConverter
-            implements JsonSerializer<DateTime>, JsonDeserializer<DateTime> {
+    private static class DateTimeTypeConverter extends TypeAdapter<DateTime> {
         @Override
-        public JsonElement serialize(DateTime src, Type srcType, JsonSerializationContext context) {
-            return new JsonPrimitive(src.toString());
+        public void write(JsonWriter out, DateTime value) throws IOException {
+            out.value(value.toString());
         }
 
         @Override
-        public DateTime deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-            return DateTime.parse(json.getAsString());
+        public DateTime read(JsonReader in) throws IOException {
+            return DateTime.parse(in.nextString());
         }
     }
 
-    private static class JodaLocalDateTypeConverter
-            implements JsonSerializer<org.joda.time.LocalDate>, JsonDeserializer<org.joda.time.LocalDate> {
+    private static class JodaLocalDateTypeConverter extends TypeAdapter<org.joda.time.LocalDate> {
         @Override
-        public JsonElement serialize(org.joda.time.LocalDate src, Type srcType, JsonSerializationContext context) {
-            return new JsonPrimitive(src.toString());
+        public void write(JsonWriter out, org.joda.time.LocalDate value) throws IOException {
+            out.value(value.toString());
         }
 
         @Override
-        public org.joda.time.LocalDate deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-            return org.joda.time.LocalDate.parse(json.getAsString());
+        public org.joda.time.LocalDate read(JsonReader in) throws IOException {
+            return org.joda.time.LocalDate.parse(in.nextString());
         }
     }
 
@@ -13,7 +13,10 @@ import com.kik.config.ice.annotations.NoDefaultValue;
 import com.smotana.clearflask.core.ServiceInjector;
 import com.smotana.clearflask.security.limiter.LimiterDynamicFeature;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.web.filter.GzipWriterInterceptor;
+import com.smotana.clearflask.web.filter.ResponseCacheFilter;
 import com.smotana.clearflask.web.security.AuthenticationFilter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.sentry.Sentry;
 import lombok.extern.slf4j.Slf4j;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -98,10 +101,13 @@ public class Application extends ResourceConfig {
         injector.getInstance(new Key<Set<Object>>(Names.named(RESOURCE_NAME)) {
         }).forEach(this::register);
         register(GsonMessageBody.class);
+        register(GzipWriterInterceptor.class);
+        register(ResponseCacheFilter.class);
         register(AuthenticationFilter.class);
         register(RolesAllowedDynamicFeature.class);
         register(LimiterDynamicFeature.class);
         register(SseFeature.class);
+        register(new ResourceMetricsListener(injector.getInstance(MeterRegistry.class)));
 
         log.info("Initializing HK2-Guice bridge");
         GuiceBridge.getGuiceBridge().initializeGuiceBridge(serviceLocator);
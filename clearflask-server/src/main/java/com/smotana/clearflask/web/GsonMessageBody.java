@@ -3,6 +3,7 @@
 package com.smotana.clearflask.web;
 
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
@@ -33,6 +34,11 @@ public class GsonMessageBody implements MessageBodyWriter<Object>, MessageBodyRe
         ServiceInjector.INSTANCE.get().injectMembers(this);
     }
 
+    @VisibleForTesting
+    public GsonMessageBody(Gson gson) {
+        this.gson = gson;
+    }
+
     @Override
     public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
         return true;
@@ -68,7 +74,8 @@ public class GsonMessageBody implements MessageBodyWriter<Object>, MessageBodyRe
             MediaType mediaType,
             MultivaluedMap<String, Object> httpHeaders,
             OutputStream entityStream) throws IOException {
-        try (OutputStreamWriter writer = new OutputStreamWriter(entityStream, Charsets.UTF_8)) {
+        // Gson writes many small strings, buffering chars in front of the UTF-8 encoder avoids encoding each one separately
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(entityStream, Charsets.UTF_8))) {
             gson.toJson(object, genericType, writer);
         } catch (JsonIOException ex) {
             throw new IOException("Failed to construct JSON", ex);
@@ -0,0 +1,74 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web;
+
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every matched JAX-RS resource method, tagged by resource class, method and response outcome.
+ * Requests that never matched a resource (404s, preflight) are not recorded to keep cardinality bounded.
+ */
+public class ResourceMetricsListener implements ApplicationEventListener {
+
+    public static final String METER_NAME = MeterRegistryProvider.METER_PREFIX + "resource";
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<Method, Timer[]> timersByMethod = new ConcurrentHashMap<>();
+
+    public ResourceMetricsListener(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        // No-op
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        long startNanos = System.nanoTime();
+        return event -> {
+            if (event.getType() != RequestEvent.Type.FINISHED) {
+                return;
+            }
+            ResourceMethod resourceMethod = event.getUriInfo().getMatchedResourceMethod();
+            if (resourceMethod == null) {
+                return;
+            }
+            Method method = resourceMethod.getInvocable().getDefinitionMethod();
+            ContainerResponse response = event.getContainerResponse();
+            Outcome outcome = response != null
+                    ? Outcome.forStatus(response.getStatus())
+                    : Outcome.SERVER_ERROR;
+            timersByMethod.computeIfAbsent(method, this::createTimers)[outcome.ordinal()]
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        };
+    }
+
+    private Timer[] createTimers(Method method) {
+        Timer[] timers = new Timer[OUTCOMES.length];
+        for (Outcome outcome : OUTCOMES) {
+            timers[outcome.ordinal()] = Timer.builder(METER_NAME)
+                    .tag("resource", method.getDeclaringClass().getSimpleName())
+                    .tag("method", method.getName())
+                    .tag("outcome", outcome.name())
+                    .register(registry);
+        }
+        return timers;
+    }
+}
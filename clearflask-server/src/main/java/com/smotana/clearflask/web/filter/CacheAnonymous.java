@@ -0,0 +1,18 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.filter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Responses of unauthenticated requests to this method are cached by {@link ResponseCacheFilter}. The response must
+ * only depend on the project's posts and config, the request path, query and body.
+ */
+@Retention(RUNTIME)
+@Target({METHOD})
+public @interface CacheAnonymous {
+}
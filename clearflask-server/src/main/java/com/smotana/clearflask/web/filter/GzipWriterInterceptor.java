@@ -0,0 +1,134 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.filter;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses JSON responses for clients that accept it. Event streams are left alone as they need each event
+ * flushed as it is sent.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class GzipWriterInterceptor implements WriterInterceptor {
+    static final String GZIP = "gzip";
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("8192")
+        int bufferSize();
+    }
+
+    @Context
+    private HttpHeaders requestHeaders;
+    @Inject
+    private Config config;
+
+    public GzipWriterInterceptor() {
+    }
+
+    @VisibleForTesting
+    GzipWriterInterceptor(Config config, HttpHeaders requestHeaders) {
+        this.config = config;
+        this.requestHeaders = requestHeaders;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        if (!shouldCompress(context)) {
+            context.proceed();
+            return;
+        }
+
+        MultivaluedMap<String, Object> responseHeaders = context.getHeaders();
+        responseHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+        responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        responseHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+
+        OutputStream outputStream = context.getOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, config.bufferSize());
+        context.setOutputStream(gzipOutputStream);
+        try {
+            context.proceed();
+        } finally {
+            gzipOutputStream.finish();
+            context.setOutputStream(outputStream);
+        }
+    }
+
+    private boolean shouldCompress(WriterInterceptorContext context) {
+        if (!config.enabled()
+                || context.getMediaType() == null
+                || !MediaType.APPLICATION_JSON_TYPE.isCompatible(context.getMediaType())
+                || context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return false;
+        }
+        if (requestHeaders.getAcceptableMediaTypes().stream()
+                .anyMatch(MediaType.SERVER_SENT_EVENTS_TYPE::equals)) {
+            return false;
+        }
+        return acceptsGzip(requestHeaders);
+    }
+
+    static boolean acceptsGzip(HttpHeaders requestHeaders) {
+        List<String> acceptEncodings = requestHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncodings == null) {
+            return false;
+        }
+        for (String acceptEncodingHeader : acceptEncodings) {
+            for (String acceptEncoding : acceptEncodingHeader.split(",")) {
+                String[] encodingAndParams = acceptEncoding.trim().split(";");
+                if (GZIP.equalsIgnoreCase(encodingAndParams[0].trim())
+                        && !isQualityZero(encodingAndParams)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isQualityZero(String[] encodingAndParams) {
+        for (int i = 1; i < encodingAndParams.length; i++) {
+            String param = encodingAndParams[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2)) <= 0d;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(GzipWriterInterceptor.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
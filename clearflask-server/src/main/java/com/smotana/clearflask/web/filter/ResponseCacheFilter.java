@@ -0,0 +1,271 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.filter;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
+import com.smotana.clearflask.web.util.ResponseCache;
+import com.smotana.clearflask.web.util.ResponseCache.CacheKey;
+import com.smotana.clearflask.web.util.ResponseCache.CachedResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Method;
+import java.security.Principal;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves unauthenticated requests to {@link CacheAnonymous} methods from {@link ResponseCache}. On a miss, the
+ * response is serialized and gzipped once here and stored for subsequent requests.
+ * <p>
+ * Runs after authentication and authorization so cached responses are only served to requests that would be allowed
+ * anyway, and writes before {@link GzipWriterInterceptor} as cached bodies are already compressed.
+ */
+@Slf4j
+@Provider
+@Priority(Priorities.ENTITY_CODER - 10)
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+    private static final String PROPERTY_CACHE_KEY = ResponseCacheFilter.class.getName() + ".cacheKey";
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("4096")
+        int maxRequestBodyBytes();
+    }
+
+    @Context
+    private ResourceInfo resourceInfo;
+    @Context
+    private HttpHeaders requestHeaders;
+    @Inject
+    private Config config;
+    @Inject
+    private ResponseCache responseCache;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private Gson gson;
+
+    public ResponseCacheFilter() {
+    }
+
+    @VisibleForTesting
+    ResponseCacheFilter(Config config, ResponseCache responseCache, ProjectStore projectStore, Gson gson, ResourceInfo resourceInfo, HttpHeaders requestHeaders) {
+        this.config = config;
+        this.responseCache = responseCache;
+        this.projectStore = projectStore;
+        this.gson = gson;
+        this.resourceInfo = resourceInfo;
+        this.requestHeaders = requestHeaders;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        Method resourceMethod = resourceInfo.getResourceMethod();
+        if (!config.enabled()
+                || resourceMethod == null
+                || !resourceMethod.isAnnotationPresent(CacheAnonymous.class)
+                || !isAnonymous(requestContext.getSecurityContext())) {
+            return;
+        }
+
+        Optional<Project> projectOpt = getPathParameter(requestContext, "projectId")
+                .flatMap(projectId -> projectStore.getProject(projectId, true))
+                .or(() -> getPathParameter(requestContext, "slug")
+                        .flatMap(slug -> projectStore.getProjectBySlug(slug, true)));
+        if (!projectOpt.isPresent()) {
+            return;
+        }
+
+        String body = "";
+        if (requestContext.hasEntity()) {
+            InputStream entityStream = requestContext.getEntityStream();
+            byte[] bodyBytes = ByteStreams.toByteArray(ByteStreams.limit(entityStream, config.maxRequestBodyBytes() + 1L));
+            // Hand the body back to the resource including anything left unread
+            requestContext.setEntityStream(new SequenceInputStream(new ByteArrayInputStream(bodyBytes), entityStream));
+            if (bodyBytes.length > config.maxRequestBodyBytes()) {
+                return;
+            }
+            Optional<String> normalizedBodyOpt = normalizeJson(bodyBytes);
+            if (!normalizedBodyOpt.isPresent()) {
+                return;
+            }
+            body = normalizedBodyOpt.get();
+        }
+
+        CacheKey key = responseCache.createKey(
+                projectOpt.get().getProjectId(),
+                projectOpt.get().getVersionedConfig().getVersion(),
+                resourceMethod.getName(),
+                requestContext.getUriInfo().getPath() + '?' + new TreeMap<>(requestContext.getUriInfo().getQueryParameters()) + '\n' + body);
+        Optional<CachedResponse> cachedResponseOpt = responseCache.get(key);
+        if (!cachedResponseOpt.isPresent()) {
+            requestContext.setProperty(PROPERTY_CACHE_KEY, key);
+            return;
+        }
+
+        CachedResponse cachedResponse = cachedResponseOpt.get();
+        if (isNotModified(requestContext, cachedResponse.getEtag())) {
+            requestContext.abortWith(Response.notModified(new EntityTag(cachedResponse.getEtag())).build());
+        } else {
+            requestContext.abortWith(Response.ok(cachedResponse, MediaType.APPLICATION_JSON_TYPE).build());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        // Only cache successful responses, errors are not keyed by the project state
+        if (requestContext.getProperty(PROPERTY_CACHE_KEY) != null
+                && (responseContext.getStatus() != Response.Status.OK.getStatusCode() || !responseContext.hasEntity())) {
+            requestContext.removeProperty(PROPERTY_CACHE_KEY);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        CachedResponse cachedResponse;
+        if (context.getEntity() instanceof CachedResponse) {
+            cachedResponse = (CachedResponse) context.getEntity();
+        } else if (context.getProperty(PROPERTY_CACHE_KEY) instanceof CacheKey) {
+            CacheKey key = (CacheKey) context.getProperty(PROPERTY_CACHE_KEY);
+            byte[] body = gson.toJson(context.getEntity(), context.getGenericType()).getBytes(Charsets.UTF_8);
+            cachedResponse = responseCache.put(key, body);
+        } else {
+            context.proceed();
+            return;
+        }
+
+        MultivaluedMap<String, Object> responseHeaders = context.getHeaders();
+        responseHeaders.putSingle(HttpHeaders.ETAG, new EntityTag(cachedResponse.getEtag()));
+        responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        responseHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+        OutputStream outputStream = context.getOutputStream();
+        if (GzipWriterInterceptor.acceptsGzip(requestHeaders)) {
+            responseHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, GzipWriterInterceptor.GZIP);
+            outputStream.write(cachedResponse.getBodyGzipped());
+        } else {
+            // Rare enough to decompress on every request rather than keep both
+            try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(cachedResponse.getBodyGzipped()))) {
+                ByteStreams.copy(gzipInputStream, outputStream);
+            }
+        }
+    }
+
+    private boolean isAnonymous(SecurityContext securityContext) {
+        Principal principal = securityContext.getUserPrincipal();
+        if (!(principal instanceof ExtendedPrincipal)) {
+            return false;
+        }
+        ExtendedPrincipal extendedPrincipal = (ExtendedPrincipal) principal;
+        return !extendedPrincipal.getAuthenticatedAccountIdOpt().isPresent()
+                && !extendedPrincipal.getAuthenticatedSuperAccountIdOpt().isPresent()
+                && !extendedPrincipal.getAuthenticatedUserSessionOpt().isPresent()
+                && !extendedPrincipal.getAccountSessionOpt().isPresent()
+                && !extendedPrincipal.getSuperAccountSessionOpt().isPresent();
+    }
+
+    private boolean isNotModified(ContainerRequestContext requestContext, String etag) {
+        String ifNoneMatch = requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if (Strings.isNullOrEmpty(ifNoneMatch)) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals('"' + etag + '"')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Equivalent requests serialized by different clients differ in key order and explicit nulls.
+     */
+    private Optional<String> normalizeJson(byte[] bodyBytes) {
+        try {
+            return Optional.of(normalizeJson(JsonParser.parseString(new String(bodyBytes, Charsets.UTF_8))).toString());
+        } catch (JsonParseException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private JsonElement normalizeJson(JsonElement element) {
+        if (element.isJsonObject()) {
+            JsonObject normalizedObject = new JsonObject();
+            new TreeMap<>(element.getAsJsonObject().asMap()).forEach((name, value) -> {
+                if (!value.isJsonNull()) {
+                    normalizedObject.add(name, normalizeJson(value));
+                }
+            });
+            return normalizedObject;
+        } else if (element.isJsonArray()) {
+            JsonArray normalizedArray = new JsonArray();
+            element.getAsJsonArray().forEach(value -> normalizedArray.add(normalizeJson(value)));
+            return normalizedArray;
+        }
+        return element;
+    }
+
+    private Optional<String> getPathParameter(ContainerRequestContext requestContext, String name) {
+        List<String> params = requestContext.getUriInfo().getPathParameters().get(name);
+        if (params == null || params.size() != 1) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(Strings.emptyToNull(params.get(0)));
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ResponseCacheFilter.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
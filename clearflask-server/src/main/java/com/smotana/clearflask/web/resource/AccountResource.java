@@ -79,6 +79,7 @@ import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.AccountStore.Account;
 import com.smotana.clearflask.store.AccountStore.AccountSession;
 import com.smotana.clearflask.store.AccountStore.SearchAccountsResponse;
+import com.smotana.clearflask.store.CounterStore;
 import com.smotana.clearflask.store.GitHubStore;
 import com.smotana.clearflask.store.JiraStore;
 import com.smotana.clearflask.store.GitLabStore;
@@ -206,6 +207,8 @@ public class AccountResource extends AbstractResource implements AccountApi, Acc
     @Inject
     private CouponStore couponStore;
     @Inject
+    private CounterStore counterStore;
+    @Inject
     private PasswordUtil passwordUtil;
     @Inject
     private AuthCookie authCookie;
@@ -1008,6 +1011,7 @@ public class AccountResource extends AbstractResource implements AccountApi, Acc
         ownerOld = accountStore.removeProject(ownerOld.getAccountId(), project.getProjectId()).getAccount();
         project = projectStore.changeOwner(project.getProjectId(), ownerNew.getAccountId());
         ownerNew = accountStore.addProject(ownerNew.getAccountId(), project.getProjectId()).getAccount();
+        counterStore.changeOwner(project.getProjectId(), ownerOld.getAccountId(), ownerNew.getAccountId());
     }
 
     @RolesAllowed({Role.ADMINISTRATOR})
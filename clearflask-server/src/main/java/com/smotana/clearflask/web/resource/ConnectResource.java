@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
+import com.google.common.base.Strings;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -9,6 +10,7 @@ import com.google.inject.name.Names;
 import com.smotana.clearflask.api.RobotsConnectApi;
 import com.smotana.clearflask.api.SniConnectApi;
 import com.smotana.clearflask.api.model.CertGetOrCreateResponse;
+import com.smotana.clearflask.api.model.CertPreloadResponse;
 import com.smotana.clearflask.api.model.Challenge;
 import com.smotana.clearflask.api.model.RobotsResult;
 import com.smotana.clearflask.security.CertFetcher;
@@ -59,6 +61,12 @@ public class ConnectResource extends AbstractResource implements SniConnectApi,
                 .orElseThrow(NotFoundException::new);
     }
 
+    @RolesAllowed({Role.CONNECT})
+    @Override
+    public CertPreloadResponse certPreloadConnect(String cursor) {
+        return certFetcher.preloadCertsAndKeypairs(Optional.ofNullable(Strings.emptyToNull(cursor)));
+    }
+
     @RolesAllowed({Role.CONNECT})
     @Override
     public RobotsResult robotsConnect(String slug) {
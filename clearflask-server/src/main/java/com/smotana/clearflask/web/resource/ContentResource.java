@@ -2,26 +2,33 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.web.resource;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.ContentAdminApi;
 import com.smotana.clearflask.api.ContentApi;
 import com.smotana.clearflask.api.model.ContentUploadResponse;
 import com.smotana.clearflask.core.image.ImageNormalization;
 import com.smotana.clearflask.core.image.ImageNormalization.Image;
+import com.smotana.clearflask.core.image.SpooledImageUpload;
 import com.smotana.clearflask.security.limiter.Limit;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.ContentStore.ImageVariant;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Role;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 
 import javax.annotation.security.RolesAllowed;
+import javax.imageio.stream.ImageInputStream;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.NotFoundException;
@@ -30,6 +37,7 @@ import javax.ws.rs.core.Response;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -38,6 +46,19 @@ import static com.google.common.base.Preconditions.checkNotNull;
 @Path(Application.RESOURCE_VERSION)
 public class ContentResource extends AbstractResource implements ContentApi, ContentAdminApi {
 
+    public interface Config {
+        @DefaultValue("20971520")
+        long maxUploadSizeInBytes();
+
+        /**
+         * Uploads larger than this are spooled to a temp file instead of being held in memory.
+         */
+        @DefaultValue("1048576")
+        int uploadMemoryThresholdInBytes();
+    }
+
+    @Inject
+    private Config config;
     @Inject
     private ContentStore contentStore;
     @Inject
@@ -100,20 +121,31 @@ public class ContentResource extends AbstractResource implements ContentApi, Con
     }
 
     private String uploadProfilePic(String projectId, String userId, InputStream body) {
-        // Normalize with smaller dimensions for profile pictures (250x250)
-        Image imageNormalized = normalizeImageWithSize(body, 250.0, 250.0);
-        ContentStore.ContentType contentType = checkNotNull(
-                ContentStore.ContentType.MEDIA_TYPE_TO_CONTENT_TYPE.get(imageNormalized.getMediaType()));
-
-        // Upload with deterministic filename for profile picture
-        String fileName = "profilepic." + contentType.getExtension();
-        String signedUrl = contentStore.uploadAndSign(
-                projectId,
-                userId,
-                contentType,
-                new ByteArrayInputStream(imageNormalized.getData()),
-                imageNormalized.getData().length,
-                fileName);
+        String signedUrl;
+        try (SpooledImageUpload upload = spool(body);
+             ImageInputStream iis = upload.openImageInputStream()) {
+            // Normalize with smaller dimensions for profile pictures (250x250)
+            Optional<Image> imageNormalizedOpt = imageNormalization.normalize(iis, 250.0, 250.0);
+            if (imageNormalizedOpt.isEmpty()) {
+                signedUrl = uploadAsIs(projectId, userId, upload, Optional.of("profilepic"));
+            } else {
+                Image imageNormalized = imageNormalizedOpt.get();
+                ContentStore.ContentType contentType = checkNotNull(
+                        ContentStore.ContentType.MEDIA_TYPE_TO_CONTENT_TYPE.get(imageNormalized.getMediaType()));
+
+                // Upload with deterministic filename for profile picture
+                String fileName = "profilepic." + contentType.getExtension();
+                signedUrl = contentStore.uploadAndSign(
+                        projectId,
+                        userId,
+                        contentType,
+                        new ByteArrayInputStream(imageNormalized.getData()),
+                        imageNormalized.getData().length,
+                        fileName);
+            }
+        } catch (IOException ex) {
+            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
+        }
 
         // Update user profile with pic type and URL
         userStore.updateUser(projectId, userId, new com.smotana.clearflask.api.model.UserUpdate(
@@ -132,36 +164,40 @@ public class ContentResource extends AbstractResource implements ContentApi, Con
     }
 
     private String doUpload(String projectId, String authorId, InputStream body) {
-        Image imageNormalized = normalizeImage(body);
-        String signedUrl = contentStore.uploadAndSign(
-                projectId,
-                authorId,
-                checkNotNull(ContentStore.ContentType.MEDIA_TYPE_TO_CONTENT_TYPE.get(imageNormalized.getMediaType())),
-                new ByteArrayInputStream(imageNormalized.getData()),
-                imageNormalized.getData().length);
-        return signedUrl;
-    }
-
-    private Image normalizeImage(InputStream body) {
-        byte[] imgBytes;
-        try (body) {
-            imgBytes = IOUtils.toByteArray(body);
+        try (SpooledImageUpload upload = spool(body);
+             ImageInputStream iis = upload.openImageInputStream()) {
+            Optional<ImmutableMap<ImageVariant, Image>> variantsOpt = imageNormalization.normalizeVariants(iis);
+            if (variantsOpt.isEmpty()) {
+                return uploadAsIs(projectId, authorId, upload, Optional.empty());
+            }
+            ImmutableMap<ImageVariant, Image> variants = variantsOpt.get();
+            String signedUrl = contentStore.uploadVariantsAndSign(
+                    projectId,
+                    authorId,
+                    checkNotNull(ContentStore.ContentType.MEDIA_TYPE_TO_CONTENT_TYPE.get(variants.get(ImageVariant.FULL).getMediaType())),
+                    ImmutableMap.copyOf(Maps.transformValues(variants, Image::getData)));
+            return signedUrl;
         } catch (IOException ex) {
-            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrrupted data", ex);
+            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrupted image", ex);
         }
-        Image imageNormalized = imageNormalization.normalize(imgBytes);
-        return imageNormalized;
     }
 
-    private Image normalizeImageWithSize(InputStream body, double maxWidth, double maxHeight) {
-        byte[] imgBytes;
-        try (body) {
-            imgBytes = IOUtils.toByteArray(body);
-        } catch (IOException ex) {
-            throw new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Corrrupted data", ex);
+    private SpooledImageUpload spool(InputStream body) {
+        return SpooledImageUpload.spool(body, config.maxUploadSizeInBytes(), config.uploadMemoryThresholdInBytes());
+    }
+
+    /**
+     * Streams the original from the spool, e.g. animated GIFs, without holding it in memory.
+     */
+    private String uploadAsIs(String projectId, String userId, SpooledImageUpload upload, Optional<String> fileNameBaseOpt) throws IOException {
+        ContentStore.ContentType contentType = upload.getFormat().getContentTypeOpt()
+                .orElseThrow(() -> new ApiException(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Unsupported format"));
+        try (InputStream inputStream = upload.openStream()) {
+            return fileNameBaseOpt.isPresent()
+                    ? contentStore.uploadAndSign(projectId, userId, contentType, inputStream, Ints.checkedCast(upload.getLength()),
+                    fileNameBaseOpt.get() + "." + contentType.getExtension())
+                    : contentStore.uploadAndSign(projectId, userId, contentType, inputStream, Ints.checkedCast(upload.getLength()));
         }
-        Image imageNormalized = imageNormalization.normalize(imgBytes, maxWidth, maxHeight);
-        return imageNormalized;
     }
 
     public static Module module() {
@@ -169,6 +205,7 @@ public class ContentResource extends AbstractResource implements ContentApi, Con
             @Override
             protected void configure() {
                 bind(ContentResource.class);
+                install(ConfigSystem.configModule(Config.class));
                 Multibinder.newSetBinder(binder(), Object.class, Names.named(Application.RESOURCE_NAME)).addBinding()
                         .to(ContentResource.class);
             }
@@ -10,6 +10,8 @@ import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService.Provider;
 import com.smotana.clearflask.store.GitHubStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.Project;
@@ -73,6 +75,8 @@ public class GitHubResource {
     private ProjectStore projectStore;
     @Inject
     private GitHubClientProvider gitHubClientProvider;
+    @Inject
+    private WebhookIngestionService webhookIngestionService;
 
     @POST
     @Path(WEBHOOK_PATH)
@@ -173,15 +177,15 @@ public class GitHubResource {
         switch (eventType) {
             case "issues":
                 GHEventPayload.Issue issue = parseEventPayload(installation.getClient(), payload, GHEventPayload.Issue.class);
-                gitHubStore.ghIssueEvent(project, issue);
+                submit(project, eventGuid, () -> gitHubStore.ghIssueEvent(project, issue));
                 break;
             case "issue_comment":
                 GHEventPayload.IssueComment issueComment = parseEventPayload(installation.getClient(), payload, GHEventPayload.IssueComment.class);
-                gitHubStore.ghIssueCommentEvent(project, issueComment, payload);
+                submit(project, eventGuid, () -> gitHubStore.ghIssueCommentEvent(project, issueComment, payload));
                 break;
             case "release":
                 GHEventPayload.Release release = parseEventPayload(installation.getClient(), payload, GHEventPayload.Release.class);
-                gitHubStore.ghReleaseEvent(project, release, payload);
+                submit(project, eventGuid, () -> gitHubStore.ghReleaseEvent(project, release, payload));
                 break;
             case "ping":
                 break;
@@ -193,6 +197,13 @@ public class GitHubResource {
         }
     }
 
+    private void submit(Project project, String eventGuid, WebhookIngestionService.Handler handler) {
+        if (webhookIngestionService.submit(Provider.GITHUB, project.getProjectId(), Optional.of(eventGuid), handler)
+                == WebhookIngestionService.Result.REJECTED) {
+            throw new ClientErrorException(Response.Status.TOO_MANY_REQUESTS);
+        }
+    }
+
     private String getEventGuid() {
         String eventGuid = request.getHeader(GITHUB_ID_HEADER);
         if (Strings.isNullOrEmpty(eventGuid)) {
@@ -11,6 +11,8 @@ import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService.Provider;
 import com.smotana.clearflask.store.GitLabStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.Project;
@@ -45,6 +47,7 @@ public class GitLabResource {
     private static final String GITLAB_EVENT_HEADER = "X-Gitlab-Event";
     private static final String GITLAB_TOKEN_HEADER = "X-Gitlab-Token";
     private static final String GITLAB_INSTANCE_HEADER = "X-Gitlab-Instance";
+    private static final String GITLAB_EVENT_UUID_HEADER = "X-Gitlab-Event-UUID";
 
     public interface Config {
         /**
@@ -70,6 +73,8 @@ public class GitLabResource {
     private GitLabClientProvider gitLabClientProvider;
     @Inject
     private Gson gson;
+    @Inject
+    private WebhookIngestionService webhookIngestionService;
 
     @POST
     @Path(WEBHOOK_PATH)
@@ -110,15 +115,15 @@ public class GitLabResource {
         switch (eventType) {
             case "Issue Hook":
                 IssueEvent issueEvent = gson.fromJson(payload, IssueEvent.class);
-                gitLabStore.glIssueEvent(project, issueEvent);
+                submit(project, () -> gitLabStore.glIssueEvent(project, issueEvent));
                 break;
             case "Note Hook":
                 NoteEvent noteEvent = gson.fromJson(payload, NoteEvent.class);
-                gitLabStore.glNoteEvent(project, noteEvent);
+                submit(project, () -> gitLabStore.glNoteEvent(project, noteEvent));
                 break;
             case "Release Hook":
                 ReleaseEvent releaseEvent = gson.fromJson(payload, ReleaseEvent.class);
-                gitLabStore.glReleaseEvent(project, releaseEvent);
+                submit(project, () -> gitLabStore.glReleaseEvent(project, releaseEvent));
                 break;
             case "Push Hook":
             case "System Hook":
@@ -132,6 +137,14 @@ public class GitLabResource {
         }
     }
 
+    private void submit(Project project, WebhookIngestionService.Handler handler) {
+        Optional<String> eventUuidOpt = Optional.ofNullable(Strings.emptyToNull(request.getHeader(GITLAB_EVENT_UUID_HEADER)));
+        if (webhookIngestionService.submit(Provider.GITLAB, project.getProjectId(), eventUuidOpt, handler)
+                == WebhookIngestionService.Result.REJECTED) {
+            throw new ClientErrorException(Response.Status.TOO_MANY_REQUESTS);
+        }
+    }
+
     private void checkToken() {
         String configuredSecret = config.webhookSecret();
         if (Strings.isNullOrEmpty(configuredSecret)) {
@@ -22,6 +22,7 @@ import com.smotana.clearflask.core.push.NotificationService;
 import com.smotana.clearflask.security.limiter.Limit;
 import com.smotana.clearflask.store.*;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.IdeaStore.IdeaSearchWithCursor;
 import com.smotana.clearflask.store.IdeaStore.SearchResponse;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
@@ -32,8 +33,10 @@ import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
 import com.smotana.clearflask.util.BloomFilters;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
+import com.smotana.clearflask.web.filter.CacheAnonymous;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Role;
+import com.smotana.clearflask.web.util.LiveUpdateService;
 import com.smotana.clearflask.web.util.WebhookService;
 import lombok.extern.slf4j.Slf4j;
 
@@ -41,8 +44,15 @@ import javax.annotation.Nullable;
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
@@ -57,6 +67,11 @@ import java.util.concurrent.TimeoutException;
 @Path(Application.RESOURCE_VERSION)
 public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdminApi {
 
+    /**
+     * Also declared as maxItems in the API spec
+     */
+    private static final int IDEA_SEARCH_BATCH_MAX_SEARCHES = 10;
+
     @Inject
     private NotificationService notificationService;
     @Inject
@@ -76,6 +91,8 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Inject
     private WebhookService webhookService;
     @Inject
+    private LiveUpdateService liveUpdateService;
+    @Inject
     private GitHubStore gitHubStore;
     @Inject
     private JiraStore jiraStore;
@@ -280,6 +297,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
 
     @RolesAllowed({Role.PROJECT_ANON})
     @Limit(requiredPermits = 1)
+    @CacheAnonymous
     @Override
     public IdeaWithVote ideaGet(String projectId, String ideaId) {
         Optional<UserModel> userOpt = getExtendedPrincipal()
@@ -403,6 +421,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
 
     @RolesAllowed({Role.PROJECT_ANON})
     @Limit(requiredPermits = 10)
+    @CacheAnonymous
     @Override
     public IdeaWithVoteSearchResponse ideaSearch(String projectId, IdeaSearch ideaSearch, String cursor) {
         sanitizer.searchText(ideaSearch.getSearchText());
@@ -444,6 +463,82 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                         searchResponse.isTotalHitsGte() ? true : null));
     }
 
+    @RolesAllowed({Role.PROJECT_ANON})
+    // Charged as the single search times the most searches allowed in a batch
+    @Limit(requiredPermits = 10 * IDEA_SEARCH_BATCH_MAX_SEARCHES)
+    @Override
+    public IdeaWithVoteSearchBatchResponse ideaSearchBatch(String projectId, IdeaSearchBatch ideaSearchBatch) {
+        if (ideaSearchBatch.getSearches().size() > IDEA_SEARCH_BATCH_MAX_SEARCHES) {
+            throw new ApiException(Response.Status.BAD_REQUEST, "Too many searches, at most " + IDEA_SEARCH_BATCH_MAX_SEARCHES + " allowed");
+        }
+        ideaSearchBatch.getSearches().forEach(search -> sanitizer.searchText(search.getIdeaSearch().getSearchText()));
+
+        Optional<UserModel> userOpt = getExtendedPrincipal()
+                .flatMap(ExtendedSecurityContext.ExtendedPrincipal::getAuthenticatedUserSessionOpt)
+                .map(UserSession::getUserId)
+                .flatMap(userId -> userStore.getUser(projectId, userId));
+        ImmutableList<SearchResponse> searchResponses = ideaStore.searchIdeas(
+                projectId,
+                ideaSearchBatch.getSearches().stream()
+                        .map(search -> new IdeaSearchWithCursor(
+                                search.getIdeaSearch(),
+                                Optional.ofNullable(Strings.emptyToNull(search.getCursor()))))
+                        .collect(ImmutableList.toImmutableList()),
+                userOpt.map(UserModel::getUserId),
+                ImmutableSet.of());
+
+        // Searches often overlap, fetch ideas and votes only once
+        ImmutableSet<String> ideaIds = searchResponses.stream()
+                .flatMap(searchResponse -> searchResponse.getIdeaIds().stream())
+                .collect(ImmutableSet.toImmutableSet());
+        ImmutableMap<String, IdeaModel> ideasById = ideaIds.isEmpty()
+                ? ImmutableMap.of()
+                : ideaStore.getIdeas(projectId, ideaIds.asList());
+        ImmutableMap<String, IdeaWithVote> ideasWithVoteById = userOpt.map(user -> toIdeasWithVotes(user, ideasById.values()))
+                .orElseGet(() -> ideasById.values().stream()
+                        .map(ideaModel -> ideaModel.toIdeaWithVote(
+                                new IdeaVote(null, null, null),
+                                sanitizer))
+                        .collect(ImmutableList.toImmutableList()))
+                .stream()
+                .collect(ImmutableMap.toImmutableMap(IdeaWithVote::getIdeaId, i -> i));
+
+        return new IdeaWithVoteSearchBatchResponse(searchResponses.stream()
+                .map(searchResponse -> searchResponse.getIdeaIds().isEmpty()
+                        ? new IdeaWithVoteSearchResponse(
+                        null,
+                        ImmutableList.of(),
+                        null)
+                        : new IdeaWithVoteSearchResponse(
+                        searchResponse.getCursorOpt().orElse(null),
+                        searchResponse.getIdeaIds().stream()
+                                .map(ideasWithVoteById::get)
+                                .filter(Objects::nonNull)
+                                .collect(ImmutableList.toImmutableList()),
+                        new Hits(
+                                searchResponse.getTotalHits(),
+                                searchResponse.isTotalHitsGte() ? true : null)))
+                .collect(ImmutableList.toImmutableList()));
+    }
+
+    @RolesAllowed({Role.PROJECT_ANON})
+    @Limit(requiredPermits = 1)
+    @Override
+    // SSE for some reason requires re-stating annotations from the interface
+    @GET
+    @Path("/project/{projectId}/live")
+    @Produces({"text/event-stream"})
+    public void liveUpdates(@PathParam("projectId") @NotNull String projectId, @Context Sse sse, @Context SseEventSink eventSink) {
+        try {
+            liveUpdateService.subscribe(projectId, sse, eventSink);
+        } catch (Exception ex) {
+            if (eventSink != null) {
+                eventSink.close();
+            }
+            throw ex;
+        }
+    }
+
     @RolesAllowed({Role.PROJECT_ADMIN, Role.PROJECT_MODERATOR})
     @Limit(requiredPermits = 10)
     @Override
@@ -12,6 +12,8 @@ import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService.Provider;
 import com.smotana.clearflask.store.JiraStore;
 import com.smotana.clearflask.store.JiraStore.JiraCommentEvent;
 import com.smotana.clearflask.store.JiraStore.JiraIssueEvent;
@@ -67,6 +69,8 @@ public class JiraResource {
     private ProjectStore projectStore;
     @Inject
     private Gson gson;
+    @Inject
+    private WebhookIngestionService webhookIngestionService;
 
     @POST
     @Path(WEBHOOK_PATH)
@@ -136,12 +140,12 @@ public class JiraResource {
             case "jira:issue_created":
             case "jira:issue_updated":
             case "jira:issue_deleted":
-                handleIssueEvent(project, payloadJson, webhookEvent);
+                submit(project, () -> handleIssueEvent(project, payloadJson, webhookEvent));
                 break;
             case "comment_created":
             case "comment_updated":
             case "comment_deleted":
-                handleCommentEvent(project, payloadJson, webhookEvent);
+                submit(project, () -> handleCommentEvent(project, payloadJson, webhookEvent));
                 break;
             default:
                 log.debug("Unhandled Jira webhook event: {}", webhookEvent);
@@ -206,11 +210,7 @@ public class JiraResource {
             eventBuilder.issueUrl(issueUrl);
         }
 
-        try {
-            jiraStore.jiraIssueEvent(project, eventBuilder.build());
-        } catch (Exception e) {
-            log.warn("Failed to handle Jira issue event for project {}", project.getProjectId(), e);
-        }
+        jiraStore.jiraIssueEvent(project, eventBuilder.build());
     }
 
     private void handleCommentEvent(Project project, JsonObject payload, String webhookEvent) {
@@ -242,10 +242,15 @@ public class JiraResource {
             }
         }
 
-        try {
-            jiraStore.jiraCommentEvent(project, eventBuilder.build());
-        } catch (Exception e) {
-            log.warn("Failed to handle Jira comment event for project {}", project.getProjectId(), e);
+        jiraStore.jiraCommentEvent(project, eventBuilder.build());
+    }
+
+    private void submit(Project project, WebhookIngestionService.Handler handler) {
+        // Only dedup on the identifier Jira sent, not on a generated placeholder
+        Optional<String> webhookIdOpt = Optional.ofNullable(Strings.emptyToNull(request.getHeader(JIRA_WEBHOOK_ID_HEADER)));
+        if (webhookIngestionService.submit(Provider.JIRA, project.getProjectId(), webhookIdOpt, handler)
+                == WebhookIngestionService.Result.REJECTED) {
+            throw new ClientErrorException(Response.Status.TOO_MANY_REQUESTS);
         }
     }
 
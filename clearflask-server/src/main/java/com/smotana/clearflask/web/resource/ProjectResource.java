@@ -44,11 +44,13 @@ import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.IntegrationBackfiller;
 import com.smotana.clearflask.store.mysql.DefaultMysqlProvider;
 import com.smotana.clearflask.util.DateUtil;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
+import com.smotana.clearflask.web.filter.CacheAnonymous;
 import com.smotana.clearflask.web.security.AuthCookie;
 import com.smotana.clearflask.web.security.AuthenticationFilter;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
@@ -138,6 +140,10 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     @Inject
     private VoteStore voteStore;
     @Inject
+    private CounterStore counterStore;
+    @Inject
+    private HistogramRollupStore histogramRollupStore;
+    @Inject
     private PlanStore planStore;
     @Inject
     private PlanVerifyStore planVerifyStore;
@@ -155,9 +161,12 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     private ElasticUtil elasticUtil;
     @Inject
     private SlackStore slackStore;
+    @Inject
+    private IntegrationBackfiller integrationBackfiller;
 
     @PermitAll
     @Limit(requiredPermits = 10)
+    @CacheAnonymous
     @Override
     public ConfigBindSlugResult configBindSlug(String slug) {
         Project project = projectStore.getProjectBySlug(slug, true)
@@ -350,6 +359,9 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
         slackStore.postConfigSaveActions(
                 Optional.of(project.getVersionedConfigAdmin().getConfig()),
                 configAdmin);
+        integrationBackfiller.postConfigSaveActions(
+                Optional.of(project.getVersionedConfigAdmin().getConfig()),
+                configAdmin);
 
         return versionedConfigAdmin;
     }
@@ -484,6 +496,7 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                 configAdmin);
 
         Project project = projectStore.createProject(account.getAccountId(), projectId, new VersionedConfigAdmin(configAdmin, "new"));
+        histogramRollupStore.markBackfilled(projectId);
         try {
             RetryerBuilder.<List<Void>>newBuilder()
                     .withStopStrategy(StopStrategies.stopAfterDelay(3, TimeUnit.MINUTES))
@@ -544,6 +557,8 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             draftStore.deleteAllForProject(projectId);
             ListenableFuture<Void> commentFuture = commentStore.deleteAllForProject(projectId);
             voteStore.deleteAllForProject(projectId);
+            counterStore.deleteAllForProject(account.getAccountId(), projectId);
+            histogramRollupStore.deleteAllForProject(projectId);
         } catch (Throwable th) {
             log.warn("Failed to delete project {}, potentially partially deleted", projectId, th);
             throw new ApiException(Response.Status.INTERNAL_SERVER_ERROR, "Failed to delete project, please contact support", th);
@@ -723,7 +738,8 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             return new ImportResponse("Project not found", true);
         }
 
-        Optional<Category> categoryOpt = projectOpt.get().getCategory(categoryId);
+        Project project = projectOpt.get();
+        Optional<Category> categoryOpt = project.getCategory(categoryId);
         if (!categoryOpt.isPresent()) {
             return new ImportResponse("Category not found", true);
         }
@@ -733,15 +749,9 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             format = format.withFirstRecordAsHeader();
         }
 
-        ImmutableSet<String> allStatusIds = categoryOpt.get().getWorkflow().getStatuses().stream()
-                .map(IdeaStatus::getStatusId)
-                .collect(ImmutableSet.toImmutableSet());
         ImmutableMap<String, String> statusNameToId = categoryOpt.get().getWorkflow().getStatuses().stream().collect(ImmutableMap
                 .toImmutableMap(IdeaStatus::getName, IdeaStatus::getStatusId));
 
-        ImmutableSet<String> allTagIds = categoryOpt.get().getTagging().getTags().stream()
-                .map(Tag::getTagId)
-                .collect(ImmutableSet.toImmutableSet());
         ImmutableMap<String, String> tagNameToId = categoryOpt.get().getTagging().getTags().stream().collect(ImmutableMap
                 .toImmutableMap(Tag::getName, Tag::getTagId));
 
@@ -755,7 +765,7 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                 String title = record.get(indexTitle.intValue());
 
                 Optional<String> statusIdOpt = Optional.ofNullable(indexStatusId).map(Long::intValue).map(record::get);
-                if (statusIdOpt.isPresent() && !allStatusIds.contains(statusIdOpt.get())) {
+                if (statusIdOpt.isPresent() && project.getStatus(categoryId, statusIdOpt.get()).isEmpty()) {
                     throw new ApiException(Response.Status.BAD_REQUEST, "Status with ID not found: " + statusIdOpt.get());
                 }
                 if (!statusIdOpt.isPresent() && indexStatusName != null) {
@@ -778,7 +788,7 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                         .map(String::trim)
                         .collect(ImmutableSet.toImmutableSet());
                 for (String tagId : tagIds) {
-                    if (!allTagIds.contains(tagId)) {
+                    if (project.getTag(categoryId, tagId).isEmpty()) {
                         throw new ApiException(Response.Status.BAD_REQUEST, "Tag with ID not found: " + tagId);
                     }
                 }
@@ -13,6 +13,8 @@ import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService.Provider;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.SlackStore;
@@ -39,7 +41,8 @@ import java.util.Optional;
  * Handles incoming webhooks from Slack.
  * <p>
  * Slack sends events via the Events API when messages are posted in channels.
- * We verify the signature, parse the event, and route it to the appropriate handler.
+ * We verify the signature, parse the event, and queue it for the appropriate handler so that
+ * Slack gets its acknowledgement within its 3 second timeout.
  *
  * @see <a href="https://api.slack.com/apis/connections/events-api">Slack Events API</a>
  */
@@ -71,6 +74,8 @@ public class SlackResource {
     private ProjectStore projectStore;
     @Inject
     private Gson gson;
+    @Inject
+    private WebhookIngestionService webhookIngestionService;
 
     /**
      * Handle Slack Events API webhook.
@@ -149,7 +154,13 @@ public class SlackResource {
             // Route to appropriate handler
             switch (Strings.nullToEmpty(eventType)) {
                 case "message":
-                    handleMessageEvent(project, event, subtype);
+                    Optional<String> eventIdOpt = Optional.ofNullable(json.get("event_id"))
+                            .filter(eventId -> !eventId.isJsonNull())
+                            .map(eventId -> eventId.getAsString());
+                    if (webhookIngestionService.submit(Provider.SLACK, project.getProjectId(), eventIdOpt,
+                            () -> handleMessageEvent(project, event, subtype)) == WebhookIngestionService.Result.REJECTED) {
+                        return Response.status(Response.Status.TOO_MANY_REQUESTS).build();
+                    }
                     break;
                 default:
                     if (LogUtil.rateLimitAllowLog("slack-resource-uninteresting-event")) {
@@ -317,7 +317,7 @@ public class Sanitizer {
         if (Strings.isNullOrEmpty(coverImg)) {
             return Optional.empty();
         }
-        return contentStore.signUrl(projectId, coverImg);
+        return contentStore.signUrl(projectId, coverImg, ContentStore.ImageVariant.CARD);
     }
 
     public String richHtmlToPlaintext(String html) {
@@ -0,0 +1,49 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.smotana.clearflask.store.IdeaStore;
+import lombok.Builder;
+import lombok.Value;
+
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+/**
+ * Pushes changes of posts to clients connected over server-sent events so they don't have to poll.
+ * <p>
+ * Changes are coalesced per project and sent periodically containing only the latest state of each changed post.
+ * Changes are only seen by clients connected to the same node that made the change.
+ */
+public interface LiveUpdateService {
+
+    void ideaChanged(IdeaStore.IdeaModel idea);
+
+    void ideaDeleted(String projectId, String ideaId);
+
+    /**
+     * Registers a client for changes in a project, the event sink is closed when the client falls behind.
+     */
+    void subscribe(String projectId, Sse sse, SseEventSink eventSink);
+
+    @Value
+    class LiveUpdate {
+        ImmutableList<IdeaLiveUpdate> ideas;
+    }
+
+    @Value
+    @Builder
+    class IdeaLiveUpdate {
+        String ideaId;
+        String statusId;
+        Long voteValue;
+        Long votersCount;
+        Double expressionsValue;
+        Long funded;
+        Long fundersCount;
+        Long commentCount;
+        Long childCommentCount;
+        Boolean deleted;
+    }
+}
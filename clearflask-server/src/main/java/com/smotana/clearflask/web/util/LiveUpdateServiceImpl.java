@@ -0,0 +1,352 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.api.model.IdeaVisibility;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.web.ApiException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a channel per project with connected clients. Changes are collected per post, so a popular post receiving
+ * many votes within a flush period results in a single entry, and are serialized once per channel on flush.
+ * <p>
+ * Each client has a small queue of outgoing events sent by a shared pool. A client whose queue is full is too slow
+ * to keep up and is disconnected; it will reconnect after {@link Config#clientReconnectDelay()}.
+ */
+@Slf4j
+@Singleton
+public class LiveUpdateServiceImpl extends ManagedService implements LiveUpdateService {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("PT1S")
+        Duration flushFrequency();
+
+        @DefaultValue("PT30S")
+        Duration heartbeatFrequency();
+
+        @DefaultValue("PT5S")
+        Duration clientReconnectDelay();
+
+        @DefaultValue("8")
+        int maxQueuedEventsPerConnection();
+
+        @DefaultValue("20000")
+        int maxConnections();
+
+        @DefaultValue("5000")
+        int maxConnectionsPerProject();
+
+        @DefaultValue("4")
+        int senderThreads();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private Gson gson;
+    @Inject
+    private MeterRegistry meterRegistry;
+    @Inject
+    private ProjectStore projectStore;
+
+    private final ConcurrentMap<String, Channel> channels = Maps.newConcurrentMap();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile Sse sse;
+    private Counter slowDisconnectCounter;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService senderExecutor;
+
+    @Inject
+    private void setup() {
+        meterRegistry.gauge(MeterRegistryProvider.METER_PREFIX + "liveupdate.connections", connectionCount);
+        slowDisconnectCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "liveupdate.disconnect.slow");
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        senderExecutor = ExecutorServiceMetrics.monitor(meterRegistry, Executors.newFixedThreadPool(config.senderThreads(),
+                new ThreadFactoryBuilder().setNameFormat("LiveUpdateServiceImpl-sender-%d").build()), "LiveUpdateServiceImpl");
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("LiveUpdateServiceImpl-flush-%d").build());
+        long flushFrequencyMillis = config.flushFrequency().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushSafely, flushFrequencyMillis, flushFrequencyMillis, TimeUnit.MILLISECONDS);
+        long heartbeatFrequencyMillis = config.heartbeatFrequency().toMillis();
+        scheduler.scheduleWithFixedDelay(this::heartbeatSafely, heartbeatFrequencyMillis, heartbeatFrequencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        scheduler.shutdownNow();
+        channels.values().forEach(channel -> channel.subscribers.forEach(Subscriber::disconnect));
+        senderExecutor.shutdown();
+        senderExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void ideaChanged(IdeaStore.IdeaModel idea) {
+        if (idea.getVisibility() == IdeaVisibility.PRIVATE) {
+            return;
+        }
+        if (!channels.containsKey(idea.getProjectId())) {
+            // Nobody is listening, skip looking up the project
+            return;
+        }
+        // Channels are shared with non-admins, from whose searches posts with hidden statuses are filtered out
+        if (idea.getStatusId() != null && projectStore.getProject(idea.getProjectId(), true)
+                .map(Project::getHiddenStatusIds)
+                .filter(hiddenStatusIds -> hiddenStatusIds.contains(idea.getStatusId()))
+                .isPresent()) {
+            return;
+        }
+        publish(idea.getProjectId(), IdeaLiveUpdate.builder()
+                .ideaId(idea.getIdeaId())
+                .statusId(idea.getStatusId())
+                .voteValue(idea.getVoteValue())
+                .votersCount(idea.getVotersCount())
+                .expressionsValue(idea.getExpressionsValue())
+                .funded(idea.getFunded())
+                .fundersCount(idea.getFundersCount())
+                .commentCount(idea.getCommentCount())
+                .childCommentCount(idea.getChildCommentCount())
+                .build());
+    }
+
+    @Override
+    public void ideaDeleted(String projectId, String ideaId) {
+        publish(projectId, IdeaLiveUpdate.builder()
+                .ideaId(ideaId)
+                .deleted(true)
+                .build());
+    }
+
+    private void publish(String projectId, IdeaLiveUpdate update) {
+        Channel channel = channels.get(projectId);
+        if (channel == null) {
+            // Nobody is listening
+            return;
+        }
+        channel.pendingIdeas.put(update.getIdeaId(), update);
+    }
+
+    @Override
+    public void subscribe(String projectId, Sse sse, SseEventSink eventSink) {
+        if (!config.enabled()) {
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Live updates are not available");
+        }
+        if (connectionCount.incrementAndGet() > config.maxConnections()) {
+            connectionCount.decrementAndGet();
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Too many connections");
+        }
+        this.sse = sse;
+
+        AtomicReference<Subscriber> subscriberRef = new AtomicReference<>();
+        channels.compute(projectId, (id, channel) -> {
+            if (channel == null) {
+                channel = new Channel(id);
+            }
+            if (channel.subscribers.size() < config.maxConnectionsPerProject()) {
+                Subscriber subscriber = new Subscriber(channel, eventSink);
+                channel.subscribers.add(subscriber);
+                subscriberRef.set(subscriber);
+            }
+            return channel;
+        });
+        Subscriber subscriber = subscriberRef.get();
+        if (subscriber == null) {
+            connectionCount.decrementAndGet();
+            throw new ApiException(Response.Status.SERVICE_UNAVAILABLE, "Too many connections for this project");
+        }
+        log.trace("Subscribed to project {}, subscribers {}", projectId, subscriber.channel.subscribers.size());
+
+        // Send headers right away and let the client know how long to wait when reconnecting
+        subscriber.enqueue(sse.newEventBuilder()
+                .reconnectDelay(config.clientReconnectDelay().toMillis())
+                .comment("connected")
+                .build());
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Throwable th) {
+            log.warn("Failed to flush live updates", th);
+        }
+    }
+
+    @VisibleForTesting
+    void flush() {
+        for (Channel channel : channels.values()) {
+            // Drop channels without subscribers atomically with subscribe
+            if (channels.computeIfPresent(channel.projectId, (id, c) -> c.subscribers.isEmpty() ? null : c) == null) {
+                continue;
+            }
+
+            ImmutableList.Builder<IdeaLiveUpdate> ideasBuilder = ImmutableList.builder();
+            for (String ideaId : channel.pendingIdeas.keySet()) {
+                IdeaLiveUpdate update = channel.pendingIdeas.remove(ideaId);
+                if (update != null) {
+                    ideasBuilder.add(update);
+                }
+            }
+            ImmutableList<IdeaLiveUpdate> ideas = ideasBuilder.build();
+            if (ideas.isEmpty()) {
+                continue;
+            }
+
+            // Serialize once for all subscribers
+            OutboundSseEvent event = sse.newEventBuilder()
+                    .name("update")
+                    .data(gson.toJson(new LiveUpdate(ideas)))
+                    .build();
+            channel.subscribers.forEach(subscriber -> subscriber.enqueue(event));
+        }
+    }
+
+    private void heartbeatSafely() {
+        try {
+            if (sse == null) {
+                return;
+            }
+            // Keeps idle connections open through proxies and detects disconnected clients
+            OutboundSseEvent event = sse.newEventBuilder()
+                    .comment("heartbeat")
+                    .build();
+            channels.values().forEach(channel -> channel.subscribers.forEach(subscriber -> subscriber.enqueue(event)));
+        } catch (Throwable th) {
+            log.warn("Failed to send live update heartbeat", th);
+        }
+    }
+
+    @VisibleForTesting
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    private static class Channel {
+        private final String projectId;
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        private final Map<String, IdeaLiveUpdate> pendingIdeas = Maps.newConcurrentMap();
+
+        private Channel(String projectId) {
+            this.projectId = projectId;
+        }
+    }
+
+    private class Subscriber {
+        private final Channel channel;
+        private final SseEventSink eventSink;
+        private final ArrayBlockingQueue<OutboundSseEvent> queue;
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        private Subscriber(Channel channel, SseEventSink eventSink) {
+            this.channel = channel;
+            this.eventSink = eventSink;
+            this.queue = new ArrayBlockingQueue<>(config.maxQueuedEventsPerConnection());
+        }
+
+        private void enqueue(OutboundSseEvent event) {
+            if (eventSink.isClosed()) {
+                disconnect();
+                return;
+            }
+            if (!queue.offer(event)) {
+                log.debug("Disconnecting slow live update subscriber for project {}", channel.projectId);
+                slowDisconnectCounter.increment();
+                disconnect();
+                return;
+            }
+            if (sending.compareAndSet(false, true)) {
+                senderExecutor.execute(this::sendNext);
+            }
+        }
+
+        private void sendNext() {
+            OutboundSseEvent event = queue.poll();
+            if (event == null) {
+                sending.set(false);
+                // Pick up events enqueued after polling but before clearing the flag
+                if (!queue.isEmpty() && sending.compareAndSet(false, true)) {
+                    senderExecutor.execute(this::sendNext);
+                }
+                return;
+            }
+            try {
+                eventSink.send(event).whenComplete((v, th) -> {
+                    if (th != null) {
+                        log.trace("Failed to send live update, disconnecting", th);
+                        disconnect();
+                    } else {
+                        sendNext();
+                    }
+                });
+            } catch (Exception ex) {
+                log.trace("Failed to send live update, disconnecting", ex);
+                disconnect();
+            }
+        }
+
+        private void disconnect() {
+            queue.clear();
+            if (channel.subscribers.remove(this)) {
+                connectionCount.decrementAndGet();
+            }
+            try {
+                eventSink.close();
+            } catch (Exception ex) {
+                log.trace("Failed to close event sink", ex);
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(LiveUpdateService.class).to(LiveUpdateServiceImpl.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(LiveUpdateServiceImpl.class).asEagerSingleton();
+            }
+        };
+    }
+}
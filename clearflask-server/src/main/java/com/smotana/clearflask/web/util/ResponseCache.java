@@ -0,0 +1,43 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import lombok.Value;
+
+import java.util.Optional;
+
+/**
+ * Keeps serialized responses of public endpoints so anonymous traffic can be served without hitting the stores.
+ * <p>
+ * Entries are scoped to a project and are dropped whenever posts of that project change or its config version
+ * changes.
+ */
+public interface ResponseCache {
+
+    /**
+     * Creates a key for the current state of a project, a response stored under this key will not be returned once
+     * the project is invalidated.
+     */
+    CacheKey createKey(String projectId, String configVersion, String endpoint, String request);
+
+    Optional<CachedResponse> get(CacheKey key);
+
+    CachedResponse put(CacheKey key, byte[] body);
+
+    void invalidateProject(String projectId);
+
+    @Value
+    class CacheKey {
+        String projectId;
+        long projectGeneration;
+        String configVersion;
+        String endpoint;
+        String request;
+    }
+
+    @Value
+    class CachedResponse {
+        String etag;
+        byte[] bodyGzipped;
+    }
+}
@@ -0,0 +1,129 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Instead of removing entries of a project on every change, each project has a generation that is part of the key.
+ * Invalidating a project moves it to a new generation and leaves the old entries to be evicted. Generations are
+ * drawn from a single counter so a project whose generation was evicted never reuses an older one.
+ * <p>
+ * The cache is local to each node and invalidation is not broadcast. A change made through one node is seen right
+ * away on that node, while other nodes may serve their cached response until {@link Config#expireAfterWrite()}.
+ */
+@Slf4j
+@Singleton
+public class ResponseCacheImpl implements ResponseCache {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * Also bounds how long other nodes serve a response from before a change.
+         */
+        @DefaultValue("PT1M")
+        Duration expireAfterWrite();
+
+        @DefaultValue("67108864")
+        long maxWeightInBytes();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    private final AtomicLong generationCounter = new AtomicLong();
+    private Cache<CacheKey, CachedResponse> responseCache;
+    private Cache<String, Long> projectGenerations;
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @Inject
+    private void setup() {
+        responseCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.expireAfterWrite())
+                .maximumWeight(config.maxWeightInBytes())
+                .weigher((CacheKey key, CachedResponse response) -> key.getRequest().length() + response.getBodyGzipped().length)
+                .build();
+        projectGenerations = CacheBuilder.newBuilder()
+                .expireAfterAccess(config.expireAfterWrite())
+                .build();
+        hitCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "responsecache.hit");
+        missCounter = meterRegistry.counter(MeterRegistryProvider.METER_PREFIX + "responsecache.miss");
+    }
+
+    @Override
+    public CacheKey createKey(String projectId, String configVersion, String endpoint, String request) {
+        long projectGeneration = projectGenerations.asMap().computeIfAbsent(projectId, id -> generationCounter.incrementAndGet());
+        return new CacheKey(projectId, projectGeneration, configVersion, endpoint, request);
+    }
+
+    @Override
+    public Optional<CachedResponse> get(CacheKey key) {
+        if (!config.enabled()) {
+            return Optional.empty();
+        }
+        Optional<CachedResponse> responseOpt = Optional.ofNullable(responseCache.getIfPresent(key));
+        (responseOpt.isPresent() ? hitCounter : missCounter).increment();
+        return responseOpt;
+    }
+
+    @Override
+    public CachedResponse put(CacheKey key, byte[] body) {
+        CachedResponse response = new CachedResponse(
+                Hashing.murmur3_128().hashBytes(body).toString(),
+                gzip(body));
+        if (config.enabled()) {
+            responseCache.put(key, response);
+        }
+        return response;
+    }
+
+    @Override
+    public void invalidateProject(String projectId) {
+        projectGenerations.put(projectId, generationCounter.incrementAndGet());
+    }
+
+    private byte[] gzip(byte[] body) {
+        ByteArrayOutputStream bodyGzipped = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bodyGzipped)) {
+            gzipOutputStream.write(body);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bodyGzipped.toByteArray();
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ResponseCache.class).to(ResponseCacheImpl.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
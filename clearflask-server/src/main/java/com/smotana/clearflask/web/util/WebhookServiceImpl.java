@@ -27,6 +27,8 @@ import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.security.Sanitizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
@@ -57,15 +59,17 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
     private Gson gson;
     @Inject
     private Sanitizer sanitizer;
+    @Inject
+    private MeterRegistry meterRegistry;
 
     private ListeningExecutorService executor;
     private CloseableHttpClient client;
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
+        executor = MoreExecutors.listeningDecorator(ExecutorServiceMetrics.monitor(meterRegistry, new ThreadPoolExecutor(
                 2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-worker-%d").build()));
+                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-worker-%d").build()), "WebhookServiceImpl"));
         client = HttpClientBuilder.create().build();
     }
 
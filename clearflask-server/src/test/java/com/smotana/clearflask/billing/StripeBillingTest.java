@@ -0,0 +1,61 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.billing;
+
+import com.google.common.collect.ImmutableList;
+import com.stripe.model.Customer;
+import com.stripe.model.Subscription;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripeBillingTest {
+
+    @Test
+    public void selectPrimarySubscription_prefersLiveOverTerminal() {
+        Subscription canceled = stripeSub("sub_canceled", "canceled", 300L);
+        Subscription incomplete = stripeSub("sub_incomplete", "incomplete", 200L);
+        Subscription trialing = stripeSub("sub_trialing", "trialing", 100L);
+        assertEquals(Optional.of(trialing), StripeBilling.selectPrimarySubscription(ImmutableList.of(canceled, incomplete, trialing)));
+    }
+
+    @Test
+    public void selectPrimarySubscription_sameRankNewestWins() {
+        Subscription older = stripeSub("sub_older", "active", 100L);
+        Subscription newer = stripeSub("sub_newer", "active", 200L);
+        assertEquals(Optional.of(newer), StripeBilling.selectPrimarySubscription(ImmutableList.of(older, newer)));
+        assertEquals(Optional.of(newer), StripeBilling.selectPrimarySubscription(ImmutableList.of(newer, older)));
+    }
+
+    @Test
+    public void selectPrimarySubscription_onlyTerminal_empty() {
+        assertEquals(Optional.empty(), StripeBilling.selectPrimarySubscription(ImmutableList.of(
+                stripeSub("sub_canceled", "canceled", 100L),
+                stripeSub("sub_expired", "incomplete_expired", 200L))));
+        assertEquals(Optional.empty(), StripeBilling.selectPrimarySubscription(ImmutableList.of()));
+    }
+
+    @Test
+    public void hasDefaultPaymentMethod() {
+        assertFalse(StripeBilling.hasDefaultPaymentMethod(null));
+        Customer customer = new Customer();
+        assertFalse(StripeBilling.hasDefaultPaymentMethod(customer));
+        Customer.InvoiceSettings invoiceSettings = new Customer.InvoiceSettings();
+        customer.setInvoiceSettings(invoiceSettings);
+        assertFalse(StripeBilling.hasDefaultPaymentMethod(customer));
+        invoiceSettings.setDefaultPaymentMethod("pm_123");
+        assertTrue(StripeBilling.hasDefaultPaymentMethod(customer));
+    }
+
+    private static Subscription stripeSub(String id, String status, long created) {
+        Subscription s = new Subscription();
+        s.setId(id);
+        s.setStatus(status);
+        s.setCreated(created);
+        return s;
+    }
+}
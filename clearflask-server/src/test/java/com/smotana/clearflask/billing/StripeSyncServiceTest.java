@@ -0,0 +1,171 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.billing;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.api.model.SubscriptionStatus;
+import com.smotana.clearflask.store.AccountStore;
+import com.smotana.clearflask.store.AccountStore.Account;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.stripe.model.Customer;
+import com.stripe.model.Subscription;
+import com.stripe.model.SubscriptionCollection;
+import com.stripe.param.SubscriptionListParams;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.smotana.clearflask.billing.StripeBilling.META_CLEARFLASK_ACCOUNT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class StripeSyncServiceTest extends AbstractTest {
+
+    private static final int RECONCILE_THREADS = 2;
+    private static final String STALE_ACCOUNT_ID = "stale-account-id";
+
+    @Inject
+    private StripeSyncService stripeSyncService;
+    @Inject
+    private AccountStore accountStore;
+    @Inject
+    private StripeBilling stripeBilling;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(AccountStore.class);
+        bindMock(StripeBilling.class);
+
+        install(StripeSyncService.module());
+        install(ConfigSystem.overrideModule(StripeSyncService.Config.class, om -> {
+            om.override(om.id().reconcileThreads()).withValue(RECONCILE_THREADS);
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testReconcileFromExpandedListing() throws Exception {
+        Account accountByMetadata = account("cus_metadata");
+        Account accountStale = account("cus_stale");
+        Account accountNoMetadata = account("cus_nometadata");
+        Subscription subByMetadata = stripeSub("cus_metadata", accountByMetadata.getAccountId());
+        // Metadata points to an account since re-linked to another customer
+        Subscription subStale = stripeSub("cus_stale", STALE_ACCOUNT_ID);
+        Subscription subNoMetadata = stripeSub("cus_nometadata", null);
+        Subscription subUnknown = stripeSub("cus_unknown", null);
+        when(accountStore.getAccounts(anyCollection(), anyBoolean())).thenReturn(ImmutableMap.of(
+                accountByMetadata.getAccountId(), accountByMetadata,
+                STALE_ACCOUNT_ID, account("cus_other")));
+        when(accountStore.getAccountByStripeCustomerId(anyString())).thenReturn(Optional.empty());
+        when(accountStore.getAccountByStripeCustomerId("cus_stale")).thenReturn(Optional.of(accountStale));
+        when(accountStore.getAccountByStripeCustomerId("cus_nometadata")).thenReturn(Optional.of(accountNoMetadata));
+        when(stripeBilling.reconcileStatus(any(), any(), any(), anyString())).thenReturn(SubscriptionStatus.ACTIVE);
+        when(stripeBilling.reconcileStatus(eq(accountStale), any(), any(), anyString())).thenReturn(SubscriptionStatus.NOPAYMENTMETHOD);
+
+        String result;
+        ArgumentCaptor<SubscriptionListParams> paramsCaptor = ArgumentCaptor.forClass(SubscriptionListParams.class);
+        try (MockedStatic<Subscription> subscriptionMock = mockStatic(Subscription.class)) {
+            subscriptionMock.when(() -> Subscription.list(any(SubscriptionListParams.class)))
+                    .thenReturn(subscriptionCollection(subByMetadata, subStale, subNoMetadata, subUnknown));
+
+            result = stripeSyncService.reconcile();
+
+            subscriptionMock.verify(() -> Subscription.list(paramsCaptor.capture()), times(1));
+        }
+
+        assertTrue(result, result.contains("checked=3 drift=1 failed=0"));
+        // Customers come expanded with the listing and are passed along without another lookup
+        assertEquals(ImmutableList.of("data.customer"), paramsCaptor.getValue().getExpand());
+        // Single batched lookup by metadata, the index only for the rest
+        verify(accountStore, times(1)).getAccounts(ImmutableSet.of(accountByMetadata.getAccountId(), STALE_ACCOUNT_ID), false);
+        verify(accountStore, never()).getAccountByStripeCustomerId("cus_metadata");
+        verify(accountStore, times(1)).getAccountByStripeCustomerId("cus_stale");
+        verify(accountStore, times(1)).getAccountByStripeCustomerId("cus_nometadata");
+        verify(accountStore, times(1)).getAccountByStripeCustomerId("cus_unknown");
+        verify(stripeBilling).reconcileStatus(eq(accountByMetadata), eq(Optional.of(subByMetadata)), eq(subByMetadata.getCustomerObject()), anyString());
+        verify(stripeBilling).reconcileStatus(eq(accountStale), eq(Optional.of(subStale)), eq(subStale.getCustomerObject()), anyString());
+        verify(stripeBilling).reconcileStatus(eq(accountNoMetadata), eq(Optional.of(subNoMetadata)), eq(subNoMetadata.getCustomerObject()), anyString());
+        verify(stripeBilling, times(3)).reconcileStatus(any(), any(), any(), anyString());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testReconcileBoundedPool() throws Exception {
+        configSet(StripeSyncService.Config.class, "accountBatchSize", "2");
+        ImmutableList<Account> accounts = IntStream.range(0, 6)
+                .mapToObj(i -> account("cus_" + i))
+                .collect(ImmutableList.toImmutableList());
+        Subscription[] subs = accounts.stream()
+                .map(a -> stripeSub(a.getStripeCustomerId(), a.getAccountId()))
+                .toArray(Subscription[]::new);
+        when(accountStore.getAccounts(anyCollection(), anyBoolean())).thenReturn(accounts.stream()
+                .collect(ImmutableMap.toImmutableMap(Account::getAccountId, a -> a)));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(stripeBilling.reconcileStatus(any(), any(), any(), anyString())).then(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(100L);
+            running.decrementAndGet();
+            return ((Account) invocation.getArgument(0)).getStatus();
+        });
+
+        String result;
+        try (MockedStatic<Subscription> subscriptionMock = mockStatic(Subscription.class)) {
+            subscriptionMock.when(() -> Subscription.list(any(SubscriptionListParams.class)))
+                    .thenReturn(subscriptionCollection(subs));
+
+            result = stripeSyncService.reconcile();
+        }
+
+        assertTrue(result, result.contains("checked=6 drift=0 failed=0"));
+        verify(accountStore, times(3)).getAccounts(anyCollection(), eq(false));
+        verify(stripeBilling, times(6)).reconcileStatus(any(), any(), any(), anyString());
+        assertEquals(RECONCILE_THREADS, maxRunning.get());
+    }
+
+    private static Account account(String stripeCustomerId) {
+        return MockModelUtil.getRandomAccount().toBuilder()
+                .stripeCustomerId(stripeCustomerId)
+                .build();
+    }
+
+    private static Subscription stripeSub(String customerId, String accountIdMetadata) {
+        Customer customer = new Customer();
+        customer.setId(customerId);
+        Subscription s = new Subscription();
+        s.setId("sub_" + customerId);
+        s.setStatus("active");
+        s.setCreated(100L);
+        s.setCustomerObject(customer);
+        s.setMetadata(accountIdMetadata == null ? ImmutableMap.of() : ImmutableMap.of(META_CLEARFLASK_ACCOUNT_ID, accountIdMetadata));
+        return s;
+    }
+
+    private static SubscriptionCollection subscriptionCollection(Subscription... subs) {
+        SubscriptionCollection collection = mock(SubscriptionCollection.class);
+        when(collection.autoPagingIterable()).thenReturn(ImmutableList.copyOf(subs));
+        return collection;
+    }
+}
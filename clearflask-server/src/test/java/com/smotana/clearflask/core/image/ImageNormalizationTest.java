@@ -3,10 +3,13 @@
 package com.smotana.clearflask.core.image;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.ContentStore.ImageVariant;
 import com.smotana.clearflask.testutil.AbstractTest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
@@ -18,12 +21,16 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Slf4j
 @RunWith(Parameterized.class)
@@ -105,6 +112,36 @@ public class ImageNormalizationTest extends AbstractTest {
         assertEquals(isGif ? height : height / 2, normalizedBuffered.getHeight());
     }
 
+    @Test(timeout = 10_000L)
+    public void testVariants() throws Exception {
+        boolean isGif = "gif".equals(FilenameUtils.getExtension(testImagePath));
+        configSet(ImageNormalizationImpl.Config.class, "maxWidth", "200");
+        configSet(ImageNormalizationImpl.Config.class, "maxHeight", "200");
+        configSet(ImageNormalizationImpl.Config.class, "cardMaxWidth", "100");
+        configSet(ImageNormalizationImpl.Config.class, "cardMaxHeight", "100");
+
+        Optional<ImmutableMap<ImageVariant, ImageNormalization.Image>> variantsOpt;
+        try (SpooledImageUpload upload = SpooledImageUpload.spool(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream(testImagePath), 10_000_000L, 1_000);
+             ImageInputStream iis = upload.openImageInputStream()) {
+            variantsOpt = normalization.normalizeVariants(iis);
+        }
+        assertEquals(!isGif, variantsOpt.isPresent());
+        if (isGif) {
+            return;
+        }
+        ImmutableMap<ImageVariant, ImageNormalization.Image> variants = variantsOpt.get();
+        assertEquals(ImmutableSet.copyOf(ImageVariant.values()), variants.keySet());
+        for (Map.Entry<ImageVariant, ImageNormalization.Image> variant : variants.entrySet()) {
+            writeFileToTempFolder(variant.getValue(), variant.getKey().getFileNameSuffix());
+            assertEquals("image/jpeg", variant.getValue().getMediaType());
+            BufferedImage variantBuffered = ImageIO.read(new ByteArrayInputStream(variant.getValue().getData()));
+            int max = variant.getKey() == ImageVariant.FULL ? 200 : 100;
+            assertTrue(variant.getKey() + " " + variantBuffered.getWidth(), variantBuffered.getWidth() <= max);
+            assertTrue(variant.getKey() + " " + variantBuffered.getHeight(), variantBuffered.getHeight() <= max);
+        }
+    }
+
     private void writeFileToTempFolder(ImageNormalization.Image image, String suffix) throws IOException {
         String outputFileName = FilenameUtils.getBaseName(testImagePath)
                 + "-" + suffix
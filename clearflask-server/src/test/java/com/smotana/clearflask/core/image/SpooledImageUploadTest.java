@@ -0,0 +1,74 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.image;
+
+import com.smotana.clearflask.web.ApiException;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class SpooledImageUploadTest {
+
+    @Test(timeout = 10_000L)
+    public void testSniff() throws Exception {
+        assertEquals(Optional.of(SpooledImageUpload.Format.JPEG), SpooledImageUpload.sniff(readHeader("example.jpeg")));
+        assertEquals(Optional.of(SpooledImageUpload.Format.PNG), SpooledImageUpload.sniff(readHeader("example.png")));
+        assertEquals(Optional.of(SpooledImageUpload.Format.GIF), SpooledImageUpload.sniff(readHeader("rotating_earth.gif")));
+        assertEquals(Optional.of(SpooledImageUpload.Format.ICO), SpooledImageUpload.sniff(readHeader("favicon.ico")));
+        assertEquals(Optional.of(SpooledImageUpload.Format.SVG), SpooledImageUpload.sniff(readHeader("smotana-logo-master.svg")));
+        assertEquals(Optional.empty(), SpooledImageUpload.sniff("%PDF-1.7".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Optional.empty(), SpooledImageUpload.sniff(new byte[0]));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSpoolInMemoryAndFile() throws Exception {
+        byte[] gif = readAll("rotating_earth.gif");
+        try (SpooledImageUpload upload = SpooledImageUpload.spool(new ByteArrayInputStream(gif), gif.length, gif.length)) {
+            assertTrue(upload.isInMemory());
+            assertEquals(gif.length, upload.getLength());
+            assertArrayEquals(gif, upload.openStream().readAllBytes());
+        }
+        try (SpooledImageUpload upload = SpooledImageUpload.spool(new ByteArrayInputStream(gif), gif.length, 100)) {
+            assertFalse(upload.isInMemory());
+            assertEquals(SpooledImageUpload.Format.GIF, upload.getFormat());
+            assertEquals(gif.length, upload.getLength());
+            try (InputStream inputStream = upload.openStream()) {
+                assertArrayEquals(gif, inputStream.readAllBytes());
+            }
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testLimits() throws Exception {
+        byte[] gif = readAll("rotating_earth.gif");
+        try {
+            SpooledImageUpload.spool(new ByteArrayInputStream(gif), gif.length - 1, 100);
+            fail();
+        } catch (ApiException ex) {
+            assertEquals(Response.Status.REQUEST_ENTITY_TOO_LARGE, ex.getStatus());
+        }
+        try {
+            SpooledImageUpload.spool(new ByteArrayInputStream("not an image".getBytes(StandardCharsets.UTF_8)), 1000, 100);
+            fail();
+        } catch (ApiException ex) {
+            assertEquals(Response.Status.UNSUPPORTED_MEDIA_TYPE, ex.getStatus());
+        }
+    }
+
+    private byte[] readHeader(String resource) throws Exception {
+        return Arrays.copyOf(readAll(resource), 16);
+    }
+
+    private byte[] readAll(String resource) throws Exception {
+        try (InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.push.provider;
+
+import com.google.common.primitives.Bytes;
+import nl.martijndwars.webpush.Encoding;
+import nl.martijndwars.webpush.Encrypted;
+import nl.martijndwars.webpush.Urgency;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.jwa.AlgorithmConstraints;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Security;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Encryption test vector from RFC 8291 Appendix A.
+ */
+public class BrowserPushServiceImplTest {
+
+    private static final String PLAINTEXT = "When I grow up, I want to be a watermelon";
+    private static final String SENDER_PRIVATE_KEY = "yfWPiYE-n46HLnH0KqZOF1fJJU3MYrct3AELtAQ-oRw";
+    private static final String SENDER_PUBLIC_KEY = "BP4z9KsN6nGRTbVYI_c7VJSPQTBtkgcy27mlmlMoZIIgDll6e3vCYLocInmYWAmS6TlzAC8wEqKK6PBru3jl7A8";
+    private static final String USER_PRIVATE_KEY = "q1dXpw3UpT5VOmu_cf_v6ih07Aems3njxI-JWgLcM94";
+    private static final String USER_PUBLIC_KEY = "BCVxsr7N_eNgVRqvHtD0zTZsEc6-VV-JvLexhqUzORcxaOzi6-AYWXvTBHm4bjyPjs7Vd8pZGH6SRpkNtoIAiw4";
+    private static final String AUTH_SECRET = "BTBZMqHH6r4Tts7J_aSIgg";
+    private static final String SALT = "DGv6ra1nlYgDCS1FRnbzlw";
+    private static final String EXPECTED_AES128GCM = "DGv6ra1nlYgDCS1FRnbzlwAAEABBBP4z9KsN6nGRTbVYI_c7VJSPQTBtkgcy27mlmlMoZIIgDll6e3vCYLocInmYWAmS6TlzAC8wEqKK6PBru3jl7A_yl95bQpu6cVPTpK4Mqgkf1CXztLVBSt2Ks3oZwbuwXPXLWyouBWLVWGNWQexSgSxsj_Qulcy4a-fN";
+    /**
+     * Same inputs encrypted with the earlier aesgcm draft, verified by decrypting below.
+     */
+    private static final String EXPECTED_AESGCM = "4qwOLFm_mNy0vf1A8f3Bm6B5UD15y3aV_xZy14pixUhcPTIoZKHzq5i3dZ6PzqSMxBI_-VDUZ4jW04M";
+
+    @BeforeClass
+    public static void setupBeforeClass() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testEncryptAes128gcm() throws Exception {
+        Encrypted encrypted = encryptVector(Encoding.AES128GCM);
+
+        assertEquals(EXPECTED_AES128GCM, base64(encrypted.getCiphertext()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testEncryptAesgcm() throws Exception {
+        Encrypted encrypted = encryptVector(Encoding.AESGCM);
+
+        assertEquals(EXPECTED_AESGCM, base64(encrypted.getCiphertext()));
+
+        // Decrypt as the user agent would, keys derived independently as in draft-ietf-webpush-encryption-04
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        keyAgreement.init(Utils.loadPrivateKey(USER_PRIVATE_KEY));
+        keyAgreement.doPhase(encrypted.getPublicKey(), true);
+        byte[] ikm = hkdf(decode(AUTH_SECRET), keyAgreement.generateSecret(), bytes("Content-Encoding: auth\0"), 32);
+        byte[] context = Bytes.concat(
+                bytes("P-256\0"),
+                new byte[]{0, 65}, decode(USER_PUBLIC_KEY),
+                new byte[]{0, 65}, Utils.encode((ECPublicKey) encrypted.getPublicKey()));
+        byte[] key = hkdf(decode(SALT), ikm, Bytes.concat(bytes("Content-Encoding: aesgcm\0"), context), 16);
+        byte[] nonce = hkdf(decode(SALT), ikm, Bytes.concat(bytes("Content-Encoding: nonce\0"), context), 12);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, nonce));
+        byte[] record = cipher.doFinal(encrypted.getCiphertext());
+        int paddingLength = ((record[0] & 0xFF) << 8) | (record[1] & 0xFF);
+        assertEquals(PLAINTEXT, new String(Arrays.copyOfRange(record, 2 + paddingLength, record.length), StandardCharsets.UTF_8));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRequestHeadersAes128gcm() throws Exception {
+        Encrypted encrypted = encryptVector(Encoding.AES128GCM);
+        KeyPair vapidKeyPair = vapidKeyPair();
+
+        HttpRequest request = BrowserPushServiceImpl.buildRequest(
+                "https://fcm.googleapis.com/fcm/send/abc:def",
+                Encoding.AES128GCM,
+                encrypted,
+                Optional.of("token"),
+                Optional.of(vapidKeyPair.getPublic()),
+                Duration.ofSeconds(60),
+                Urgency.HIGH,
+                Duration.ofSeconds(10));
+
+        assertEquals("https://fcm.googleapis.com/wp/abc:def", request.uri().toString());
+        assertEquals("POST", request.method());
+        assertEquals(Optional.of("aes128gcm"), request.headers().firstValue("Content-Encoding"));
+        assertEquals(Optional.of("vapid t=token, k=" + SENDER_PUBLIC_KEY), request.headers().firstValue("Authorization"));
+        assertEquals(Optional.of("60"), request.headers().firstValue("TTL"));
+        assertEquals(Optional.of("high"), request.headers().firstValue("Urgency"));
+        assertFalse(request.headers().firstValue("Encryption").isPresent());
+        assertFalse(request.headers().firstValue("Crypto-Key").isPresent());
+        assertEquals(encrypted.getCiphertext().length, request.bodyPublisher().get().contentLength());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRequestHeadersAesgcm() throws Exception {
+        Encrypted encrypted = encryptVector(Encoding.AESGCM);
+        KeyPair vapidKeyPair = vapidKeyPair();
+
+        HttpRequest request = BrowserPushServiceImpl.buildRequest(
+                "https://updates.push.services.mozilla.com/wpush/v2/abc",
+                Encoding.AESGCM,
+                encrypted,
+                Optional.of("token"),
+                Optional.of(vapidKeyPair.getPublic()),
+                Duration.ofSeconds(60),
+                Urgency.NORMAL,
+                Duration.ofSeconds(10));
+
+        assertEquals("https://updates.push.services.mozilla.com/wpush/v2/abc", request.uri().toString());
+        assertEquals(Optional.of("aesgcm"), request.headers().firstValue("Content-Encoding"));
+        assertEquals(Optional.of("salt=" + SALT), request.headers().firstValue("Encryption"));
+        assertEquals(Optional.of("dh=" + SENDER_PUBLIC_KEY + "=;p256ecdsa=" + SENDER_PUBLIC_KEY),
+                request.headers().firstValue("Crypto-Key"));
+        assertEquals(Optional.of("WebPush token"), request.headers().firstValue("Authorization"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRequestHeadersWithoutVapid() throws Exception {
+        HttpRequest request = BrowserPushServiceImpl.buildRequest(
+                "https://fcm.googleapis.com/fcm/send/abc:def",
+                Encoding.AES128GCM,
+                encryptVector(Encoding.AES128GCM),
+                Optional.empty(),
+                Optional.empty(),
+                Duration.ofSeconds(60),
+                Urgency.NORMAL,
+                Duration.ofSeconds(10));
+
+        // Legacy endpoint is kept without VAPID
+        assertEquals("https://fcm.googleapis.com/fcm/send/abc:def", request.uri().toString());
+        assertFalse(request.headers().firstValue("Authorization").isPresent());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSignVapidToken() throws Exception {
+        KeyPair vapidKeyPair = vapidKeyPair();
+        Instant expiry = Instant.ofEpochSecond(2_000_000_000L);
+
+        String token = BrowserPushServiceImpl.signVapidToken("https://fcm.googleapis.com", vapidKeyPair.getPrivate(), expiry, "mailto:admin@example.com");
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setAlgorithmConstraints(new AlgorithmConstraints(AlgorithmConstraints.ConstraintType.WHITELIST, AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256));
+        jws.setCompactSerialization(token);
+        jws.setKey(vapidKeyPair.getPublic());
+        assertEquals(true, jws.verifySignature());
+        assertEquals("JWT", jws.getHeader("typ"));
+        JwtClaims claims = JwtClaims.parse(jws.getPayload());
+        assertEquals("https://fcm.googleapis.com", claims.getAudience().get(0));
+        assertEquals(expiry.getEpochSecond(), claims.getExpirationTime().getValue());
+        assertEquals("mailto:admin@example.com", claims.getSubject());
+
+        // Subject is optional
+        jws.setCompactSerialization(BrowserPushServiceImpl.signVapidToken("https://fcm.googleapis.com", vapidKeyPair.getPrivate(), expiry, ""));
+        assertEquals(null, JwtClaims.parse(jws.getPayload()).getSubject());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testOriginTag() throws Exception {
+        assertEquals("fcm", BrowserPushServiceImpl.originTag("https://fcm.googleapis.com"));
+        assertEquals("mozilla", BrowserPushServiceImpl.originTag("https://updates.push.services.mozilla.com"));
+        assertEquals("apple", BrowserPushServiceImpl.originTag("https://web.push.apple.com"));
+        assertEquals("wns", BrowserPushServiceImpl.originTag("https://db5p.notify.windows.com"));
+        assertEquals("other", BrowserPushServiceImpl.originTag("https://evil-fcm.googleapis.com.example.com"));
+        assertEquals("other", BrowserPushServiceImpl.originTag("https://example.com:8443"));
+    }
+
+    private Encrypted encryptVector(Encoding encoding) throws Exception {
+        return BrowserPushServiceImpl.encrypt(
+                PLAINTEXT.getBytes(StandardCharsets.UTF_8),
+                (ECPublicKey) Utils.loadPublicKey(USER_PUBLIC_KEY),
+                decode(AUTH_SECRET),
+                encoding,
+                decode(SALT),
+                new KeyPair(Utils.loadPublicKey(SENDER_PUBLIC_KEY), Utils.loadPrivateKey(SENDER_PRIVATE_KEY)));
+    }
+
+    /**
+     * Reuses the sender key pair of the vector as the VAPID key pair.
+     */
+    private KeyPair vapidKeyPair() throws Exception {
+        ECPrivateKey privateKey = (ECPrivateKey) Utils.loadPrivateKey(SENDER_PRIVATE_KEY);
+        return new KeyPair(Utils.loadPublicKey(privateKey), privateKey);
+    }
+
+    /**
+     * HKDF with SHA-256 limited to a single block of output
+     */
+    private static byte[] hkdf(byte[] salt, byte[] ikm, byte[] info, int length) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] prk = mac.doFinal(ikm);
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        return Arrays.copyOf(mac.doFinal(Bytes.concat(info, new byte[]{1})), length);
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] decode(String base64Url) {
+        return Base64.getUrlDecoder().decode(base64Url);
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
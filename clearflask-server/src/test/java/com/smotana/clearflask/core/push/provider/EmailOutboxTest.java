@@ -0,0 +1,89 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.push.provider;
+
+import com.google.common.collect.ImmutableList;
+import com.smotana.clearflask.core.push.provider.EmailOutbox.Priority;
+import com.smotana.clearflask.core.push.provider.EmailOutbox.QueuedEmail;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class EmailOutboxTest {
+
+    @Test(timeout = 10_000L)
+    public void testPriorityLanes() throws Exception {
+        EmailOutbox outbox = new EmailOutbox(10);
+
+        assertTrue(outbox.offer(queued("digest", "WEEKLY_DIGEST", Priority.LOW)));
+        assertTrue(outbox.offer(queued("reply", "COMMENT_REPLY", Priority.NORMAL)));
+        assertTrue(outbox.offer(queued("reset", "FORGOT_PASSWORD", Priority.HIGH)));
+        assertEquals(1, outbox.size(Priority.HIGH));
+
+        assertEquals("reset", pollOne(outbox));
+        assertEquals("reply", pollOne(outbox));
+        assertEquals("digest", pollOne(outbox));
+        assertEquals(ImmutableList.of(), outbox.pollBatch(1, Duration.ofMillis(10), e -> true));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCapacityAndRequeue() throws Exception {
+        EmailOutbox outbox = new EmailOutbox(2);
+
+        assertTrue(outbox.offer(queued("a", "COMMENT_REPLY", Priority.NORMAL)));
+        assertTrue(outbox.offer(queued("b", "COMMENT_REPLY", Priority.NORMAL)));
+        assertFalse(outbox.offer(queued("c", "COMMENT_REPLY", Priority.NORMAL)));
+        assertEquals(0, outbox.remainingCapacity());
+
+        ImmutableList<QueuedEmail> batch = outbox.pollBatch(1, Duration.ZERO, e -> true);
+        assertEquals(1, outbox.size());
+        outbox.requeue(ImmutableList.of(batch.get(0).withAttempt(1)));
+        assertEquals(2, outbox.size());
+
+        QueuedEmail retried = outbox.pollBatch(1, Duration.ZERO, e -> true).get(0);
+        assertEquals("a", retried.getEmail().getSubject());
+        assertEquals(1, retried.getAttempt());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBatchSameType() throws Exception {
+        EmailOutbox outbox = new EmailOutbox(10);
+
+        outbox.offer(queued("d1", "WEEKLY_DIGEST", Priority.LOW));
+        outbox.offer(queued("r1", "COMMENT_REPLY", Priority.LOW));
+        outbox.offer(queued("d2", "WEEKLY_DIGEST", Priority.LOW));
+        outbox.offer(queued("d3", "WEEKLY_DIGEST", Priority.LOW));
+
+        ImmutableList<QueuedEmail> batch = outbox.pollBatch(2, Duration.ZERO, e -> true);
+        assertEquals(ImmutableList.of("d1", "d2"), subjects(batch));
+        assertEquals(ImmutableList.of("r1"), subjects(outbox.pollBatch(5, Duration.ZERO, e -> !e.getTypeTag().equals("COMMENT_REPLY"))));
+        assertEquals(ImmutableList.of("d3"), subjects(outbox.pollBatch(5, Duration.ZERO, e -> true)));
+        assertEquals(0, outbox.size());
+    }
+
+    private String pollOne(EmailOutbox outbox) throws InterruptedException {
+        ImmutableList<QueuedEmail> batch = outbox.pollBatch(1, Duration.ZERO, e -> true);
+        assertEquals(1, batch.size());
+        return batch.get(0).getEmail().getSubject();
+    }
+
+    private ImmutableList<String> subjects(ImmutableList<QueuedEmail> batch) {
+        return batch.stream()
+                .map(queuedEmail -> queuedEmail.getEmail().getSubject())
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private QueuedEmail queued(String subject, String typeTag, Priority priority) {
+        return new QueuedEmail(
+                new Email("to@example.com", subject, "<p>" + subject + "</p>", subject, "projectId", typeTag),
+                priority,
+                Instant.now(),
+                0);
+    }
+}
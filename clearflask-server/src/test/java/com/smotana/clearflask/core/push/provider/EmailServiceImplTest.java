@@ -0,0 +1,195 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.push.provider;
+
+import com.amazonaws.services.simpleemailv2.AmazonSimpleEmailServiceV2;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntryResult;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailStatus;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailRequest;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailResult;
+import com.amazonaws.services.simpleemailv2.model.SendEmailRequest;
+import com.amazonaws.services.simpleemailv2.model.SendEmailResult;
+import com.amazonaws.services.simpleemailv2.model.TooManyRequestsException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.common.util.concurrent.ServiceManager;
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.store.EmailOutboxStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class EmailServiceImplTest extends AbstractTest {
+
+    private static final double SES_MAX_SEND_RATE = 2d;
+
+    @Inject
+    private EmailService emailService;
+    @Inject
+    private AmazonSimpleEmailServiceV2 ses;
+    @Inject
+    private EmailOutboxStore emailOutboxStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+    @Inject
+    private ServiceManager serviceManager;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(AmazonSimpleEmailServiceV2.class);
+        bindMock(EmailOutboxStore.class);
+
+        install(GuavaRateLimiters.module());
+        install(EmailServiceImpl.module());
+        install(ConfigSystem.overrideModule(EmailServiceImpl.Config.class, om -> {
+            om.override(om.id().rateLimitPerSecond()).withValue(1000d);
+            om.override(om.id().sesMaxSendRate()).withValue(SES_MAX_SEND_RATE);
+            om.override(om.id().sesMaxSendRateFromAccount()).withValue(false);
+            om.override(om.id().outboxWorkerThreads()).withValue(1);
+        }));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testPacing() throws Exception {
+        List<Long> sentMillis = new CopyOnWriteArrayList<>();
+        when(ses.sendEmail(any())).then(invocation -> {
+            sentMillis.add(System.currentTimeMillis());
+            return new SendEmailResult().withMessageId("message-id");
+        });
+
+        // Distinct types are not batched
+        int count = 6;
+        for (int i = 0; i < count; i++) {
+            emailService.send(email("to" + i + "@example.com", "TYPE_" + i));
+        }
+
+        verify(ses, timeout(10_000L).times(count)).sendEmail(any());
+        // At most a second worth of permits is stored, the rest waits for SES quota instead of being dropped
+        long elapsedMillis = sentMillis.get(count - 1) - sentMillis.get(0);
+        assertTrue("Elapsed " + elapsedMillis, elapsedMillis >= (long) ((count - 1 - SES_MAX_SEND_RATE) / SES_MAX_SEND_RATE * 1000 * 0.9));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testThrottleBackoff() throws Exception {
+        configSet(EmailServiceImpl.Config.class, "throttleBackoffInitial", "PT0.3S");
+        List<Long> attemptMillis = new CopyOnWriteArrayList<>();
+        when(ses.sendEmail(any())).then(invocation -> {
+            attemptMillis.add(System.currentTimeMillis());
+            if (attemptMillis.size() == 1) {
+                throw new TooManyRequestsException("Simulated throttle");
+            }
+            return new SendEmailResult().withMessageId("message-id");
+        });
+
+        emailService.send(email("to@example.com", "COMMENT_REPLY"));
+
+        verify(ses, timeout(10_000L).times(2)).sendEmail(any());
+        assertTrue(attemptMillis.get(1) - attemptMillis.get(0) >= 300L);
+        assertEquals(1d, meterRegistry.get(EmailServiceImpl.METER_NAME + ".throttled").counter().count(), 0d);
+        assertEquals(0d, meterRegistry.get(EmailServiceImpl.METER_NAME + ".outbox.dropped").counter().count(), 0d);
+    }
+
+    @Test(timeout = 30_000L)
+    public void testThrottleMaxAttempts() throws Exception {
+        configSet(EmailServiceImpl.Config.class, "throttleBackoffInitial", "PT0.01S");
+        configSet(EmailServiceImpl.Config.class, "maxAttempts", "3");
+        when(ses.sendEmail(any())).thenThrow(new TooManyRequestsException("Simulated throttle"));
+
+        emailService.send(email("to@example.com", "COMMENT_REPLY"));
+
+        verify(ses, timeout(10_000L).times(3)).sendEmail(any());
+        verify(ses, after(500L).times(3)).sendEmail(any());
+        assertEquals(1d, meterRegistry.get(EmailServiceImpl.METER_NAME + ".outbox.dropped").counter().count(), 0d);
+    }
+
+    @Test(timeout = 30_000L)
+    public void testBulkSendResultMapping() throws Exception {
+        CountDownLatch blockerLatch = new CountDownLatch(1);
+        when(ses.sendEmail(any())).then(invocation -> {
+            if ("blocker@example.com".equals(((SendEmailRequest) invocation.getArgument(0)).getDestination().getToAddresses().get(0))) {
+                blockerLatch.await();
+            }
+            return new SendEmailResult().withMessageId("message-id");
+        });
+        when(ses.sendBulkEmail(any())).thenReturn(new SendBulkEmailResult().withBulkEmailEntryResults(
+                new BulkEmailEntryResult().withStatus(BulkEmailStatus.SUCCESS).withMessageId("message-id"),
+                new BulkEmailEntryResult().withStatus(BulkEmailStatus.ACCOUNT_THROTTLED),
+                new BulkEmailEntryResult().withStatus(BulkEmailStatus.MESSAGE_REJECTED).withError("Simulated rejection")));
+
+        // Keep the only worker busy until all emails of the batch are queued
+        emailService.send(email("blocker@example.com", "COMMENT_REPLY"));
+        verify(ses, timeout(5_000L)).sendEmail(any());
+        emailService.send(email("sent@example.com", "WEEKLY_DIGEST"));
+        emailService.send(email("throttled@example.com", "WEEKLY_DIGEST"));
+        emailService.send(email("rejected@example.com", "WEEKLY_DIGEST"));
+        blockerLatch.countDown();
+
+        ArgumentCaptor<SendBulkEmailRequest> bulkRequestCaptor = ArgumentCaptor.forClass(SendBulkEmailRequest.class);
+        verify(ses, timeout(5_000L)).sendBulkEmail(bulkRequestCaptor.capture());
+        assertEquals(3, bulkRequestCaptor.getValue().getBulkEmailEntries().size());
+
+        // Only the throttled entry is retried
+        verify(ses, timeout(5_000L)).sendEmail(argThat(request -> request != null
+                && request.getDestination().getToAddresses().contains("throttled@example.com")));
+        verify(ses, after(500L).times(2)).sendEmail(any());
+        verify(ses, times(1)).sendBulkEmail(any());
+        assertEquals(1d, meterRegistry.get(EmailServiceImpl.METER_NAME + ".throttled").counter().count(), 0d);
+        for (String outcome : ImmutableList.of("sent", "throttled", "failed")) {
+            assertEquals(outcome, 1L, meterRegistry.get(EmailServiceImpl.METER_NAME + ".send")
+                    .tag("service", "ses-bulk")
+                    .tag("outcome", outcome)
+                    .timer().count());
+        }
+    }
+
+    @Test(timeout = 60_000L)
+    public void testShutdownWhilePacingSpillsBatch() throws Exception {
+        configSet(EmailServiceImpl.Config.class, "spillEnabled", "true");
+        // Leaves less than a permit stored, the second email waits
+        configSet(EmailServiceImpl.Config.class, "rateLimitPerSecond", "0.001");
+        when(ses.sendEmail(any())).thenReturn(new SendEmailResult().withMessageId("message-id"));
+        Email first = email("first@example.com", "COMMENT_REPLY");
+        Email second = email("second@example.com", "COMMENT_REPLY");
+
+        emailService.send(first);
+        verify(ses, timeout(5_000L)).sendEmail(any());
+        emailService.send(second);
+        verify(ses, after(1_500L).times(1)).sendEmail(any());
+
+        serviceManager.stopAsync().awaitStopped();
+
+        verify(emailOutboxStore).spill(ImmutableList.of(second));
+        verify(ses, times(1)).sendEmail(any());
+    }
+
+    private Email email(String toAddress, String typeTag) {
+        return new Email(
+                toAddress,
+                "Subject " + toAddress,
+                "<p>Html</p>",
+                "Text",
+                "project-id",
+                typeTag);
+    }
+}
@@ -0,0 +1,105 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.core.webhook;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService.Provider;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService.Result;
+import com.smotana.clearflask.store.WebhookEventDedupStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+@Slf4j
+public class WebhookIngestionServiceTest extends AbstractTest {
+
+    @Inject
+    private WebhookIngestionService service;
+    @Inject
+    private WebhookEventDedupStore webhookEventDedupStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(WebhookEventDedupStore.class);
+
+        install(Modules.override(
+                WebhookIngestionService.module()
+        ).with(binder -> {
+            binder.install(ConfigSystem.overrideModule(WebhookIngestionService.Config.class, om -> {
+                om.override(om.id().maxBatchSize()).withValue(2);
+                om.override(om.id().maxQueuedPerProject()).withValue(5);
+                om.override(om.id().retryDelay()).withValue(Duration.ofMillis(10));
+            }));
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testOrderedPerProject() throws Exception {
+        Mockito.when(webhookEventDedupStore.tryClaim(anyString())).thenReturn(true);
+        List<Integer> processed = Collections.synchronizedList(Lists.newArrayList());
+        CountDownLatch done = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            int eventNum = i;
+            assertEquals(Result.QUEUED, service.submit(Provider.GITHUB, "project1", Optional.of("event" + i), () -> {
+                processed.add(eventNum);
+                done.countDown();
+            }));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(0, 1, 2, 3, 4), ImmutableList.copyOf(processed));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDuplicateSkipped() throws Exception {
+        Mockito.when(webhookEventDedupStore.tryClaim(eq("slack:event1"))).thenReturn(true, false);
+
+        CountDownLatch done = new CountDownLatch(1);
+        assertEquals(Result.QUEUED, service.submit(Provider.SLACK, "project1", Optional.of("event1"), done::countDown));
+        assertEquals(Result.DUPLICATE, service.submit(Provider.SLACK, "project1", Optional.of("event1"), () -> fail("Duplicate processed")));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRetryKeepsOrder() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> processed = Collections.synchronizedList(Lists.newArrayList());
+        CountDownLatch done = new CountDownLatch(2);
+
+        service.submit(Provider.JIRA, "project2", Optional.empty(), () -> {
+            if (attempts.incrementAndGet() < 2) {
+                throw new RuntimeException("Transient failure");
+            }
+            processed.add("first");
+            done.countDown();
+        });
+        service.submit(Provider.JIRA, "project2", Optional.empty(), () -> {
+            processed.add("second");
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(ImmutableList.of("first", "second"), ImmutableList.copyOf(processed));
+    }
+}
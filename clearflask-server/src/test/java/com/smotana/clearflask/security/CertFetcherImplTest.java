@@ -1,6 +1,7 @@
 package com.smotana.clearflask.security;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -8,8 +9,10 @@ import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.api.model.Cert;
 import com.smotana.clearflask.api.model.CertGetOrCreateResponse;
+import com.smotana.clearflask.api.model.CertPreloadResponse;
 import com.smotana.clearflask.api.model.Keypair;
 import com.smotana.clearflask.store.CertStore;
+import com.smotana.clearflask.store.CertStore.CertListResponse;
 import com.smotana.clearflask.store.CertStore.CertModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel;
 import com.smotana.clearflask.store.CertStore.KeypairModel.KeypairType;
@@ -19,6 +22,7 @@ import com.smotana.clearflask.testutil.AbstractTest;
 import io.dataspray.singletable.SingleTable;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -29,10 +33,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -323,6 +330,118 @@ public class CertFetcherImplTest extends AbstractTest {
         verify(certStore).getCert(domain, true);
     }
 
+    @Test(timeout = 10_000L)
+    public void testCertServedFromCache() throws Exception {
+        configSource.set(configSource.id(CertFetcherImpl.Config.class).customDomainExpectedCnameTarget())
+                .toValue("");
+        String domain = "cached.example.com";
+        when(projectStore.getProjectBySlug(anyString(), anyBoolean())).thenReturn(Optional.of(mock(Project.class)));
+        when(certStore.getCert(eq(domain), eq(false))).thenReturn(Optional.of(sampleCertModel(domain)));
+        when(certStore.getKeypair(eq(KeypairType.CERT), eq(domain))).thenReturn(Optional.of(sampleKeypairModel(domain)));
+
+        Optional<CertGetOrCreateResponse> first = certFetcher.getOrCreateCertAndKeypair(domain);
+        Optional<CertGetOrCreateResponse> second = certFetcher.getOrCreateCertAndKeypair(domain);
+
+        assertTrue(first.isPresent());
+        assertEquals(first, second);
+        verify(certStore, times(1)).getCert(domain, false);
+        verify(certStore, times(1)).getKeypair(KeypairType.CERT, domain);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testUnknownDomainNegativelyCached() throws Exception {
+        String domain = "unknown.example.com";
+        when(projectStore.getProjectBySlug(anyString(), anyBoolean())).thenReturn(Optional.empty());
+
+        assertEquals(Optional.empty(), certFetcher.getOrCreateCertAndKeypair(domain));
+        assertEquals(Optional.empty(), certFetcher.getOrCreateCertAndKeypair(domain));
+
+        verify(projectStore, times(1)).getProjectBySlug(domain, true);
+        verify(certStore, never()).getCert(anyString(), anyBoolean());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testPreloadSkipsExpired() throws Exception {
+        CertModel valid = sampleCertModel("valid.example.com");
+        CertModel expired = sampleCertModel("expired.example.com").toBuilder()
+                .expiresAt(Instant.now().minus(Duration.ofDays(1)))
+                .build();
+        when(certStore.listCerts(eq(Optional.of("cursor1")), anyInt()))
+                .thenReturn(new CertListResponse(ImmutableList.of(valid, expired), Optional.of("cursor2")));
+        when(certStore.getKeypair(eq(KeypairType.CERT), eq(valid.getDomain()))).thenReturn(Optional.of(sampleKeypairModel(valid.getDomain())));
+
+        CertPreloadResponse response = certFetcher.preloadCertsAndKeypairs(Optional.of("cursor1"));
+
+        assertEquals("cursor2", response.getCursor());
+        assertEquals(1, response.getResults().size());
+        assertEquals(valid.getDomain(), response.getResults().get(0).getCert().getSubject());
+        verify(certStore, never()).getKeypair(KeypairType.CERT, expired.getDomain());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRenewalSkippedWithoutLease() throws Exception {
+        when(certStore.acquireRenewalLease(anyString(), any())).thenReturn(false);
+
+        ((CertFetcherImpl) certFetcher).renewExpiring();
+
+        verify(certStore, never()).listCerts(any(), anyInt());
+        verify(certStore, never()).getKeypair(eq(KeypairType.ACCOUNT), anyString());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRenewalOnlyDueCertsWithLeaseExtended() throws Exception {
+        configSource.set(configSource.id(CertFetcherImpl.Config.class).customDomainExpectedCnameTarget())
+                .toValue("");
+        CertModel dueWildcard = sampleCertModel("*.clearflask.com").toBuilder()
+                .expiresAt(Instant.now().plus(Duration.ofDays(1)))
+                .build();
+        CertModel dueCustom = sampleCertModel("due.example.com").toBuilder()
+                .expiresAt(Instant.now().plus(Duration.ofDays(1)))
+                .build();
+        CertModel notDue = sampleCertModel("notdue.example.com").toBuilder()
+                .expiresAt(Instant.now().plus(Duration.ofDays(90)))
+                .build();
+        when(certStore.acquireRenewalLease(anyString(), any())).thenReturn(true);
+        when(certStore.listCerts(eq(Optional.empty()), anyInt()))
+                .thenReturn(new CertListResponse(ImmutableList.of(dueWildcard, notDue), Optional.of("cursor1")));
+        when(certStore.listCerts(eq(Optional.of("cursor1")), anyInt()))
+                .thenReturn(new CertListResponse(ImmutableList.of(dueCustom), Optional.empty()));
+        when(projectStore.getProjectBySlug(anyString(), anyBoolean())).thenReturn(Optional.of(mock(Project.class)));
+        // Fail the order right away instead of contacting Let's Encrypt
+        when(certStore.getKeypair(eq(KeypairType.ACCOUNT), anyString())).thenThrow(new RuntimeException("Simulated order failure"));
+
+        String summary = ((CertFetcherImpl) certFetcher).renewExpiring();
+
+        assertEquals("Checked 3 certs, renewed 0, failed 2, skipped 0", summary);
+        InOrder inOrder = inOrder(certStore);
+        // Once to start, then extended before each order
+        inOrder.verify(certStore, times(2)).acquireRenewalLease(anyString(), any());
+        inOrder.verify(certStore).getKeypair(KeypairType.ACCOUNT, dueWildcard.getDomain());
+        inOrder.verify(certStore).acquireRenewalLease(anyString(), any());
+        inOrder.verify(certStore).getKeypair(KeypairType.ACCOUNT, dueCustom.getDomain());
+        verify(certStore, times(3)).acquireRenewalLease(anyString(), any());
+        verify(certStore, never()).getKeypair(KeypairType.ACCOUNT, notDue.getDomain());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRenewalStopsWhenLeaseLost() throws Exception {
+        CertModel due1 = sampleCertModel("*.clearflask.com").toBuilder()
+                .expiresAt(Instant.now().plus(Duration.ofDays(1)))
+                .build();
+        CertModel due2 = sampleCertModel("*.clearflask.com").toBuilder()
+                .expiresAt(Instant.now().plus(Duration.ofDays(2)))
+                .build();
+        when(certStore.acquireRenewalLease(anyString(), any())).thenReturn(true, true, false);
+        when(certStore.listCerts(eq(Optional.empty()), anyInt()))
+                .thenReturn(new CertListResponse(ImmutableList.of(due1, due2), Optional.empty()));
+        when(certStore.getKeypair(eq(KeypairType.ACCOUNT), anyString())).thenThrow(new RuntimeException("Simulated order failure"));
+
+        ((CertFetcherImpl) certFetcher).renewExpiring();
+
+        verify(certStore, times(3)).acquireRenewalLease(anyString(), any());
+        verify(certStore, times(1)).getKeypair(eq(KeypairType.ACCOUNT), anyString());
+    }
+
     private static CertModel sampleCertModel(String domain) {
         Instant now = Instant.now();
         return CertModel.builder()
@@ -18,12 +18,16 @@ import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.impl.*;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.mysql.MysqlCustomFunction;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.store.mysql.model.tables.JooqIdea;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.*;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateServiceImpl;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import io.dataspray.singletable.*;
 import lombok.AllArgsConstructor;
@@ -96,8 +100,13 @@ public class AccountStoreIT extends AbstractIT {
                 ElasticUtil.module(),
                 Sanitizer.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
+                LiveUpdateServiceImpl.module(),
+                ResponseCacheImpl.module(),
                 WebhookServiceImpl.module(),
-                DynamoElasticUserStore.module()
+                DynamoElasticUserStore.module(),
+                DynamoCounterStore.module(),
+                DynamoHistogramRollupStore.module(),
+                SearchEngineRouter.module()
         ).with(new AbstractModule() {
             @Override
             protected void configure() {
@@ -19,10 +19,14 @@ import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.impl.*;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.*;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateServiceImpl;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
@@ -71,12 +75,17 @@ public class CommentStoreIT extends AbstractIT {
                 DynamoElasticCommentStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoElasticUserStore.module(),
+                DynamoCounterStore.module(),
+                DynamoHistogramRollupStore.module(),
+                SearchEngineRouter.module(),
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 MysqlUtil.module(),
                 ElasticUtil.module(),
                 DynamoElasticIdeaStore.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
+                LiveUpdateServiceImpl.module(),
+                ResponseCacheImpl.module(),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
                 ProjectUpgraderImpl.module(),
@@ -0,0 +1,49 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoCertStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class DynamoCertStoreTest extends AbstractTest {
+
+    @Inject
+    private CertStore store;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(DynamoCertStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRenewalLease() throws Exception {
+        assertTrue(store.acquireRenewalLease("owner1", Duration.ofMinutes(15)));
+        assertFalse(store.acquireRenewalLease("owner2", Duration.ofMinutes(15)));
+        // Owner extends its own lease
+        assertTrue(store.acquireRenewalLease("owner1", Duration.ofMinutes(15)));
+        assertFalse(store.acquireRenewalLease("owner2", Duration.ofMinutes(15)));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRenewalLeaseExpired() throws Exception {
+        assertTrue(store.acquireRenewalLease("owner1", Duration.ofMinutes(-1)));
+        // Expired lease is taken over
+        assertTrue(store.acquireRenewalLease("owner2", Duration.ofMinutes(15)));
+        assertFalse(store.acquireRenewalLease("owner1", Duration.ofMinutes(15)));
+    }
+}
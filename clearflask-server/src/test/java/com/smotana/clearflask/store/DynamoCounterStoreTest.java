@@ -0,0 +1,111 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.CounterStore.CounterScope;
+import com.smotana.clearflask.store.CounterStore.CounterType;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class DynamoCounterStoreTest extends AbstractTest {
+
+    @Inject
+    private CounterStore store;
+    @Inject
+    private ProjectStore mockProjectStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(ProjectStore.class);
+        install(DynamoCounterStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testUpdate() throws Exception {
+        String accountId = IdUtil.randomId();
+        String projectId1 = mockProject(accountId);
+        String projectId2 = mockProject(accountId);
+
+        for (int i = 0; i < 10; i++) {
+            store.update(projectId1, CounterType.POSTS, 1L);
+        }
+        store.update(projectId1, CounterType.POSTS, -2L);
+        store.update(projectId2, CounterType.POSTS, 5L);
+        store.update(projectId2, CounterType.COMMENTS, 3L);
+
+        assertEquals(8L, store.get(CounterScope.PROJECT, projectId1, CounterType.POSTS));
+        assertEquals(5L, store.get(CounterScope.PROJECT, projectId2, CounterType.POSTS));
+        assertEquals(13L, store.get(CounterScope.ACCOUNT, accountId, CounterType.POSTS));
+        assertEquals(3L, store.get(CounterScope.ACCOUNT, accountId, CounterType.COMMENTS));
+        assertEquals(0L, store.get(CounterScope.ACCOUNT, accountId, CounterType.TRACKED_USERS));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testReconcile() throws Exception {
+        String accountId = IdUtil.randomId();
+        String projectId = mockProject(accountId);
+
+        assertEquals(4L, store.reconcile(CounterScope.PROJECT, projectId, CounterType.TRACKED_USERS, 4L));
+        assertEquals(4L, store.get(CounterScope.PROJECT, projectId, CounterType.TRACKED_USERS));
+        assertEquals(0L, store.reconcile(CounterScope.PROJECT, projectId, CounterType.TRACKED_USERS, 4L));
+
+        for (int i = 0; i < 10; i++) {
+            store.update(projectId, CounterType.TRACKED_USERS, 1L);
+        }
+        assertEquals(-7L, store.reconcile(CounterScope.PROJECT, projectId, CounterType.TRACKED_USERS, 7L));
+        assertEquals(7L, store.get(CounterScope.PROJECT, projectId, CounterType.TRACKED_USERS));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testChangeOwnerAndDelete() throws Exception {
+        String accountId1 = IdUtil.randomId();
+        String accountId2 = IdUtil.randomId();
+        String projectId = mockProject(accountId1);
+
+        store.update(projectId, CounterType.POSTS, 6L);
+        store.update(projectId, CounterType.TRACKED_USERS, 2L);
+        assertEquals(6L, store.get(CounterScope.ACCOUNT, accountId1, CounterType.POSTS));
+
+        store.changeOwner(projectId, accountId1, accountId2);
+        mockProject(accountId2, projectId);
+        assertEquals(0L, store.get(CounterScope.ACCOUNT, accountId1, CounterType.POSTS));
+        assertEquals(6L, store.get(CounterScope.ACCOUNT, accountId2, CounterType.POSTS));
+        assertEquals(2L, store.get(CounterScope.ACCOUNT, accountId2, CounterType.TRACKED_USERS));
+
+        store.deleteAllForProject(accountId2, projectId);
+        assertEquals(0L, store.get(CounterScope.PROJECT, projectId, CounterType.POSTS));
+        assertEquals(0L, store.get(CounterScope.ACCOUNT, accountId2, CounterType.POSTS));
+        assertEquals(0L, store.get(CounterScope.ACCOUNT, accountId2, CounterType.TRACKED_USERS));
+    }
+
+    private String mockProject(String accountId) {
+        return mockProject(accountId, IdUtil.randomId());
+    }
+
+    private String mockProject(String accountId, String projectId) {
+        Project project = Mockito.mock(Project.class);
+        when(project.getAccountId()).thenReturn(accountId);
+        when(mockProjectStore.getProject(eq(projectId), anyBoolean())).thenReturn(Optional.of(project));
+        return projectId;
+    }
+}
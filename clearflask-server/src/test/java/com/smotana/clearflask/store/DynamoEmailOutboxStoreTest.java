@@ -0,0 +1,107 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoEmailOutboxStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class DynamoEmailOutboxStoreTest extends AbstractTest {
+
+    @Inject
+    private EmailOutboxStore store;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(DynamoEmailOutboxStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSpillAndClaim() throws Exception {
+        ImmutableList<Email> emails = randomEmails(5);
+        store.spill(emails);
+
+        ImmutableList<Email> claimed1 = store.claim(3);
+        assertEquals(3, claimed1.size());
+        ImmutableList<Email> claimed2 = store.claim(10);
+        assertEquals(2, claimed2.size());
+        assertEquals(ImmutableList.of(), store.claim(10));
+
+        assertEquals(ImmutableSet.copyOf(emails), ImmutableSet.builder()
+                .addAll(claimed1)
+                .addAll(claimed2)
+                .build());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testClaimExpired() throws Exception {
+        configSet(DynamoEmailOutboxStore.Config.class, "expiry", "PT-1H");
+        store.spill(randomEmails(2));
+        configSet(DynamoEmailOutboxStore.Config.class, "expiry", "P2D");
+        ImmutableList<Email> notExpired = randomEmails(1);
+        store.spill(notExpired);
+
+        assertEquals(notExpired, store.claim(10));
+        // Expired emails were removed while claiming
+        assertEquals(ImmutableList.of(), store.claim(10));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testClaimOnce() throws Exception {
+        ImmutableList<Email> emails = randomEmails(40);
+        store.spill(emails);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ImmutableList<Email>>> claims = executor.invokeAll(IntStream.range(0, 8)
+                    .<Callable<ImmutableList<Email>>>mapToObj(i -> () -> store.claim(10))
+                    .collect(ImmutableList.toImmutableList()));
+            ImmutableList.Builder<Email> claimedBuilder = ImmutableList.builder();
+            for (Future<ImmutableList<Email>> claim : claims) {
+                claimedBuilder.addAll(claim.get());
+            }
+            // Concurrent claims may come up short when racing for the same emails
+            claimedBuilder.addAll(store.claim(emails.size()));
+            ImmutableList<Email> claimed = claimedBuilder.build();
+
+            assertEquals(emails.size(), claimed.size());
+            assertEquals(ImmutableSet.copyOf(emails), ImmutableSet.copyOf(claimed));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ImmutableList<Email> randomEmails(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Email(
+                        IdUtil.randomId() + "@example.com",
+                        "Subject " + i,
+                        "<p>Html</p>",
+                        "Text",
+                        IdUtil.randomId(),
+                        "WEEKLY_DIGEST"))
+                .collect(ImmutableList.toImmutableList());
+    }
+}
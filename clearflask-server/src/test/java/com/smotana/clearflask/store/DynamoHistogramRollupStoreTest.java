@@ -0,0 +1,103 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.smotana.clearflask.api.model.HistogramInterval;
+import com.smotana.clearflask.api.model.HistogramResponse;
+import com.smotana.clearflask.api.model.HistogramResponsePoints;
+import com.smotana.clearflask.api.model.Hits;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupKey;
+import com.smotana.clearflask.store.HistogramRollupStore.RollupType;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@Slf4j
+public class DynamoHistogramRollupStoreTest extends AbstractTest {
+
+    @Inject
+    private HistogramRollupStore store;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(DynamoHistogramRollupStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testUpdateAndHistogram() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.update(projectId, RollupType.POSTS, ImmutableMap.of(
+                new RollupKey("cat1", LocalDate.of(2024, 1, 1)), 2L,
+                new RollupKey("cat2", LocalDate.of(2024, 1, 3)), 1L,
+                new RollupKey("cat1", LocalDate.of(2024, 2, 10)), 4L));
+        store.update(projectId, RollupType.POSTS, ImmutableMap.of(
+                new RollupKey("cat1", LocalDate.of(2024, 2, 10)), -1L));
+
+        // Not served until backfilled
+        assertFalse(store.histogram(projectId, RollupType.POSTS, ImmutableSet.of(), Optional.empty(), Optional.empty(), Optional.empty()).isPresent());
+        store.markBackfilled(projectId);
+
+        assertEquals(new HistogramResponse(ImmutableList.of(
+                        new HistogramResponsePoints(LocalDate.of(2024, 1, 1), 2L),
+                        new HistogramResponsePoints(LocalDate.of(2024, 1, 3), 1L),
+                        new HistogramResponsePoints(LocalDate.of(2024, 2, 10), 3L)),
+                        new Hits(6L, null)),
+                histogram(projectId, ImmutableSet.of(), Optional.empty(), Optional.empty()));
+        assertEquals(new HistogramResponse(ImmutableList.of(
+                        new HistogramResponsePoints(LocalDate.of(2024, 1, 1), 2L),
+                        new HistogramResponsePoints(LocalDate.of(2024, 2, 1), 3L)),
+                        new Hits(5L, null)),
+                histogram(projectId, ImmutableSet.of("cat1"), Optional.empty(), Optional.of(HistogramInterval.MONTH)));
+        assertEquals(new HistogramResponse(ImmutableList.of(
+                        // Monday of the week
+                        new HistogramResponsePoints(LocalDate.of(2024, 1, 1), 1L),
+                        new HistogramResponsePoints(LocalDate.of(2024, 2, 5), 3L)),
+                        // Only within range
+                        new Hits(4L, null)),
+                histogram(projectId, ImmutableSet.of("cat1", "cat2"), Optional.of(LocalDate.of(2024, 1, 2)), Optional.of(HistogramInterval.WEEK)));
+        assertEquals(ImmutableList.of(new HistogramResponsePoints(LocalDate.of(2024, 1, 1), 6L)),
+                histogram(projectId, ImmutableSet.of(), Optional.empty(), Optional.of(HistogramInterval.QUARTER)).getPoints());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBackfillAndDelete() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.update(projectId, RollupType.USERS, ImmutableMap.of(
+                new RollupKey(null, LocalDate.of(2023, 5, 5)), 7L));
+
+        store.backfill(projectId, RollupType.USERS, ImmutableMap.of(
+                new RollupKey(null, LocalDate.of(2023, 6, 6)), 2L));
+        assertEquals(new HistogramResponse(ImmutableList.of(
+                        new HistogramResponsePoints(LocalDate.of(2023, 1, 1), 2L)),
+                        new Hits(2L, null)),
+                store.histogram(projectId, RollupType.USERS, ImmutableSet.of(), Optional.empty(), Optional.empty(), Optional.of(HistogramInterval.YEAR)).get());
+        assertFalse(store.isBackfilled(projectId, RollupType.COMMENTS));
+
+        store.deleteAllForProject(projectId);
+        assertFalse(store.isBackfilled(projectId, RollupType.USERS));
+        store.markBackfilled(projectId);
+        assertEquals(0L, (long) store.histogram(projectId, RollupType.USERS, ImmutableSet.of(), Optional.empty(), Optional.empty(), Optional.empty()).get().getHits().getValue());
+    }
+
+    private HistogramResponse histogram(String projectId, ImmutableSet<String> categoryIds, Optional<LocalDate> startOpt, Optional<HistogramInterval> intervalOpt) {
+        return store.histogram(projectId, RollupType.POSTS, categoryIds, startOpt, Optional.empty(), intervalOpt).get();
+    }
+}
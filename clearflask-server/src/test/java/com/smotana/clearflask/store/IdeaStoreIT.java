@@ -12,15 +12,21 @@ import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.api.model.*;
 import com.smotana.clearflask.api.model.IdeaVisibility;
+import com.smotana.clearflask.store.CounterStore.CounterScope;
+import com.smotana.clearflask.store.CounterStore.CounterType;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.impl.*;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.*;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateServiceImpl;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
@@ -57,6 +63,8 @@ public class IdeaStoreIT extends AbstractIT {
     private IdeaStore store;
     @Inject
     private UserStore userStore;
+    @Inject
+    private CounterStore counterStore;
 
     @Override
     protected void configure() {
@@ -71,11 +79,16 @@ public class IdeaStoreIT extends AbstractIT {
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoElasticUserStore.module(),
+                DynamoCounterStore.module(),
+                DynamoHistogramRollupStore.module(),
+                SearchEngineRouter.module(),
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 MysqlUtil.module(),
                 ElasticUtil.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
+                LiveUpdateServiceImpl.module(),
+                ResponseCacheImpl.module(),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
                 ProjectUpgraderImpl.module(),
@@ -140,6 +153,26 @@ public class IdeaStoreIT extends AbstractIT {
         assertEquals(Optional.empty(), store.getIdea(projectId, idea2Updated.getIdeaId()));
     }
 
+    @Test(timeout = 30_000L)
+    public void testDeleteIdeasCounter() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea3 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea1).get();
+        store.createIdea(idea2).get();
+        store.createIdea(idea3).get();
+        assertEquals(3L, counterStore.get(CounterScope.PROJECT, projectId, CounterType.POSTS));
+
+        // Duplicate and missing ids are not counted
+        store.deleteIdeas(projectId, ImmutableList.of(idea1.getIdeaId(), idea1.getIdeaId(), idea2.getIdeaId(), IdUtil.randomId())).get();
+        assertEquals(1L, counterStore.get(CounterScope.PROJECT, projectId, CounterType.POSTS));
+        store.deleteIdeas(projectId, ImmutableList.of(idea1.getIdeaId())).get();
+        assertEquals(1L, counterStore.get(CounterScope.PROJECT, projectId, CounterType.POSTS));
+        assertEquals(Optional.of(idea3), store.getIdea(projectId, idea3.getIdeaId()));
+    }
+
     @Test(timeout = 30_000L)
     public void testSearch() throws Exception {
         String projectId = IdUtil.randomId();
@@ -694,6 +727,48 @@ public class IdeaStoreIT extends AbstractIT {
         assertEquals(IdeaVisibility.PUBLIC, store.getIdea(projectId, publicIdea.getIdeaId()).get().getVisibility());
     }
 
+    @Test(timeout = 30_000L)
+    public void testSearchBatch() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        String categoryId1 = IdUtil.randomId();
+        String categoryId2 = IdUtil.randomId();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).categoryId(categoryId1)
+                .created(Instant.now().minus(2, ChronoUnit.DAYS)).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).categoryId(categoryId1)
+                .created(Instant.now().minus(1, ChronoUnit.DAYS)).build();
+        IdeaModel idea3 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).categoryId(categoryId2).build();
+        store.createIdea(idea1).get();
+        store.createIdea(idea2).get();
+        store.createIdea(idea3).get();
+
+        IdeaSearch searchCategory1 = IdeaSearch.builder()
+                .sortBy(IdeaSearch.SortByEnum.NEW)
+                .filterCategoryIds(ImmutableList.of(categoryId1))
+                .build();
+        IdeaSearch searchCategory2 = IdeaSearch.builder()
+                .filterCategoryIds(ImmutableList.of(categoryId2))
+                .build();
+        IdeaSearch searchCategory1Paged = searchCategory1.toBuilder()
+                .limit(1L)
+                .build();
+        ImmutableList<IdeaStore.SearchResponse> responses = store.searchIdeas(projectId, ImmutableList.of(
+                new IdeaStore.IdeaSearchWithCursor(searchCategory1, Optional.empty()),
+                new IdeaStore.IdeaSearchWithCursor(searchCategory2, Optional.empty()),
+                new IdeaStore.IdeaSearchWithCursor(searchCategory1Paged, Optional.empty())
+        ), Optional.empty(), ImmutableSet.of());
+        assertEquals(3, responses.size());
+        assertEquals(ImmutableList.of(idea2.getIdeaId(), idea1.getIdeaId()), responses.get(0).getIdeaIds());
+        assertEquals(ImmutableList.of(idea3.getIdeaId()), responses.get(1).getIdeaIds());
+        assertEquals(ImmutableList.of(idea2.getIdeaId()), responses.get(2).getIdeaIds());
+        assertTrue(responses.get(2).getCursorOpt().isPresent());
+
+        ImmutableList<IdeaStore.SearchResponse> nextPageResponses = store.searchIdeas(projectId, ImmutableList.of(
+                new IdeaStore.IdeaSearchWithCursor(searchCategory1Paged, responses.get(2).getCursorOpt())
+        ), Optional.empty(), ImmutableSet.of());
+        assertEquals(ImmutableList.of(idea1.getIdeaId()), nextPageResponses.get(0).getIdeaIds());
+    }
+
     @Test(timeout = 30_000L)
     public void testPrivateVisibilityInMultipleSearches() throws Exception {
         String projectId = IdUtil.randomId();
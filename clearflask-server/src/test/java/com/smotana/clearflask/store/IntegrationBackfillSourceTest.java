@@ -0,0 +1,39 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.smotana.clearflask.store.IntegrationBackfillSource.TimestampCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class IntegrationBackfillSourceTest {
+
+    @Test(timeout = 10_000L)
+    public void testTimestampCursorNext() throws Exception {
+        // First full page moves to the timestamp of its last issue
+        TimestampCursor cursor = TimestampCursor.next(Optional.empty(), 1000L);
+        assertEquals(new TimestampCursor(1000L, 1), cursor);
+
+        // Whole page shares the timestamp, moves to the next page instead of skipping past the timestamp
+        cursor = TimestampCursor.next(Optional.of(cursor), 1000L);
+        assertEquals(new TimestampCursor(1000L, 2), cursor);
+        cursor = TimestampCursor.next(Optional.of(cursor), 1000L);
+        assertEquals(new TimestampCursor(1000L, 3), cursor);
+
+        // Page reaches a later timestamp, starts over from its first page
+        cursor = TimestampCursor.next(Optional.of(cursor), 2000L);
+        assertEquals(new TimestampCursor(2000L, 1), cursor);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testTimestampCursorSerialize() throws Exception {
+        TimestampCursor cursor = new TimestampCursor(1651234567000L, 3);
+        assertEquals(cursor, TimestampCursor.parse(cursor.serialize()));
+        assertEquals(new TimestampCursor(1651234567000L, 1), TimestampCursor.parse("1651234567000"));
+    }
+}
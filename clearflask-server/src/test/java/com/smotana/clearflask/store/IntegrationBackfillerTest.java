@@ -0,0 +1,272 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.api.model.GitHub;
+import com.smotana.clearflask.api.model.VersionedConfigAdmin;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.IntegrationBackfillSource.ImportedIssue;
+import com.smotana.clearflask.store.IntegrationBackfillSource.IssuePage;
+import com.smotana.clearflask.store.IntegrationBackfillSource.PendingIssue;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.IntegrationBackfiller;
+import com.smotana.clearflask.store.impl.IntegrationBackfiller.BackfillProgress;
+import com.smotana.clearflask.store.impl.IntegrationBackfiller.Provider;
+import com.smotana.clearflask.store.impl.IntegrationBackfiller.Status;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class IntegrationBackfillerTest extends AbstractTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Inject
+    private IntegrationBackfiller backfiller;
+    @Inject
+    private SingleTable singleTable;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private GitHubStore gitHubStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(ProjectStore.class);
+        bindMock(IdeaStore.class);
+        bindMock(CommentStore.class);
+        bindMock(GitHubStore.class);
+        bindMock(GitLabStore.class);
+        bindMock(JiraStore.class);
+
+        install(IntegrationBackfiller.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(SingleTableProvider.module());
+        install(ConfigSystem.overrideModule(IntegrationBackfiller.Config.class, om -> {
+            // Resumed manually
+            om.override(om.id().resumeStartupDelay()).withValue(Duration.ofHours(1));
+            om.override(om.id().retryDelay()).withValue(Duration.ZERO);
+            om.override(om.id().maxAttempts()).withValue(MAX_ATTEMPTS);
+        }));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testCheckpointAndResume() throws Exception {
+        String projectId = mockProject();
+        mockStores();
+        PendingIssue issue1 = mockIssue(projectId);
+        PendingIssue issue2 = mockIssue(projectId);
+        mockPage(Optional.empty(), new IssuePage(ImmutableList.of(issue1), Optional.of("c1")));
+        mockPage(Optional.of("c1"), new IssuePage(ImmutableList.of(issue2), Optional.empty()));
+
+        backfiller.start(projectId, Provider.GITHUB);
+
+        BackfillProgress progress = awaitDone(projectId);
+        assertEquals(Status.COMPLETED, progress.getStatus());
+        assertEquals(2L, progress.getPages());
+        assertEquals(2L, progress.getIssuesImported());
+        assertEquals(2L, progress.getCommentsImported());
+        assertNull(progress.getCursor());
+        verify(ideaStore, times(2)).createIdeas(eq(projectId), any());
+        verify(commentStore, times(2)).createComments(eq(projectId), any());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testResumeAfterLeaseExpires() throws Exception {
+        String projectId = mockProject();
+        mockStores();
+        mockPage(Optional.of("c1"), new IssuePage(ImmutableList.of(mockIssue(projectId)), Optional.empty()));
+        TableSchema<BackfillProgress> progressSchema = singleTable.parseTableSchema(BackfillProgress.class);
+        BackfillProgress progressLeftBehind = new BackfillProgress(
+                projectId,
+                Provider.GITHUB,
+                "1/2",
+                Status.RUNNING,
+                "c1",
+                1L,
+                1L,
+                0L,
+                1L,
+                Instant.now(),
+                Instant.now(),
+                null,
+                "other-instance",
+                Instant.now().plusSeconds(600).getEpochSecond());
+
+        // Lease still held by the other instance
+        progressSchema.table().putItem(progressSchema.toItem(progressLeftBehind));
+        backfiller.resumeAll();
+        assertEquals("other-instance", backfiller.getProgress(projectId, Provider.GITHUB).get().getLeaseOwner());
+        verify(gitHubStore, after(500).never()).listIssues(any(), any(), anyInt(), any());
+
+        // Lease expired, other instance went away
+        progressSchema.table().putItem(progressSchema.toItem(progressLeftBehind.toBuilder()
+                .leaseExpiresEpochSec(Instant.now().minusSeconds(60).getEpochSecond())
+                .build()));
+        backfiller.resumeAll();
+
+        BackfillProgress progress = awaitDone(projectId);
+        assertEquals(Status.COMPLETED, progress.getStatus());
+        assertEquals(2L, progress.getPages());
+        assertEquals(2L, progress.getIssuesImported());
+        verify(gitHubStore, never()).listIssues(any(), eq(Optional.empty()), anyInt(), any());
+        verify(gitHubStore, times(1)).listIssues(any(), eq(Optional.of("c1")), anyInt(), any());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testLeaseTakeover() throws Exception {
+        String projectId = mockProject();
+        mockStores();
+        TableSchema<BackfillProgress> progressSchema = singleTable.parseTableSchema(BackfillProgress.class);
+        when(gitHubStore.listIssues(any(), eq(Optional.empty()), anyInt(), any())).then(invocation -> {
+            // Another instance takes over while this page is in flight
+            progressSchema.table().putItem(progressSchema.toItem(backfiller.getProgress(projectId, Provider.GITHUB).get().toBuilder()
+                    .leaseOwner("other-instance")
+                    .build()));
+            return new IssuePage(ImmutableList.of(mockIssue(projectId)), Optional.of("c1"));
+        });
+
+        backfiller.start(projectId, Provider.GITHUB);
+
+        verify(ideaStore, timeout(5_000L)).createIdeas(eq(projectId), any());
+        verify(gitHubStore, after(1_000L).times(1)).listIssues(any(), any(), anyInt(), any());
+        BackfillProgress progress = backfiller.getProgress(projectId, Provider.GITHUB).get();
+        assertEquals(Status.RUNNING, progress.getStatus());
+        assertEquals("other-instance", progress.getLeaseOwner());
+        assertEquals(0L, progress.getPages());
+        assertNull(progress.getCursor());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testPageRetry() throws Exception {
+        String projectId = mockProject();
+        mockStores();
+        mockPage(Optional.empty(), new IssuePage(ImmutableList.of(mockIssue(projectId)), Optional.empty()));
+        when(ideaStore.createIdeas(eq(projectId), any()))
+                .thenReturn(Futures.immediateFailedFuture(new RuntimeException("Simulated write failure")))
+                .thenReturn(Futures.immediateFuture(List.of()));
+
+        backfiller.start(projectId, Provider.GITHUB);
+
+        BackfillProgress progress = awaitDone(projectId);
+        assertEquals(Status.COMPLETED, progress.getStatus());
+        assertEquals(1L, progress.getPages());
+        assertEquals(1L, progress.getIssuesImported());
+        assertEquals(1L, progress.getCommentsImported());
+        assertNull(progress.getLastError());
+        // Comments of the failed attempt are written again, CommentStore does not count them twice
+        verify(commentStore, times(2)).createComments(eq(projectId), any());
+        verify(ideaStore, times(2)).createIdeas(eq(projectId), any());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testFailAfterMaxAttempts() throws Exception {
+        String projectId = mockProject();
+        mockStores();
+        mockPage(Optional.empty(), new IssuePage(ImmutableList.of(mockIssue(projectId)), Optional.of("c1")));
+        when(ideaStore.createIdeas(eq(projectId), any()))
+                .thenReturn(Futures.immediateFailedFuture(new RuntimeException("Simulated write failure")));
+
+        backfiller.start(projectId, Provider.GITHUB);
+
+        BackfillProgress progress = awaitDone(projectId);
+        assertEquals(Status.FAILED, progress.getStatus());
+        assertEquals(0L, progress.getPages());
+        assertEquals("java.lang.RuntimeException: Simulated write failure", progress.getLastError());
+        verify(ideaStore, times(MAX_ATTEMPTS)).createIdeas(eq(projectId), any());
+        verify(gitHubStore, never()).listIssues(any(), eq(Optional.of("c1")), anyInt(), any());
+    }
+
+    private String mockProject() {
+        String projectId = IdUtil.randomId();
+        ConfigAdmin configAdmin = Mockito.mock(ConfigAdmin.class);
+        when(configAdmin.getProjectId()).thenReturn(projectId);
+        when(configAdmin.getGithub()).thenReturn(GitHub.builder()
+                .installationId(1L)
+                .repositoryId(2L)
+                .name("owner/repo")
+                .createWithCategoryId("category")
+                .build());
+        Project project = Mockito.mock(Project.class);
+        when(project.getProjectId()).thenReturn(projectId);
+        when(project.getVersionedConfigAdmin()).thenReturn(new VersionedConfigAdmin(configAdmin, "version"));
+        when(projectStore.getProject(eq(projectId), Mockito.anyBoolean())).thenReturn(Optional.of(project));
+        doAnswer(invocation -> {
+            ((Consumer<Project>) invocation.getArgument(0)).accept(project);
+            return null;
+        }).when(projectStore).listAllProjects(any());
+        return projectId;
+    }
+
+    private void mockStores() {
+        when(ideaStore.getIdeas(any(), any(), Mockito.anyBoolean())).thenReturn(ImmutableMap.of());
+        when(ideaStore.createIdeas(any(), any())).thenReturn(Futures.immediateFuture(List.of()));
+        when(commentStore.createComments(any(), any())).thenReturn(Futures.immediateFuture(List.of()));
+    }
+
+    private void mockPage(Optional<String> cursorOpt, IssuePage page) throws Exception {
+        when(gitHubStore.listIssues(any(), eq(cursorOpt), anyInt(), any())).thenReturn(page);
+    }
+
+    private PendingIssue mockIssue(String projectId) {
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .commentCount(1L)
+                .childCommentCount(1L)
+                .build();
+        CommentModel comment = MockModelUtil.getRandomComment().toBuilder()
+                .projectId(projectId)
+                .ideaId(idea.getIdeaId())
+                .build();
+        return new PendingIssue(idea.getIdeaId(), () -> new ImportedIssue(idea, ImmutableList.of(comment)));
+    }
+
+    private BackfillProgress awaitDone(String projectId) throws InterruptedException {
+        while (true) {
+            Optional<BackfillProgress> progressOpt = backfiller.getProgress(projectId, Provider.GITHUB);
+            if (progressOpt.isPresent() && progressOpt.get().getStatus() != Status.RUNNING) {
+                return progressOpt.get();
+            }
+            Thread.sleep(50);
+        }
+    }
+}
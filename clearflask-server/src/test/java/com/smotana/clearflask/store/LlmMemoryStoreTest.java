@@ -2,28 +2,44 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.smotana.clearflask.store;
 
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.LlmMemoryStore.MemoryMessageModel;
+import com.smotana.clearflask.store.LlmMemoryStore.MessagesModel;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.impl.DynamoLlmMemoryStore;
 import com.smotana.clearflask.store.impl.LangChainLlmAgentStore;
 import com.smotana.clearflask.testutil.AbstractTest;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
 import dev.langchain4j.data.message.UserMessage;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @Slf4j
 public class LlmMemoryStoreTest extends AbstractTest {
 
     @Inject
     private LlmMemoryStore store;
+    @Inject
+    private SingleTable singleTable;
 
     @Override
     protected void configure() {
@@ -48,4 +64,124 @@ public class LlmMemoryStoreTest extends AbstractTest {
         assertEquals(List.of(m3), store.messages("c2"));
         assertEquals(List.of(), store.messages("c3"));
     }
+
+    @Test(timeout = 30_000L)
+    public void testWindowEviction() throws Exception {
+        configSet(DynamoLlmMemoryStore.Config.class, "memoryMaxTokens", "50");
+        for (int i = 0; i < 20; i++) {
+            store.add("c1", new UserMessage("user message number " + i));
+        }
+
+        List<ChatMessage> messages = store.messages("c1");
+        assertTrue(messages.size() > 0);
+        assertTrue(messages.size() < 20);
+        assertEquals(new UserMessage("user message number 19"), messages.get(messages.size() - 1));
+        assertFalse(messages.contains(new UserMessage("user message number 0")));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testOrphanedToolResultsEvicted() throws Exception {
+        configSet(DynamoLlmMemoryStore.Config.class, "memoryMaxTokens", "80");
+        ToolExecutionRequest request = ToolExecutionRequest.builder()
+                .id("t1")
+                .name("search")
+                .arguments("{}")
+                .build();
+        store.addAll("c1", List.of(
+                AiMessage.from(request),
+                ToolExecutionResultMessage.from(request, "some tool result")));
+        for (int i = 0; i < 10; i++) {
+            store.add("c1", new UserMessage("user message number " + i));
+        }
+
+        List<ChatMessage> messages = store.messages("c1");
+        assertFalse(messages.get(0) instanceof ToolExecutionResultMessage);
+        assertTrue(messages.stream().noneMatch(message -> message instanceof ToolExecutionResultMessage));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testOnlyLatestSystemMessageRetained() throws Exception {
+        ChatMessage m1 = new UserMessage("some user text");
+        store.add("c1", SystemMessage.from("first system"));
+        store.add("c1", m1);
+        store.add("c1", SystemMessage.from("second system"));
+
+        assertEquals(List.of(SystemMessage.from("second system"), m1), store.messages("c1"));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testReloadFromDynamo() throws Exception {
+        configSet(DynamoLlmMemoryStore.Config.class, "memoryMaxTokens", "50");
+        store.add("c1", SystemMessage.from("system"));
+        for (int i = 0; i < 20; i++) {
+            store.add("c1", new UserMessage("user message number " + i));
+        }
+        List<ChatMessage> messages = store.messages("c1");
+
+        LlmMemoryStore storeReloaded = createStore();
+        assertEquals(messages, storeReloaded.messages("c1"));
+
+        // Append through the other store leaves this store's cache behind
+        ChatMessage m1 = new UserMessage("appended through other store");
+        ChatMessage m2 = new UserMessage("appended through stale store");
+        storeReloaded.add("c1", m1);
+        store.add("c1", m2);
+
+        List<ChatMessage> messagesReloaded = createStore().messages("c1");
+        assertEquals(store.messages("c1"), messagesReloaded);
+        assertEquals(SystemMessage.from("system"), messagesReloaded.get(0));
+        assertEquals(List.of(m1, m2), messagesReloaded.subList(messagesReloaded.size() - 2, messagesReloaded.size()));
+        assertFalse(messagesReloaded.contains(new UserMessage("user message number 0")));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testStaleMessagesCleanedUp() throws Exception {
+        ChatMessage m1 = new UserMessage("some user text");
+        store.add("c1", m1);
+
+        // Left behind by an interrupted append
+        TableSchema<MemoryMessageModel> messageSchema = singleTable.parseTableSchema(MemoryMessageModel.class);
+        ChatMessage staleMessage = new UserMessage("stale");
+        messageSchema.table().putItem(messageSchema.toItem(new MemoryMessageModel(
+                "c1", 100L, ChatMessageSerializer.messageToJson(staleMessage), 1L)));
+
+        LlmMemoryStore storeReloaded = createStore();
+        assertEquals(List.of(m1), storeReloaded.messages("c1"));
+
+        ChatMessage m2 = new UserMessage("some other user text");
+        storeReloaded.add("c1", m2);
+        assertEquals(List.of(m1, m2), createStore().messages("c1"));
+        assertNull(messageSchema.fromItem(messageSchema.table().getItem(messageSchema.primaryKey(Map.of(
+                "convoId", "c1",
+                "seq", 100L)))));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testMigrateLegacy() throws Exception {
+        ChatMessage m1 = SystemMessage.from("system");
+        ChatMessage m2 = new UserMessage("some user text");
+        ChatMessage m3 = new AiMessage("some ai text");
+        TableSchema<MessagesModel> legacyMessagesSchema = singleTable.parseTableSchema(MessagesModel.class);
+        legacyMessagesSchema.table().putItem(legacyMessagesSchema.toItem(new MessagesModel(
+                "c1",
+                Stream.of(m1, m2, m3)
+                        .map(ChatMessageSerializer::messageToJson)
+                        .collect(ImmutableList.toImmutableList()))));
+
+        assertEquals(List.of(m1, m2, m3), store.messages("c1"));
+        assertNull(legacyMessagesSchema.fromItem(legacyMessagesSchema.table().getItem(legacyMessagesSchema.primaryKey(Map.of(
+                "convoId", "c1")))));
+
+        // Read back from the migrated messages
+        assertEquals(List.of(m1, m2, m3), createStore().messages("c1"));
+    }
+
+    /**
+     * Separate instance sharing the same table, as if on another server, without the other's cache.
+     */
+    private LlmMemoryStore createStore() {
+        DynamoLlmMemoryStore storeOther = new DynamoLlmMemoryStore();
+        injector.injectMembers(storeOther);
+        return storeOther;
+    }
 }
@@ -1,6 +1,7 @@
 package com.smotana.clearflask.store;
 
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
@@ -10,7 +11,9 @@ import com.smotana.clearflask.store.impl.LangChainLlmToolingStore;
 import com.smotana.clearflask.testutil.AbstractTest;
 import com.smotana.clearflask.util.MustacheProvider;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.service.tool.ToolExecution;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 
@@ -18,7 +21,11 @@ import java.time.Instant;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Slf4j
@@ -42,6 +49,7 @@ public class LlmToolingStoreTest extends AbstractTest {
         bindMock(ContentStore.class);
         install(Sanitizer.module());
         install(MustacheProvider.module());
+        install(ResponseCacheImpl.module());
     }
 
     @Test(timeout = 30_000L)
@@ -95,4 +103,94 @@ public class LlmToolingStoreTest extends AbstractTest {
 
         assertEquals(getTestResource("searchPosts-result-expected.txt"), resultActual);
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 30_000L)
+    public void testBatchedAndCached() throws Exception {
+        String projectId = "smotana-xie";
+        IdeaStore.IdeaModel post = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .ideaId("some-idea-1-fgwed")
+                .build();
+        when(this.mockIdeaStore.searchIdeasAdmin(anyString(), any(ImmutableList.class))).thenReturn(ImmutableList.of(
+                new IdeaStore.SearchResponse(ImmutableList.of(post.getIdeaId()), Optional.empty(), 1L, false),
+                new IdeaStore.SearchResponse(ImmutableList.of(), Optional.empty(), 0L, false)));
+        when(this.mockIdeaStore.getIdeas(anyString(), any(ImmutableCollection.class))).thenReturn(ImmutableMap.of(post.getIdeaId(), post));
+
+        ImmutableList<ToolExecutionRequest> requests = ImmutableList.of(
+                ToolExecutionRequest.builder()
+                        .name("searchPosts")
+                        .arguments(gson.toJson(ImmutableMap.of(
+                                "sortBy", "TOP",
+                                "filterCategoryIds", ImmutableList.of("b", "a"),
+                                "limit", 10))).build(),
+                ToolExecutionRequest.builder()
+                        .name("searchPosts")
+                        .arguments(gson.toJson(ImmutableMap.of(
+                                "sortBy", "NEW",
+                                "limit", 5))).build());
+        ImmutableList<ToolExecution> executions = store.runTools(projectId, requests);
+        assertEquals(2, executions.size());
+        assertEquals(requests.get(0), executions.get(0).request());
+        assertTrue(executions.get(0).result().contains(post.getIdeaId()));
+        assertEquals("empty result", executions.get(1).result());
+        verify(mockIdeaStore, times(1)).searchIdeasAdmin(anyString(), any(ImmutableList.class));
+        verify(mockIdeaStore, never()).searchIdeas(anyString(), any(IdeaSearchAdmin.class), anyBoolean(), any(Optional.class));
+
+        // Same search with different argument order is served from cache
+        ToolExecution cached = store.runTool(projectId, ToolExecutionRequest.builder()
+                .name("searchPosts")
+                .arguments(gson.toJson(ImmutableMap.of(
+                        "limit", 10,
+                        "filterCategoryIds", ImmutableList.of("a", "b"),
+                        "sortBy", "TOP"))).build());
+        assertEquals(executions.get(0).result(), cached.result());
+        verify(mockIdeaStore, times(1)).searchIdeasAdmin(anyString(), any(ImmutableList.class));
+        verify(mockIdeaStore, never()).searchIdeas(anyString(), any(IdeaSearchAdmin.class), anyBoolean(), any(Optional.class));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testSearchOrder() throws Exception {
+        String projectId = "smotana-xie";
+        IdeaStore.IdeaModel post1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).ideaId("post-first").build();
+        IdeaStore.IdeaModel post2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).ideaId("post-second").build();
+        IdeaStore.SearchResponse searchResponse = new IdeaStore.SearchResponse(
+                ImmutableList.of(post1.getIdeaId(), post2.getIdeaId()), Optional.empty(), 2L, false);
+        when(this.mockIdeaStore.searchIdeas(anyString(), any(IdeaSearchAdmin.class), anyBoolean(), any(Optional.class))).thenReturn(searchResponse);
+        when(this.mockIdeaStore.searchIdeasAdmin(anyString(), any(ImmutableList.class))).thenReturn(ImmutableList.of(searchResponse, searchResponse));
+        // Fetched in a different order than searched
+        when(this.mockIdeaStore.getIdeas(anyString(), any(ImmutableCollection.class))).thenReturn(ImmutableMap.of(
+                post2.getIdeaId(), post2,
+                post1.getIdeaId(), post1));
+
+        // Single
+        String result = store.runTool(projectId, ToolExecutionRequest.builder()
+                        .name("searchPosts")
+                        .arguments(gson.toJson(ImmutableMap.of(
+                                "sortBy", "TOP",
+                                "limit", 10))).build())
+                .result();
+        assertInOrder(result, post1.getIdeaId(), post2.getIdeaId());
+
+        // Batched
+        ImmutableList<ToolExecution> executions = store.runTools(projectId, ImmutableList.of(
+                ToolExecutionRequest.builder()
+                        .name("searchPosts")
+                        .arguments(gson.toJson(ImmutableMap.of(
+                                "sortBy", "NEW",
+                                "limit", 10))).build(),
+                ToolExecutionRequest.builder()
+                        .name("searchPosts")
+                        .arguments(gson.toJson(ImmutableMap.of(
+                                "sortBy", "TRENDING",
+                                "limit", 10))).build()));
+        verify(mockIdeaStore, times(1)).searchIdeasAdmin(anyString(), any(ImmutableList.class));
+        for (ToolExecution execution : executions) {
+            assertInOrder(execution.result(), post1.getIdeaId(), post2.getIdeaId());
+        }
+    }
+
+    private void assertInOrder(String result, String first, String second) {
+        assertTrue(result, result.indexOf(first) >= 0);
+        assertTrue(result, result.indexOf(first) < result.indexOf(second));
+    }
+}
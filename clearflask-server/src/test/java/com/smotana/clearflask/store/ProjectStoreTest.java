@@ -105,6 +105,28 @@ public class ProjectStoreTest extends AbstractTest {
         assertEquals(Optional.of(c1), store.getProject(newProject, false).map(Project::getVersionedConfig));
     }
 
+    @Test(timeout = 10_000L)
+    public void testSnapshotReusedForSameModel() throws Exception {
+        String projectId = "projectId";
+        store.createProject(IdUtil.randomId(), projectId, ModelUtil.createEmptyConfig(projectId));
+
+        Project project = store.getProject(projectId, true).get();
+        assertSame(project, store.getProject(projectId, false).get());
+        assertSame(project, store.getProject(projectId, true).get());
+
+        VersionedConfigAdmin ca = project.getVersionedConfigAdmin();
+        VersionedConfigAdmin ca1 = ca.toBuilder()
+                .version("ca1")
+                .config(ca.getConfig().toBuilder()
+                        .name("New name")
+                        .build()).build();
+        store.updateConfig(projectId, Optional.of(ca.getVersion()), ca1, false);
+        Project projectUpdated = store.getProject(projectId, true).get();
+        assertNotSame(project, projectUpdated);
+        assertEquals("ca1", projectUpdated.getVersion());
+        assertSame(projectUpdated, store.getProject(projectId, false).get());
+    }
+
     @Test(timeout = 10_000L)
     public void testInvitations() throws Exception {
         String projectId = "projectId";
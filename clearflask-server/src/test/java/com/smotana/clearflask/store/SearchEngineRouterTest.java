@@ -0,0 +1,215 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.DefaultServerSecret;
+import com.smotana.clearflask.util.ServerSecret;
+import com.smotana.clearflask.util.ServerSecretTest;
+import com.smotana.clearflask.web.ApiException;
+import lombok.Value;
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+
+@Slf4j
+public class SearchEngineRouterTest extends AbstractTest {
+
+    @Inject
+    private SearchEngineRouter router;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    @Named("cursor")
+    private ServerSecret serverSecretCursor;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(ProjectStore.class);
+
+        install(Modules.override(
+                SearchEngineRouter.module(),
+                DefaultServerSecret.module(Names.named("cursor"))
+        ).with(binder -> {
+            binder.install(ConfigSystem.overrideModule(DefaultServerSecret.Config.class, Names.named("cursor"), om -> {
+                om.override(om.id().sharedKey()).withValue(ServerSecretTest.getRandomSharedKey());
+            }));
+            binder.install(ConfigSystem.overrideModule(SearchEngineRouter.Config.class, om -> {
+                om.override(om.id().hedgeDelayMin()).withValue(Duration.ofMillis(10));
+                om.override(om.id().hedgeDelayMax()).withValue(Duration.ofMillis(100));
+                om.override(om.id().circuitBreakerErrorThreshold()).withValue(2);
+            }));
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSingleEnginePassThrough() throws Exception {
+        setSearchEngine(SearchEngine.READWRITE_ELASTICSEARCH);
+
+        Result result = read(Optional.empty(), true,
+                cursorOpt -> new Result("elastic", Optional.of("next")),
+                cursorOpt -> notCalled());
+        assertEquals(new Result("elastic", Optional.of("next")), result);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testHedgeAndCursorPinning() throws Exception {
+        setSearchEngine(SearchEngine.READ_ELASTICSEARCH_WRITE_BOTH);
+
+        Result result = read(Optional.empty(), true,
+                cursorOpt -> {
+                    sleep(3_000L);
+                    return new Result("elastic", Optional.empty());
+                },
+                cursorOpt -> new Result("mysql", Optional.of(serverSecretCursor.encryptString("offset"))));
+        assertEquals("mysql", result.getEngine());
+        assertTrue(result.getCursorOpt().isPresent());
+        assertNotEquals("offset", serverSecretCursor.decryptString(result.getCursorOpt().get()));
+
+        // Next page stays on the engine that issued the cursor
+        Result nextResult = read(result.getCursorOpt(), true,
+                cursorOpt -> notCalled(),
+                cursorOpt -> {
+                    assertEquals(Optional.of("offset"), cursorOpt.map(serverSecretCursor::decryptString));
+                    return new Result("mysql", Optional.empty());
+                });
+        assertEquals(new Result("mysql", Optional.empty()), nextResult);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testNotHedgeable() throws Exception {
+        setSearchEngine(SearchEngine.READ_MYSQL_WRITE_BOTH);
+
+        Result result = read(Optional.empty(), false,
+                cursorOpt -> notCalled(),
+                cursorOpt -> {
+                    sleep(300L);
+                    return new Result("mysql", Optional.of("cursor"));
+                });
+        assertEquals(new Result("mysql", Optional.of("cursor")), result);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFailoverAndCircuitBreaker() throws Exception {
+        setSearchEngine(SearchEngine.READ_ELASTICSEARCH_WRITE_BOTH);
+        AtomicInteger elasticCalls = new AtomicInteger();
+        Function<Optional<String>, Result> elasticFailing = cursorOpt -> {
+            elasticCalls.incrementAndGet();
+            throw new RuntimeException("elastic down");
+        };
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("mysql", read(Optional.empty(), false,
+                    elasticFailing,
+                    cursorOpt -> new Result("mysql", Optional.empty())).getEngine());
+        }
+        // Breaker opened after two errors
+        assertEquals(2, elasticCalls.get());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testClientErrorNotFailedOver() throws Exception {
+        setSearchEngine(SearchEngine.READ_ELASTICSEARCH_WRITE_BOTH);
+
+        try {
+            read(Optional.empty(), true,
+                    cursorOpt -> {
+                        throw new ApiException(Response.Status.BAD_REQUEST, "Sort not supported");
+                    },
+                    cursorOpt -> notCalled());
+            fail();
+        } catch (ApiException ex) {
+            assertEquals(Response.Status.BAD_REQUEST, ex.getStatus());
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBatchCursorRouting() throws Exception {
+        setSearchEngine(SearchEngine.READ_ELASTICSEARCH_WRITE_BOTH);
+        configSet(SearchEngineRouter.Config.class, "enableHedging", "false");
+
+        // Cursor issued by MySQL after failing over
+        Optional<String> mysqlCursorOpt = read(Optional.empty(), false,
+                cursorOpt -> {
+                    throw new RuntimeException("elastic down");
+                },
+                cursorOpt -> new Result("mysql", Optional.of(serverSecretCursor.encryptString("offset")))).getCursorOpt();
+        assertTrue(mysqlCursorOpt.isPresent());
+
+        ImmutableList<Result> results = router.readBatch("projectId",
+                ImmutableList.of(Optional.empty(), mysqlCursorOpt),
+                (indexes, cursorOpts) -> {
+                    assertEquals(ImmutableList.of(0), indexes);
+                    assertEquals(ImmutableList.of(Optional.empty()), cursorOpts);
+                    return ImmutableList.of(new Result("elastic", Optional.of(serverSecretCursor.encryptString("search-after"))));
+                },
+                (indexes, cursorOpts) -> {
+                    assertEquals(ImmutableList.of(1), indexes);
+                    assertEquals(ImmutableList.of(Optional.of("offset")), cursorOpts.stream()
+                            .map(cursorOpt -> cursorOpt.map(serverSecretCursor::decryptString))
+                            .collect(ImmutableList.toImmutableList()));
+                    return ImmutableList.of(new Result("mysql", Optional.of(serverSecretCursor.encryptString("offset2"))));
+                },
+                Result::getCursorOpt,
+                Result::withCursorOpt);
+        assertEquals("elastic", results.get(0).getEngine());
+        assertEquals(Optional.of("search-after"), results.get(0).getCursorOpt().map(serverSecretCursor::decryptString));
+        assertEquals("mysql", results.get(1).getEngine());
+        assertNotEquals(Optional.of("offset2"), results.get(1).getCursorOpt().map(serverSecretCursor::decryptString));
+
+        // Single read accepts the batch cursor
+        Result nextResult = read(results.get(1).getCursorOpt(), true,
+                cursorOpt -> notCalled(),
+                cursorOpt -> {
+                    assertEquals(Optional.of("offset2"), cursorOpt.map(serverSecretCursor::decryptString));
+                    return new Result("mysql", Optional.empty());
+                });
+        assertEquals(new Result("mysql", Optional.empty()), nextResult);
+    }
+
+    private Result read(Optional<String> cursorOpt, boolean hedgeable, Function<Optional<String>, Result> readElastic, Function<Optional<String>, Result> readMysql) {
+        return router.read("projectId", cursorOpt, hedgeable, readElastic, readMysql, Result::getCursorOpt, Result::withCursorOpt);
+    }
+
+    private void setSearchEngine(SearchEngine searchEngine) {
+        Mockito.when(projectStore.getSearchEngineForProject(any())).thenReturn(searchEngine);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Result notCalled() {
+        throw new AssertionError("Engine should not be called");
+    }
+
+    @Value
+    private static class Result {
+        String engine;
+        @With
+        Optional<String> cursorOpt;
+    }
+}
@@ -17,10 +17,14 @@ import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
 import com.smotana.clearflask.store.impl.*;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.mysql.MysqlUtil;
 import com.smotana.clearflask.testutil.AbstractIT;
 import com.smotana.clearflask.util.*;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateServiceImpl;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import io.jsonwebtoken.security.Keys;
 import lombok.extern.slf4j.Slf4j;
@@ -67,6 +71,9 @@ public class UserStoreIT extends AbstractIT {
                 InMemoryDynamoDbProvider.module(),
                 SingleTableProvider.module(),
                 DynamoElasticUserStore.module(),
+                DynamoCounterStore.module(),
+                DynamoHistogramRollupStore.module(),
+                SearchEngineRouter.module(),
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoVoteStore.module(),
@@ -74,6 +81,8 @@ public class UserStoreIT extends AbstractIT {
                 MysqlUtil.module(),
                 ElasticUtil.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
+                LiveUpdateServiceImpl.module(),
+                ResponseCacheImpl.module(),
                 WebhookServiceImpl.module(),
                 DynamoProjectStore.module(),
                 ProjectUpgraderImpl.module(),
@@ -0,0 +1,97 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.dynamo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class DynamoItemCacheTest {
+
+    @Test(timeout = 10_000L)
+    public void testPutIfAbsentDoesNotOverwrite() throws Exception {
+        DynamoItemCache<String> cache = new DynamoItemCache<>("test", () -> true, Duration.ofMinutes(1), 10, 10, new SimpleMeterRegistry());
+
+        cache.putIfAbsent("p1", "i1", "read");
+        assertEquals(Optional.of("read"), cache.get("p1", "i1"));
+        cache.put("p1", "i1", "written");
+        cache.putIfAbsent("p1", "i1", "stale read");
+        cache.putAllIfAbsent("p1", ImmutableMap.of("i1", "stale read", "i2", "read"));
+        assertEquals(Optional.of("written"), cache.get("p1", "i1"));
+        assertEquals(ImmutableMap.of("i1", "written", "i2", "read"), cache.getAll("p1", ImmutableList.of("i1", "i2", "i3")));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testInvalidate() throws Exception {
+        DynamoItemCache<String> cache = new DynamoItemCache<>("test", () -> true, Duration.ofMinutes(1), 10, 10, new SimpleMeterRegistry());
+
+        cache.put("p1", "i1", "a");
+        cache.put("p1", "i2", "b");
+        cache.put("p1", "i3", "c");
+        cache.put("p2", "i1", "d");
+
+        cache.invalidate("p1", "i1");
+        assertEquals(Optional.empty(), cache.get("p1", "i1"));
+        assertEquals(Optional.of("d"), cache.get("p2", "i1"));
+
+        cache.invalidateAll("p1", ImmutableList.of("i2"));
+        assertEquals(ImmutableMap.of("i3", "c"), cache.getAll("p1", ImmutableList.of("i1", "i2", "i3")));
+
+        cache.invalidateProject("p1");
+        assertEquals(Optional.empty(), cache.get("p1", "i3"));
+        assertEquals(Optional.of("d"), cache.get("p2", "i1"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testPerProjectCap() throws Exception {
+        DynamoItemCache<String> cache = new DynamoItemCache<>("test", () -> true, Duration.ofMinutes(1), 10, 2, new SimpleMeterRegistry());
+
+        cache.put("p2", "i1", "other");
+        for (int i = 0; i < 100; i++) {
+            cache.put("p1", "i" + i, "item");
+        }
+        assertEquals(2, cache.getAll("p1", ImmutableList.of("i97", "i98", "i99")).size());
+        assertEquals(Optional.of("other"), cache.get("p2", "i1"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDisabled() throws Exception {
+        AtomicBoolean enabled = new AtomicBoolean(true);
+        DynamoItemCache<String> cache = new DynamoItemCache<>("test", enabled::get, Duration.ofMinutes(1), 10, 10, new SimpleMeterRegistry());
+
+        cache.put("p1", "i1", "before");
+        enabled.set(false);
+        cache.put("p1", "i1", "written while disabled");
+        cache.putIfAbsent("p1", "i2", "read");
+        cache.putAllIfAbsent("p1", ImmutableMap.of("i3", "read"));
+
+        // Re-enabled without serving what was cached before
+        enabled.set(true);
+        assertEquals(ImmutableMap.of(), cache.getAll("p1", ImmutableList.of("i1", "i2", "i3")));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMetrics() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DynamoItemCache<String> cache = new DynamoItemCache<>("test", () -> true, Duration.ofMinutes(1), 10, 10, registry);
+
+        cache.get("p1", "i1");
+        cache.put("p1", "i1", "a");
+        cache.get("p1", "i1");
+        cache.getAll("p1", ImmutableList.of("i1", "i2"));
+
+        assertEquals(2d, registry.get(MeterRegistryProvider.METER_PREFIX + "dynamo.itemcache.hit").tag("entity", "test").counter().count(), 0d);
+        assertEquals(2d, registry.get(MeterRegistryProvider.METER_PREFIX + "dynamo.itemcache.miss").tag("entity", "test").counter().count(), 0d);
+        assertEquals(0.5d, registry.get(MeterRegistryProvider.METER_PREFIX + "dynamo.itemcache.hitratio").tag("entity", "test").gauge().value(), 0d);
+    }
+}
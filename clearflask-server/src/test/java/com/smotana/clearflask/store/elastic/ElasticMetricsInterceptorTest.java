@@ -0,0 +1,49 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class ElasticMetricsInterceptorTest {
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ElasticMetricsInterceptor interceptor = new ElasticMetricsInterceptor(registry);
+
+        exchange(interceptor, "POST", "/clearflask-idea-myproject/_search?typed_keys=true", 200);
+        exchange(interceptor, "POST", "/clearflask-idea-otherproject/_search", 200);
+        exchange(interceptor, "GET", "/clearflask-idea-myproject/_doc/abc", 404);
+        exchange(interceptor, "PUT", "/clearflask-idea-myproject", 200);
+
+        assertEquals(2, getTimer(registry, "POST _search", "success").count());
+        assertEquals(1, getTimer(registry, "GET _doc", "error").count());
+        assertEquals(1, getTimer(registry, "PUT index", "success").count());
+        assertEquals(0, getTimer(registry, "GET _doc", "success").count());
+    }
+
+    private void exchange(ElasticMetricsInterceptor interceptor, String method, String uri, int status) {
+        HttpContext context = new BasicHttpContext();
+        interceptor.process(new BasicHttpRequest(method, uri), context);
+        interceptor.process(new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null), context);
+    }
+
+    private Timer getTimer(SimpleMeterRegistry registry, String operation, String outcome) {
+        return registry.get(ElasticMetricsInterceptor.METER_NAME)
+                .tag("engine", "elasticsearch")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .timer();
+    }
+}
@@ -5,6 +5,8 @@ package com.smotana.clearflask.store.elastic;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -29,6 +31,7 @@ import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -36,7 +39,9 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -126,24 +131,8 @@ public class ElasticUtilIT extends AbstractIT {
                         "color", "green"
                 )), XContentType.JSON), RequestOptions.DEFAULT);
 
-        boolean useAccurateCursor;
-        ImmutableList<String> sortFields;
-        switch (paginationType) {
-            case SCROLL:
-                useAccurateCursor = true;
-                sortFields = ImmutableList.of();
-                break;
-            case SEARCH_AFTER:
-                useAccurateCursor = false;
-                sortFields = ImmutableList.of("name");
-                break;
-            case FROM:
-                useAccurateCursor = false;
-                sortFields = ImmutableList.of();
-                break;
-            default:
-                throw new Exception();
-        }
+        boolean useAccurateCursor = isAccurateCursor();
+        ImmutableList<String> sortFields = getSortFields();
 
         ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(new SearchRequest(indexName)
                         .source(new SearchSourceBuilder()
@@ -170,4 +159,63 @@ public class ElasticUtilIT extends AbstractIT {
         assertEquals(1, searchResponseWithCursor3.getSearchResponse().getHits().getHits().length);
         assertFalse(searchResponseWithCursor3.getCursorOpt().isPresent());
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 20_000L)
+    public void testPageThroughAll() throws Exception {
+        String indexName = elasticUtil.getIndexName("test-elastic-util-paging", IdUtil.randomId());
+        elastic.get().indices().create(new CreateIndexRequest(indexName).mapping(gson.toJson(ImmutableMap.of(
+                "dynamic", "false",
+                "properties", ImmutableMap.of(
+                        "name", ImmutableMap.of(
+                                "type", "keyword")))), XContentType.JSON), RequestOptions.DEFAULT);
+        Set<String> expectedIds = Sets.newHashSet();
+        for (int i = 0; i < 11; i++) {
+            String id = IdUtil.randomId();
+            expectedIds.add(id);
+            elastic.get().index(new IndexRequest(indexName).setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
+                    .id(id).source(gson.toJson(ImmutableMap.of(
+                            // Duplicate names to exercise tie-breaking
+                            "name", "name" + (i % 3))), XContentType.JSON), RequestOptions.DEFAULT);
+        }
+
+        boolean useAccurateCursor = isAccurateCursor();
+        ImmutableList<String> sortFields = getSortFields();
+        List<String> actualIds = Lists.newArrayList();
+        Optional<String> cursorOpt = Optional.empty();
+        int pages = 0;
+        do {
+            ElasticUtil.SearchResponseWithCursor response = elasticUtil.searchWithCursor(new SearchRequest(indexName)
+                            .source(new SearchSourceBuilder()
+                                    .query(QueryBuilders.matchAllQuery())),
+                    cursorOpt, sortFields, Optional.empty(), useAccurateCursor, Optional.of(2), configSearch, ImmutableSet.of());
+            for (SearchHit hit : response.getSearchResponse().getHits().getHits()) {
+                actualIds.add(hit.getId());
+            }
+            cursorOpt = response.getCursorOpt();
+            assertTrue("Too many pages", ++pages <= 7);
+        } while (cursorOpt.isPresent());
+
+        assertEquals(6, pages);
+        assertEquals("Duplicate results " + actualIds, expectedIds.size(), actualIds.size());
+        assertEquals(expectedIds, ImmutableSet.copyOf(actualIds));
+    }
+
+    private boolean isAccurateCursor() throws Exception {
+        switch (paginationType) {
+            case POINT_IN_TIME:
+                configSet(ConfigSearch.class, "usePointInTime", "true", "ElasticUtilIT");
+                return true;
+            case SCROLL:
+                configSet(ConfigSearch.class, "usePointInTime", "false", "ElasticUtilIT");
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private ImmutableList<String> getSortFields() {
+        return paginationType == PaginationType.SEARCH_AFTER
+                ? ImmutableList.of("name")
+                : ImmutableList.of();
+    }
+}
@@ -0,0 +1,24 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.elastic;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class ElasticUtilTest {
+
+    @Test(timeout = 10_000L)
+    public void testIsPointInTimeSupported() throws Exception {
+        assertFalse(ElasticUtil.isPointInTimeSupported(Optional.empty(), "7.10.0"));
+        assertFalse(ElasticUtil.isPointInTimeSupported(Optional.empty(), "7.11.2"));
+        assertTrue(ElasticUtil.isPointInTimeSupported(Optional.empty(), "7.12.0"));
+        assertTrue(ElasticUtil.isPointInTimeSupported(Optional.of("elasticsearch"), "8.1.0-SNAPSHOT"));
+        assertFalse(ElasticUtil.isPointInTimeSupported(Optional.of("opensearch"), "2.11.0"));
+    }
+}
@@ -0,0 +1,130 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.store.impl;
+
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.elastic.ElasticUtil;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.IdUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.jooq.DSLContext;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.smotana.clearflask.store.impl.DynamoElasticIdeaStore.EXP_DECAY_PERIOD_MILLIS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class IdeaTrendScoreAggregatorTest extends AbstractTest {
+
+    @Inject
+    private IdeaTrendScoreAggregator aggregator;
+    @Inject
+    private RestHighLevelClient elastic;
+    @Inject
+    private ElasticUtil elasticUtil;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(RestHighLevelClient.class);
+        bindMock(ElasticUtil.class);
+        bindMock(DSLContext.class);
+        bindMock(ProjectStore.class);
+
+        install(IdeaTrendScoreAggregator.module());
+        install(ConfigSystem.configModule(DynamoElasticIdeaStore.Config.class));
+        install(ConfigSystem.overrideModule(IdeaTrendScoreAggregator.Config.class, om -> {
+            // Flushed manually
+            om.override(om.id().flushFrequency()).withValue(Duration.ofHours(1));
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFlush() throws Exception {
+        String projectId = IdUtil.randomId();
+        when(projectStore.getSearchEngineForProject(projectId)).thenReturn(SearchEngine.READWRITE_ELASTICSEARCH);
+        when(elasticUtil.getIndexName(anyString(), anyString())).thenReturn("idea-index");
+        ExpDecayScore expDecayScore = new ExpDecayScore(EXP_DECAY_PERIOD_MILLIS);
+
+        long before = System.currentTimeMillis();
+        assertTrue(aggregator.add(projectId, "idea1"));
+        assertTrue(aggregator.add(projectId, "idea1"));
+        assertTrue(aggregator.add(projectId, "idea1"));
+        assertTrue(aggregator.add(projectId, "idea2"));
+        long after = System.currentTimeMillis();
+        assertEquals(2d, meterRegistry.get(MeterRegistryProvider.METER_PREFIX + "idea.trendscore.pending").gauge().value(), 0d);
+        verify(elastic, never()).bulkAsync(any(), any(), any());
+
+        aggregator.flush();
+
+        ArgumentCaptor<BulkRequest> bulkRequestCaptor = ArgumentCaptor.forClass(BulkRequest.class);
+        verify(elastic, times(1)).bulkAsync(bulkRequestCaptor.capture(), any(RequestOptions.class), any());
+        Map<String, Long> timeInMillisByIdeaId = bulkRequestCaptor.getValue().requests().stream()
+                .map(request -> (UpdateRequest) request)
+                .collect(Collectors.toMap(
+                        DocWriteRequest::id,
+                        request -> (Long) request.script().getParams().get("timeInMillis")));
+        assertEquals(2, timeInMillisByIdeaId.size());
+
+        // Single event applied as is
+        long idea2TimeInMillis = timeInMillisByIdeaId.get("idea2");
+        assertTrue(idea2TimeInMillis >= before && idea2TimeInMillis <= after);
+
+        // Three events combined into one equivalent event
+        long idea1TimeInMillis = timeInMillisByIdeaId.get("idea1");
+        assertTrue(idea1TimeInMillis >= toTimeInMillis(expDecayScore, before, 3)
+                && idea1TimeInMillis <= toTimeInMillis(expDecayScore, after, 3));
+
+        // Drained
+        assertEquals(0d, meterRegistry.get(MeterRegistryProvider.METER_PREFIX + "idea.trendscore.pending").gauge().value(), 0d);
+        aggregator.flush();
+        verify(elastic, times(1)).bulkAsync(any(), any(), any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDisabled() throws Exception {
+        configSet(IdeaTrendScoreAggregator.Config.class, "enabled", "false");
+        String projectId = IdUtil.randomId();
+
+        assertFalse(aggregator.add(projectId, "idea1"));
+        aggregator.flush();
+        verify(elastic, never()).bulkAsync(any(), any(), any());
+    }
+
+    private long toTimeInMillis(ExpDecayScore expDecayScore, long timeInMillis, int eventCount) {
+        double score = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < eventCount; i++) {
+            score = expDecayScore.updateScore(score, timeInMillis);
+        }
+        return expDecayScore.toTimeInMillis(score);
+    }
+}
@@ -8,9 +8,12 @@ import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.store.ContentStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
+import com.smotana.clearflask.store.SearchEngineRouter;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
@@ -21,6 +24,8 @@ import com.smotana.clearflask.util.IntercomUtil;
 import com.smotana.clearflask.util.ProjectUpgrader;
 import com.smotana.clearflask.util.ServerSecretTest;
 import com.smotana.clearflask.web.security.Sanitizer;
+import com.smotana.clearflask.web.util.LiveUpdateService;
+import com.smotana.clearflask.web.util.ResponseCache;
 import com.smotana.clearflask.web.util.WebhookService;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.codegen.GenerationTool;
@@ -52,6 +57,8 @@ public class JooqCodegenIT extends AbstractIT {
 
         bindMock(ContentStore.class);
         bindMock(WebhookService.class);
+        bindMock(LiveUpdateService.class);
+        bindMock(ResponseCache.class);
         bindMock(ProjectUpgrader.class);
         bindMock(VoteStore.class);
         bindMock(ProjectStore.class);
@@ -60,6 +67,9 @@ public class JooqCodegenIT extends AbstractIT {
                 DynamoElasticIdeaStore.module(),
                 DynamoElasticAccountStore.module(),
                 DynamoElasticUserStore.module(),
+                DynamoCounterStore.module(),
+                DynamoHistogramRollupStore.module(),
+                SearchEngineRouter.module(),
                 DynamoElasticCommentStore.module(),
                 InMemoryDynamoDbProvider.module(),
                 SingleTableProvider.module(),
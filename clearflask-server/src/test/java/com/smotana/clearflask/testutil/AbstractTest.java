@@ -18,6 +18,7 @@ import com.kik.config.ice.source.DebugDynamicConfigSource;
 import com.kik.config.ice.source.FileDynamicConfigSource;
 import com.smotana.clearflask.core.ServiceInjector;
 import com.smotana.clearflask.core.ServiceManagerProvider;
+import com.smotana.clearflask.core.metrics.MeterRegistryProvider;
 import com.smotana.clearflask.store.ProjectStore.SearchEngine;
 import com.smotana.clearflask.util.GsonProvider;
 import com.smotana.clearflask.web.Application;
@@ -69,6 +70,7 @@ public abstract class AbstractTest extends AbstractModule {
                                 bind(ServiceInjector.Environment.class).toInstance(ServiceInjector.Environment.TEST);
                                 install(ServiceManagerProvider.module());
                                 install(GsonProvider.module());
+                                install(MeterRegistryProvider.module());
                                 install(ConfigConfigurator.testModules());
                                 install(MoreConfigValueConverters.module());
                             }
@@ -0,0 +1,64 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Slf4j
+public class ExpDecayScoreBufferTest {
+
+    private static final long PERIOD = Duration.ofDays(7).toMillis();
+    private static final long START = 1_650_000_000_000L;
+
+    @Test(timeout = 10_000L)
+    public void testBufferedEqualsSequential() throws Exception {
+        ExpDecayScore expDecayScore = new ExpDecayScore(PERIOD);
+        ExpDecayScoreBuffer buffer = new ExpDecayScoreBuffer(expDecayScore);
+        Random random = new Random(42);
+
+        double prevScore = expDecayScore.updateScore(0d, START);
+        double expectedScore = prevScore;
+        long time = START;
+        for (int i = 0; i < 1_000; i++) {
+            time += random.nextInt(60_000);
+            expectedScore = expDecayScore.updateScore(expectedScore, time);
+            buffer.add("project", "idea", time);
+        }
+
+        ImmutableMap<String, Double> drained = buffer.drain("project");
+        assertEquals(ImmutableSet.of("idea"), drained.keySet());
+        double actualScore = expDecayScore.updateScore(prevScore, expDecayScore.toTimeInMillis(drained.get("idea")));
+        log.info("Sequential score {} buffered score {}", expectedScore, actualScore);
+        assertEquals(expectedScore, actualScore, 1e-6);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDrain() throws Exception {
+        ExpDecayScore expDecayScore = new ExpDecayScore(PERIOD);
+        ExpDecayScoreBuffer buffer = new ExpDecayScoreBuffer(expDecayScore);
+
+        buffer.add("project1", "idea1", START);
+        buffer.add("project1", "idea1", START + 1);
+        buffer.add("project1", "idea2", START);
+        buffer.add("project2", "idea1", START);
+        assertEquals(3, buffer.size());
+        assertEquals(ImmutableSet.of("project1", "project2"), buffer.getProjectIds());
+
+        ImmutableMap<String, Double> drained = buffer.drain("project1");
+        assertEquals(ImmutableSet.of("idea1", "idea2"), drained.keySet());
+        assertTrue(drained.get("idea1") > drained.get("idea2"));
+        assertEquals(expDecayScore.updateScore(Double.NEGATIVE_INFINITY, START), drained.get("idea2"), 1e-9);
+        assertEquals(ImmutableSet.of("project2"), buffer.getProjectIds());
+        assertEquals(ImmutableMap.of(), buffer.drain("project1"));
+        assertEquals(1, buffer.size());
+    }
+}
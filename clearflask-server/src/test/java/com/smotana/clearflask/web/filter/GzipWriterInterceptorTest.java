@@ -0,0 +1,87 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.filter;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@Slf4j
+public class GzipWriterInterceptorTest {
+
+    private static final byte[] BODY = "{\"results\":[{\"ideaId\":\"abc\",\"title\":\"Dark mode 🚀\"}]}".getBytes(Charsets.UTF_8);
+
+    @Test(timeout = 10_000L)
+    public void testCompresses() throws Exception {
+        MultivaluedMap<String, Object> responseHeaders = new MultivaluedHashMap<>();
+        byte[] written = write("deflate, gzip;q=0.8, br", MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_JSON_TYPE, responseHeaders);
+
+        assertEquals("gzip", responseHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, responseHeaders.getFirst(HttpHeaders.VARY));
+        assertArrayEquals(BODY, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(written))));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSkipped() throws Exception {
+        assertNotCompressed(null, MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_JSON_TYPE);
+        assertNotCompressed("deflate, br", MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_JSON_TYPE);
+        assertNotCompressed("gzip;q=0", MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_JSON_TYPE);
+        assertNotCompressed("gzip", MediaType.TEXT_PLAIN_TYPE, MediaType.APPLICATION_JSON_TYPE);
+        assertNotCompressed("gzip", MediaType.APPLICATION_JSON_TYPE, MediaType.SERVER_SENT_EVENTS_TYPE);
+    }
+
+    private void assertNotCompressed(String acceptEncoding, MediaType responseType, MediaType acceptType) throws Exception {
+        MultivaluedMap<String, Object> responseHeaders = new MultivaluedHashMap<>();
+        byte[] written = write(acceptEncoding, responseType, acceptType, responseHeaders);
+
+        assertFalse(responseHeaders.containsKey(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(BODY, written);
+    }
+
+    private byte[] write(String acceptEncoding, MediaType responseType, MediaType acceptType, MultivaluedMap<String, Object> responseHeaders) throws Exception {
+        GzipWriterInterceptor.Config config = Mockito.mock(GzipWriterInterceptor.Config.class);
+        Mockito.when(config.enabled()).thenReturn(true);
+        Mockito.when(config.bufferSize()).thenReturn(512);
+        HttpHeaders requestHeaders = Mockito.mock(HttpHeaders.class);
+        Mockito.when(requestHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING))
+                .thenReturn(acceptEncoding == null ? null : ImmutableList.of(acceptEncoding));
+        Mockito.when(requestHeaders.getAcceptableMediaTypes()).thenReturn(ImmutableList.of(acceptType));
+
+        ByteArrayOutputStream entityStream = new ByteArrayOutputStream();
+        AtomicReference<OutputStream> outputStreamRef = new AtomicReference<>(entityStream);
+        WriterInterceptorContext context = Mockito.mock(WriterInterceptorContext.class);
+        Mockito.when(context.getMediaType()).thenReturn(responseType);
+        Mockito.when(context.getHeaders()).thenReturn(responseHeaders);
+        Mockito.when(context.getOutputStream()).then(invocation -> outputStreamRef.get());
+        Mockito.doAnswer(invocation -> {
+            outputStreamRef.set(invocation.getArgument(0));
+            return null;
+        }).when(context).setOutputStream(Mockito.any());
+        Mockito.doAnswer(invocation -> {
+            outputStreamRef.get().write(BODY);
+            return null;
+        }).when(context).proceed();
+
+        new GzipWriterInterceptor(config, requestHeaders).aroundWriteTo(context);
+
+        return entityStream.toByteArray();
+    }
+}
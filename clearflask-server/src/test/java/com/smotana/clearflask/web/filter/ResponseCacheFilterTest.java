@@ -0,0 +1,247 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.filter;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.smotana.clearflask.api.model.VersionedConfig;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
+import com.smotana.clearflask.web.util.ResponseCache;
+import com.smotana.clearflask.web.util.ResponseCache.CachedResponse;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class ResponseCacheFilterTest {
+
+    private static final String PROJECT_ID = "project-id";
+    private static final Map<String, Object> ENTITY = ImmutableMap.of("ideaId", "abc", "title", "Dark mode 🚀");
+    private static final byte[] ENTITY_BYTES = new Gson().toJson(ENTITY).getBytes(Charsets.UTF_8);
+
+    private ResponseCache responseCache;
+    private ResponseCacheFilter filter;
+    private ResourceInfo resourceInfo;
+
+    @Before
+    public void setup() throws Exception {
+        ResponseCacheImpl.Config configCache = Mockito.mock(ResponseCacheImpl.Config.class);
+        when(configCache.enabled()).thenReturn(true);
+        when(configCache.expireAfterWrite()).thenReturn(Duration.ofMinutes(1));
+        when(configCache.maxWeightInBytes()).thenReturn(1024L * 1024L);
+        responseCache = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ResponseCacheImpl.Config.class).toInstance(configCache);
+                bind(MeterRegistry.class).toInstance(new SimpleMeterRegistry());
+            }
+        }).getInstance(ResponseCacheImpl.class);
+
+        ResponseCacheFilter.Config config = Mockito.mock(ResponseCacheFilter.Config.class);
+        when(config.enabled()).thenReturn(true);
+        when(config.maxRequestBodyBytes()).thenReturn(1024);
+
+        VersionedConfig versionedConfig = Mockito.mock(VersionedConfig.class);
+        when(versionedConfig.getVersion()).thenReturn("config-version");
+        Project project = Mockito.mock(Project.class);
+        when(project.getProjectId()).thenReturn(PROJECT_ID);
+        when(project.getVersionedConfig()).thenReturn(versionedConfig);
+        ProjectStore projectStore = Mockito.mock(ProjectStore.class);
+        when(projectStore.getProject(anyString(), anyBoolean())).thenReturn(Optional.empty());
+        when(projectStore.getProject(Mockito.eq(PROJECT_ID), anyBoolean())).thenReturn(Optional.of(project));
+
+        resourceInfo = Mockito.mock(ResourceInfo.class);
+        when(resourceInfo.getResourceMethod()).thenReturn(getClass().getDeclaredMethod("cachedMethod"));
+
+        HttpHeaders requestHeaders = Mockito.mock(HttpHeaders.class);
+        when(requestHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(ImmutableList.of("gzip, br"));
+
+        filter = new ResponseCacheFilter(config, responseCache, projectStore, new Gson(), resourceInfo, requestHeaders);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCached() throws Exception {
+        ContainerRequestContext missRequest = mockRequest("{\"b\":1,\"a\":null,\"c\":[{\"y\":2,\"x\":1}]}", null, true);
+        filter.filter(missRequest);
+        Mockito.verify(missRequest, Mockito.never()).abortWith(any());
+        String etag = assertWritten(missRequest, ENTITY);
+
+        // Same request serialized differently
+        ContainerRequestContext hitRequest = mockRequest("{\"c\":[{\"x\":1,\"y\":2}],\"b\":1}", null, true);
+        Response hitResponse = assertAborted(hitRequest);
+        assertEquals(Response.Status.OK.getStatusCode(), hitResponse.getStatus());
+        assertTrue(hitResponse.getEntity() instanceof CachedResponse);
+        assertEquals(etag, assertWritten(hitRequest, hitResponse.getEntity()));
+
+        ContainerRequestContext notModifiedRequest = mockRequest("{\"b\":1,\"c\":[{\"x\":1,\"y\":2}]}", "W/\"other\", \"" + etag + "\"", true);
+        Response notModifiedResponse = assertAborted(notModifiedRequest);
+        assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), notModifiedResponse.getStatus());
+        assertEquals(new EntityTag(etag), notModifiedResponse.getEntityTag());
+        assertNull(notModifiedResponse.getEntity());
+
+        // Different body
+        ContainerRequestContext otherRequest = mockRequest("{\"b\":2}", null, true);
+        filter.filter(otherRequest);
+        Mockito.verify(otherRequest, Mockito.never()).abortWith(any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testInvalidated() throws Exception {
+        ContainerRequestContext missRequest = mockRequest("{}", null, true);
+        filter.filter(missRequest);
+        assertWritten(missRequest, ENTITY);
+        assertAborted(mockRequest("{}", null, true));
+
+        responseCache.invalidateProject(PROJECT_ID);
+
+        ContainerRequestContext invalidatedRequest = mockRequest("{}", null, true);
+        filter.filter(invalidatedRequest);
+        Mockito.verify(invalidatedRequest, Mockito.never()).abortWith(any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSkipped() throws Exception {
+        // Authenticated
+        ContainerRequestContext authenticatedRequest = mockRequest("{}", null, false);
+        filter.filter(authenticatedRequest);
+        assertNull(authenticatedRequest.getProperty(ResponseCacheFilter.class.getName() + ".cacheKey"));
+
+        // Not annotated
+        when(resourceInfo.getResourceMethod()).thenReturn(getClass().getDeclaredMethod("uncachedMethod"));
+        ContainerRequestContext uncachedRequest = mockRequest("{}", null, true);
+        filter.filter(uncachedRequest);
+        assertNull(uncachedRequest.getProperty(ResponseCacheFilter.class.getName() + ".cacheKey"));
+        when(resourceInfo.getResourceMethod()).thenReturn(getClass().getDeclaredMethod("cachedMethod"));
+
+        // Error response is not stored
+        ContainerRequestContext errorRequest = mockRequest("{}", null, true);
+        filter.filter(errorRequest);
+        ContainerResponseContext errorResponse = Mockito.mock(ContainerResponseContext.class);
+        when(errorResponse.getStatus()).thenReturn(Response.Status.NOT_FOUND.getStatusCode());
+        filter.filter(errorRequest, errorResponse);
+        assertNull(errorRequest.getProperty(ResponseCacheFilter.class.getName() + ".cacheKey"));
+        ContainerRequestContext nextRequest = mockRequest("{}", null, true);
+        filter.filter(nextRequest);
+        Mockito.verify(nextRequest, Mockito.never()).abortWith(any());
+    }
+
+    @CacheAnonymous
+    private void cachedMethod() {
+    }
+
+    private void uncachedMethod() {
+    }
+
+    private Response assertAborted(ContainerRequestContext requestContext) throws Exception {
+        filter.filter(requestContext);
+        ArgumentCaptor<Response> responseCaptor = ArgumentCaptor.forClass(Response.class);
+        Mockito.verify(requestContext).abortWith(responseCaptor.capture());
+        return responseCaptor.getValue();
+    }
+
+    private String assertWritten(ContainerRequestContext requestContext, Object entity) throws Exception {
+        ContainerResponseContext responseContext = Mockito.mock(ContainerResponseContext.class);
+        when(responseContext.getStatus()).thenReturn(Response.Status.OK.getStatusCode());
+        when(responseContext.hasEntity()).thenReturn(true);
+        filter.filter(requestContext, responseContext);
+
+        MultivaluedMap<String, Object> responseHeaders = new MultivaluedHashMap<>();
+        ByteArrayOutputStream entityStream = new ByteArrayOutputStream();
+        WriterInterceptorContext context = Mockito.mock(WriterInterceptorContext.class);
+        when(context.getEntity()).thenReturn(entity);
+        when(context.getGenericType()).thenReturn(Map.class);
+        when(context.getHeaders()).thenReturn(responseHeaders);
+        when(context.getOutputStream()).thenReturn(entityStream);
+        when(context.getProperty(anyString())).then(invocation -> requestContext.getProperty(invocation.getArgument(0)));
+        filter.aroundWriteTo(context);
+        Mockito.verify(context, Mockito.never()).proceed();
+
+        assertEquals("gzip", responseHeaders.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(ENTITY_BYTES, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(entityStream.toByteArray()))));
+        EntityTag etag = (EntityTag) responseHeaders.getFirst(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        return etag.getValue();
+    }
+
+    private ContainerRequestContext mockRequest(String body, String ifNoneMatch, boolean anonymous) throws Exception {
+        UriInfo uriInfo = Mockito.mock(UriInfo.class);
+        MultivaluedMap<String, String> pathParameters = new MultivaluedHashMap<>();
+        pathParameters.putSingle("projectId", PROJECT_ID);
+        when(uriInfo.getPathParameters()).thenReturn(pathParameters);
+        when(uriInfo.getQueryParameters()).thenReturn(new MultivaluedHashMap<>());
+        when(uriInfo.getPath()).thenReturn("project/" + PROJECT_ID + "/ideasearch");
+
+        SecurityContext securityContext = Mockito.mock(SecurityContext.class);
+        when(securityContext.getUserPrincipal()).thenReturn(ExtendedPrincipal.builder()
+                .name("127.0.0.1")
+                .remoteIp("127.0.0.1")
+                .authenticatedSuperAccountIdOpt(Optional.empty())
+                .authenticatedUserSessionOpt(Optional.empty())
+                .accountSessionOpt(Optional.empty())
+                .superAccountSessionOpt(Optional.empty())
+                .authenticatedAccountIdOpt(anonymous ? Optional.empty() : Optional.of("account-id"))
+                .build());
+
+        Map<String, Object> properties = new ConcurrentHashMap<>();
+        AtomicReference<InputStream> entityStreamRef = new AtomicReference<>(new ByteArrayInputStream(body.getBytes(Charsets.UTF_8)));
+        ContainerRequestContext requestContext = Mockito.mock(ContainerRequestContext.class);
+        when(requestContext.getUriInfo()).thenReturn(uriInfo);
+        when(requestContext.getSecurityContext()).thenReturn(securityContext);
+        when(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH)).thenReturn(ifNoneMatch);
+        when(requestContext.hasEntity()).thenReturn(true);
+        when(requestContext.getEntityStream()).then(invocation -> entityStreamRef.get());
+        Mockito.doAnswer(invocation -> {
+            entityStreamRef.set(invocation.getArgument(0));
+            return null;
+        }).when(requestContext).setEntityStream(any());
+        when(requestContext.getProperty(anyString())).then(invocation -> properties.get(invocation.<String>getArgument(0)));
+        Mockito.doAnswer(invocation -> properties.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(requestContext).setProperty(anyString(), any());
+        Mockito.doAnswer(invocation -> properties.remove(invocation.<String>getArgument(0)))
+                .when(requestContext).removeProperty(anyString());
+        return requestContext;
+    }
+}
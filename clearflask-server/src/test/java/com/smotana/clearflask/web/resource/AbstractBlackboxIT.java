@@ -63,6 +63,7 @@ import com.smotana.clearflask.core.push.message.OnTrialEnded;
 import com.smotana.clearflask.core.push.message.OnTrialEnding;
 import com.smotana.clearflask.core.push.provider.MockBrowserPushService;
 import com.smotana.clearflask.core.push.provider.MockEmailService;
+import com.smotana.clearflask.core.webhook.WebhookIngestionService;
 import com.smotana.clearflask.security.CertFetcherImpl;
 import com.smotana.clearflask.security.ClearFlaskSso;
 import com.smotana.clearflask.security.SimpleEmailValidator;
@@ -71,7 +72,9 @@ import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.CloudLocalLicenseStore;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.SearchEngineRouter;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.WebhookEventDedupStore;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.SingleTableProvider;
 import com.smotana.clearflask.store.elastic.ElasticUtil;
@@ -79,6 +82,8 @@ import com.smotana.clearflask.store.github.GitHubClientProviderImpl;
 import com.smotana.clearflask.store.github.GitHubStoreImpl;
 import com.smotana.clearflask.store.impl.ConfigurableLlmPromptStore;
 import com.smotana.clearflask.store.impl.DynamoCertStore;
+import com.smotana.clearflask.store.impl.DynamoCounterStore;
+import com.smotana.clearflask.store.impl.DynamoHistogramRollupStore;
 import com.smotana.clearflask.store.impl.DynamoDraftStore;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
@@ -114,6 +119,8 @@ import com.smotana.clearflask.web.security.MockExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.security.SuperAdminPredicate;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.LiveUpdateServiceImpl;
+import com.smotana.clearflask.web.util.ResponseCacheImpl;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
 import io.dataspray.singletable.SingleTable;
 import io.jsonwebtoken.security.Keys;
@@ -204,6 +211,7 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
         bindMock(com.smotana.clearflask.store.JiraStore.class);
         bindMock(com.smotana.clearflask.store.SlackStore.class);
         bindMock(com.smotana.clearflask.store.GitLabStore.class);
+        bindMock(com.smotana.clearflask.store.impl.IntegrationBackfiller.class);
 
         install(Modules.override(
                 MockExtendedSecurityContext.module(),
@@ -230,6 +238,8 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 LangChainLlmToolingStore.module(),
                 MustacheProvider.module(),
                 GitHubResource.module(),
+                WebhookEventDedupStore.module(),
+                WebhookIngestionService.module(),
                 GitHubStoreImpl.module(),
                 MarkdownAndQuillUtil.module(),
                 GitHubClientProviderImpl.module(),
@@ -241,6 +251,8 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 NotificationServiceImpl.module(),
                 EmailTemplates.module(),
                 OnCreditChange.module(),
+                LiveUpdateServiceImpl.module(),
+                ResponseCacheImpl.module(),
                 WebhookServiceImpl.module(),
                 OnCommentReply.module(),
                 OnStatusOrResponseChange.module(),
@@ -278,6 +290,9 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 DynamoCouponStore.module(),
                 ProjectUpgraderImpl.module(),
                 DynamoElasticUserStore.module(),
+                DynamoCounterStore.module(),
+                DynamoHistogramRollupStore.module(),
+                SearchEngineRouter.module(),
                 DynamoTokenVerifyStore.module(),
                 DynamoVoteStore.module(),
                 DynamoCertStore.module(),
@@ -0,0 +1,171 @@
+// SPDX-FileCopyrightText: 2019-2022 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: Apache-2.0
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.api.model.IdeaVisibility;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.ProjectStore.Project;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.web.util.LiveUpdateService.IdeaLiveUpdate;
+import com.smotana.clearflask.web.util.LiveUpdateService.LiveUpdate;
+import lombok.extern.slf4j.Slf4j;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+public class LiveUpdateServiceImplTest extends AbstractTest {
+
+    private static final int MAX_QUEUED_EVENTS = 4;
+
+    @Inject
+    private LiveUpdateService service;
+    @Inject
+    private Gson gson;
+    @Inject
+    private ProjectStore projectStore;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(ProjectStore.class);
+
+        install(LiveUpdateServiceImpl.module());
+        install(ConfigSystem.overrideModule(LiveUpdateServiceImpl.Config.class, om -> {
+            // Flushed manually
+            om.override(om.id().flushFrequency()).withValue(Duration.ofHours(1));
+            om.override(om.id().heartbeatFrequency()).withValue(Duration.ofHours(1));
+            om.override(om.id().maxQueuedEventsPerConnection()).withValue(MAX_QUEUED_EVENTS);
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCoalesce() throws Exception {
+        String projectId = IdUtil.randomId();
+        BlockingQueue<OutboundSseEvent> sent = new LinkedBlockingQueue<>();
+        SseEventSink eventSink = mockEventSink(sent, false);
+        service.subscribe(projectId, mockSse(), eventSink);
+        OutboundSseEvent connectedEvent = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(connectedEvent);
+        assertEquals("connected", connectedEvent.getComment());
+
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).voteValue(1L).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).voteValue(1L).build();
+        IdeaModel ideaPrivate = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).visibility(IdeaVisibility.PRIVATE).build();
+        service.ideaChanged(idea1);
+        service.ideaChanged(idea2);
+        service.ideaChanged(idea1.toBuilder().voteValue(2L).build());
+        service.ideaChanged(idea1.toBuilder().voteValue(3L).build());
+        service.ideaChanged(ideaPrivate);
+        service.ideaChanged(MockModelUtil.getRandomIdea());
+        ((LiveUpdateServiceImpl) service).flush();
+
+        OutboundSseEvent updateEvent = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(updateEvent);
+        assertEquals("update", updateEvent.getName());
+        List<IdeaLiveUpdate> ideas = gson.fromJson((String) updateEvent.getData(), LiveUpdate.class).getIdeas().stream()
+                .sorted(Comparator.comparing(IdeaLiveUpdate::getVoteValue))
+                .collect(Collectors.toList());
+        assertEquals(2, ideas.size());
+        assertEquals(idea2.getIdeaId(), ideas.get(0).getIdeaId());
+        assertEquals(idea1.getIdeaId(), ideas.get(1).getIdeaId());
+        assertEquals(Long.valueOf(3L), ideas.get(1).getVoteValue());
+
+        // Nothing changed since
+        ((LiveUpdateServiceImpl) service).flush();
+        service.ideaDeleted(projectId, idea2.getIdeaId());
+        ((LiveUpdateServiceImpl) service).flush();
+        OutboundSseEvent deleteEvent = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(deleteEvent);
+        IdeaLiveUpdate deleted = gson.fromJson((String) deleteEvent.getData(), LiveUpdate.class).getIdeas().get(0);
+        assertEquals(idea2.getIdeaId(), deleted.getIdeaId());
+        assertEquals(Boolean.TRUE, deleted.getDeleted());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testHiddenStatusFiltered() throws Exception {
+        String projectId = IdUtil.randomId();
+        Project project = Mockito.mock(Project.class);
+        when(project.getHiddenStatusIds()).thenReturn(ImmutableSet.of("hiddenStatus"));
+        when(projectStore.getProject(projectId, true)).thenReturn(Optional.of(project));
+        BlockingQueue<OutboundSseEvent> sent = new LinkedBlockingQueue<>();
+        service.subscribe(projectId, mockSse(), mockEventSink(sent, false));
+        assertNotNull(sent.poll(5, TimeUnit.SECONDS));
+
+        IdeaModel ideaHidden = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).statusId("hiddenStatus").build();
+        IdeaModel ideaShown = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).statusId("shownStatus").build();
+        service.ideaChanged(ideaHidden);
+        service.ideaChanged(ideaShown);
+        ((LiveUpdateServiceImpl) service).flush();
+
+        OutboundSseEvent updateEvent = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(updateEvent);
+        List<IdeaLiveUpdate> ideas = gson.fromJson((String) updateEvent.getData(), LiveUpdate.class).getIdeas();
+        assertEquals(1, ideas.size());
+        assertEquals(ideaShown.getIdeaId(), ideas.get(0).getIdeaId());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSlowConsumerDisconnected() throws Exception {
+        String projectId = IdUtil.randomId();
+        SseEventSink slowEventSink = mockEventSink(new LinkedBlockingQueue<>(), true);
+        SseEventSink fastEventSink = mockEventSink(new LinkedBlockingQueue<>(), false);
+        int connectionCountBefore = ((LiveUpdateServiceImpl) service).getConnectionCount();
+        service.subscribe(projectId, mockSse(), slowEventSink);
+        service.subscribe(projectId, mockSse(), fastEventSink);
+        assertEquals(connectionCountBefore + 2, ((LiveUpdateServiceImpl) service).getConnectionCount());
+
+        // First event is stuck sending, the rest fill up the queue
+        for (int i = 0; i <= MAX_QUEUED_EVENTS; i++) {
+            service.ideaChanged(MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build());
+            ((LiveUpdateServiceImpl) service).flush();
+        }
+
+        Mockito.verify(slowEventSink, Mockito.timeout(5_000L)).close();
+        assertEquals(connectionCountBefore + 1, ((LiveUpdateServiceImpl) service).getConnectionCount());
+        Mockito.verify(fastEventSink, Mockito.never()).close();
+    }
+
+    private Sse mockSse() {
+        Sse sse = Mockito.mock(Sse.class);
+        when(sse.newEventBuilder()).thenAnswer(invocation -> new OutboundEvent.Builder());
+        return sse;
+    }
+
+    private SseEventSink mockEventSink(BlockingQueue<OutboundSseEvent> sent, boolean stuck) {
+        SseEventSink eventSink = Mockito.mock(SseEventSink.class);
+        when(eventSink.send(any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            return stuck ? new CompletableFuture<>() : CompletableFuture.completedFuture(null);
+        });
+        return eventSink;
+    }
+}